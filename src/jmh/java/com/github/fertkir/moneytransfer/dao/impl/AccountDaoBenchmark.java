@@ -0,0 +1,176 @@
+package com.github.fertkir.moneytransfer.dao.impl;
+
+import com.github.fertkir.moneytransfer.ApplicationMain;
+import com.github.fertkir.moneytransfer.entity.Account;
+import com.github.fertkir.moneytransfer.persistence.TransactionTemplate;
+import com.google.inject.Injector;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Every method of {@link AccountDaoImpl} on a table of {@value #ACCOUNTS} accounts, each called in a transaction
+ * of its own: see {@code TransactionTemplateBenchmark} for what the transaction itself costs.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class AccountDaoBenchmark {
+
+    private static final int ACCOUNTS = 1000;
+    private static final int PAGE_SIZE = 100;
+    private static final int CHUNK_SIZE = 1000;
+    private static final long INITIAL_BALANCE = 1_000_000_000L;
+
+    private final Random random = new Random(1);
+    private AccountDaoImpl accountDao;
+    private TransactionTemplate transactionTemplate;
+    private long firstId;
+    private Account versioned;
+
+    @Setup
+    public void setUp() {
+        Injector injector = ApplicationMain.getInjector();
+        accountDao = injector.getInstance(AccountDaoImpl.class);
+        transactionTemplate = injector.getInstance(TransactionTemplate.class);
+        transactionTemplate.execute(() -> {
+            for (int i = 0; i < ACCOUNTS; i++) {
+                Account account = accountDao.save(Account.builder().balance(INITIAL_BALANCE).build());
+                if (i == 0) {
+                    firstId = account.getId();
+                }
+            }
+            return null;
+        });
+        versioned = transactionTemplate.execute(() -> accountDao.getById(firstId))
+                .orElseThrow(IllegalStateException::new);
+    }
+
+    @Benchmark
+    public List<Account> findAll() {
+        return transactionTemplate.execute(accountDao::findAll);
+    }
+
+    @Benchmark
+    public List<Account> findPage() {
+        long afterId = randomId() - 1;
+        return transactionTemplate.execute(() -> accountDao.findPage(afterId, PAGE_SIZE));
+    }
+
+    @Benchmark
+    public void forEach(Blackhole blackhole) {
+        transactionTemplate.execute(() -> {
+            accountDao.forEach(blackhole::consume);
+            return null;
+        });
+    }
+
+    @Benchmark
+    public Optional<Account> getById() {
+        long id = randomId();
+        return transactionTemplate.execute(() -> accountDao.getById(id));
+    }
+
+    @Benchmark
+    public Optional<Account> getByIdForUpdate() {
+        long id = randomId();
+        return transactionTemplate.execute(() -> accountDao.getByIdForUpdate(id));
+    }
+
+    /**
+     * Inserts a new row every time, so the table grows during the run.
+     */
+    @Benchmark
+    public Account saveNew() {
+        return transactionTemplate.execute(() -> accountDao.save(Account.builder().balance(0L).build()));
+    }
+
+    /**
+     * Inserts {@value #CHUNK_SIZE} new rows at a time, like a chunk of {@code POST /accounts/bulk}, and reports
+     * the time per row.
+     */
+    @Benchmark
+    @OperationsPerInvocation(CHUNK_SIZE)
+    public List<Account> createAll() {
+        return transactionTemplate.execute(() -> accountDao.createAll(CHUNK_SIZE));
+    }
+
+    @Benchmark
+    public Account saveWithoutVersion() {
+        Account account = Account.builder().id(randomId()).balance(INITIAL_BALANCE).build();
+        return transactionTemplate.execute(() -> accountDao.save(account));
+    }
+
+    /**
+     * Saves the same account over and over, each time with the version the previous save returned.
+     */
+    @Benchmark
+    public Account saveWithVersion() {
+        Account account = versioned;
+        versioned = transactionTemplate.execute(() -> accountDao.save(account));
+        return versioned;
+    }
+
+    @Benchmark
+    public Optional<Account> credit() {
+        long id = randomId();
+        return transactionTemplate.execute(() -> accountDao.credit(id, 1L));
+    }
+
+    @Benchmark
+    public Optional<Account> debitIfSufficient() {
+        long id = randomId();
+        return transactionTemplate.execute(() -> accountDao.debitIfSufficient(id, 1L));
+    }
+
+    @Benchmark
+    public List<Account> lockAll() {
+        List<Long> ids = Arrays.asList(randomId(), randomId());
+        return transactionTemplate.execute(() -> accountDao.lockAll(ids));
+    }
+
+    @Benchmark
+    public void applyDeltas() {
+        Map<Long, Long> deltas = new LinkedHashMap<>();
+        deltas.put(randomId(), 1L);
+        deltas.put(randomId(), -1L);
+        transactionTemplate.execute(() -> {
+            accountDao.applyDeltas(deltas);
+            return null;
+        });
+    }
+
+    @Benchmark
+    public void restoreAll() {
+        Account account = Account.builder().id(randomId()).balance(INITIAL_BALANCE).version(0L).build();
+        transactionTemplate.execute(() -> {
+            accountDao.restoreAll(Collections.singletonList(account));
+            return null;
+        });
+    }
+
+    private long randomId() {
+        return firstId + random.nextInt(ACCOUNTS);
+    }
+}
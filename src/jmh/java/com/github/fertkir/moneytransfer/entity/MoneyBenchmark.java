@@ -0,0 +1,63 @@
+package com.github.fertkir.moneytransfer.entity;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.math.BigDecimal;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * What a top up does with the amount outside of the database: parses it from the request, adds it to the balance
+ * and writes the account to JSON. Once with {@link BigDecimal} balances, which accounts used to have,
+ * and once with {@code long} minor units.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class MoneyBenchmark {
+
+    private static final BigDecimal DECIMAL_BALANCE = new BigDecimal("1234.56");
+    private static final long BALANCE = 123456;
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+
+    @Param({"12", "12.34"})
+    private String amount;
+
+    @Benchmark
+    public String bigDecimal() throws JsonProcessingException {
+        BigDecimal balance = DECIMAL_BALANCE.add(new BigDecimal(amount));
+        return objectMapper.writeValueAsString(new DecimalAccount(1L, balance, 7L));
+    }
+
+    @Benchmark
+    public String minorUnits() throws JsonProcessingException {
+        long balance = Math.addExact(BALANCE, Money.parse(amount));
+        return objectMapper.writeValueAsString(Account.builder().id(1L).balance(balance).version(7L).build());
+    }
+
+    public static class DecimalAccount {
+        public final Long id;
+        public final BigDecimal balance;
+        public final Long version;
+
+        DecimalAccount(Long id, BigDecimal balance, Long version) {
+            this.id = id;
+            this.balance = balance;
+            this.version = version;
+        }
+    }
+}
@@ -0,0 +1,50 @@
+package com.github.fertkir.moneytransfer.entity;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.github.fertkir.moneytransfer.servlet.JsonResponseWriter;
+import com.github.fertkir.moneytransfer.servlet.RequestStatistics;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Writing responses to JSON the way the servlets do it.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SerializationBenchmark {
+
+    private final JsonResponseWriter responseWriter =
+            new JsonResponseWriter(new ObjectMapper(), new RequestStatistics());
+    private final Account account = Account.builder()
+            .id(1L)
+            .balance(123456)
+            .version(7L)
+            .build();
+    private final TransferResult transferResult = TransferResult.builder()
+            .source(account)
+            .target(Account.builder().id(2L).balance(10000).version(3L).build())
+            .build();
+
+    @Benchmark
+    public byte[] account() {
+        return responseWriter.account(account);
+    }
+
+    @Benchmark
+    public byte[] transferResult() {
+        return responseWriter.transferResult(transferResult);
+    }
+}
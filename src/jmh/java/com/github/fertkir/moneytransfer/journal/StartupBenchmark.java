@@ -0,0 +1,244 @@
+package com.github.fertkir.moneytransfer.journal;
+
+import com.github.fertkir.moneytransfer.config.ApplicationProperties;
+import com.github.fertkir.moneytransfer.config.ConfigModule;
+import com.github.fertkir.moneytransfer.dao.AccountDao;
+import com.github.fertkir.moneytransfer.dao.DaoModule;
+import com.github.fertkir.moneytransfer.dao.impl.AccountDaoImpl;
+import com.github.fertkir.moneytransfer.dao.impl.JournalingAccountDao;
+import com.github.fertkir.moneytransfer.entity.Account;
+import com.github.fertkir.moneytransfer.persistence.JdbcTemplate;
+import com.github.fertkir.moneytransfer.persistence.TransactionTemplate;
+import com.google.inject.Guice;
+import com.google.inject.Injector;
+import com.zaxxer.hikari.HikariDataSource;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import javax.sql.DataSource;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Optional;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.LongStream;
+import java.util.stream.Stream;
+
+import static com.github.fertkir.moneytransfer.persistence.StatementBinder.NO_PARAMETERS;
+
+/**
+ * Time from start-up to serving the first request with {@code accounts} accounts: restoring them into the in-memory
+ * database from a journal snapshot and the segments written after it, or opening the file database which already
+ * has them, with or without restoring the journal segments into it.
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 1)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgsAppend = "-Xmx6g")
+public class StartupBenchmark {
+
+    private static final int TAIL_STATES = 100_000;
+    private static final int CHUNK_SIZE = 10_000;
+
+    @State(Scope.Benchmark)
+    public static class Accounts {
+
+        @Param({"10000000"})
+        public int accounts;
+
+        Path directory;
+
+        @Setup(Level.Trial)
+        public void setUp() throws IOException {
+            directory = Files.createTempDirectory("startup-benchmark");
+        }
+
+        @TearDown(Level.Trial)
+        public void tearDown() throws IOException {
+            try (Stream<Path> files = Files.walk(directory)) {
+                for (Path file : files.sorted(Comparator.reverseOrder()).collect(Collectors.toList())) {
+                    Files.delete(file);
+                }
+            }
+        }
+
+        /**
+         * Writes a snapshot of all the accounts and a tail which changes every accounts / TAIL_STATES-th account
+         * once more.
+         */
+        Path writeJournal(String name) throws IOException {
+            Path journalDirectory = Files.createDirectories(directory.resolve(name));
+            JournalSnapshot.write(journalDirectory, 0, LongStream.rangeClosed(1, accounts)
+                    .mapToObj(id -> Account.builder().id(id).version(0L).balance(100L).build())
+                    .iterator());
+            try (Journal tail = openJournal(journalDirectory)) {
+                List<Account> entry = new ArrayList<>();
+                for (long id = 1; id <= accounts; id += tailStep()) {
+                    entry.add(Account.builder().id(id).version(1L).balance(50L).build());
+                    if (entry.size() == 256) {
+                        tail.append(entry).join();
+                        entry = new ArrayList<>();
+                    }
+                }
+                if (!entry.isEmpty()) {
+                    tail.append(entry).join();
+                }
+            }
+            return journalDirectory;
+        }
+
+        long tailStep() {
+            return Math.max(1, accounts / TAIL_STATES);
+        }
+
+        Properties properties(String storage) {
+            Properties properties = ApplicationProperties.load();
+            properties.setProperty(DaoModule.STORAGE, storage);
+            properties.setProperty("persistence.file.path", directory.resolve("db").toString());
+            return properties;
+        }
+    }
+
+    @State(Scope.Benchmark)
+    public static class JournalState {
+        private Path journalDirectory;
+        private List<Path> segments;
+        private TransactionTemplate transactionTemplate;
+        private AccountDaoImpl accountDao;
+        private JdbcTemplate jdbcTemplate;
+        private Journal journal;
+
+        @Setup(Level.Trial)
+        public void setUp(Accounts accounts) throws IOException {
+            journalDirectory = accounts.writeJournal("journal");
+            segments = segments();
+            Injector injector = Guice.createInjector(new ConfigModule(accounts.properties(DaoModule.STORAGE_MEMORY)),
+                    new DaoModule(accounts.properties(DaoModule.STORAGE_MEMORY)));
+            transactionTemplate = injector.getInstance(TransactionTemplate.class);
+            accountDao = injector.getInstance(AccountDaoImpl.class);
+            jdbcTemplate = injector.getInstance(JdbcTemplate.class);
+        }
+
+        @TearDown(Level.Invocation)
+        public void tearDown() throws IOException {
+            journal.close();
+            deleteSegmentsExcept(journalDirectory, segments);
+            transactionTemplate.execute(() -> jdbcTemplate.update("TRUNCATE TABLE account", NO_PARAMETERS));
+        }
+
+        private Journal openJournal() {
+            return StartupBenchmark.openJournal(journalDirectory);
+        }
+
+        private List<Path> segments() throws IOException {
+            return StartupBenchmark.segments(journalDirectory);
+        }
+    }
+
+    @State(Scope.Benchmark)
+    public static class FileState {
+
+        /**
+         * With the journal, only the states of its tail which the file database doesn't have are restored into it.
+         */
+        @Param({"false", "true"})
+        public boolean journal;
+
+        private Properties properties;
+        private Path journalDirectory;
+        private List<Path> segments;
+        private Injector injector;
+
+        @Setup(Level.Trial)
+        public void setUp(Accounts accounts) throws IOException {
+            properties = accounts.properties(DaoModule.STORAGE_FILE);
+            Injector injector = Guice.createInjector(new ConfigModule(properties), new DaoModule(properties));
+            TransactionTemplate transactionTemplate = injector.getInstance(TransactionTemplate.class);
+            JdbcTemplate jdbcTemplate = injector.getInstance(JdbcTemplate.class);
+            String query = "INSERT INTO account (id, balance, version) SELECT x, 100, 0 FROM SYSTEM_RANGE(?, ?)";
+            for (long from = 1; from <= accounts.accounts; from += CHUNK_SIZE) {
+                long start = from;
+                long end = Math.min(from + CHUNK_SIZE - 1, accounts.accounts);
+                transactionTemplate.execute(() -> jdbcTemplate.update(query, statement -> {
+                    statement.setLong(1, start);
+                    statement.setLong(2, end);
+                }));
+            }
+            if (journal) {
+                // the database has the tail too, as after a restart which lost no commits
+                transactionTemplate.execute(() -> jdbcTemplate.update("UPDATE account SET balance = 50, version = 1 " +
+                        "WHERE MOD(id - 1, ?) = 0", statement -> statement.setLong(1, accounts.tailStep())));
+            }
+            ((HikariDataSource) injector.getInstance(DataSource.class)).close();
+            if (journal) {
+                journalDirectory = accounts.writeJournal("file-journal");
+                segments = segments(journalDirectory);
+                properties.setProperty(DaoModule.JOURNAL_ENABLED, "true");
+                properties.setProperty("journal.directory", journalDirectory.toString());
+            }
+        }
+
+        @TearDown(Level.Invocation)
+        public void tearDown() throws IOException {
+            if (journal) {
+                injector.getInstance(Journal.class).close();
+                deleteSegmentsExcept(journalDirectory, segments);
+            }
+            ((HikariDataSource) injector.getInstance(DataSource.class)).close();
+        }
+    }
+
+    @Benchmark
+    public AccountDao restoreFromJournalSnapshot(JournalState state) {
+        state.journal = state.openJournal();
+        return new JournalingAccountDao(state.accountDao, state.transactionTemplate, state.journal, state.jdbcTemplate,
+                DaoModule.STORAGE_MEMORY);
+    }
+
+    @Benchmark
+    public Optional<Account> openFileDatabase(Accounts accounts, FileState state) {
+        state.injector = Guice.createInjector(new ConfigModule(state.properties), new DaoModule(state.properties));
+        AccountDao accountDao = state.injector.getInstance(AccountDao.class);
+        return state.injector.getInstance(TransactionTemplate.class).execute(() ->
+                accountDao.getById(accounts.accounts));
+    }
+
+    private static Journal openJournal(Path directory) {
+        return new Journal(directory.toString(), 1 << 24, 256, Integer.MAX_VALUE, new JournalStatistics());
+    }
+
+    private static List<Path> segments(Path journalDirectory) throws IOException {
+        try (Stream<Path> files = Files.list(journalDirectory)) {
+            return files.filter(path -> path.getFileName().toString().endsWith(JournalSegment.SUFFIX))
+                    .collect(Collectors.toList());
+        }
+    }
+
+    /**
+     * Every start creates a segment to write to, which the next one would have to read.
+     */
+    private static void deleteSegmentsExcept(Path journalDirectory, List<Path> kept) throws IOException {
+        for (Path segment : segments(journalDirectory)) {
+            if (!kept.contains(segment)) {
+                Files.delete(segment);
+            }
+        }
+    }
+}
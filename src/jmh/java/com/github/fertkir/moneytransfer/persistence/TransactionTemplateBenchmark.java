@@ -0,0 +1,40 @@
+package com.github.fertkir.moneytransfer.persistence;
+
+import com.github.fertkir.moneytransfer.ApplicationMain;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of a transaction which runs no statements: taking a connection from the pool, committing and giving
+ * it back, with everything {@link TransactionTemplate} records along the way.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class TransactionTemplateBenchmark {
+
+    private TransactionTemplate transactionTemplate;
+
+    @Setup
+    public void setUp() {
+        transactionTemplate = ApplicationMain.getInjector().getInstance(TransactionTemplate.class);
+    }
+
+    @Benchmark
+    public Object emptyTransaction() {
+        return transactionTemplate.execute(() -> null);
+    }
+}
@@ -0,0 +1,115 @@
+package com.github.fertkir.moneytransfer.reconciliation;
+
+import com.github.fertkir.moneytransfer.config.ApplicationProperties;
+import com.github.fertkir.moneytransfer.config.ConfigModule;
+import com.github.fertkir.moneytransfer.dao.AccountDao;
+import com.github.fertkir.moneytransfer.dao.DaoModule;
+import com.github.fertkir.moneytransfer.dao.LedgerDao;
+import com.github.fertkir.moneytransfer.dao.ReconciliationDao;
+import com.github.fertkir.moneytransfer.entity.LedgerEntry;
+import com.github.fertkir.moneytransfer.entity.ReconciliationReport;
+import com.github.fertkir.moneytransfer.persistence.JdbcTemplate;
+import com.github.fertkir.moneytransfer.persistence.TransactionTemplate;
+import com.google.inject.Guice;
+import com.google.inject.Injector;
+import com.zaxxer.hikari.HikariDataSource;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import javax.sql.DataSource;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Time to reconcile {@code accounts} accounts, every one of which has been topped up once and has taken part
+ * in one transfer.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 1)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+public class ReconciliationBenchmark {
+
+    private static final long CHUNK_SIZE = 10_000;
+
+    @Param({"1000000"})
+    public int accounts;
+
+    @Param({"1", "2", "4"})
+    public int parallelism;
+
+    private Injector injector;
+    private Reconciliation reconciliation;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        Properties properties = ApplicationProperties.load();
+        injector = Guice.createInjector(new ConfigModule(properties), new DaoModule(properties));
+        TransactionTemplate transactionTemplate = injector.getInstance(TransactionTemplate.class);
+        JdbcTemplate jdbcTemplate = injector.getInstance(JdbcTemplate.class);
+        LedgerDao ledgerDao = injector.getInstance(LedgerDao.class);
+        // odd accounts transfer 10 to the next even ones
+        String accountQuery = "INSERT INTO account (id, balance, version) " +
+                "SELECT x, CASE WHEN MOD(x, 2) = 1 THEN 90 ELSE 110 END, 2 FROM SYSTEM_RANGE(?, ?)";
+        for (long from = 1; from <= accounts; from += CHUNK_SIZE) {
+            long start = from;
+            long end = Math.min(from + CHUNK_SIZE - 1, accounts);
+            List<LedgerEntry> entries = new ArrayList<>();
+            for (long id = start; id <= end; id++) {
+                entries.add(entry(id, LedgerEntry.Type.TOP_UP, 100, 100, null));
+                boolean odd = id % 2 == 1;
+                entries.add(entry(id, LedgerEntry.Type.TRANSFER, odd ? -10 : 10, odd ? 90 : 110,
+                        odd ? id + 1 : id - 1));
+            }
+            transactionTemplate.execute(() -> {
+                ledgerDao.insertAll(entries);
+                return jdbcTemplate.update(accountQuery, statement -> {
+                    statement.setLong(1, start);
+                    statement.setLong(2, end);
+                });
+            });
+        }
+        reconciliation = new Reconciliation(transactionTemplate, injector.getInstance(ReconciliationDao.class),
+                injector.getInstance(AccountDao.class), ledgerDao, parallelism, 100_000, 100, 0);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        ((HikariDataSource) injector.getInstance(DataSource.class)).close();
+    }
+
+    @Benchmark
+    public ReconciliationReport reconcile() throws InterruptedException {
+        ReconciliationReport report = reconciliation.run();
+        if (!report.isConsistent()) {
+            throw new IllegalStateException(report.getDiscrepancies().toString());
+        }
+        return report;
+    }
+
+    private static LedgerEntry entry(long accountId, LedgerEntry.Type type, long amount, long balance,
+                                     Long counterpartyId) {
+        return LedgerEntry.builder()
+                .accountId(accountId)
+                .type(type)
+                .amount(amount)
+                .balance(balance)
+                .counterpartyId(counterpartyId)
+                .build();
+    }
+}
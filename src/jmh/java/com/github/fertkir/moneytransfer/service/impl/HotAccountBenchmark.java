@@ -0,0 +1,80 @@
+package com.github.fertkir.moneytransfer.service.impl;
+
+import com.github.fertkir.moneytransfer.ApplicationMain;
+import com.github.fertkir.moneytransfer.dao.LedgerDao;
+import com.github.fertkir.moneytransfer.dao.impl.AccountDaoImpl;
+import com.github.fertkir.moneytransfer.dao.impl.AccountIdGenerator;
+import com.github.fertkir.moneytransfer.dao.impl.AccountStripes;
+import com.github.fertkir.moneytransfer.entity.Account;
+import com.github.fertkir.moneytransfer.persistence.JdbcTemplate;
+import com.github.fertkir.moneytransfer.persistence.TransactionTemplate;
+import com.github.fertkir.moneytransfer.readmodel.AccountChangeStream;
+import com.github.fertkir.moneytransfer.service.AccountService;
+import com.google.inject.Injector;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Top-ups of one account by many threads at once, like payments to a merchant. With a single stripe all of them
+ * wait for the lock of one row, with more stripes they credit rows of their own. Coalesced, concurrent top-ups
+ * share a transaction writing the row once.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class HotAccountBenchmark {
+
+    @Param({"1", "16"})
+    public int stripes;
+
+    @Param({"false", "true"})
+    public boolean coalescing;
+
+    private AccountService accountService;
+    private long accountId;
+
+    @Setup
+    public void setUp() {
+        Injector injector = ApplicationMain.getInjector();
+        TransactionTemplate transactionTemplate = injector.getInstance(TransactionTemplate.class);
+        JdbcTemplate jdbcTemplate = injector.getInstance(JdbcTemplate.class);
+        AccountDaoImpl accountDao = injector.getInstance(AccountDaoImpl.class);
+        accountId = transactionTemplate.execute(() -> accountDao.save(Account.builder().balance(0L).build())).getId();
+        AccountDaoImpl stripedDao = new AccountDaoImpl(jdbcTemplate, 1000,
+                new AccountStripes(String.valueOf(accountId), stripes), injector.getInstance(AccountIdGenerator.class));
+        LedgerDao ledgerDao = injector.getInstance(LedgerDao.class);
+        AccountChangeStream changes = injector.getInstance(AccountChangeStream.class);
+        accountService = new AccountServiceImpl(stripedDao, ledgerDao, transactionTemplate, changes);
+        if (coalescing) {
+            accountService = new CoalescingAccountService(accountService, stripedDao, ledgerDao, transactionTemplate,
+                    changes, 200, 64);
+        }
+    }
+
+    @Benchmark
+    @Threads(1)
+    public Account topUp1Thread() {
+        return accountService.topUp(accountId, 1L);
+    }
+
+    @Benchmark
+    @Threads(16)
+    public Account topUp16Threads() {
+        return accountService.topUp(accountId, 1L);
+    }
+}
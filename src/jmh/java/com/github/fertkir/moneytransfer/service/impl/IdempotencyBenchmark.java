@@ -0,0 +1,74 @@
+package com.github.fertkir.moneytransfer.service.impl;
+
+import com.github.fertkir.moneytransfer.ApplicationMain;
+import com.github.fertkir.moneytransfer.service.AccountService;
+import com.github.fertkir.moneytransfer.service.IdempotencyService;
+import com.google.inject.Injector;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Transfers with and without an idempotency key, the difference being what the key costs a request seen
+ * for the first time, and repeats of a request answered from memory.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class IdempotencyBenchmark {
+
+    private static final long INITIAL_BALANCE = 1_000_000_000L;
+    private static final String REPEATED_KEY = "repeated";
+
+    private AccountService accountService;
+    private IdempotencyService idempotencyService;
+    private long source;
+    private long target;
+    private long keys;
+
+    @Setup
+    public void setUp() {
+        Injector injector = ApplicationMain.getInjector();
+        accountService = injector.getInstance(AccountService.class);
+        idempotencyService = injector.getInstance(IdempotencyService.class);
+        source = accountService.createNew().getId();
+        target = accountService.createNew().getId();
+        accountService.topUp(source, INITIAL_BALANCE);
+        idempotencyService.execute(REPEATED_KEY, request(), this::transfer);
+    }
+
+    @Benchmark
+    public String transferWithoutKey() {
+        return transfer();
+    }
+
+    @Benchmark
+    public String transferWithNewKey() {
+        return idempotencyService.execute(Long.toString(keys++), request(), this::transfer);
+    }
+
+    @Benchmark
+    public String repeatedTransfer() {
+        return idempotencyService.execute(REPEATED_KEY, request(), this::transfer);
+    }
+
+    private String request() {
+        return "PUT /accounts/transfer?from=" + source + "&to=" + target + "&amount=1";
+    }
+
+    private String transfer() {
+        return accountService.transfer(source, target, 1L).toString();
+    }
+}
@@ -0,0 +1,75 @@
+package com.github.fertkir.moneytransfer.service.impl;
+
+import com.github.fertkir.moneytransfer.ApplicationMain;
+import com.github.fertkir.moneytransfer.dao.AccountDao;
+import com.github.fertkir.moneytransfer.dao.LedgerDao;
+import com.github.fertkir.moneytransfer.entity.TransferResult;
+import com.github.fertkir.moneytransfer.persistence.TransactionTemplate;
+import com.github.fertkir.moneytransfer.readmodel.AccountChangeStream;
+import com.github.fertkir.moneytransfer.service.AccountService;
+import com.google.inject.Injector;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * What writing the ledger entries adds to a transfer: the time of a transfer between uniformly picked accounts
+ * with and without the entries, on a single thread, so that lock contention doesn't hide it. Run it alone with
+ * {@code ./gradlew jmh -Pjmh.include=LedgerBenchmark}; throughput of {@link TransferBenchmark} is too noisy
+ * to tell the two apart reliably.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 20, time = 2)
+@Measurement(iterations = 10, time = 2)
+@Fork(3)
+public class LedgerBenchmark {
+
+    private static final int ACCOUNTS = 1000;
+    private static final long INITIAL_BALANCE = 1_000_000_000L;
+
+    @Param({"true", "false"})
+    public boolean ledger;
+
+    private AccountService accountService;
+    private long[] accountIds;
+    // seeded, so that runs are repeatable
+    private final Random random = new Random(1);
+
+    @Setup
+    public void setUp() {
+        Injector injector = ApplicationMain.getInjector();
+        accountService = new AccountServiceImpl(
+                injector.getInstance(AccountDao.class),
+                ledger ? injector.getInstance(LedgerDao.class) : new TransferBenchmark.NoLedgerDao(),
+                injector.getInstance(TransactionTemplate.class),
+                injector.getInstance(AccountChangeStream.class));
+        accountIds = new long[ACCOUNTS];
+        for (int i = 0; i < ACCOUNTS; i++) {
+            accountIds[i] = accountService.createNew().getId();
+            accountService.topUp(accountIds[i], INITIAL_BALANCE);
+        }
+    }
+
+    @Benchmark
+    public TransferResult transfer() {
+        long from = accountIds[random.nextInt(ACCOUNTS)];
+        long to = accountIds[random.nextInt(ACCOUNTS)];
+        while (to == from) {
+            to = accountIds[random.nextInt(ACCOUNTS)];
+        }
+        return accountService.transfer(from, to, 1L);
+    }
+}
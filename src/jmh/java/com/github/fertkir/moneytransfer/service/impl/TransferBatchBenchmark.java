@@ -0,0 +1,78 @@
+package com.github.fertkir.moneytransfer.service.impl;
+
+import com.github.fertkir.moneytransfer.ApplicationMain;
+import com.github.fertkir.moneytransfer.entity.BatchTransferResult;
+import com.github.fertkir.moneytransfer.entity.TransferRequest;
+import com.github.fertkir.moneytransfer.service.AccountService;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The same {@code batchSize} transfers between random accounts, sent as one atomic batch or one by one, each
+ * in a transaction of its own. The ratio of the two times is what batching saves per transfer. Runs are
+ * noisy, hence more iterations and forks than the other benchmarks.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 10, time = 2)
+@Measurement(iterations = 10, time = 2)
+@Fork(2)
+public class TransferBatchBenchmark {
+
+    private static final int ACCOUNTS = 1000;
+    private static final long INITIAL_BALANCE = 1_000_000_000L;
+
+    @Param({"1000"})
+    public int batchSize;
+
+    private AccountService accountService;
+    private List<TransferRequest> transfers;
+
+    @Setup
+    public void setUp() {
+        accountService = ApplicationMain.getInjector().getInstance(AccountService.class);
+        long[] accountIds = new long[ACCOUNTS];
+        for (int i = 0; i < ACCOUNTS; i++) {
+            accountIds[i] = accountService.createNew().getId();
+            accountService.topUp(accountIds[i], INITIAL_BALANCE);
+        }
+        // seeded, so that runs are repeatable
+        Random random = new Random(1);
+        transfers = new ArrayList<>(batchSize);
+        while (transfers.size() < batchSize) {
+            long from = accountIds[random.nextInt(ACCOUNTS)];
+            long to = accountIds[random.nextInt(ACCOUNTS)];
+            if (from != to) {
+                transfers.add(new TransferRequest(from, to, 1L));
+            }
+        }
+    }
+
+    @Benchmark
+    public BatchTransferResult batch() {
+        return accountService.transferBatch(transfers, true);
+    }
+
+    @Benchmark
+    public void oneByOne(Blackhole blackhole) {
+        for (TransferRequest transfer : transfers) {
+            blackhole.consume(accountService.transfer(transfer.getFrom(), transfer.getTo(), transfer.getAmount()));
+        }
+    }
+}
@@ -0,0 +1,166 @@
+package com.github.fertkir.moneytransfer.service.impl;
+
+import com.github.fertkir.moneytransfer.ApplicationMain;
+import com.github.fertkir.moneytransfer.dao.AccountDao;
+import com.github.fertkir.moneytransfer.dao.LedgerDao;
+import com.github.fertkir.moneytransfer.entity.LedgerEntry;
+import com.github.fertkir.moneytransfer.entity.TransferResult;
+import com.github.fertkir.moneytransfer.persistence.TransactionTemplate;
+import com.github.fertkir.moneytransfer.readmodel.AccountChangeStream;
+import com.github.fertkir.moneytransfer.service.AccountService;
+import com.google.inject.Injector;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Transfers between accounts of the in-memory H2 database. Accounts are picked either uniformly or by Zipf's law,
+ * so that a few of them take part in most of the transfers. Without the ledger the transfers skip writing their
+ * entries, which shows what the ledger costs.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class TransferBenchmark {
+
+    private static final int ACCOUNTS = 1000;
+    private static final double ZIPF_EXPONENT = 0.99;
+    private static final long INITIAL_BALANCE = 1_000_000_000L;
+
+    @Param({"uniform", "zipfian"})
+    public String distribution;
+
+    @Param({"true", "false"})
+    public boolean ledger;
+
+    private AccountService accountService;
+    private long[] accountIds;
+    /**
+     * Probabilities of picking accounts up to each of them, so the first accounts are the hottest ones.
+     */
+    private double[] cumulativeProbabilities;
+
+    @Setup
+    public void setUp() {
+        Injector injector = ApplicationMain.getInjector();
+        accountService = new AccountServiceImpl(
+                injector.getInstance(AccountDao.class),
+                ledger ? injector.getInstance(LedgerDao.class) : new NoLedgerDao(),
+                injector.getInstance(TransactionTemplate.class),
+                injector.getInstance(AccountChangeStream.class));
+        accountIds = new long[ACCOUNTS];
+        for (int i = 0; i < ACCOUNTS; i++) {
+            accountIds[i] = accountService.createNew().getId();
+            accountService.topUp(accountIds[i], INITIAL_BALANCE);
+        }
+        cumulativeProbabilities = new double[ACCOUNTS];
+        double sum = 0;
+        for (int i = 0; i < ACCOUNTS; i++) {
+            sum += "zipfian".equals(distribution) ? 1 / Math.pow(i + 1, ZIPF_EXPONENT) : 1;
+            cumulativeProbabilities[i] = sum;
+        }
+        for (int i = 0; i < ACCOUNTS; i++) {
+            cumulativeProbabilities[i] /= sum;
+        }
+    }
+
+    @Benchmark
+    @Threads(1)
+    public TransferResult transfer1Thread(Picker picker) {
+        return transfer(picker);
+    }
+
+    @Benchmark
+    @Threads(4)
+    public TransferResult transfer4Threads(Picker picker) {
+        return transfer(picker);
+    }
+
+    @Benchmark
+    @Threads(16)
+    public TransferResult transfer16Threads(Picker picker) {
+        return transfer(picker);
+    }
+
+    @Benchmark
+    @Threads(64)
+    public TransferResult transfer64Threads(Picker picker) {
+        return transfer(picker);
+    }
+
+    private TransferResult transfer(Picker picker) {
+        long from = pick(picker.random);
+        long to = pick(picker.random);
+        while (to == from) {
+            to = pick(picker.random);
+        }
+        return accountService.transfer(from, to, 1L);
+    }
+
+    private long pick(Random random) {
+        int index = Arrays.binarySearch(cumulativeProbabilities, random.nextDouble());
+        return accountIds[Math.min(index < 0 ? -index - 1 : index, ACCOUNTS - 1)];
+    }
+
+    /**
+     * Every thread picks accounts with its own random generator, seeded so that runs are repeatable.
+     */
+    @State(Scope.Thread)
+    public static class Picker {
+        private static final AtomicInteger SEEDS = new AtomicInteger();
+
+        private final Random random = new Random(SEEDS.incrementAndGet());
+    }
+
+    static class NoLedgerDao implements LedgerDao {
+
+        @Override
+        public void insertAll(List<LedgerEntry> entries) {
+        }
+
+        @Override
+        public List<LedgerEntry> findByAccount(long accountId, long from, long to, long afterSeq, int limit) {
+            return Collections.emptyList();
+        }
+
+        @Override
+        public long nextSeq() {
+            return 0;
+        }
+
+        @Override
+        public long sumAmounts(long accountId) {
+            return 0;
+        }
+
+        @Override
+        public Map<LedgerEntry.Type, Long> sumAmountsByType(Collection<Long> accountIds, long maxSeq) {
+            return Collections.emptyMap();
+        }
+
+        @Override
+        public void awaitCommitted(long accountId) {
+        }
+    }
+}
@@ -0,0 +1,64 @@
+package com.github.fertkir.moneytransfer.loadtest;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Blocking client over {@link HttpURLConnection}, which keeps connections alive and reuses them as long as
+ * responses are read to the end.
+ */
+class HttpClient {
+
+    private static final int TIMEOUT_MILLIS = 30_000;
+
+    private final String baseUrl;
+
+    HttpClient(String baseUrl) {
+        this.baseUrl = baseUrl;
+    }
+
+    Response send(String method, String path) throws IOException {
+        HttpURLConnection connection = (HttpURLConnection) new URL(baseUrl + path).openConnection();
+        connection.setRequestMethod(method);
+        connection.setConnectTimeout(TIMEOUT_MILLIS);
+        connection.setReadTimeout(TIMEOUT_MILLIS);
+        int status = connection.getResponseCode();
+        InputStream body = status < HttpURLConnection.HTTP_BAD_REQUEST
+                ? connection.getInputStream()
+                : connection.getErrorStream();
+        return new Response(status, body == null ? "" : readFully(body));
+    }
+
+    private static String readFully(InputStream in) throws IOException {
+        try (InputStream body = in) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buffer = new byte[4096];
+            for (int read = body.read(buffer); read >= 0; read = body.read(buffer)) {
+                out.write(buffer, 0, read);
+            }
+            return new String(out.toByteArray(), StandardCharsets.UTF_8);
+        }
+    }
+
+    static class Response {
+        private final int status;
+        private final String body;
+
+        Response(int status, String body) {
+            this.status = status;
+            this.body = body;
+        }
+
+        int getStatus() {
+            return status;
+        }
+
+        String getBody() {
+            return body;
+        }
+    }
+}
@@ -0,0 +1,233 @@
+package com.github.fertkir.moneytransfer.loadtest;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.github.fertkir.moneytransfer.ApplicationMain;
+import com.github.fertkir.moneytransfer.metrics.LatencyRecorder;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.math.BigDecimal;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Consumer;
+import java.util.stream.IntStream;
+
+/**
+ * Starts the application on a free port, creates accounts and sends a mix of requests to them for a while.
+ * Reports throughput, latency percentiles and outcomes of every operation, then checks that the money
+ * in the accounts is what the initial balances and the successful top ups and withdrawals make it;
+ * exits with 1 if it isn't.
+ */
+public class LoadTest {
+
+    private static final double[] QUANTILES = {0.5, 0.99, 0.999};
+
+    private final LoadTestOptions options;
+    private final HttpClient client;
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private final Results results = new Results();
+    private long[] accountIds;
+    /**
+     * Probabilities of picking accounts up to each of them and operations up to each of them.
+     */
+    private double[] accountProbabilities;
+    private double[] operationProbabilities;
+    private Operation[] operations;
+
+    private LoadTest(LoadTestOptions options, HttpClient client) {
+        this.options = options;
+        this.client = client;
+    }
+
+    public static void main(String[] args) throws Exception {
+        LoadTestOptions options = LoadTestOptions.parse(args);
+        System.setProperty("server.port", "0");
+        options.getApplicationProperties().forEach(System::setProperty);
+        // the connections kept alive are limited to 5 by default, and the rest would be reopened for every request
+        System.setProperty("http.maxConnections", Integer.toString(options.getThreads()));
+        ApplicationMain.run();
+        boolean conserved;
+        try {
+            conserved = new LoadTest(options, new HttpClient("http://localhost:" + ApplicationMain.getPort())).run();
+        } finally {
+            ApplicationMain.stopJetty();
+        }
+        System.exit(conserved ? 0 : 1);
+    }
+
+    private boolean run() throws Exception {
+        System.out.printf("Creating %d accounts%n", options.getAccounts());
+        accountIds = IntStream.range(0, options.getAccounts()).parallel()
+                .mapToLong(i -> createAccount())
+                .sorted()
+                .toArray();
+        accountProbabilities = cumulativeProbabilities(IntStream.range(0, accountIds.length)
+                .mapToDouble(i -> options.getDistribution() == LoadTestOptions.Distribution.ZIPFIAN
+                        ? 1 / Math.pow(i + 1, options.getZipfExponent())
+                        : 1)
+                .toArray());
+        operations = options.getMix().keySet().toArray(new Operation[0]);
+        operationProbabilities = cumulativeProbabilities(Arrays.stream(operations)
+                .mapToDouble(operation -> options.getMix().get(operation))
+                .toArray());
+
+        System.out.printf("Sending requests for %d s, of which %d s of warm-up%n",
+                options.getDurationSeconds(), options.getWarmupSeconds());
+        long start = System.nanoTime();
+        long warmupEnd = start + TimeUnit.SECONDS.toNanos(options.getWarmupSeconds());
+        long end = start + TimeUnit.SECONDS.toNanos(options.getDurationSeconds());
+        if (options.getMode() == LoadTestOptions.Mode.OPEN) {
+            runOpen(start, warmupEnd, end);
+        } else {
+            runClosed(warmupEnd, end);
+        }
+        // requests falling behind the schedule are still being answered after the end
+        report((System.nanoTime() - warmupEnd) / (double) TimeUnit.SECONDS.toNanos(1));
+        return checkMoney();
+    }
+
+    private long createAccount() {
+        try {
+            long id = objectMapper.readTree(client.send("POST", "/accounts").getBody()).get("id").asLong();
+            int status = client.send("PUT", "/accounts/topup?accountId=" + id + "&amount="
+                    + options.getInitialBalance()).getStatus();
+            if (status != 200) {
+                throw new IllegalStateException("Could not top up account " + id + ": " + status);
+            }
+            return id;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private void runClosed(long warmupEnd, long end) throws InterruptedException {
+        runThreads(random -> {
+            for (long sent = System.nanoTime(); sent < end; sent = System.nanoTime()) {
+                send(random, sent, sent >= warmupEnd);
+            }
+        });
+    }
+
+    /**
+     * Requests are due one after another at the given rate, whichever thread is free sends the next one.
+     * If none is free in time the request waits, and the wait is counted in its latency.
+     */
+    private void runOpen(long start, long warmupEnd, long end) throws InterruptedException {
+        double interval = (double) TimeUnit.SECONDS.toNanos(1) / options.getRate();
+        AtomicLong requests = new AtomicLong();
+        runThreads(random -> {
+            while (true) {
+                long due = start + (long) (requests.getAndIncrement() * interval);
+                if (due >= end) {
+                    return;
+                }
+                for (long now = System.nanoTime(); now < due; now = System.nanoTime()) {
+                    LockSupport.parkNanos(due - now);
+                }
+                send(random, due, due >= warmupEnd);
+            }
+        });
+    }
+
+    /**
+     * Every thread picks accounts and operations with its own random generator, seeded so that runs are repeatable.
+     */
+    private void runThreads(Consumer<Random> worker) throws InterruptedException {
+        ExecutorService executor = Executors.newFixedThreadPool(options.getThreads());
+        for (int i = 0; i < options.getThreads(); i++) {
+            Random random = new Random(i);
+            executor.execute(() -> worker.accept(random));
+        }
+        executor.shutdown();
+        executor.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * @param since when the latency is counted from
+     */
+    private void send(Random random, long since, boolean measured) {
+        Operation operation = operations[pick(operationProbabilities, random)];
+        long account = accountIds[pick(accountProbabilities, random)];
+        long second = account;
+        while (operation == Operation.TRANSFER && second == account) {
+            second = accountIds[pick(accountProbabilities, random)];
+        }
+        try {
+            int status = client.send(operation.getMethod(), operation.path(account, second)).getStatus();
+            results.recordResponse(operation, status, System.nanoTime() - since, measured);
+        } catch (IOException e) {
+            results.recordFailure(operation, e, System.nanoTime() - since, measured);
+        }
+    }
+
+    private void report(double seconds) {
+        long total = 0;
+        System.out.printf("%-10s %10s %10s %10s %10s %10s %10s  %s%n",
+                "operation", "requests", "req/s", "p50 ms", "p99 ms", "p99.9 ms", "max ms", "outcomes");
+        for (Operation operation : operations) {
+            LatencyRecorder latencies = results.getLatencies(operation);
+            long count = latencies.getCount();
+            total += count;
+            System.out.printf("%-10s %10d %10.1f", operation.getName(), count, count / seconds);
+            for (double quantile : QUANTILES) {
+                System.out.printf(" %10.3f", millis(latencies.getValueAtQuantile(quantile)));
+            }
+            System.out.printf(" %10.3f  %s%n", millis(latencies.getMax()), results.getOutcomes(operation));
+        }
+        System.out.printf("Throughput: %.1f requests/s%s%n", total / seconds,
+                options.getMode() == LoadTestOptions.Mode.OPEN ? " of " + options.getRate() + " scheduled" : "");
+    }
+
+    private boolean checkMoney() throws IOException {
+        BigDecimal actual = BigDecimal.ZERO;
+        long negative = 0;
+        for (JsonNode account : objectMapper.readTree(client.send("GET", "/accounts").getBody())) {
+            BigDecimal balance = account.get("balance").decimalValue();
+            actual = actual.add(balance);
+            if (balance.signum() < 0) {
+                negative++;
+            }
+        }
+        long movedIn = results.getSucceeded(Operation.TOP_UP) - results.getSucceeded(Operation.WITHDRAW);
+        BigDecimal expected = BigDecimal.valueOf(options.getInitialBalance())
+                .multiply(BigDecimal.valueOf(accountIds.length))
+                .add(BigDecimal.valueOf(movedIn * Operation.AMOUNT));
+        if (results.getUnknownOutcomes() > 0) {
+            System.out.printf("Money: %s, expected %s give or take %d top ups or withdrawals failed without "
+                    + "a response%n", actual.toPlainString(), expected.toPlainString(), results.getUnknownOutcomes());
+            return negative == 0;
+        }
+        boolean conserved = actual.compareTo(expected) == 0 && negative == 0;
+        System.out.printf("Money: %s, expected %s, accounts with negative balance: %d - %s%n",
+                actual.toPlainString(), expected.toPlainString(), negative, conserved ? "OK" : "FAILED");
+        return conserved;
+    }
+
+    private static double[] cumulativeProbabilities(double[] weights) {
+        double[] probabilities = new double[weights.length];
+        double sum = 0;
+        for (int i = 0; i < weights.length; i++) {
+            sum += weights[i];
+            probabilities[i] = sum;
+        }
+        for (int i = 0; i < weights.length; i++) {
+            probabilities[i] /= sum;
+        }
+        return probabilities;
+    }
+
+    private static int pick(double[] cumulativeProbabilities, Random random) {
+        int index = Arrays.binarySearch(cumulativeProbabilities, random.nextDouble());
+        return Math.min(index < 0 ? -index - 1 : index, cumulativeProbabilities.length - 1);
+    }
+
+    private static double millis(long nanos) {
+        return nanos / 1_000_000.0;
+    }
+}
@@ -0,0 +1,163 @@
+package com.github.fertkir.moneytransfer.loadtest;
+
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Options are given as {@code --name=value}. Those with a dot in the name, e.g. {@code --service.engine=sharded},
+ * are application properties rather than options of the load test.
+ */
+class LoadTestOptions {
+
+    enum Mode {
+        /**
+         * Every thread sends its next request as soon as it gets the response to the previous one.
+         */
+        CLOSED,
+        /**
+         * Requests are due at a constant rate no matter how fast the application responds. Latency is counted
+         * from when a request was due, so a slow response delaying the next requests shows in their latency too.
+         */
+        OPEN
+    }
+
+    enum Distribution {
+        UNIFORM,
+        /**
+         * Accounts are picked by Zipf's law, the first ones being the hottest.
+         */
+        ZIPFIAN
+    }
+
+    private Mode mode = Mode.CLOSED;
+    private int threads = 16;
+    private int rate = 1000;
+    private int durationSeconds = 30;
+    private int warmupSeconds = 5;
+    private int accounts = 1000;
+    private long initialBalance = 1_000_000;
+    private Distribution distribution = Distribution.UNIFORM;
+    private double zipfExponent = 0.99;
+    private Map<Operation, Integer> mix = parseMix("transfer=70,topup=10,withdraw=10,get=10");
+    private final Map<String, String> applicationProperties = new HashMap<>();
+
+    static LoadTestOptions parse(String[] args) {
+        LoadTestOptions options = new LoadTestOptions();
+        for (String arg : args) {
+            int separator = arg.indexOf('=');
+            if (!arg.startsWith("--") || separator < 0) {
+                throw new IllegalArgumentException("Expected --name=value, got " + arg);
+            }
+            String name = arg.substring(2, separator);
+            String value = arg.substring(separator + 1);
+            if (name.contains(".")) {
+                options.applicationProperties.put(name, value);
+                continue;
+            }
+            switch (name) {
+                case "mode":
+                    options.mode = Mode.valueOf(value.toUpperCase());
+                    break;
+                case "threads":
+                    options.threads = Integer.parseInt(value);
+                    break;
+                case "rate":
+                    options.rate = Integer.parseInt(value);
+                    break;
+                case "duration":
+                    options.durationSeconds = Integer.parseInt(value);
+                    break;
+                case "warmup":
+                    options.warmupSeconds = Integer.parseInt(value);
+                    break;
+                case "accounts":
+                    options.accounts = Integer.parseInt(value);
+                    break;
+                case "initialBalance":
+                    options.initialBalance = Long.parseLong(value);
+                    break;
+                case "distribution":
+                    options.distribution = Distribution.valueOf(value.toUpperCase());
+                    break;
+                case "zipfExponent":
+                    options.zipfExponent = Double.parseDouble(value);
+                    break;
+                case "mix":
+                    options.mix = parseMix(value);
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown option " + name);
+            }
+        }
+        if (options.accounts < 2) {
+            throw new IllegalArgumentException("Transfers need at least 2 accounts");
+        }
+        return options;
+    }
+
+    /**
+     * @param mix weights of operations, e.g. {@code transfer=90,get=10}
+     */
+    private static Map<Operation, Integer> parseMix(String mix) {
+        Map<Operation, Integer> weights = new EnumMap<>(Operation.class);
+        for (String entry : mix.split(",")) {
+            String[] nameAndWeight = entry.split("=");
+            weights.put(Operation.byName(nameAndWeight[0].trim()), Integer.parseInt(nameAndWeight[1].trim()));
+        }
+        return weights;
+    }
+
+    Mode getMode() {
+        return mode;
+    }
+
+    /**
+     * In the open mode, the max number of requests in flight.
+     */
+    int getThreads() {
+        return threads;
+    }
+
+    /**
+     * Requests per second in the open mode.
+     */
+    int getRate() {
+        return rate;
+    }
+
+    int getDurationSeconds() {
+        return durationSeconds;
+    }
+
+    /**
+     * Requests started during the first seconds aren't included in the report.
+     */
+    int getWarmupSeconds() {
+        return warmupSeconds;
+    }
+
+    int getAccounts() {
+        return accounts;
+    }
+
+    long getInitialBalance() {
+        return initialBalance;
+    }
+
+    Distribution getDistribution() {
+        return distribution;
+    }
+
+    double getZipfExponent() {
+        return zipfExponent;
+    }
+
+    Map<Operation, Integer> getMix() {
+        return mix;
+    }
+
+    Map<String, String> getApplicationProperties() {
+        return applicationProperties;
+    }
+}
@@ -0,0 +1,55 @@
+package com.github.fertkir.moneytransfer.loadtest;
+
+/**
+ * Requests the load test sends. Every one moves {@value #AMOUNT}, so that the money expected in the end
+ * can be counted from the responses.
+ */
+enum Operation {
+    TRANSFER("transfer", "PUT"),
+    TOP_UP("topup", "PUT"),
+    WITHDRAW("withdraw", "PUT"),
+    GET("get", "GET");
+
+    static final int AMOUNT = 1;
+
+    private final String name;
+    private final String method;
+
+    Operation(String name, String method) {
+        this.name = name;
+        this.method = method;
+    }
+
+    static Operation byName(String name) {
+        for (Operation operation : values()) {
+            if (operation.name.equals(name)) {
+                return operation;
+            }
+        }
+        throw new IllegalArgumentException("Unknown operation " + name);
+    }
+
+    String getName() {
+        return name;
+    }
+
+    String getMethod() {
+        return method;
+    }
+
+    /**
+     * @param second the other account of a transfer, ignored by the rest
+     */
+    String path(long account, long second) {
+        switch (this) {
+            case TRANSFER:
+                return "/accounts/transfer?from=" + account + "&to=" + second + "&amount=" + AMOUNT;
+            case TOP_UP:
+                return "/accounts/topup?accountId=" + account + "&amount=" + AMOUNT;
+            case WITHDRAW:
+                return "/accounts/withdraw?accountId=" + account + "&amount=" + AMOUNT;
+            default:
+                return "/accounts?accountId=" + account;
+        }
+    }
+}
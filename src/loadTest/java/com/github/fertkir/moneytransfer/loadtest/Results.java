@@ -0,0 +1,83 @@
+package com.github.fertkir.moneytransfer.loadtest;
+
+import com.github.fertkir.moneytransfer.metrics.LatencyRecorder;
+
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Latencies and outcomes of the requests sent after the warm-up, along with what's needed to count the money
+ * expected in the end, which includes the requests sent during the warm-up too.
+ */
+class Results {
+
+    private final Map<Operation, LatencyRecorder> latencies = new EnumMap<>(Operation.class);
+    private final ConcurrentMap<Operation, ConcurrentMap<String, LongAdder>> outcomes = new ConcurrentHashMap<>();
+    private final Map<Operation, LongAdder> succeeded = new EnumMap<>(Operation.class);
+    private final LongAdder unknownOutcomes = new LongAdder();
+
+    Results() {
+        for (Operation operation : Operation.values()) {
+            latencies.put(operation, new LatencyRecorder());
+            succeeded.put(operation, new LongAdder());
+        }
+    }
+
+    void recordResponse(Operation operation, int status, long nanos, boolean measured) {
+        if (status == 200) {
+            succeeded.get(operation).increment();
+        }
+        if (measured) {
+            latencies.get(operation).record(nanos);
+            outcome(operation, Integer.toString(status)).increment();
+        }
+    }
+
+    /**
+     * A request which failed without a response may still have been executed.
+     */
+    void recordFailure(Operation operation, Exception e, long nanos, boolean measured) {
+        if (operation == Operation.TOP_UP || operation == Operation.WITHDRAW) {
+            unknownOutcomes.increment();
+        }
+        if (measured) {
+            latencies.get(operation).record(nanos);
+            outcome(operation, e.getClass().getSimpleName()).increment();
+        }
+    }
+
+    LatencyRecorder getLatencies(Operation operation) {
+        return latencies.get(operation);
+    }
+
+    /**
+     * @return numbers of responses by status code, or of failures by exception
+     */
+    Map<String, Long> getOutcomes(Operation operation) {
+        Map<String, Long> result = new TreeMap<>();
+        outcomes.getOrDefault(operation, new ConcurrentHashMap<>())
+                .forEach((outcome, count) -> result.put(outcome, count.sum()));
+        return Collections.unmodifiableMap(result);
+    }
+
+    long getSucceeded(Operation operation) {
+        return succeeded.get(operation).sum();
+    }
+
+    /**
+     * Top ups and withdrawals which may or may not have moved money.
+     */
+    long getUnknownOutcomes() {
+        return unknownOutcomes.sum();
+    }
+
+    private LongAdder outcome(Operation operation, String outcome) {
+        return outcomes.computeIfAbsent(operation, key -> new ConcurrentHashMap<>())
+                .computeIfAbsent(outcome, key -> new LongAdder());
+    }
+}
@@ -1,16 +1,25 @@
 package com.github.fertkir.moneytransfer;
 
+import com.github.fertkir.moneytransfer.config.ApplicationProperties;
+import com.github.fertkir.moneytransfer.config.ConfigModule;
 import com.github.fertkir.moneytransfer.dao.DaoModule;
 import com.github.fertkir.moneytransfer.service.ServiceModule;
 import com.github.fertkir.moneytransfer.servlet.AppServletModule;
+import com.github.fertkir.moneytransfer.servlet.InstrumentedThreadPool;
+import com.github.fertkir.moneytransfer.servlet.RequestStatistics;
 import com.google.inject.Guice;
 import com.google.inject.Injector;
+import com.google.inject.Key;
+import com.google.inject.name.Names;
 import com.google.inject.servlet.GuiceFilter;
 import org.eclipse.jetty.server.Server;
+import org.eclipse.jetty.server.ServerConnector;
 import org.eclipse.jetty.servlet.DefaultServlet;
+import org.eclipse.jetty.servlet.FilterHolder;
 import org.eclipse.jetty.servlet.ServletContextHandler;
 
 import javax.servlet.DispatcherType;
+import java.util.Properties;
 
 import static java.util.EnumSet.allOf;
 import static org.eclipse.jetty.servlet.ServletContextHandler.SESSIONS;
@@ -30,13 +39,27 @@ public class ApplicationMain {
     }
 
     public static void startJetty() throws Exception {
-        server = new Server(8080);
+        server = new Server(new InstrumentedThreadPool(getInjector().getInstance(RequestStatistics.class)));
+        ServerConnector connector = new ServerConnector(server);
+        connector.setPort(getInjector().getInstance(Key.get(Integer.class, Names.named("server.port"))));
+        server.addConnector(connector);
         ServletContextHandler servletContextHandler = new ServletContextHandler(server, "/", SESSIONS);
-        servletContextHandler.addFilter(GuiceFilter.class, "/*", allOf(DispatcherType.class));
-        servletContextHandler.addServlet(DefaultServlet.class, "/");
+        // a filter created by the injector keeps its pipeline, unlike the static one which is reset when Jetty stops
+        FilterHolder guiceFilter = new FilterHolder(getInjector().getInstance(GuiceFilter.class));
+        // servlets answer requests asynchronously, which every filter and servlet on their way has to allow
+        guiceFilter.setAsyncSupported(true);
+        servletContextHandler.addFilter(guiceFilter, "/*", allOf(DispatcherType.class));
+        servletContextHandler.addServlet(DefaultServlet.class, "/").setAsyncSupported(true);
         server.start();
     }
 
+    /**
+     * @return the port Jetty listens on, which is known only after it's started if {@code server.port} is 0
+     */
+    public static int getPort() {
+        return ((ServerConnector) server.getConnectors()[0]).getLocalPort();
+    }
+
     public static Injector getInjector() {
         if (injector == null) {
             createInjector();
@@ -45,9 +68,11 @@ public class ApplicationMain {
     }
 
     private static void createInjector() {
+        Properties properties = ApplicationProperties.load();
         injector = Guice.createInjector(
-                new DaoModule(),
-                new ServiceModule(),
+                new ConfigModule(properties),
+                new DaoModule(properties),
+                new ServiceModule(properties),
                 new AppServletModule());
     }
 
@@ -0,0 +1,36 @@
+package com.github.fertkir.moneytransfer.config;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.util.Properties;
+
+public final class ApplicationProperties {
+
+    private static final String RESOURCE = "application.properties";
+
+    private ApplicationProperties() {
+    }
+
+    /**
+     * Loads {@code application.properties} from the classpath. Any system property with the same name
+     * overrides the bundled value, so e.g. {@code -Dservice.engine=sharded} switches the engine without a rebuild.
+     */
+    public static Properties load() {
+        Properties properties = new Properties();
+        try (InputStream in = ApplicationProperties.class.getClassLoader().getResourceAsStream(RESOURCE)) {
+            if (in != null) {
+                properties.load(in);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        for (String name : properties.stringPropertyNames()) {
+            String override = System.getProperty(name);
+            if (override != null) {
+                properties.setProperty(name, override);
+            }
+        }
+        return properties;
+    }
+}
@@ -0,0 +1,20 @@
+package com.github.fertkir.moneytransfer.config;
+
+import com.google.inject.AbstractModule;
+import com.google.inject.name.Names;
+
+import java.util.Properties;
+
+public class ConfigModule extends AbstractModule {
+
+    private final Properties properties;
+
+    public ConfigModule(Properties properties) {
+        this.properties = properties;
+    }
+
+    @Override
+    protected void configure() {
+        Names.bindProperties(binder(), properties);
+    }
+}
@@ -2,14 +2,109 @@ package com.github.fertkir.moneytransfer.dao;
 
 import com.github.fertkir.moneytransfer.entity.Account;
 
+import java.util.Collection;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
+import java.util.function.Consumer;
 
 public interface AccountDao {
 
     List<Account> findAll();
 
+    /**
+     * Keyset pagination over the primary key.
+     *
+     * @return up to {@code limit} accounts with ids greater than {@code afterId}, ordered by id
+     */
+    List<Account> findPage(long afterId, int limit);
+
+    /**
+     * Streams all accounts ordered by id to the consumer without loading them into memory.
+     */
+    void forEach(Consumer<? super Account> consumer);
+
     Optional<Account> getById(long id);
 
+    /**
+     * Reads the account and locks its row until the end of the transaction ({@code SELECT ... FOR UPDATE}).
+     * Callers locking several rows must do it in ascending id order.
+     */
+    Optional<Account> getByIdForUpdate(long id);
+
+    /**
+     * Inserts an account without id, or updates the balance of an existing one. An account read with a version
+     * is updated only if the row still has that version, otherwise {@link
+     * com.github.fertkir.moneytransfer.persistence.OptimisticLockException} is thrown; an account without
+     * a version overwrites the row unconditionally.
+     *
+     * @return the saved account with its current version
+     */
     Account save(Account account);
+
+    /**
+     * Inserts {@code count} accounts with zero balance with one batched statement.
+     *
+     * @return the new accounts, ordered by id
+     */
+    List<Account> createAll(int count);
+
+    /**
+     * Atomically adds {@code amount} to the balance unless that would overflow it.
+     *
+     * @return the updated account or empty if there's no account with such id or its balance would overflow
+     */
+    Optional<Account> credit(long id, long amount);
+
+    /**
+     * Atomically subtracts {@code amount} from the balance unless that would make it negative.
+     *
+     * @return the updated account or empty if there's no account with such id or it doesn't have enough money
+     */
+    Optional<Account> debitIfSufficient(long id, long amount);
+
+    /**
+     * Atomically adds {@code amount} to the held money unless that would make it larger than the balance.
+     *
+     * @return the updated account or empty if there's no account with such id or it doesn't have enough money
+     * available
+     */
+    Optional<Account> holdIfAvailable(long id, long amount);
+
+    /**
+     * Takes {@code held} off the held money of the account and {@code debited}, which is at most {@code held},
+     * off its balance.
+     *
+     * @return the updated account or empty if there's no account with such id
+     */
+    Optional<Account> settleHold(long id, long held, long debited);
+
+    /**
+     * Takes every amount off the held money of its account with one batched statement. Rows are expected to be
+     * locked by {@link #lockAll(Collection)} already.
+     */
+    void releaseHeld(Map<Long, Long> held);
+
+    /**
+     * Locks rows of the given accounts until the end of the transaction ({@code SELECT ... FOR UPDATE}),
+     * always in ascending id order so that concurrent callers can't deadlock each other.
+     *
+     * @return existing accounts among the given ids, ordered by id
+     */
+    List<Account> lockAll(Collection<Long> ids);
+
+    /**
+     * Adds every delta to the balance of its account with one batched statement. Rows are expected to be locked
+     * by {@link #lockAll(Collection)} and the deltas to be checked against their balances already.
+     *
+     * @return by how much the version of every account has grown: by one for its delta, and by one more
+     * for every row the money of a striped account was moved out of or into before a debit
+     */
+    Map<Long, Integer> applyDeltas(Map<Long, Long> deltas);
+
+    /**
+     * Writes the accounts with their ids and versions as they are, e.g. when recovering them after a restart,
+     * and moves the id sequence past them.
+     */
+    void restoreAll(Collection<Account> accounts);
 }
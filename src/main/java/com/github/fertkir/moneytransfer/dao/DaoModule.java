@@ -1,39 +1,135 @@
 package com.github.fertkir.moneytransfer.dao;
 
+import com.github.fertkir.moneytransfer.persistence.JdbcTemplate;
 import com.github.fertkir.moneytransfer.persistence.PersistenceException;
 import com.github.fertkir.moneytransfer.dao.impl.AccountDaoImpl;
+import com.github.fertkir.moneytransfer.dao.impl.AccountIdGenerator;
+import com.github.fertkir.moneytransfer.dao.impl.AccountStripes;
+import com.github.fertkir.moneytransfer.dao.impl.CachingAccountDao;
+import com.github.fertkir.moneytransfer.dao.impl.HoldDaoImpl;
+import com.github.fertkir.moneytransfer.dao.impl.IdempotencyKeyDaoImpl;
+import com.github.fertkir.moneytransfer.dao.impl.JournalingAccountDao;
+import com.github.fertkir.moneytransfer.dao.impl.LedgerDaoImpl;
+import com.github.fertkir.moneytransfer.dao.impl.ReconciliationDaoImpl;
 import com.google.inject.AbstractModule;
+import com.google.inject.name.Names;
 import com.zaxxer.hikari.HikariDataSource;
 import org.h2.tools.RunScript;
 
 import javax.sql.DataSource;
 import java.io.InputStreamReader;
 import java.sql.Connection;
+import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Properties;
 
 public class DaoModule extends AbstractModule {
 
+    public static final String CACHE_ENABLED = "dao.cache.enabled";
+    public static final String JOURNAL_ENABLED = "journal.enabled";
+    public static final String POOL_MAX_SIZE = "persistence.pool.maxSize";
+    public static final String STORAGE = "persistence.storage";
+    public static final String STORAGE_MEMORY = "memory";
+    public static final String STORAGE_FILE = "file";
+
+    private final Properties properties;
+
+    public DaoModule(Properties properties) {
+        this.properties = properties;
+    }
+
     @Override
     protected void configure() {
-        bind(AccountDao.class).to(AccountDaoImpl.class);
+        // decorators are stacked on top of each other: cache -> journal -> database
+        Class<? extends AccountDao> accountDao = AccountDaoImpl.class;
+        if (Boolean.parseBoolean(properties.getProperty(JOURNAL_ENABLED))) {
+            // journaled states of an account must be ordered by its version, which concurrent credits of different
+            // stripes don't do
+            if (!properties.getProperty(AccountStripes.ACCOUNTS, "").trim().isEmpty()) {
+                throw new IllegalArgumentException(String.format("%s can't be used with %s",
+                        AccountStripes.ACCOUNTS, JOURNAL_ENABLED));
+            }
+            bind(AccountDao.class).annotatedWith(Names.named(JournalingAccountDao.DELEGATE)).to(accountDao);
+            accountDao = JournalingAccountDao.class;
+        }
+        if (Boolean.parseBoolean(properties.getProperty(CACHE_ENABLED))) {
+            bind(AccountDao.class).annotatedWith(Names.named(CachingAccountDao.DELEGATE)).to(accountDao);
+            accountDao = CachingAccountDao.class;
+        }
+        bind(AccountDao.class).to(accountDao);
+        bind(LedgerDao.class).to(LedgerDaoImpl.class);
+        bind(HoldDao.class).to(HoldDaoImpl.class);
+        bind(ReconciliationDao.class).to(ReconciliationDaoImpl.class);
+        bind(IdempotencyKeyDao.class).to(IdempotencyKeyDaoImpl.class);
 
         bind(DataSource.class).toInstance(h2DataSource());
     }
 
     private DataSource h2DataSource() {
         HikariDataSource dataSource = new HikariDataSource();
-        dataSource.setJdbcUrl("jdbc:h2:mem:test");
+        dataSource.setJdbcUrl(jdbcUrl());
         dataSource.setUsername("sa");
         dataSource.setPassword("sa");
+        dataSource.setMaximumPoolSize(Integer.parseInt(properties.getProperty(POOL_MAX_SIZE)));
+        // the level of every transaction, see TransactionTemplate
+        dataSource.setTransactionIsolation("TRANSACTION_REPEATABLE_READ");
 
-        // initializing schema
+        // initializing schema, which a file database already has from a previous run
         try (Connection connection = dataSource.getConnection()) {
             RunScript.execute(connection, new InputStreamReader(getClass().getClassLoader()
                     .getResourceAsStream("create.sql")));
+            setIdBlockSize(connection, Integer.parseInt(properties.getProperty(AccountIdGenerator.BLOCK_SIZE)));
         } catch (SQLException e) {
             throw new PersistenceException(e);
         }
 
         return dataSource;
     }
+
+    /**
+     * Every value of the sequence reserves a block of ids, see {@link AccountIdGenerator}. A file database may
+     * have handed out blocks of another size before, so the sequence is moved past the last of them, which
+     * a smaller increment alone would start inside of.
+     */
+    private static void setIdBlockSize(Connection connection, int blockSize) throws SQLException {
+        String query = "SELECT current_value, increment FROM information_schema.sequences " +
+                "WHERE sequence_name = 'ACCOUNT_SEQ'";
+        try (Statement statement = connection.createStatement();
+             ResultSet rs = statement.executeQuery(query)) {
+            if (!rs.next()) {
+                throw new PersistenceException("Sequence account_seq does not exist");
+            }
+            long currentValue = rs.getLong(1);
+            long increment = rs.getLong(2);
+            if (increment != blockSize) {
+                // DDL can't take parameters
+                statement.execute(String.format("ALTER SEQUENCE account_seq RESTART WITH %d INCREMENT BY %d",
+                        currentValue + increment, blockSize));
+            }
+        }
+    }
+
+    /**
+     * Queries are executed lazily, so that a result is read from the table as it's iterated instead of being
+     * built in full first, which lets {@link JdbcTemplate#queryForEach} stream any number of rows. It has to be
+     * a setting of the URL: changing it with {@code SET} commits the transaction of the session.
+     */
+    private String jdbcUrl() {
+        String storage = properties.getProperty(STORAGE, STORAGE_MEMORY);
+        switch (storage) {
+            case STORAGE_MEMORY:
+                return "jdbc:h2:mem:test;LAZY_QUERY_EXECUTION=1";
+            case STORAGE_FILE:
+                return String.format("jdbc:h2:file:%s;LAZY_QUERY_EXECUTION=1;CACHE_SIZE=%d;WRITE_DELAY=%d"
+                                + ";MAX_COMPACT_TIME=%d;RETENTION_TIME=%d",
+                        properties.getProperty("persistence.file.path"),
+                        Integer.parseInt(properties.getProperty("persistence.file.cacheSizeKb")),
+                        Integer.parseInt(properties.getProperty("persistence.file.writeDelayMillis")),
+                        Integer.parseInt(properties.getProperty("persistence.file.maxCompactTimeMillis")),
+                        Integer.parseInt(properties.getProperty("persistence.file.retentionTimeMillis")));
+            default:
+                throw new IllegalArgumentException(String.format("Unknown %s: %s", STORAGE, storage));
+        }
+    }
 }
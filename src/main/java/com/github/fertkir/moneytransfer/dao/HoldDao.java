@@ -0,0 +1,38 @@
+package com.github.fertkir.moneytransfer.dao;
+
+import com.github.fertkir.moneytransfer.entity.Hold;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Optional;
+import java.util.function.Consumer;
+
+public interface HoldDao {
+
+    /**
+     * @return the hold with its new id
+     */
+    Hold insert(Hold hold);
+
+    /**
+     * Reads the hold and locks its row until the end of the transaction ({@code SELECT ... FOR UPDATE}).
+     */
+    Optional<Hold> getByIdForUpdate(long id);
+
+    /**
+     * Locks rows of the given holds in ascending id order.
+     *
+     * @return existing holds among the given ids, ordered by id
+     */
+    List<Hold> lockAll(Collection<Long> ids);
+
+    /**
+     * Deletes the holds with one batched statement.
+     */
+    void deleteAll(Collection<Long> ids);
+
+    /**
+     * Streams all the holds ordered by expiry time to the consumer without loading them into memory.
+     */
+    void forEachByExpiry(Consumer<? super Hold> consumer);
+}
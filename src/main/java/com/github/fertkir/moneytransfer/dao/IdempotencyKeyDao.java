@@ -0,0 +1,31 @@
+package com.github.fertkir.moneytransfer.dao;
+
+import com.github.fertkir.moneytransfer.entity.IdempotentResponse;
+
+import java.util.Optional;
+
+public interface IdempotencyKeyDao {
+
+    /**
+     * @return the response stored with the key no earlier than {@code createdAfter} epoch milliseconds
+     */
+    Optional<IdempotentResponse> getByKey(String key, long createdAfter);
+
+    /**
+     * @return the response stored with the row id no earlier than {@code createdAfter} epoch milliseconds,
+     * whatever its key
+     */
+    Optional<IdempotentResponse> getById(long id, long createdAfter);
+
+    /**
+     * Stores the response, replacing an expired one stored with the same key.
+     *
+     * @return row id of the response
+     */
+    long save(IdempotentResponse response);
+
+    /**
+     * @return number of deleted responses
+     */
+    int deleteCreatedBefore(long createdBefore);
+}
@@ -0,0 +1,52 @@
+package com.github.fertkir.moneytransfer.dao;
+
+import com.github.fertkir.moneytransfer.entity.LedgerEntry;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+
+public interface LedgerDao {
+
+    /**
+     * Adds the entries to the ledger as part of the current transaction: they're written and become visible
+     * once it commits. Sequence numbers are assigned in the order of the list.
+     */
+    void insertAll(List<LedgerEntry> entries);
+
+    /**
+     * Keyset pagination over the entries of an account.
+     *
+     * @return up to {@code limit} entries of the account with sequence numbers greater than {@code afterSeq}
+     * created within [{@code from}, {@code to}), ordered by sequence number
+     */
+    List<LedgerEntry> findByAccount(long accountId, long from, long to, long afterSeq, int limit);
+
+    /**
+     * @return a sequence number greater than those of the entries inserted so far and lower than those
+     * of the entries inserted afterwards
+     */
+    long nextSeq();
+
+    /**
+     * Entries are counted once their transaction has committed, so those of a transaction which has just
+     * committed may be missing for a moment, see {@link #awaitCommitted(long)}.
+     *
+     * @return sum of the amounts of the entries of the account
+     */
+    long sumAmounts(long accountId);
+
+    /**
+     * @return sums of the amounts of the entries of the accounts with sequence numbers up to {@code maxSeq},
+     * by entry type
+     */
+    Map<LedgerEntry.Type, Long> sumAmountsByType(Collection<Long> accountIds, long maxSeq);
+
+    /**
+     * Waits until the entries of the account of every committed transaction are counted by
+     * {@link #sumAmounts(long)}.
+     * Must be called by a transaction holding the lock of the account, so that no other can commit
+     * entries of it meanwhile.
+     */
+    void awaitCommitted(long accountId);
+}
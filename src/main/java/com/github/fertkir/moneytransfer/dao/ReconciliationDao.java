@@ -0,0 +1,18 @@
+package com.github.fertkir.moneytransfer.dao;
+
+import com.github.fertkir.moneytransfer.entity.AuditedAccount;
+
+import java.util.function.Consumer;
+
+public interface ReconciliationDao {
+
+    /**
+     * @return 0 if there are no accounts
+     */
+    long maxAccountId();
+
+    /**
+     * Streams the accounts with ids within [{@code fromId}, {@code toId}) ordered by id to the consumer.
+     */
+    void forEachAccount(long fromId, long toId, Consumer<? super AuditedAccount> consumer);
+}
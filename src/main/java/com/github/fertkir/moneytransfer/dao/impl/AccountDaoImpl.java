@@ -3,62 +3,111 @@ package com.github.fertkir.moneytransfer.dao.impl;
 import com.github.fertkir.moneytransfer.dao.AccountDao;
 import com.github.fertkir.moneytransfer.entity.Account;
 import com.github.fertkir.moneytransfer.persistence.JdbcTemplate;
+import com.github.fertkir.moneytransfer.persistence.OptimisticLockException;
 import com.github.fertkir.moneytransfer.persistence.PersistenceException;
+import com.github.fertkir.moneytransfer.persistence.RowMapper;
 import com.google.inject.Inject;
+import com.google.inject.name.Named;
+import lombok.Value;
 
-import java.sql.PreparedStatement;
-import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
+import java.util.function.Consumer;
 
+import static com.github.fertkir.moneytransfer.persistence.StatementBinder.NO_PARAMETERS;
+
+/**
+ * Accounts are rows of the {@code account} table. The balance of a striped account (see {@link AccountStripes})
+ * is the sum of its row and its {@code account_stripe} rows, and so is its version. Credits of such an account
+ * go to a stripe; debits take the money from the row, moving the stripes into it first if the row alone is not
+ * enough. Whatever locks or saves the whole account locks its stripes too, right after its row.
+ */
 public class AccountDaoImpl implements AccountDao {
 
+    private static final RowMapper<Account> ACCOUNT_MAPPER = rs -> Account.builder()
+            .id(rs.getLong("ID"))
+            .balance(rs.getLong("BALANCE"))
+            .held(rs.getLong("HELD"))
+            .version(rs.getLong("VERSION"))
+            .build();
+    private static final RowMapper<Stripe> STRIPE_MAPPER = rs -> new Stripe(
+            rs.getInt("STRIPE"),
+            rs.getLong("BALANCE"),
+            rs.getLong("HELD"),
+            rs.getLong("VERSION"));
+    private static final int ACCOUNT_ROW = -1;
+    private static final String DUPLICATE_KEY = "23505";
+
+    private static final String COLUMNS = "id, balance, held, version";
+    // subqueries rather than a grouped join, which would make H2 group the whole table before returning a row
+    private static final String STRIPED_COLUMNS = "id, " +
+            "balance + (SELECT COALESCE(SUM(s.balance), 0) FROM account_stripe s WHERE s.account_id = a.id) balance, " +
+            "held, " +
+            "version + (SELECT COALESCE(SUM(s.version), 0) FROM account_stripe s WHERE s.account_id = a.id) version";
+
     private final JdbcTemplate jdbcTemplate;
+    private final int exportFetchSize;
+    private final AccountStripes stripes;
+    private final AccountIdGenerator idGenerator;
+    private final String findAllQuery;
+    private final String findPageQuery;
+    private final String forEachQuery;
 
     @Inject
-    public AccountDaoImpl(JdbcTemplate jdbcTemplate) {
+    public AccountDaoImpl(JdbcTemplate jdbcTemplate, @Named("persistence.export.fetchSize") int exportFetchSize,
+                          AccountStripes stripes, AccountIdGenerator idGenerator) {
         this.jdbcTemplate = jdbcTemplate;
+        this.exportFetchSize = exportFetchSize;
+        this.stripes = stripes;
+        this.idGenerator = idGenerator;
+        String columns = stripes.isEmpty() ? COLUMNS : STRIPED_COLUMNS;
+        this.findAllQuery = "SELECT " + columns + " FROM account a";
+        this.findPageQuery = "SELECT " + columns + " FROM account a WHERE id > ? ORDER BY id LIMIT ?";
+        this.forEachQuery = "SELECT " + columns + " FROM account a ORDER BY id";
     }
 
     @Override
     public List<Account> findAll() {
-        try {
-            String query = "SELECT id, balance FROM account";
-            PreparedStatement statement = jdbcTemplate.prepareStatement(query);
-            ResultSet rs = statement.executeQuery();
-            List<Account> accounts = new ArrayList<>();
-            while (rs.next()) {
-                accounts.add(Account.builder()
-                        .id(rs.getLong("ID"))
-                        .balance(rs.getBigDecimal("BALANCE"))
-                        .build());
-            }
-            return accounts;
-        } catch (SQLException e) {
-            throw new PersistenceException(e);
-        }
+        return jdbcTemplate.query(findAllQuery, NO_PARAMETERS, ACCOUNT_MAPPER);
+    }
+
+    @Override
+    public List<Account> findPage(long afterId, int limit) {
+        return jdbcTemplate.query(findPageQuery, statement -> {
+            statement.setLong(1, afterId);
+            statement.setInt(2, limit);
+        }, ACCOUNT_MAPPER);
+    }
+
+    @Override
+    public void forEach(Consumer<? super Account> consumer) {
+        jdbcTemplate.queryForEach(forEachQuery, NO_PARAMETERS, exportFetchSize, ACCOUNT_MAPPER, consumer);
     }
 
     @Override
     public Optional<Account> getById(long id) {
-        try {
-            String query = "SELECT id, balance FROM account where id = ?";
-            PreparedStatement statement = jdbcTemplate.prepareStatement(query);
-            statement.setLong(1, id);
-            ResultSet rs = statement.executeQuery();
-            if (rs.next()) {
-                return Optional.of(Account.builder()
-                        .id(rs.getLong("ID"))
-                        .balance(rs.getBigDecimal("BALANCE"))
-                        .build());
-            } else {
-                return Optional.empty();
-            }
-        } catch (SQLException e) {
-            throw new PersistenceException(e);
+        if (stripes.contains(id)) {
+            return getStripedById(id);
+        }
+        String query = "SELECT id, balance, held, version FROM account where id = ?";
+        return jdbcTemplate.queryForObject(query, statement -> statement.setLong(1, id), ACCOUNT_MAPPER);
+    }
+
+    @Override
+    public Optional<Account> getByIdForUpdate(long id) {
+        Optional<Account> account = lockRow(id);
+        if (!account.isPresent() || !stripes.contains(id)) {
+            return account;
         }
+        List<Stripe> parts = new ArrayList<>(lockStripes(id));
+        parts.add(new Stripe(ACCOUNT_ROW, account.get().getBalance(), account.get().getHeld(),
+                account.get().getVersion()));
+        return sum(id, parts);
     }
 
     @Override
@@ -66,48 +115,383 @@ public class AccountDaoImpl implements AccountDao {
         Long id = account.getId();
         if (id == null) {
             return create(account);
+        } else if (stripes.contains(id)) {
+            return saveStriped(account);
         } else {
-            if (getById(id).isPresent()) {
-                return update(account);
+            Long version = account.getVersion();
+            if (version == null) {
+                return overwrite(account);
             }
+            if (update(account)) {
+                return account.toBuilder()
+                        .version(version + 1)
+                        .build();
+            }
+            throw new OptimisticLockException(
+                    String.format("Cannot update entity with id %d and version %d", id, version));
+        }
+    }
+
+    @Override
+    public List<Account> createAll(int count) {
+        List<Account> accounts = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            accounts.add(Account.builder()
+                    .id(idGenerator.next())
+                    .balance(0L)
+                    .version(0L)
+                    .build());
+        }
+        String query = "INSERT INTO account (id, balance, version) VALUES (?, 0, 0)";
+        jdbcTemplate.batchUpdate(query, accounts, (statement, account) -> statement.setLong(1, account.getId()));
+        return accounts;
+    }
+
+    @Override
+    public Optional<Account> credit(long id, long amount) {
+        if (stripes.contains(id)) {
+            return creditStripe(id, amount);
+        }
+        String query = "UPDATE account SET balance = balance + ?, version = version + 1 WHERE id = ? AND balance <= ?";
+        int updatedRows = jdbcTemplate.update(query, statement -> {
+            statement.setLong(1, amount);
+            statement.setLong(2, id);
+            statement.setLong(3, Long.MAX_VALUE - amount);
+        });
+        return readUpdated(id, updatedRows);
+    }
+
+    @Override
+    public Optional<Account> debitIfSufficient(long id, long amount) {
+        int updatedRows = debitRow(id, amount);
+        if (updatedRows == 0 && stripes.contains(id) && moveStripesToRow(id)) {
+            updatedRows = debitRow(id, amount);
+        }
+        return readUpdated(id, updatedRows);
+    }
+
+    @Override
+    public Optional<Account> holdIfAvailable(long id, long amount) {
+        int updatedRows = holdRow(id, amount);
+        if (updatedRows == 0 && stripes.contains(id) && moveStripesToRow(id)) {
+            updatedRows = holdRow(id, amount);
+        }
+        return readUpdated(id, updatedRows);
+    }
+
+    /**
+     * The row of a striped account always holds at least its held money, since whatever debits the row checks
+     * the available money of the row alone.
+     */
+    @Override
+    public Optional<Account> settleHold(long id, long held, long debited) {
+        String query = "UPDATE account SET balance = balance - ?, held = held - ?, version = version + 1 WHERE id = ?";
+        int updatedRows = jdbcTemplate.update(query, statement -> {
+            statement.setLong(1, debited);
+            statement.setLong(2, held);
+            statement.setLong(3, id);
+        });
+        return readUpdated(id, updatedRows);
+    }
+
+    @Override
+    public void releaseHeld(Map<Long, Long> held) {
+        String query = "UPDATE account SET held = held - ?, version = version + 1 WHERE id = ?";
+        jdbcTemplate.batchUpdate(query, held.entrySet(), (statement, amount) -> {
+            statement.setLong(1, amount.getValue());
+            statement.setLong(2, amount.getKey());
+        });
+    }
+
+    @Override
+    public List<Account> lockAll(Collection<Long> ids) {
+        // one primary key lookup per id: H2 looks up every value of a set (IN, = ANY) several times slower than
+        // it runs the same number of single row statements. An account and its stripes are locked before
+        // the next account, in the same order as transfers do it
+        List<Account> accounts = new ArrayList<>(ids.size());
+        ids.stream()
+                .sorted()
+                .distinct()
+                .forEach(id -> getByIdForUpdate(id).ifPresent(accounts::add));
+        return accounts;
+    }
+
+    @Override
+    public Map<Long, Integer> applyDeltas(Map<Long, Long> deltas) {
+        Map<Long, Integer> versionIncrements = new HashMap<>();
+        deltas.forEach((id, delta) -> {
+            // a debited row must hold the whole balance to stay non-negative
+            int moved = delta < 0 && stripes.contains(id) ? moveStripesToLockedRow(id) : 0;
+            versionIncrements.put(id, moved + 1);
+        });
+        String query = "UPDATE account SET balance = balance + ?, version = version + 1 WHERE id = ?";
+        jdbcTemplate.batchUpdate(query, deltas.entrySet(), (statement, delta) -> {
+            statement.setLong(1, delta.getValue());
+            statement.setLong(2, delta.getKey());
+        });
+        return versionIncrements;
+    }
+
+    @Override
+    public void restoreAll(Collection<Account> accounts) {
+        String query = "MERGE INTO account (id, balance, version) KEY (id) VALUES (?, ?, ?)";
+        jdbcTemplate.batchUpdate(query, accounts, (statement, account) -> {
+            statement.setLong(1, account.getId());
+            statement.setLong(2, account.getBalance());
+            statement.setLong(3, account.getVersion());
+        });
+        if (!stripes.isEmpty()) {
+            // a restored row holds the whole balance
+            String deleteQuery = "DELETE FROM account_stripe WHERE account_id = ?";
+            jdbcTemplate.batchUpdate(deleteQuery, accounts, (statement, account) ->
+                    statement.setLong(1, account.getId()));
+        }
+        long maxId = accounts.stream().mapToLong(Account::getId).max().orElse(0);
+        // the sequence returns starts of blocks, the next one being right after the block reserved last
+        long nextBlock = jdbcTemplate.queryForObject("SELECT account_seq.currval FROM dual", NO_PARAMETERS,
+                rs -> rs.getLong(1)).orElse(0L) + idGenerator.getBlockSize();
+        if (maxId >= nextBlock) {
+            // DDL can't take parameters, and H2 commits the current transaction before running it
+            jdbcTemplate.update(String.format("ALTER SEQUENCE account_seq RESTART WITH %d", maxId + 1), NO_PARAMETERS);
+        }
+        // the current block may contain restored ids
+        idGenerator.reset();
+    }
+
+    /**
+     * H2 can't return columns from an UPDATE, so the new balance is read back. The row is locked
+     * by the transaction's own update at that point, hence the read is consistent with it.
+     */
+    private Optional<Account> readUpdated(long id, int updatedRows) {
+        return updatedRows == 0 ? Optional.empty() : getById(id);
+    }
+
+    private int debitRow(long id, long amount) {
+        String query = "UPDATE account SET balance = balance - ?, version = version + 1 " +
+                "WHERE id = ? AND balance - held >= ?";
+        return jdbcTemplate.update(query, statement -> {
+            statement.setLong(1, amount);
+            statement.setLong(2, id);
+            statement.setLong(3, amount);
+        });
+    }
+
+    private int holdRow(long id, long amount) {
+        String query = "UPDATE account SET held = held + ?, version = version + 1 WHERE id = ? AND balance - held >= ?";
+        return jdbcTemplate.update(query, statement -> {
+            statement.setLong(1, amount);
+            statement.setLong(2, id);
+            statement.setLong(3, amount);
+        });
+    }
+
+    private Optional<Account> lockRow(long id) {
+        String query = "SELECT id, balance, held, version FROM account WHERE id = ? FOR UPDATE";
+        return jdbcTemplate.queryForObject(query, statement -> statement.setLong(1, id), ACCOUNT_MAPPER);
+    }
+
+    private List<Stripe> lockStripes(long id) {
+        String query = "SELECT stripe, balance, 0 held, version FROM account_stripe WHERE account_id = ? " +
+                "ORDER BY stripe FOR UPDATE";
+        return jdbcTemplate.query(query, statement -> statement.setLong(1, id), STRIPE_MAPPER);
+    }
+
+    /**
+     * Reads the row and the stripes in one statement, which sees them as of one moment.
+     */
+    private Optional<Account> getStripedById(long id) {
+        String query = "SELECT " + ACCOUNT_ROW + " stripe, balance, held, version FROM account WHERE id = ? " +
+                "UNION ALL SELECT stripe, balance, 0, version FROM account_stripe WHERE account_id = ?";
+        return sum(id, jdbcTemplate.query(query, statement -> {
+            statement.setLong(1, id);
+            statement.setLong(2, id);
+        }, STRIPE_MAPPER));
+    }
+
+    /**
+     * @throws ArithmeticException if the balance doesn't fit in a long
+     */
+    private static Optional<Account> sum(long id, List<Stripe> parts) {
+        boolean exists = false;
+        long balance = 0;
+        long held = 0;
+        long version = 0;
+        for (Stripe part : parts) {
+            exists |= part.getStripe() == ACCOUNT_ROW;
+            balance = Math.addExact(balance, part.getBalance());
+            held += part.getHeld();
+            version += part.getVersion();
+        }
+        return exists
+                ? Optional.of(Account.builder().id(id).balance(balance).held(held).version(version).build())
+                : Optional.empty();
+    }
+
+    private Optional<Account> creditStripe(long id, long amount) {
+        int stripe = stripes.pick();
+        if (addToStripe(id, stripe, amount) == 0) {
+            // stripes are created on the first credit, under the lock of their account
+            if (!lockRow(id).isPresent()) {
+                return Optional.empty();
+            }
+            createStripes(id);
+            if (addToStripe(id, stripe, amount) == 0) {
+                return Optional.empty();
+            }
+        }
+        try {
+            return getStripedById(id);
+        } catch (ArithmeticException e) {
+            String query = "UPDATE account_stripe SET balance = balance - ?, version = version + 1 " +
+                    "WHERE account_id = ? AND stripe = ?";
+            jdbcTemplate.update(query, statement -> {
+                statement.setLong(1, amount);
+                statement.setLong(2, id);
+                statement.setInt(3, stripe);
+            });
+            return Optional.empty();
+        }
+    }
+
+    private int addToStripe(long id, int stripe, long amount) {
+        String query = "UPDATE account_stripe SET balance = balance + ?, version = version + 1 " +
+                "WHERE account_id = ? AND stripe = ? AND balance <= ?";
+        return jdbcTemplate.update(query, statement -> {
+            statement.setLong(1, amount);
+            statement.setLong(2, id);
+            statement.setInt(3, stripe);
+            statement.setLong(4, Long.MAX_VALUE - amount);
+        });
+    }
+
+    private void createStripes(long id) {
+        String query = "INSERT INTO account_stripe (account_id, stripe, balance, version) " +
+                "SELECT ?, x, 0, 0 FROM SYSTEM_RANGE(0, ?) r " +
+                "WHERE NOT EXISTS (SELECT 1 FROM account_stripe s WHERE s.account_id = ? AND s.stripe = r.x)";
+        try {
+            jdbcTemplate.update(query, statement -> {
+                statement.setLong(1, id);
+                statement.setInt(2, stripes.getStripes() - 1);
+                statement.setLong(3, id);
+            });
+        } catch (PersistenceException e) {
+            // the other transaction created them after this one had taken its snapshot, so it can't see them
+            Throwable cause = e.getCause();
+            if (cause instanceof SQLException && DUPLICATE_KEY.equals(((SQLException) cause).getSQLState())) {
+                throw new OptimisticLockException(
+                        String.format("Stripes of account %d have been created by another transaction", id));
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * Locks the account with its stripes and moves the money of the stripes to the row. Even if there's nothing
+     * to move, the row may have got the stripes of a concurrent debit which held its lock in the meantime.
+     *
+     * @return whether the account exists
+     */
+    private boolean moveStripesToRow(long id) {
+        if (!lockRow(id).isPresent()) {
+            return false;
+        }
+        moveStripesToLockedRow(id);
+        return true;
+    }
+
+    /**
+     * @return the number of rows updated, each of which got a new version
+     */
+    private int moveStripesToLockedRow(long id) {
+        long moved = lockStripes(id).stream()
+                .mapToLong(Stripe::getBalance)
+                .sum();
+        if (moved == 0) {
+            return 0;
+        }
+        String rowQuery = "UPDATE account SET balance = balance + ?, version = version + 1 WHERE id = ?";
+        jdbcTemplate.update(rowQuery, statement -> {
+            statement.setLong(1, moved);
+            statement.setLong(2, id);
+        });
+        return 1 + emptyStripes(id);
+    }
+
+    /**
+     * @return the number of stripes emptied, each of which got a new version
+     */
+    private int emptyStripes(long id) {
+        String query = "UPDATE account_stripe SET balance = 0, version = version + 1 " +
+                "WHERE account_id = ? AND balance <> 0";
+        return jdbcTemplate.update(query, statement -> statement.setLong(1, id));
+    }
+
+    /**
+     * Writes the whole balance to the row. The version to check, if any, is the sum of the row's and the stripes'.
+     */
+    private Account saveStriped(Account account) {
+        long id = account.getId();
+        Long version = account.getVersion();
+        Optional<Account> current = getByIdForUpdate(id);
+        if (!current.isPresent() && version == null) {
             throw new PersistenceException(String.format("Cannot update entity with id %d", id));
         }
+        if (!current.isPresent() || version != null && version.longValue() != current.get().getVersion()) {
+            throw new OptimisticLockException(
+                    String.format("Cannot update entity with id %d and version %d", id, version));
+        }
+        int emptied = emptyStripes(id);
+        overwrite(account);
+        return version == null ? account : account.toBuilder()
+                .version(version + 1 + emptied)
+                .build();
     }
 
     private Account create(Account account) {
-        try {
-            String seqQuery = "SELECT account_seq.nextval FROM dual";
-            PreparedStatement seqStatement = jdbcTemplate.prepareStatement(seqQuery);
-            ResultSet seqResultSet = seqStatement.executeQuery();
-            seqResultSet.next();
-            long nextId = seqResultSet.getLong(1);
-
-            Account newAccount = account.toBuilder()
-                    .id(nextId)
-                    .build();
-
-            String query = "INSERT INTO account (id, balance) VALUES (?, ?)";
-            PreparedStatement statement = jdbcTemplate.prepareStatement(query);
+        Account newAccount = account.toBuilder()
+                .id(idGenerator.next())
+                .version(0L)
+                .build();
+
+        String query = "INSERT INTO account (id, balance, version) VALUES (?, ?, ?)";
+        jdbcTemplate.update(query, statement -> {
             statement.setLong(1, newAccount.getId());
-            statement.setBigDecimal(2, newAccount.getBalance());
-            statement.execute();
+            statement.setLong(2, newAccount.getBalance());
+            statement.setLong(3, newAccount.getVersion());
+        });
 
-            return newAccount;
-        } catch (SQLException e) {
-            throw new PersistenceException(e);
-        }
+        return newAccount;
     }
 
-    private Account update(Account account) {
-        try {
-            String query = "UPDATE account SET balance = ? where id = ?";
-            PreparedStatement statement = jdbcTemplate.prepareStatement(query);
-            statement.setBigDecimal(1, account.getBalance());
+    private boolean update(Account account) {
+        String query = "UPDATE account SET balance = ?, version = version + 1 WHERE id = ? AND version = ?";
+        return jdbcTemplate.update(query, statement -> {
+            statement.setLong(1, account.getBalance());
             statement.setLong(2, account.getId());
-            statement.execute();
-            return account;
-        } catch (SQLException e) {
-            throw new PersistenceException(e);
+            statement.setLong(3, account.getVersion());
+        }) > 0;
+    }
+
+    private Account overwrite(Account account) {
+        String query = "UPDATE account SET balance = ?, version = version + 1 WHERE id = ?";
+        int updatedRows = jdbcTemplate.update(query, statement -> {
+            statement.setLong(1, account.getBalance());
+            statement.setLong(2, account.getId());
+        });
+        if (updatedRows == 0) {
+            throw new PersistenceException(String.format("Cannot update entity with id %d", account.getId()));
         }
+        return account;
+    }
+
+    @Value
+    private static class Stripe {
+        int stripe;
+        long balance;
+        /**
+         * Always 0 for a stripe, holds are kept on the row.
+         */
+        long held;
+        long version;
     }
 }
@@ -0,0 +1,94 @@
+package com.github.fertkir.moneytransfer.dao.impl;
+
+import com.github.fertkir.moneytransfer.persistence.JdbcTemplate;
+import com.github.fertkir.moneytransfer.persistence.PersistenceException;
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import com.google.inject.name.Named;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+import static com.github.fertkir.moneytransfer.persistence.StatementBinder.NO_PARAMETERS;
+
+/**
+ * Hands out account ids from blocks reserved in {@code account_seq}, which is incremented by the size of a block,
+ * so every value it returns starts a block of its own. Only reserving a block takes a statement; ids of a block
+ * left unused by a restart are skipped.
+ */
+@Singleton
+public class AccountIdGenerator {
+
+    public static final String BLOCK_SIZE = "dao.idBlockSize";
+
+    private static final Block EMPTY = new Block(0, 0);
+
+    private final JdbcTemplate jdbcTemplate;
+    private final int blockSize;
+    /**
+     * Held while reserving a block.
+     */
+    private final Lock reserveLock = new ReentrantLock();
+    private volatile Block block = EMPTY;
+
+    @Inject
+    public AccountIdGenerator(JdbcTemplate jdbcTemplate, @Named(BLOCK_SIZE) int blockSize) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.blockSize = blockSize;
+    }
+
+    public int getBlockSize() {
+        return blockSize;
+    }
+
+    /**
+     * Must be called within a transaction, which reserves the next block once the current one is used up.
+     */
+    public long next() {
+        while (true) {
+            Block current = block;
+            long id = current.next.getAndIncrement();
+            if (id < current.end) {
+                return id;
+            }
+            reserveLock.lock();
+            try {
+                if (block == current) {
+                    block = reserve();
+                }
+            } finally {
+                reserveLock.unlock();
+            }
+        }
+    }
+
+    /**
+     * Drops the current block, e.g. after the sequence has been moved past ids restored into the table.
+     */
+    void reset() {
+        reserveLock.lock();
+        try {
+            block = EMPTY;
+        } finally {
+            reserveLock.unlock();
+        }
+    }
+
+    private Block reserve() {
+        String query = "SELECT account_seq.nextval FROM dual";
+        long start = jdbcTemplate.queryForObject(query, NO_PARAMETERS, rs -> rs.getLong(1))
+                .orElseThrow(() -> new PersistenceException("Sequence account_seq returned no value"));
+        return new Block(start, start + blockSize);
+    }
+
+    private static class Block {
+        private final AtomicLong next;
+        private final long end;
+
+        private Block(long start, long end) {
+            this.next = new AtomicLong(start);
+            this.end = end;
+        }
+    }
+}
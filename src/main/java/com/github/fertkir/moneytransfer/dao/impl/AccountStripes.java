@@ -0,0 +1,60 @@
+package com.github.fertkir.moneytransfer.dao.impl;
+
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import com.google.inject.name.Named;
+
+import java.util.Arrays;
+import java.util.Set;
+
+import static java.util.stream.Collectors.toSet;
+
+/**
+ * Accounts whose balance is split between the account row and stripe rows: credits go to one of the stripes,
+ * so that concurrent top-ups of a hot account don't all wait for the lock of one row.
+ */
+@Singleton
+public class AccountStripes {
+
+    public static final String ACCOUNTS = "dao.striping.accounts";
+    public static final String STRIPES = "dao.striping.stripes";
+
+    private final Set<Long> accountIds;
+    private final int stripes;
+
+    /**
+     * @param accountIds comma-separated ids of the striped accounts
+     */
+    @Inject
+    public AccountStripes(@Named(ACCOUNTS) String accountIds, @Named(STRIPES) int stripes) {
+        if (stripes < 1) {
+            throw new IllegalArgumentException(String.format("%s must be positive, but given %d", STRIPES, stripes));
+        }
+        this.accountIds = Arrays.stream(accountIds.split(","))
+                .map(String::trim)
+                .filter(id -> !id.isEmpty())
+                .map(Long::valueOf)
+                .collect(toSet());
+        this.stripes = stripes;
+    }
+
+    public boolean isEmpty() {
+        return accountIds.isEmpty();
+    }
+
+    public boolean contains(long accountId) {
+        return !accountIds.isEmpty() && accountIds.contains(accountId);
+    }
+
+    int getStripes() {
+        return stripes;
+    }
+
+    /**
+     * A thread keeps crediting the same stripe, so that as many threads as there are stripes don't wait for
+     * each other's locks.
+     */
+    int pick() {
+        return (int) (Thread.currentThread().getId() % stripes);
+    }
+}
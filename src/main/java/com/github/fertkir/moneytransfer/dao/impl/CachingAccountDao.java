@@ -0,0 +1,252 @@
+package com.github.fertkir.moneytransfer.dao.impl;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.stats.CacheStats;
+import com.github.fertkir.moneytransfer.dao.AccountDao;
+import com.github.fertkir.moneytransfer.entity.Account;
+import com.github.fertkir.moneytransfer.persistence.TransactionTemplate;
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import com.google.inject.name.Named;
+
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.function.Consumer;
+
+/**
+ * Read-through cache of {@link AccountDao#getById(long)} in front of another {@link AccountDao}.
+ * <p>
+ * Accounts read are put into the cache only after the reading transaction commits, so nothing a rolled back
+ * transaction saw ever gets there. Written accounts are evicted right before the writing transaction commits,
+ * and their stripes stay marked as being written until it's over, so that nobody can read the old state
+ * from the cache once the new one is visible in the database. An account read is cached only if no write
+ * of its stripe is in flight and none has completed since the reading transaction started: otherwise its
+ * snapshot might predate the write. Within a transaction that wrote an account, the account is always read
+ * from the database so that the transaction sees its own changes.
+ * <p>
+ * Writes made bypassing the application (e.g. straight SQL against the table) are not noticed.
+ */
+@Singleton
+public class CachingAccountDao implements AccountDao {
+
+    public static final String DELEGATE = "cachingAccountDao.delegate";
+
+    private static final Object TRANSACTION_STATE = new Object();
+    private static final int INVALIDATION_STRIPES = 4096;
+
+    private final AccountDao delegate;
+    private final TransactionTemplate transactionTemplate;
+    private final Cache<Long, Account> cache;
+    /**
+     * Sequence number of the latest completed write, and of the latest one per stripe of ids.
+     */
+    private final AtomicLong invalidations = new AtomicLong();
+    private final AtomicLongArray stripeInvalidations = new AtomicLongArray(INVALIDATION_STRIPES);
+    /**
+     * Number of transactions per stripe of ids which are committing a write.
+     */
+    private final AtomicIntegerArray stripeWriters = new AtomicIntegerArray(INVALIDATION_STRIPES);
+
+    @Inject
+    public CachingAccountDao(@Named(DELEGATE) AccountDao delegate,
+                             TransactionTemplate transactionTemplate,
+                             @Named("dao.cache.maximumSize") long maximumSize) {
+        this.delegate = delegate;
+        this.transactionTemplate = transactionTemplate;
+        this.cache = Caffeine.newBuilder()
+                .maximumSize(maximumSize)
+                .recordStats()
+                .build();
+    }
+
+    /**
+     * Hit, miss and eviction counts since start-up.
+     */
+    public CacheStats getStatistics() {
+        return cache.stats();
+    }
+
+    @Override
+    public Optional<Account> getById(long id) {
+        TransactionState state = transactionState();
+        if (state.written.contains(id)) {
+            return delegate.getById(id);
+        }
+        Account cached = cache.getIfPresent(id);
+        if (cached != null) {
+            return Optional.of(cached);
+        }
+        Optional<Account> account = delegate.getById(id);
+        account.ifPresent(value -> transactionTemplate.afterCommit(() -> populate(value, state.invalidationsAtStart)));
+        return account;
+    }
+
+    @Override
+    public List<Account> findAll() {
+        transactionState();
+        return delegate.findAll();
+    }
+
+    @Override
+    public List<Account> findPage(long afterId, int limit) {
+        transactionState();
+        return delegate.findPage(afterId, limit);
+    }
+
+    @Override
+    public void forEach(Consumer<? super Account> consumer) {
+        transactionState();
+        delegate.forEach(consumer);
+    }
+
+    @Override
+    public Optional<Account> getByIdForUpdate(long id) {
+        transactionState();
+        return delegate.getByIdForUpdate(id);
+    }
+
+    @Override
+    public List<Account> lockAll(Collection<Long> ids) {
+        transactionState();
+        return delegate.lockAll(ids);
+    }
+
+    @Override
+    public Account save(Account account) {
+        TransactionState state = transactionState();
+        Account saved = delegate.save(account);
+        written(state, saved.getId());
+        return saved;
+    }
+
+    @Override
+    public List<Account> createAll(int count) {
+        TransactionState state = transactionState();
+        List<Account> created = delegate.createAll(count);
+        created.forEach(account -> written(state, account.getId()));
+        return created;
+    }
+
+    @Override
+    public Optional<Account> credit(long id, long amount) {
+        TransactionState state = transactionState();
+        Optional<Account> account = delegate.credit(id, amount);
+        account.ifPresent(value -> written(state, id));
+        return account;
+    }
+
+    @Override
+    public Optional<Account> debitIfSufficient(long id, long amount) {
+        TransactionState state = transactionState();
+        Optional<Account> account = delegate.debitIfSufficient(id, amount);
+        account.ifPresent(value -> written(state, id));
+        return account;
+    }
+
+    @Override
+    public Optional<Account> holdIfAvailable(long id, long amount) {
+        TransactionState state = transactionState();
+        Optional<Account> account = delegate.holdIfAvailable(id, amount);
+        account.ifPresent(value -> written(state, id));
+        return account;
+    }
+
+    @Override
+    public Optional<Account> settleHold(long id, long held, long debited) {
+        TransactionState state = transactionState();
+        Optional<Account> account = delegate.settleHold(id, held, debited);
+        account.ifPresent(value -> written(state, id));
+        return account;
+    }
+
+    @Override
+    public void releaseHeld(Map<Long, Long> held) {
+        TransactionState state = transactionState();
+        delegate.releaseHeld(held);
+        held.keySet().forEach(id -> written(state, id));
+    }
+
+    @Override
+    public Map<Long, Integer> applyDeltas(Map<Long, Long> deltas) {
+        TransactionState state = transactionState();
+        Map<Long, Integer> versionIncrements = delegate.applyDeltas(deltas);
+        deltas.keySet().forEach(id -> written(state, id));
+        return versionIncrements;
+    }
+
+    @Override
+    public void restoreAll(Collection<Account> accounts) {
+        TransactionState state = transactionState();
+        delegate.restoreAll(accounts);
+        accounts.forEach(account -> written(state, account.getId()));
+    }
+
+    /**
+     * Every method calls this before touching the database, so the counter is captured no later than
+     * the transaction's snapshot is taken.
+     */
+    private TransactionState transactionState() {
+        return transactionTemplate.getResource(TRANSACTION_STATE, () -> new TransactionState(invalidations.get()));
+    }
+
+    private void written(TransactionState state, long id) {
+        if (state.written.isEmpty()) {
+            transactionTemplate.beforeCommit(() -> startWriting(state));
+            transactionTemplate.afterCompletion(() -> finishWriting(state));
+        }
+        state.written.add(id);
+    }
+
+    private void startWriting(TransactionState state) {
+        state.written.forEach(id -> stripeWriters.incrementAndGet(stripe(id)));
+        state.writing = true;
+        cache.invalidateAll(state.written);
+    }
+
+    /**
+     * The stripes are marked before the writers are released, so a reader which doesn't see the writers
+     * sees the marks. Marks only grow: a writer finishing after a later one mustn't lower the mark of their stripe.
+     */
+    private void finishWriting(TransactionState state) {
+        if (!state.writing) {
+            return;
+        }
+        long invalidation = invalidations.incrementAndGet();
+        state.written.forEach(id -> stripeInvalidations.accumulateAndGet(stripe(id), invalidation, Math::max));
+        state.written.forEach(id -> stripeWriters.decrementAndGet(stripe(id)));
+    }
+
+    /**
+     * The check is made under the lock of the entry, so it can't interleave with the eviction made by a writer:
+     * either the writer has been counted before the check or it evicts the entry put here.
+     */
+    private void populate(Account account, long invalidationsAtStart) {
+        int stripe = stripe(account.getId());
+        cache.asMap().compute(account.getId(), (id, cached) ->
+                stripeWriters.get(stripe) == 0 && stripeInvalidations.get(stripe) <= invalidationsAtStart
+                        ? account
+                        : cached);
+    }
+
+    private static int stripe(long id) {
+        return (int) (id ^ (id >>> 32)) & (INVALIDATION_STRIPES - 1);
+    }
+
+    private static class TransactionState {
+        private final long invalidationsAtStart;
+        private final Set<Long> written = new HashSet<>();
+        private boolean writing;
+
+        private TransactionState(long invalidationsAtStart) {
+            this.invalidationsAtStart = invalidationsAtStart;
+        }
+    }
+}
@@ -0,0 +1,87 @@
+package com.github.fertkir.moneytransfer.dao.impl;
+
+import com.github.fertkir.moneytransfer.dao.HoldDao;
+import com.github.fertkir.moneytransfer.entity.Hold;
+import com.github.fertkir.moneytransfer.persistence.JdbcTemplate;
+import com.github.fertkir.moneytransfer.persistence.RowMapper;
+import com.google.inject.Inject;
+import com.google.inject.name.Named;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Optional;
+import java.util.function.Consumer;
+
+import static com.github.fertkir.moneytransfer.persistence.StatementBinder.NO_PARAMETERS;
+
+public class HoldDaoImpl implements HoldDao {
+
+    private static final RowMapper<Hold> HOLD_MAPPER = rs -> Hold.builder()
+            .id(rs.getLong("ID"))
+            .accountId(rs.getLong("ACCOUNT_ID"))
+            .amount(rs.getLong("AMOUNT"))
+            .createdAt(rs.getLong("CREATED_AT"))
+            .expiresAt(rs.getLong("EXPIRES_AT"))
+            .build();
+
+    private final JdbcTemplate jdbcTemplate;
+    private final int fetchSize;
+
+    @Inject
+    public HoldDaoImpl(JdbcTemplate jdbcTemplate, @Named("persistence.export.fetchSize") int fetchSize) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.fetchSize = fetchSize;
+    }
+
+    @Override
+    public Hold insert(Hold hold) {
+        long id = jdbcTemplate.queryForObject("SELECT account_hold_seq.nextval FROM dual", NO_PARAMETERS,
+                rs -> rs.getLong(1)).orElseThrow(IllegalStateException::new);
+        String query = "INSERT INTO account_hold (id, account_id, amount, created_at, expires_at) " +
+                "VALUES (?, ?, ?, ?, ?)";
+        jdbcTemplate.update(query, statement -> {
+            statement.setLong(1, id);
+            statement.setLong(2, hold.getAccountId());
+            statement.setLong(3, hold.getAmount());
+            statement.setLong(4, hold.getCreatedAt());
+            statement.setLong(5, hold.getExpiresAt());
+        });
+        return hold.toBuilder()
+                .id(id)
+                .build();
+    }
+
+    @Override
+    public Optional<Hold> getByIdForUpdate(long id) {
+        String query = "SELECT id, account_id, amount, created_at, expires_at FROM account_hold WHERE id = ? " +
+                "FOR UPDATE";
+        return jdbcTemplate.queryForObject(query, statement -> statement.setLong(1, id), HOLD_MAPPER);
+    }
+
+    @Override
+    public List<Hold> lockAll(Collection<Long> ids) {
+        // one primary key lookup per id, see AccountDaoImpl.lockAll
+        List<Hold> holds = new ArrayList<>(ids.size());
+        ids.stream()
+                .sorted()
+                .distinct()
+                .forEach(id -> getByIdForUpdate(id).ifPresent(holds::add));
+        return holds;
+    }
+
+    @Override
+    public void deleteAll(Collection<Long> ids) {
+        jdbcTemplate.batchUpdate("DELETE FROM account_hold WHERE id = ?", ids,
+                (statement, id) -> statement.setLong(1, id));
+    }
+
+    /**
+     * Reads the expiry index in order rather than sorting the table.
+     */
+    @Override
+    public void forEachByExpiry(Consumer<? super Hold> consumer) {
+        String query = "SELECT id, account_id, amount, created_at, expires_at FROM account_hold ORDER BY expires_at";
+        jdbcTemplate.queryForEach(query, NO_PARAMETERS, fetchSize, HOLD_MAPPER, consumer);
+    }
+}
@@ -0,0 +1,75 @@
+package com.github.fertkir.moneytransfer.dao.impl;
+
+import com.github.fertkir.moneytransfer.dao.IdempotencyKeyDao;
+import com.github.fertkir.moneytransfer.entity.IdempotentResponse;
+import com.github.fertkir.moneytransfer.persistence.JdbcTemplate;
+import com.github.fertkir.moneytransfer.persistence.PersistenceException;
+import com.github.fertkir.moneytransfer.persistence.RowMapper;
+import com.google.inject.Inject;
+
+import java.util.Optional;
+
+/**
+ * Rows are keyed by the idempotency key itself, so that a response is never stored over or returned for
+ * another key. Their row id is H2's {@code _ROWID_}, the key of the table's own storage, so looking a row up
+ * by it takes no index and storing a response doesn't maintain one more.
+ */
+public class IdempotencyKeyDaoImpl implements IdempotencyKeyDao {
+
+    private static final String COLUMNS = "_ROWID_, idempotency_key, request, response, created_at";
+    private static final RowMapper<IdempotentResponse> RESPONSE_MAPPER = rs -> IdempotentResponse.builder()
+            .id(rs.getLong(1))
+            .key(rs.getString("IDEMPOTENCY_KEY"))
+            .request(rs.getString("REQUEST"))
+            .body(rs.getString("RESPONSE"))
+            .createdAt(rs.getLong("CREATED_AT"))
+            .build();
+
+    private final JdbcTemplate jdbcTemplate;
+
+    @Inject
+    public IdempotencyKeyDaoImpl(JdbcTemplate jdbcTemplate) {
+        this.jdbcTemplate = jdbcTemplate;
+    }
+
+    @Override
+    public Optional<IdempotentResponse> getByKey(String key, long createdAfter) {
+        String query = "SELECT " + COLUMNS + " FROM idempotency_key WHERE idempotency_key = ? AND created_at >= ?";
+        return jdbcTemplate.queryForObject(query, statement -> {
+            statement.setString(1, key);
+            statement.setLong(2, createdAfter);
+        }, RESPONSE_MAPPER);
+    }
+
+    @Override
+    public Optional<IdempotentResponse> getById(long id, long createdAfter) {
+        String query = "SELECT " + COLUMNS + " FROM idempotency_key WHERE _ROWID_ = ? AND created_at >= ?";
+        return jdbcTemplate.queryForObject(query, statement -> {
+            statement.setLong(1, id);
+            statement.setLong(2, createdAfter);
+        }, RESPONSE_MAPPER);
+    }
+
+    @Override
+    public long save(IdempotentResponse response) {
+        String query = "MERGE INTO idempotency_key (idempotency_key, request, response, created_at) " +
+                "KEY (idempotency_key) VALUES (?, ?, ?, ?)";
+        jdbcTemplate.update(query, statement -> {
+            statement.setString(1, response.getKey());
+            statement.setString(2, response.getRequest());
+            statement.setString(3, response.getBody());
+            statement.setLong(4, response.getCreatedAt());
+        });
+        // a replaced response keeps its row
+        return jdbcTemplate.queryForObject("SELECT _ROWID_ FROM idempotency_key WHERE idempotency_key = ?",
+                statement -> statement.setString(1, response.getKey()), rs -> rs.getLong(1))
+                .orElseThrow(() -> new PersistenceException("Stored idempotency key " + response.getKey()
+                        + " is missing"));
+    }
+
+    @Override
+    public int deleteCreatedBefore(long createdBefore) {
+        String query = "DELETE FROM idempotency_key WHERE created_at < ?";
+        return jdbcTemplate.update(query, statement -> statement.setLong(1, createdBefore));
+    }
+}
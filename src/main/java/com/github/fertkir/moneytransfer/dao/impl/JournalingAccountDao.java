@@ -0,0 +1,250 @@
+package com.github.fertkir.moneytransfer.dao.impl;
+
+import com.github.fertkir.moneytransfer.dao.AccountDao;
+import com.github.fertkir.moneytransfer.dao.DaoModule;
+import com.github.fertkir.moneytransfer.entity.Account;
+import com.github.fertkir.moneytransfer.journal.Journal;
+import com.github.fertkir.moneytransfer.persistence.JdbcTemplate;
+import com.github.fertkir.moneytransfer.persistence.PersistenceException;
+import com.github.fertkir.moneytransfer.persistence.TransactionTemplate;
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import com.google.inject.name.Named;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
+
+import static com.github.fertkir.moneytransfer.persistence.StatementBinder.NO_PARAMETERS;
+
+/**
+ * Writes the state of every account changed by a transaction to the {@link Journal} right before the transaction
+ * commits, and makes the commit wait until the states are durable. Accounts found in the journal are restored
+ * into the database on start-up, a chunk per transaction.
+ * <p>
+ * A file database keeps the accounts itself and may only have lost the commits of its last write delay, so only
+ * the journal states written after the latest snapshot, and newer than its own, are restored into it. Each
+ * checkpoint writes the database to disk before the journal replaces segments with a snapshot. A file database
+ * without any accounts is restored in full, e.g. one started with the journal of an in-memory database.
+ */
+@Singleton
+public class JournalingAccountDao implements AccountDao {
+
+    public static final String DELEGATE = "journalingAccountDao.delegate";
+
+    private static final Object TRANSACTION_STATE = new Object();
+    private static final int RESTORE_CHUNK_SIZE = 10_000;
+
+    private final AccountDao delegate;
+    private final TransactionTemplate transactionTemplate;
+    private final Journal journal;
+    private final JdbcTemplate jdbcTemplate;
+
+    @Inject
+    public JournalingAccountDao(@Named(DELEGATE) AccountDao delegate,
+                                TransactionTemplate transactionTemplate,
+                                Journal journal,
+                                JdbcTemplate jdbcTemplate,
+                                @Named(DaoModule.STORAGE) String storage) {
+        this.delegate = delegate;
+        this.transactionTemplate = transactionTemplate;
+        this.journal = journal;
+        this.jdbcTemplate = jdbcTemplate;
+        boolean fileDatabase = DaoModule.STORAGE_FILE.equals(storage);
+        if (fileDatabase) {
+            journal.beforeCheckpoint(this::writeDatabaseToDisk);
+        }
+        if (fileDatabase && !transactionTemplate.executeReadOnly(() -> delegate.findPage(0, 1)).isEmpty()) {
+            journal.recoverTail(RESTORE_CHUNK_SIZE, this::restoreNewer);
+        } else {
+            journal.recover(RESTORE_CHUNK_SIZE, this::restore);
+        }
+    }
+
+    @Override
+    public List<Account> findAll() {
+        return delegate.findAll();
+    }
+
+    @Override
+    public List<Account> findPage(long afterId, int limit) {
+        return delegate.findPage(afterId, limit);
+    }
+
+    @Override
+    public void forEach(Consumer<? super Account> consumer) {
+        delegate.forEach(consumer);
+    }
+
+    @Override
+    public Optional<Account> getById(long id) {
+        return delegate.getById(id);
+    }
+
+    @Override
+    public Optional<Account> getByIdForUpdate(long id) {
+        Optional<Account> account = delegate.getByIdForUpdate(id);
+        account.ifPresent(value -> transactionState().locked.put(id, value));
+        return account;
+    }
+
+    @Override
+    public List<Account> lockAll(Collection<Long> ids) {
+        List<Account> accounts = delegate.lockAll(ids);
+        TransactionState state = transactionState();
+        accounts.forEach(account -> state.locked.put(account.getId(), account));
+        return accounts;
+    }
+
+    @Override
+    public Account save(Account account) {
+        Account saved = delegate.save(account);
+        if (saved.getVersion() == null) {
+            // overwritten without a version, the row is locked by the update
+            written(delegate.getById(saved.getId()).orElse(saved));
+        } else {
+            written(saved);
+        }
+        return saved;
+    }
+
+    @Override
+    public List<Account> createAll(int count) {
+        List<Account> created = delegate.createAll(count);
+        created.forEach(this::written);
+        return created;
+    }
+
+    @Override
+    public Optional<Account> credit(long id, long amount) {
+        Optional<Account> account = delegate.credit(id, amount);
+        account.ifPresent(this::written);
+        return account;
+    }
+
+    @Override
+    public Optional<Account> debitIfSufficient(long id, long amount) {
+        Optional<Account> account = delegate.debitIfSufficient(id, amount);
+        account.ifPresent(this::written);
+        return account;
+    }
+
+    @Override
+    public Optional<Account> holdIfAvailable(long id, long amount) {
+        Optional<Account> account = delegate.holdIfAvailable(id, amount);
+        account.ifPresent(this::written);
+        return account;
+    }
+
+    @Override
+    public Optional<Account> settleHold(long id, long held, long debited) {
+        Optional<Account> account = delegate.settleHold(id, held, debited);
+        account.ifPresent(this::written);
+        return account;
+    }
+
+    /**
+     * Only the version of the journaled state changes, the journal doesn't keep held money.
+     */
+    @Override
+    public void releaseHeld(Map<Long, Long> held) {
+        delegate.releaseHeld(held);
+        TransactionState state = transactionState();
+        held.forEach((id, amount) -> {
+            Account known = state.written.getOrDefault(id, state.locked.get(id));
+            written(known == null
+                    ? delegate.getById(id).orElseThrow(IllegalStateException::new)
+                    : known.toBuilder()
+                            .held(known.getHeld() - amount)
+                            .version(known.getVersion() + 1)
+                            .build());
+        });
+    }
+
+    /**
+     * The deltas are applied to rows locked by this transaction, so their new states follow from the states
+     * the transaction has already seen.
+     */
+    @Override
+    public Map<Long, Integer> applyDeltas(Map<Long, Long> deltas) {
+        Map<Long, Integer> versionIncrements = delegate.applyDeltas(deltas);
+        TransactionState state = transactionState();
+        deltas.forEach((id, delta) -> {
+            Account known = state.written.getOrDefault(id, state.locked.get(id));
+            written(known == null
+                    ? delegate.getById(id).orElseThrow(IllegalStateException::new)
+                    : known.toBuilder()
+                            .balance(known.getBalance() + delta)
+                            .version(known.getVersion() + versionIncrements.get(id))
+                            .build());
+        });
+        return versionIncrements;
+    }
+
+    @Override
+    public void restoreAll(Collection<Account> accounts) {
+        delegate.restoreAll(accounts);
+    }
+
+    private void restore(List<Account> chunk) {
+        transactionTemplate.execute(() -> {
+            delegate.restoreAll(chunk);
+            return null;
+        });
+    }
+
+    /**
+     * A file database has lost at most the commits of its last write delay, so a state it already has is only
+     * read, which costs several times less than writing it again.
+     */
+    private void restoreNewer(List<Account> chunk) {
+        transactionTemplate.execute(() -> {
+            List<Account> newer = chunk.stream()
+                    .filter(state -> delegate.getById(state.getId())
+                            .map(stored -> stored.getVersion() < state.getVersion())
+                            .orElse(true))
+                    .collect(Collectors.toList());
+            if (!newer.isEmpty()) {
+                delegate.restoreAll(newer);
+            }
+            return null;
+        });
+    }
+
+    /**
+     * States of the segments a checkpoint replaces are committed by transactions which have started before it,
+     * so once those are over, {@code CHECKPOINT SYNC} makes all of the states durable in the database.
+     */
+    private void writeDatabaseToDisk() {
+        try {
+            transactionTemplate.awaitRunningTransactions();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new PersistenceException(e);
+        }
+        transactionTemplate.execute(() -> jdbcTemplate.update("CHECKPOINT SYNC", NO_PARAMETERS));
+    }
+
+    private void written(Account account) {
+        TransactionState state = transactionState();
+        if (state.written.isEmpty()) {
+            transactionTemplate.beforeCommit(() -> journal.append(new ArrayList<>(state.written.values())).join());
+        }
+        state.written.put(account.getId(), account);
+    }
+
+    private TransactionState transactionState() {
+        return transactionTemplate.getResource(TRANSACTION_STATE, TransactionState::new);
+    }
+
+    private static class TransactionState {
+        private final Map<Long, Account> locked = new HashMap<>();
+        private final Map<Long, Account> written = new LinkedHashMap<>();
+    }
+}
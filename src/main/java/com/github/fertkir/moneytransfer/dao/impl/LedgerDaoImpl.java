@@ -0,0 +1,99 @@
+package com.github.fertkir.moneytransfer.dao.impl;
+
+import com.github.fertkir.moneytransfer.dao.DaoModule;
+import com.github.fertkir.moneytransfer.dao.LedgerDao;
+import com.github.fertkir.moneytransfer.entity.LedgerEntry;
+import com.github.fertkir.moneytransfer.persistence.JdbcTemplate;
+import com.github.fertkir.moneytransfer.persistence.TransactionTemplate;
+import com.google.inject.Inject;
+import com.google.inject.name.Named;
+
+import java.util.Collection;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Keeps the ledger in {@link LedgerTable}. A file database also gets the entries of every transaction as one row
+ * of {@code ledger_page}, inserted right before the transaction commits, so that they're written with the balances
+ * or not at all. An in-memory database doesn't outlive the table, so nothing is written to it: even a row
+ * per transaction adds about a fifth to the time of a transfer.
+ */
+public class LedgerDaoImpl implements LedgerDao {
+
+    private static final Object TRANSACTION_STATE = new Object();
+
+    private final JdbcTemplate jdbcTemplate;
+    private final TransactionTemplate transactionTemplate;
+    private final LedgerTable table;
+    private final boolean paged;
+
+    @Inject
+    public LedgerDaoImpl(JdbcTemplate jdbcTemplate, TransactionTemplate transactionTemplate, LedgerTable table,
+                         @Named(DaoModule.STORAGE) String storage) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.transactionTemplate = transactionTemplate;
+        this.table = table;
+        this.paged = DaoModule.STORAGE_FILE.equals(storage);
+    }
+
+    @Override
+    public void insertAll(List<LedgerEntry> entries) {
+        if (entries.isEmpty()) {
+            return;
+        }
+        LedgerTable.Transaction transaction = transactionTemplate.getResource(TRANSACTION_STATE, () -> {
+            LedgerTable.Transaction state = table.newTransaction();
+            if (paged) {
+                transactionTemplate.beforeCommit(() -> insertPage(state));
+            }
+            transactionTemplate.beforeCommit(state::beforeCommit);
+            transactionTemplate.afterCommit(state::afterCommit);
+            transactionTemplate.afterCompletion(state::afterCompletion);
+            return state;
+        });
+        for (LedgerEntry entry : entries) {
+            transaction.add(entry, table.nextSeq());
+        }
+    }
+
+    @Override
+    public List<LedgerEntry> findByAccount(long accountId, long from, long to, long afterSeq, int limit) {
+        return table.find(accountId, from, to, afterSeq, limit);
+    }
+
+    @Override
+    public long nextSeq() {
+        return table.nextSeq();
+    }
+
+    @Override
+    public long sumAmounts(long accountId) {
+        return table.sum(accountId);
+    }
+
+    @Override
+    public Map<LedgerEntry.Type, Long> sumAmountsByType(Collection<Long> accountIds, long maxSeq) {
+        long[] sums = new long[LedgerEntry.Type.values().length];
+        for (long accountId : accountIds) {
+            table.addSumsByType(accountId, maxSeq, sums);
+        }
+        Map<LedgerEntry.Type, Long> sumsByType = new EnumMap<>(LedgerEntry.Type.class);
+        for (LedgerEntry.Type type : LedgerEntry.Type.values()) {
+            sumsByType.put(type, sums[type.ordinal()]);
+        }
+        return sumsByType;
+    }
+
+    @Override
+    public void awaitCommitted(long accountId) {
+        table.awaitCommitted(accountId);
+    }
+
+    private void insertPage(LedgerTable.Transaction transaction) {
+        jdbcTemplate.update("INSERT INTO ledger_page (id, entries) VALUES (?, ?)", statement -> {
+            statement.setLong(1, transaction.firstSeq());
+            statement.setBytes(2, transaction.toPage());
+        });
+    }
+}
@@ -0,0 +1,412 @@
+package com.github.fertkir.moneytransfer.dao.impl;
+
+import com.github.fertkir.moneytransfer.entity.LedgerEntry;
+import com.github.fertkir.moneytransfer.persistence.JdbcTemplate;
+import com.github.fertkir.moneytransfer.persistence.TransactionTemplate;
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import com.google.inject.name.Named;
+import lombok.extern.slf4j.Slf4j;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.StampedLock;
+
+import static com.github.fertkir.moneytransfer.persistence.StatementBinder.NO_PARAMETERS;
+
+/**
+ * The ledger, kept in memory: the entries of every account ordered by sequence number and the sum of their amounts.
+ * The entries of a transaction are added once it has committed. A file database also keeps them in pages
+ * of {@code ledger_page}, one per transaction, see {@link LedgerDaoImpl}, from which the table is built on startup;
+ * an in-memory database starts empty, and so does the table.
+ * <p>
+ * Accounts are kept in open-addressing tables of primitive longs, like {@code BalanceTable}, with the entries
+ * of an account in an array of its own. Ids are spread over segments, each with a lock of its own.
+ */
+@Slf4j
+@Singleton
+public class LedgerTable {
+
+    private static final int SEGMENTS = 64;
+    private static final int INITIAL_CAPACITY = 1024;
+    private static final int INITIAL_ENTRIES = 4;
+    private static final long EMPTY = 0;
+    private static final int SLOT_SIZE = 4;
+    /**
+     * Sequence number, type, amount, balance, counterparty id or 0 and creation time of an entry.
+     */
+    private static final int ENTRY_SIZE = 6;
+    /**
+     * Account id followed by the entry, as entries of a transaction are collected and written to a page.
+     */
+    private static final int RECORD_SIZE = 1 + ENTRY_SIZE;
+    private static final LedgerEntry.Type[] TYPES = LedgerEntry.Type.values();
+
+    private final Segment[] segments = new Segment[SEGMENTS];
+    private final AtomicLong lastSeq = new AtomicLong();
+
+    @Inject
+    public LedgerTable(JdbcTemplate jdbcTemplate, TransactionTemplate transactionTemplate,
+                       @Named("persistence.export.fetchSize") int fetchSize) {
+        long start = System.nanoTime();
+        long entries = transactionTemplate.executeReadOnly(() -> {
+            // a retried attempt starts over
+            for (int i = 0; i < SEGMENTS; i++) {
+                segments[i] = new Segment();
+            }
+            lastSeq.set(0);
+            long[] count = new long[1];
+            jdbcTemplate.queryForEach("SELECT entries FROM ledger_page ORDER BY id", NO_PARAMETERS, fetchSize,
+                    rs -> rs.getBytes(1), page -> count[0] += addPage(page));
+            return count[0];
+        });
+        log.info("Loaded {} ledger entries in {} ms", entries, (System.nanoTime() - start) / 1_000_000);
+    }
+
+    /**
+     * @return a sequence number greater than those taken so far
+     */
+    public long nextSeq() {
+        return lastSeq.incrementAndGet();
+    }
+
+    /**
+     * @return sum of the amounts of the account's entries added so far
+     */
+    public long sum(long accountId) {
+        long hash = hash(accountId);
+        return segments[(int) (hash >>> 58)].sum(accountId, hash);
+    }
+
+    /**
+     * Adds the amounts of the account's entries with sequence numbers up to {@code maxSeq} to {@code sums},
+     * indexed by the ordinal of the entry type.
+     */
+    public void addSumsByType(long accountId, long maxSeq, long[] sums) {
+        long hash = hash(accountId);
+        segments[(int) (hash >>> 58)].addSumsByType(accountId, hash, maxSeq, sums);
+    }
+
+    /**
+     * @return up to {@code limit} of the account's entries with sequence numbers greater than {@code afterSeq}
+     * created within [{@code from}, {@code to}), in ascending order of sequence number
+     */
+    public List<LedgerEntry> find(long accountId, long from, long to, long afterSeq, int limit) {
+        long hash = hash(accountId);
+        return segments[(int) (hash >>> 58)].find(accountId, hash, from, to, afterSeq, limit);
+    }
+
+    /**
+     * Waits until every transaction with entries of the account which has started committing is over and its
+     * entries, if committed, are added. Finishes as soon as no such transaction is left, which can only be told
+     * for sure by a caller holding the lock of the account, as then no other one can start committing.
+     */
+    public void awaitCommitted(long accountId) {
+        long hash = hash(accountId);
+        Segment segment = segments[(int) (hash >>> 58)];
+        while (segment.committing(accountId, hash) != 0) {
+            Thread.yield();
+        }
+    }
+
+    /**
+     * @return collector of the entries of the current transaction, which must register its callbacks
+     */
+    Transaction newTransaction() {
+        return new Transaction();
+    }
+
+    /**
+     * @return number of entries in the page
+     */
+    private int addPage(byte[] page) {
+        ByteBuffer buffer = ByteBuffer.wrap(page);
+        long[] record = new long[RECORD_SIZE];
+        int entries = 0;
+        while (buffer.hasRemaining()) {
+            for (int i = 0; i < RECORD_SIZE; i++) {
+                record[i] = buffer.getLong();
+            }
+            add(record, 0);
+            lastSeq.accumulateAndGet(record[1], Math::max);
+            entries++;
+        }
+        return entries;
+    }
+
+    private void add(long[] records, int offset) {
+        long accountId = records[offset];
+        long hash = hash(accountId);
+        segments[(int) (hash >>> 58)].add(accountId, hash, records, offset + 1);
+    }
+
+    private void changeCommitting(long accountId, int delta) {
+        long hash = hash(accountId);
+        segments[(int) (hash >>> 58)].changeCommitting(accountId, hash, delta);
+    }
+
+    /**
+     * Account ids are consecutive numbers, which have to be spread over the whole table.
+     */
+    private static long hash(long id) {
+        long hash = id;
+        hash ^= hash >>> 33;
+        hash *= 0xff51afd7ed558ccdL;
+        hash ^= hash >>> 33;
+        hash *= 0xc4ceb9fe1a85ec53L;
+        hash ^= hash >>> 33;
+        return hash;
+    }
+
+    /**
+     * Entries of one transaction, as records of {@link #RECORD_SIZE} longs. The accounts are counted
+     * as committing right before the commit, while the transaction still holds their locks, and uncounted once
+     * the transaction is over and its entries are added.
+     */
+    class Transaction {
+        private long[] records = new long[2 * RECORD_SIZE];
+        private int size;
+        private boolean committing;
+
+        void add(LedgerEntry entry, long seq) {
+            if (entry.getAccountId() == EMPTY) {
+                throw new IllegalArgumentException("Account id must not be " + EMPTY);
+            }
+            if (size == records.length) {
+                records = Arrays.copyOf(records, size * 2);
+            }
+            records[size] = entry.getAccountId();
+            records[size + 1] = seq;
+            records[size + 2] = entry.getType().ordinal();
+            records[size + 3] = entry.getAmount();
+            records[size + 4] = entry.getBalance();
+            records[size + 5] = entry.getCounterpartyId() == null ? 0 : entry.getCounterpartyId();
+            records[size + 6] = entry.getCreatedAt();
+            size += RECORD_SIZE;
+        }
+
+        /**
+         * @return sequence number of the first entry, which identifies the page
+         */
+        long firstSeq() {
+            return records[1];
+        }
+
+        byte[] toPage() {
+            ByteBuffer page = ByteBuffer.allocate(size * Long.BYTES);
+            for (int i = 0; i < size; i++) {
+                page.putLong(records[i]);
+            }
+            return page.array();
+        }
+
+        void beforeCommit() {
+            for (int i = 0; i < size; i += RECORD_SIZE) {
+                changeCommitting(records[i], 1);
+            }
+            committing = true;
+        }
+
+        void afterCommit() {
+            for (int i = 0; i < size; i += RECORD_SIZE) {
+                LedgerTable.this.add(records, i);
+            }
+        }
+
+        void afterCompletion() {
+            if (committing) {
+                for (int i = 0; i < size; i += RECORD_SIZE) {
+                    changeCommitting(records[i], -1);
+                }
+            }
+        }
+    }
+
+    /**
+     * Slot i takes slots[4i] for the account id, slots[4i + 1] for the sum of the amounts, slots[4i + 2]
+     * for the number of committing transactions and slots[4i + 3] for the number of entries, which are kept
+     * in entries[i], {@link #ENTRY_SIZE} longs each. Ids are positive, so 0 marks an empty slot.
+     */
+    private static class Segment {
+        private final StampedLock lock = new StampedLock();
+        private long[] slots = new long[INITIAL_CAPACITY * SLOT_SIZE];
+        private long[][] entries = new long[INITIAL_CAPACITY][];
+        private int size;
+
+        private long sum(long id, long hash) {
+            long stamp = lock.readLock();
+            try {
+                int slot = slotOf(slots, id, hash);
+                return slots[slot] == id ? slots[slot + 1] : 0;
+            } finally {
+                lock.unlockRead(stamp);
+            }
+        }
+
+        private long committing(long id, long hash) {
+            long stamp = lock.readLock();
+            try {
+                int slot = slotOf(slots, id, hash);
+                return slots[slot] == id ? slots[slot + 2] : 0;
+            } finally {
+                lock.unlockRead(stamp);
+            }
+        }
+
+        private void addSumsByType(long id, long hash, long maxSeq, long[] sums) {
+            long stamp = lock.readLock();
+            try {
+                int slot = slotOf(slots, id, hash);
+                if (slots[slot] != id) {
+                    return;
+                }
+                long[] accountEntries = entries[slot / SLOT_SIZE];
+                int end = (int) slots[slot + 3] * ENTRY_SIZE;
+                for (int i = 0; i < end && accountEntries[i] <= maxSeq; i += ENTRY_SIZE) {
+                    sums[(int) accountEntries[i + 1]] += accountEntries[i + 2];
+                }
+            } finally {
+                lock.unlockRead(stamp);
+            }
+        }
+
+        private List<LedgerEntry> find(long id, long hash, long from, long to, long afterSeq, int limit) {
+            List<LedgerEntry> found = new ArrayList<>();
+            long stamp = lock.readLock();
+            try {
+                int slot = slotOf(slots, id, hash);
+                if (slots[slot] != id) {
+                    return found;
+                }
+                long[] accountEntries = entries[slot / SLOT_SIZE];
+                int count = (int) slots[slot + 3];
+                for (int i = firstAfter(accountEntries, count, afterSeq); i < count && found.size() < limit; i++) {
+                    int offset = i * ENTRY_SIZE;
+                    long createdAt = accountEntries[offset + 5];
+                    if (createdAt >= from && createdAt < to) {
+                        long counterpartyId = accountEntries[offset + 4];
+                        found.add(LedgerEntry.builder()
+                                .seq(accountEntries[offset])
+                                .accountId(id)
+                                .type(TYPES[(int) accountEntries[offset + 1]])
+                                .amount(accountEntries[offset + 2])
+                                .balance(accountEntries[offset + 3])
+                                .counterpartyId(counterpartyId == EMPTY ? null : counterpartyId)
+                                .createdAt(createdAt)
+                                .build());
+                    }
+                }
+                return found;
+            } finally {
+                lock.unlockRead(stamp);
+            }
+        }
+
+        /**
+         * @param entry offset of the entry in {@code records}
+         */
+        private void add(long id, long hash, long[] records, int entry) {
+            long stamp = lock.writeLock();
+            try {
+                int slot = slotFor(id, hash);
+                slots[slot + 1] += records[entry + 2];
+                int index = slot / SLOT_SIZE;
+                long[] accountEntries = entries[index];
+                int count = (int) slots[slot + 3];
+                if ((count + 1) * ENTRY_SIZE > accountEntries.length) {
+                    accountEntries = Arrays.copyOf(accountEntries, accountEntries.length * 2);
+                    entries[index] = accountEntries;
+                }
+                // transactions commit in about the order they take sequence numbers, so it's mostly an append
+                int position = count;
+                if (count > 0 && accountEntries[(count - 1) * ENTRY_SIZE] > records[entry]) {
+                    position = firstAfter(accountEntries, count, records[entry]);
+                    System.arraycopy(accountEntries, position * ENTRY_SIZE, accountEntries,
+                            (position + 1) * ENTRY_SIZE, (count - position) * ENTRY_SIZE);
+                }
+                System.arraycopy(records, entry, accountEntries, position * ENTRY_SIZE, ENTRY_SIZE);
+                slots[slot + 3] = count + 1;
+            } finally {
+                lock.unlockWrite(stamp);
+            }
+        }
+
+        private void changeCommitting(long id, long hash, int delta) {
+            long stamp = lock.writeLock();
+            try {
+                slots[slotFor(id, hash) + 2] += delta;
+            } finally {
+                lock.unlockWrite(stamp);
+            }
+        }
+
+        /**
+         * @return the slot of the id, taken for it if it's new to the segment
+         */
+        private int slotFor(long id, long hash) {
+            int slot = slotOf(slots, id, hash);
+            if (slots[slot] == id) {
+                return slot;
+            }
+            // at most three quarters of the slots are taken, so that probes stay short
+            if ((size + 1) * 4L > slots.length / SLOT_SIZE * 3L) {
+                grow();
+                slot = slotOf(slots, id, hash);
+            }
+            slots[slot] = id;
+            entries[slot / SLOT_SIZE] = new long[INITIAL_ENTRIES * ENTRY_SIZE];
+            size++;
+            return slot;
+        }
+
+        /**
+         * @return index of the first of {@code count} entries with a sequence number greater than {@code seq}
+         */
+        private static int firstAfter(long[] accountEntries, int count, long seq) {
+            int low = 0;
+            int high = count;
+            while (low < high) {
+                int middle = (low + high) >>> 1;
+                if (accountEntries[middle * ENTRY_SIZE] <= seq) {
+                    low = middle + 1;
+                } else {
+                    high = middle;
+                }
+            }
+            return low;
+        }
+
+        /**
+         * @return the slot of the id, or the empty slot where it belongs
+         */
+        private static int slotOf(long[] table, long id, long hash) {
+            int mask = table.length / SLOT_SIZE - 1;
+            int index = (int) hash & mask;
+            while (true) {
+                long slotId = table[index * SLOT_SIZE];
+                if (slotId == id || slotId == EMPTY) {
+                    return index * SLOT_SIZE;
+                }
+                index = (index + 1) & mask;
+            }
+        }
+
+        private void grow() {
+            long[] grownSlots = new long[slots.length * 2];
+            long[][] grownEntries = new long[entries.length * 2][];
+            for (int slot = 0; slot < slots.length; slot += SLOT_SIZE) {
+                long id = slots[slot];
+                if (id != EMPTY) {
+                    int target = slotOf(grownSlots, id, hash(id));
+                    System.arraycopy(slots, slot, grownSlots, target, SLOT_SIZE);
+                    grownEntries[target / SLOT_SIZE] = entries[slot / SLOT_SIZE];
+                }
+            }
+            slots = grownSlots;
+            entries = grownEntries;
+        }
+    }
+}
@@ -0,0 +1,57 @@
+package com.github.fertkir.moneytransfer.dao.impl;
+
+import com.github.fertkir.moneytransfer.dao.ReconciliationDao;
+import com.github.fertkir.moneytransfer.entity.AuditedAccount;
+import com.github.fertkir.moneytransfer.persistence.JdbcTemplate;
+import com.github.fertkir.moneytransfer.persistence.PersistenceException;
+import com.github.fertkir.moneytransfer.persistence.RowMapper;
+import com.google.inject.Inject;
+import com.google.inject.name.Named;
+
+import java.util.function.Consumer;
+
+import static com.github.fertkir.moneytransfer.persistence.StatementBinder.NO_PARAMETERS;
+
+/**
+ * Reads accounts by ranges of the primary key, so that ranges of a large table can be read in parallel.
+ */
+public class ReconciliationDaoImpl implements ReconciliationDao {
+
+    private static final RowMapper<AuditedAccount> AUDITED_ACCOUNT_MAPPER = rs -> new AuditedAccount(
+            rs.getLong("ID"),
+            rs.getLong("BALANCE"),
+            rs.getLong("VERSION"));
+
+    private static final String STRIPED_COLUMNS = "id, " +
+            "balance + (SELECT COALESCE(SUM(s.balance), 0) FROM account_stripe s WHERE s.account_id = a.id) balance, " +
+            "version + (SELECT COALESCE(SUM(s.version), 0) FROM account_stripe s WHERE s.account_id = a.id) version";
+
+    private final JdbcTemplate jdbcTemplate;
+    private final int fetchSize;
+    private final String forEachAccountQuery;
+
+    @Inject
+    public ReconciliationDaoImpl(JdbcTemplate jdbcTemplate, @Named("persistence.export.fetchSize") int fetchSize,
+                                 AccountStripes stripes) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.fetchSize = fetchSize;
+        // per-account subqueries rather than grouped joins, see AccountDaoImpl
+        this.forEachAccountQuery = "SELECT " + (stripes.isEmpty() ? "id, balance, version" : STRIPED_COLUMNS) +
+                " FROM account a WHERE id >= ? AND id < ? ORDER BY id";
+    }
+
+    @Override
+    public long maxAccountId() {
+        return jdbcTemplate.queryForObject("SELECT COALESCE(MAX(id), 0) FROM account", NO_PARAMETERS,
+                rs -> rs.getLong(1))
+                .orElseThrow(() -> new PersistenceException("MAX(id) returned no row"));
+    }
+
+    @Override
+    public void forEachAccount(long fromId, long toId, Consumer<? super AuditedAccount> consumer) {
+        jdbcTemplate.queryForEach(forEachAccountQuery, statement -> {
+            statement.setLong(1, fromId);
+            statement.setLong(2, toId);
+        }, fetchSize, AUDITED_ACCOUNT_MAPPER, consumer);
+    }
+}
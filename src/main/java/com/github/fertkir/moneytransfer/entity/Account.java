@@ -1,13 +1,37 @@
 package com.github.fertkir.moneytransfer.entity;
 
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import com.fasterxml.jackson.databind.annotation.JsonSerialize;
 import lombok.Builder;
 import lombok.Data;
-
-import java.math.BigDecimal;
+import lombok.EqualsAndHashCode;
 
 @Data
 @Builder(toBuilder = true)
+@EqualsAndHashCode(exclude = "version")
 public class Account {
     private final Long id;
-    private final BigDecimal balance;
+    /**
+     * In minor units, see {@link Money}.
+     */
+    @JsonSerialize(using = Money.Serializer.class)
+    private final long balance;
+    /**
+     * Part of the balance reserved by outstanding holds, in minor units.
+     */
+    @JsonIgnore
+    private final long held;
+    /**
+     * Incremented on every change of the row; exposed to HTTP clients as the ETag rather than in the body.
+     */
+    @JsonIgnore
+    private final Long version;
+
+    /**
+     * The balance which withdrawals, transfers and new holds may take, as opposed to the ledger balance.
+     */
+    @JsonSerialize(using = Money.Serializer.class)
+    public long getAvailable() {
+        return balance - held;
+    }
 }
@@ -0,0 +1,14 @@
+package com.github.fertkir.moneytransfer.entity;
+
+import lombok.Value;
+
+/**
+ * Balance of an account in minor units, as read by a reconciliation, together with its version, which tells
+ * whether the balance has changed since.
+ */
+@Value
+public class AuditedAccount {
+    long id;
+    long balance;
+    long version;
+}
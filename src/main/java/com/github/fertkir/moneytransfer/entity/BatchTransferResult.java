@@ -0,0 +1,31 @@
+package com.github.fertkir.moneytransfer.entity;
+
+import lombok.Builder;
+import lombok.Data;
+
+import java.util.List;
+
+@Data
+@Builder
+public class BatchTransferResult {
+    /**
+     * Whether applied items were committed. An atomic batch containing a failed item commits nothing.
+     */
+    private final boolean committed;
+    private final List<Item> items;
+
+    public enum Status {
+        APPLIED,
+        FAILED,
+        NOT_APPLIED
+    }
+
+    @Data
+    @Builder
+    public static class Item {
+        private final int index;
+        private final Status status;
+        private final String message;
+        private final TransferResult result;
+    }
+}
@@ -0,0 +1,29 @@
+package com.github.fertkir.moneytransfer.entity;
+
+import com.fasterxml.jackson.databind.annotation.JsonSerialize;
+import lombok.Builder;
+import lombok.Data;
+
+/**
+ * Money of an account reserved until it's captured, released or expires. An outstanding hold is a row
+ * of {@code account_hold}; it's deleted once it's over.
+ */
+@Data
+@Builder(toBuilder = true)
+public class Hold {
+    private final Long id;
+    private final long accountId;
+    /**
+     * In minor units.
+     */
+    @JsonSerialize(using = Money.Serializer.class)
+    private final long amount;
+    /**
+     * Epoch milliseconds.
+     */
+    private final long createdAt;
+    /**
+     * Epoch milliseconds.
+     */
+    private final long expiresAt;
+}
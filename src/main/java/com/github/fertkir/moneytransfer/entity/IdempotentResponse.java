@@ -0,0 +1,26 @@
+package com.github.fertkir.moneytransfer.entity;
+
+import lombok.Builder;
+import lombok.Data;
+
+/**
+ * Response to a request made with an idempotency key, returned again for every repeat of the request.
+ */
+@Data
+@Builder(toBuilder = true)
+public class IdempotentResponse {
+    /**
+     * Row id the response is stored with, null until then.
+     */
+    private final Long id;
+    private final String key;
+    /**
+     * What the key was used for, so that it isn't answered with a response to something else.
+     */
+    private final String request;
+    private final String body;
+    /**
+     * Epoch milliseconds.
+     */
+    private final long createdAt;
+}
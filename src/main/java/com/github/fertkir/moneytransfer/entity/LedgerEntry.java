@@ -0,0 +1,41 @@
+package com.github.fertkir.moneytransfer.entity;
+
+import com.fasterxml.jackson.databind.annotation.JsonSerialize;
+import lombok.Builder;
+import lombok.Data;
+
+/**
+ * A change of an account's balance. A transfer is recorded as two entries, a debit of the source
+ * and a credit of the target, each referring to the other account as its counterparty.
+ */
+@Data
+@Builder
+public class LedgerEntry {
+    /**
+     * Assigned on insert, increasing in the order entries are written.
+     */
+    private final Long seq;
+    private final long accountId;
+    private final Type type;
+    /**
+     * In minor units, negative for debits.
+     */
+    @JsonSerialize(using = Money.Serializer.class)
+    private final long amount;
+    /**
+     * Balance of the account right after the change, in minor units.
+     */
+    @JsonSerialize(using = Money.Serializer.class)
+    private final long balance;
+    private final Long counterpartyId;
+    /**
+     * Epoch milliseconds.
+     */
+    private final long createdAt;
+
+    public enum Type {
+        TOP_UP,
+        WITHDRAWAL,
+        TRANSFER
+    }
+}
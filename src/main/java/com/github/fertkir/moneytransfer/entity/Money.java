@@ -0,0 +1,196 @@
+package com.github.fertkir.moneytransfer.entity;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.DeserializationContext;
+import com.fasterxml.jackson.databind.JsonDeserializer;
+import com.fasterxml.jackson.databind.JsonSerializer;
+import com.fasterxml.jackson.databind.SerializerProvider;
+import com.fasterxml.jackson.databind.exc.InvalidFormatException;
+
+import java.io.IOException;
+
+/**
+ * Amounts of money are {@code long} numbers of minor units, e.g. cents, so that adding them up allocates nothing.
+ * In text and JSON they are in major units with up to {@value #SCALE} decimal places, e.g. {@code 12.5}
+ * for 1250 minor units.
+ */
+public final class Money {
+
+    public static final int SCALE = 2;
+    public static final long MINOR_UNITS = 100;
+
+    /**
+     * Sign, 19 digits and the decimal point.
+     */
+    private static final int MAX_LENGTH = 21;
+    private static final ThreadLocal<char[]> BUFFERS = ThreadLocal.withInitial(() -> new char[MAX_LENGTH]);
+
+    private Money() {
+    }
+
+    public static long ofMajorUnits(long units) {
+        return Math.multiplyExact(units, MINOR_UNITS);
+    }
+
+    /**
+     * Parses e.g. {@code 12}, {@code -0.5} or {@code 12.50}. Digits beyond {@value #SCALE} decimal places
+     * must be zeros, so that the amount is exact.
+     *
+     * @return the amount in minor units
+     * @throws NumberFormatException if the text isn't such a number or it doesn't fit into a {@code long}
+     */
+    public static long parse(CharSequence text) {
+        return parse(text, null, 0, text.length());
+    }
+
+    /**
+     * @see #parse(CharSequence)
+     */
+    public static long parse(char[] chars, int offset, int length) {
+        return parse(null, chars, offset, length);
+    }
+
+    /**
+     * Reads either the text or the chars, whichever isn't null.
+     */
+    private static long parse(CharSequence text, char[] chars, int offset, int length) {
+        int end = offset + length;
+        int i = offset;
+        boolean negative = false;
+        if (i < end) {
+            char sign = chars == null ? text.charAt(i) : chars[i];
+            if (sign == '-' || sign == '+') {
+                negative = sign == '-';
+                i++;
+            }
+        }
+        long units = 0;
+        int digits = 0;
+        int decimalPlaces = -1;
+        for (; i < end; i++) {
+            char c = chars == null ? text.charAt(i) : chars[i];
+            if (c == '.' && decimalPlaces < 0) {
+                decimalPlaces = 0;
+                continue;
+            }
+            if (c < '0' || c > '9') {
+                throw invalid(text, chars, offset, length, "is not a number");
+            }
+            digits++;
+            if (decimalPlaces >= 0 && ++decimalPlaces > SCALE) {
+                if (c != '0') {
+                    throw invalid(text, chars, offset, length, "has more than " + SCALE + " decimal places");
+                }
+                continue;
+            }
+            if (units > (Long.MAX_VALUE - (c - '0')) / 10) {
+                throw invalid(text, chars, offset, length, "is too large");
+            }
+            units = units * 10 + (c - '0');
+        }
+        if (digits == 0) {
+            throw invalid(text, chars, offset, length, "is not a number");
+        }
+        for (int place = Math.max(decimalPlaces, 0); place < SCALE; place++) {
+            if (units > Long.MAX_VALUE / 10) {
+                throw invalid(text, chars, offset, length, "is too large");
+            }
+            units *= 10;
+        }
+        return negative ? -units : units;
+    }
+
+    private static NumberFormatException invalid(CharSequence text, char[] chars, int offset, int length,
+                                                 String reason) {
+        String value = chars == null ? text.toString() : new String(chars, offset, length);
+        return new NumberFormatException("Amount \"" + value + "\" " + reason);
+    }
+
+    /**
+     * @return the amount in major units without trailing zeros, e.g. {@code 12.5}
+     */
+    public static String format(long amount) {
+        char[] buffer = new char[MAX_LENGTH];
+        int start = format(amount, buffer);
+        return new String(buffer, start, buffer.length - start);
+    }
+
+    /**
+     * Writes the amount to the end of the buffer.
+     *
+     * @return index of its first char
+     */
+    private static int format(long amount, char[] buffer) {
+        int i = buffer.length;
+        // negative, so that Long.MIN_VALUE has its absolute value too
+        long remaining = amount > 0 ? -amount : amount;
+        long fraction = -(remaining % MINOR_UNITS);
+        remaining /= MINOR_UNITS;
+        if (fraction != 0) {
+            int places = SCALE;
+            while (fraction % 10 == 0) {
+                fraction /= 10;
+                places--;
+            }
+            for (; places > 0; places--) {
+                buffer[--i] = (char) ('0' + fraction % 10);
+                fraction /= 10;
+            }
+            buffer[--i] = '.';
+        }
+        do {
+            buffer[--i] = (char) ('0' - remaining % 10);
+            remaining /= 10;
+        } while (remaining != 0);
+        if (amount < 0) {
+            buffer[--i] = '-';
+        }
+        return i;
+    }
+
+    /**
+     * Writes an amount as a JSON number in major units.
+     */
+    public static class Serializer extends JsonSerializer<Long> {
+
+        @Override
+        public void serialize(Long amount, JsonGenerator generator, SerializerProvider serializers)
+                throws IOException {
+            if (amount % MINOR_UNITS == 0) {
+                generator.writeNumber(amount / MINOR_UNITS);
+                return;
+            }
+            char[] buffer = BUFFERS.get();
+            int start = format(amount, buffer);
+            generator.writeRawValue(buffer, start, buffer.length - start);
+        }
+    }
+
+    /**
+     * Reads an amount in major units from a JSON number or string.
+     */
+    public static class Deserializer extends JsonDeserializer<Long> {
+
+        @Override
+        public Long deserialize(JsonParser parser, DeserializationContext context) throws IOException {
+            JsonToken token = parser.getCurrentToken();
+            if (token == JsonToken.VALUE_NUMBER_INT) {
+                try {
+                    return ofMajorUnits(parser.getLongValue());
+                } catch (ArithmeticException e) {
+                    throw InvalidFormatException.from(parser, "Amount is too large", parser.getText(), Long.class);
+                }
+            }
+            if (token == JsonToken.VALUE_NUMBER_FLOAT || token == JsonToken.VALUE_STRING) {
+                try {
+                    return parse(parser.getTextCharacters(), parser.getTextOffset(), parser.getTextLength());
+                } catch (NumberFormatException e) {
+                    throw InvalidFormatException.from(parser, e.getMessage(), parser.getText(), Long.class);
+                }
+            }
+            return (Long) context.handleUnexpectedToken(Long.class, parser);
+        }
+    }
+}
@@ -0,0 +1,91 @@
+package com.github.fertkir.moneytransfer.entity;
+
+import com.fasterxml.jackson.databind.annotation.JsonSerialize;
+import lombok.Builder;
+import lombok.Data;
+
+import java.util.List;
+
+/**
+ * Outcome of checking that every balance equals the sum of the ledger entries of its account, and that
+ * the entries of transfers net to zero, so that money is only brought in by top-ups and taken out by withdrawals.
+ * <p>
+ * Ranges of accounts are read at different moments while transfers go on, so {@code balance} may differ from
+ * {@code topUps + withdrawals} by transfers between ranges. The ledger sums only count the entries
+ * committed before the reconciliation started, which are the same whenever they are read.
+ */
+@Data
+@Builder
+public class ReconciliationReport {
+    /**
+     * Epoch milliseconds.
+     */
+    private final long startedAt;
+    private final long durationMillis;
+    /**
+     * Ledger entries with greater sequence numbers are not counted in the sums.
+     */
+    private final long ledgerSeq;
+    /**
+     * Accounts created after the reconciliation started are not checked.
+     */
+    private final long maxAccountId;
+    private final long accounts;
+    @JsonSerialize(using = Money.Serializer.class)
+    private final long balance;
+    @JsonSerialize(using = Money.Serializer.class)
+    private final long topUps;
+    /**
+     * Negative.
+     */
+    @JsonSerialize(using = Money.Serializer.class)
+    private final long withdrawals;
+    /**
+     * Zero unless there are unpaired transfer entries.
+     */
+    @JsonSerialize(using = Money.Serializer.class)
+    private final long transfers;
+    private final long discrepancyCount;
+    /**
+     * The first {@code reconciliation.maxReportedDiscrepancies} of them.
+     */
+    private final List<Discrepancy> discrepancies;
+    private final List<Range> ranges;
+
+    public boolean isConsistent() {
+        return discrepancyCount == 0;
+    }
+
+    public enum DiscrepancyType {
+        BALANCE_MISMATCH,
+        UNPAIRED_TRANSFERS
+    }
+
+    @Data
+    @Builder
+    public static class Discrepancy {
+        private final DiscrepancyType type;
+        /**
+         * Null unless the discrepancy is of one account.
+         */
+        private final Long accountId;
+        private final String message;
+    }
+
+    /**
+     * Accounts with ids within [{@code fromId}, {@code toId}), read at once.
+     */
+    @Data
+    @Builder
+    public static class Range {
+        private final long fromId;
+        private final long toId;
+        private final long accounts;
+        @JsonSerialize(using = Money.Serializer.class)
+        private final long balance;
+        /**
+         * CRC-32 of the ids and balances, which stays the same as long as the accounts of the range do.
+         */
+        private final String checksum;
+    }
+}
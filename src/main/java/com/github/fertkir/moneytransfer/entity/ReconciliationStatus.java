@@ -0,0 +1,14 @@
+package com.github.fertkir.moneytransfer.entity;
+
+import lombok.Builder;
+import lombok.Data;
+
+@Data
+@Builder
+public class ReconciliationStatus {
+    private final boolean running;
+    /**
+     * Null until the first reconciliation is over.
+     */
+    private final ReconciliationReport lastReport;
+}
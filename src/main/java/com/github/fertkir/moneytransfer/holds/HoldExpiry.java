@@ -0,0 +1,151 @@
+package com.github.fertkir.moneytransfer.holds;
+
+import com.github.fertkir.moneytransfer.dao.AccountDao;
+import com.github.fertkir.moneytransfer.dao.HoldDao;
+import com.github.fertkir.moneytransfer.entity.Account;
+import com.github.fertkir.moneytransfer.entity.Hold;
+import com.github.fertkir.moneytransfer.persistence.TransactionTemplate;
+import com.github.fertkir.moneytransfer.readmodel.AccountChangeStream;
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import com.google.inject.name.Named;
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Releases holds once they expire. Outstanding holds are kept in a {@link TimingWheel} ticking every
+ * {@code holds.expiry.tickMillis}, so that the clock only ever looks at the holds which are due, however many
+ * there are. The wheel is filled from the expiry index of {@code account_hold} on start-up and then gets every
+ * hold placed.
+ * <p>
+ * Captured and released holds aren't taken out of the wheel: once they're due, their rows are found gone
+ * and skipped. Due holds are released in transactions of up to {@code holds.expiry.batchSize}, locking the holds
+ * and then their accounts, in the same order as capturing and releasing them does.
+ */
+@Slf4j
+@Singleton
+public class HoldExpiry {
+
+    private final TransactionTemplate transactionTemplate;
+    private final HoldDao holdDao;
+    private final AccountDao accountDao;
+    private final AccountChangeStream changes;
+    private final int batchSize;
+    private final TimingWheel wheel;
+    private final Lock wheelLock = new ReentrantLock();
+    private final ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "hold-expiry");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    @Inject
+    public HoldExpiry(TransactionTemplate transactionTemplate, HoldDao holdDao, AccountDao accountDao,
+                      AccountChangeStream changes,
+                      @Named("holds.expiry.tickMillis") long tickMillis,
+                      @Named("holds.expiry.wheelSize") int wheelSize,
+                      @Named("holds.expiry.batchSize") int batchSize) {
+        if (batchSize < 1) {
+            throw new IllegalArgumentException("holds.expiry.batchSize must be positive, but given " + batchSize);
+        }
+        this.transactionTemplate = transactionTemplate;
+        this.holdDao = holdDao;
+        this.accountDao = accountDao;
+        this.changes = changes;
+        this.batchSize = batchSize;
+        this.wheel = new TimingWheel(tickMillis, wheelSize, System.currentTimeMillis());
+        executor.execute(this::recover);
+        executor.scheduleWithFixedDelay(this::expireDue, tickMillis, tickMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Makes the hold expire at its time. A hold scheduled more than once is released once.
+     */
+    public void schedule(Hold hold) {
+        wheelLock.lock();
+        try {
+            wheel.schedule(hold.getId(), hold.getExpiresAt());
+        } finally {
+            wheelLock.unlock();
+        }
+    }
+
+    private void recover() {
+        long start = System.nanoTime();
+        long count = transactionTemplate.executeReadOnly(() -> {
+            long[] scheduled = {0};
+            holdDao.forEachByExpiry(hold -> {
+                schedule(hold);
+                scheduled[0]++;
+            });
+            return scheduled[0];
+        });
+        log.info("Scheduled expiry of {} outstanding holds in {} ms", count,
+                TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+    }
+
+    private void expireDue() {
+        List<Long> due = new ArrayList<>();
+        wheelLock.lock();
+        try {
+            wheel.advance(System.currentTimeMillis(), due::add);
+        } finally {
+            wheelLock.unlock();
+        }
+        for (int from = 0; from < due.size(); from += batchSize) {
+            List<Long> ids = due.subList(from, Math.min(from + batchSize, due.size()));
+            try {
+                int released = transactionTemplate.execute(() -> release(ids));
+                if (released > 0) {
+                    log.info("Released {} expired holds", released);
+                }
+            } catch (RuntimeException e) {
+                log.error("Failed to release expired holds, will try again", e);
+                // due at once, so on the next tick
+                wheelLock.lock();
+                try {
+                    ids.forEach(id -> wheel.schedule(id, 0));
+                } finally {
+                    wheelLock.unlock();
+                }
+            }
+        }
+    }
+
+    /**
+     * @return the number of holds released
+     */
+    private int release(List<Long> ids) {
+        List<Hold> holds = holdDao.lockAll(ids);
+        if (holds.isEmpty()) {
+            return 0;
+        }
+        Map<Long, Long> held = new TreeMap<>();
+        List<Long> holdIds = new ArrayList<>(holds.size());
+        for (Hold hold : holds) {
+            held.merge(hold.getAccountId(), hold.getAmount(), Long::sum);
+            holdIds.add(hold.getId());
+        }
+        List<Account> accounts = accountDao.lockAll(held.keySet());
+        accountDao.releaseHeld(held);
+        holdDao.deleteAll(holdIds);
+        List<Account> released = new ArrayList<>(accounts.size());
+        for (Account account : accounts) {
+            released.add(account.toBuilder()
+                    .held(account.getHeld() - held.get(account.getId()))
+                    .version(account.getVersion() + 1)
+                    .build());
+        }
+        changes.publish(released);
+        return holds.size();
+    }
+}
@@ -0,0 +1,143 @@
+package com.github.fertkir.moneytransfer.holds;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.LongConsumer;
+
+/**
+ * Hierarchical timing wheel of ids due at given times. Level 0 has a bucket per tick, and every next level has
+ * a bucket per whole turn of the level below, so that scheduling an id and handing it out when it's due take
+ * constant time however far ahead it is, and the clock never looks at ids which aren't due yet. A bucket of a higher
+ * level is spread over the lower levels once the clock reaches its start. Levels are added as later times come.
+ * <p>
+ * An id is handed out once the clock has passed the tick its time falls into, so never early, and at most a tick
+ * late. Ids are kept as pairs of primitive longs with their ticks. Not thread-safe.
+ */
+class TimingWheel {
+
+    private static final int INITIAL_BUCKET_CAPACITY = 8;
+
+    private final long tickMillis;
+    private final int bits;
+    private final int mask;
+    private final List<Bucket[]> levels = new ArrayList<>();
+    /**
+     * The tick whose ids are handed out next.
+     */
+    private long now;
+    private long size;
+
+    /**
+     * @param wheelSize number of buckets of every level, a power of two
+     */
+    TimingWheel(long tickMillis, int wheelSize, long startMillis) {
+        if (tickMillis <= 0 || wheelSize < 2 || Integer.bitCount(wheelSize) != 1) {
+            throw new IllegalArgumentException(String.format(
+                    "Tick must be positive and wheel size a power of two, but given %d and %d", tickMillis, wheelSize));
+        }
+        this.tickMillis = tickMillis;
+        this.bits = Integer.numberOfTrailingZeros(wheelSize);
+        this.mask = wheelSize - 1;
+        this.now = startMillis / tickMillis;
+    }
+
+    /**
+     * An id due before the clock is handed out by the next {@link #advance(long, LongConsumer)}.
+     */
+    void schedule(long id, long dueMillis) {
+        place(id, Math.max(dueMillis / tickMillis, now));
+        size++;
+    }
+
+    /**
+     * Moves the clock to the given time, handing out the ids due before the tick it falls into.
+     */
+    void advance(long millis, LongConsumer due) {
+        long target = millis / tickMillis;
+        while (now < target) {
+            if (size == 0) {
+                now = target;
+                return;
+            }
+            // buckets starting at this tick are spread over the lower levels, the highest one first
+            for (int level = levels.size() - 1; level > 0; level--) {
+                int shift = bits * level;
+                if ((now & ((1L << shift) - 1)) == 0) {
+                    Bucket bucket = levels.get(level)[(int) (now >>> shift) & mask];
+                    if (bucket != null) {
+                        bucket.drain(this::place);
+                    }
+                }
+            }
+            Bucket bucket = levels.isEmpty() ? null : levels.get(0)[(int) now & mask];
+            if (bucket != null) {
+                size -= bucket.drain((id, tick) -> due.accept(id));
+            }
+            now++;
+        }
+    }
+
+    long size() {
+        return size;
+    }
+
+    /**
+     * The lowest level whose window from the current tick covers the tick takes the id. A bucket of a higher level
+     * which has already started can't, since the next level down covers its remaining ticks.
+     */
+    private void place(long id, long tick) {
+        for (int level = 0; ; level++) {
+            int shift = bits * level;
+            if (shift >= Long.SIZE || (tick >>> shift) - (now >>> shift) <= mask) {
+                while (levels.size() <= level) {
+                    levels.add(new Bucket[mask + 1]);
+                }
+                Bucket[] buckets = levels.get(level);
+                int index = shift >= Long.SIZE ? 0 : (int) (tick >>> shift) & mask;
+                if (buckets[index] == null) {
+                    buckets[index] = new Bucket();
+                }
+                buckets[index].add(id, tick);
+                return;
+            }
+        }
+    }
+
+    private interface EntryConsumer {
+        void accept(long id, long tick);
+    }
+
+    /**
+     * Ids and their ticks, interleaved.
+     */
+    private static class Bucket {
+        private long[] entries = new long[INITIAL_BUCKET_CAPACITY * 2];
+        private int size;
+
+        private void add(long id, long tick) {
+            if (size * 2 == entries.length) {
+                entries = Arrays.copyOf(entries, entries.length * 2);
+            }
+            entries[size * 2] = id;
+            entries[size * 2 + 1] = tick;
+            size++;
+        }
+
+        /**
+         * Empties the bucket before handing out its entries.
+         *
+         * @return the number of entries handed out
+         */
+        private int drain(EntryConsumer consumer) {
+            long[] drained = entries;
+            int count = size;
+            entries = new long[INITIAL_BUCKET_CAPACITY * 2];
+            size = 0;
+            for (int i = 0; i < count; i++) {
+                consumer.accept(drained[i * 2], drained[i * 2 + 1]);
+            }
+            return count;
+        }
+    }
+}
@@ -0,0 +1,416 @@
+package com.github.fertkir.moneytransfer.journal;
+
+import com.github.fertkir.moneytransfer.entity.Account;
+import com.github.fertkir.moneytransfer.persistence.PersistenceException;
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import com.google.inject.name.Named;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Append-only log of account states, written ahead of the database commit that makes them visible.
+ * <p>
+ * Entries are written by a single thread which takes everything queued since its previous write,
+ * up to {@code journal.groupCommit.maxSize} entries, and makes it durable with one {@code force()}:
+ * concurrent transactions share the cost of the flush instead of paying for it one after another.
+ * <p>
+ * Every record holds the version of the account, so the latest state of an account is the one with the highest
+ * version, wherever it is in the journal. This is what recovery restores.
+ * <p>
+ * Every {@code journal.checkpoint.segments} filled segments, a checkpoint merges their latest states into
+ * a {@link JournalSnapshot} of all the accounts and deletes them, so that recovery reads one compact file
+ * plus the segments written after it. A database which keeps the states itself only needs the segments,
+ * see {@link #recoverTail(int, Consumer)}.
+ */
+@Slf4j
+@Singleton
+public class Journal implements Closeable {
+
+    private static final int RECOVERY_CHUNK_SIZE = 1024;
+
+    private final Path directory;
+    private final int segmentCapacity;
+    private final int maxGroupSize;
+    private final int checkpointSegments;
+    private final JournalStatistics statistics;
+
+    private final BlockingQueue<PendingEntry> queue = new LinkedBlockingQueue<>();
+    /**
+     * Guards closing against appends.
+     */
+    private final Lock closeLock = new ReentrantLock();
+    /**
+     * Segments which are not written anymore, oldest first. Those left by the previous run are recovered.
+     */
+    private final List<Path> sealedSegments = new CopyOnWriteArrayList<>();
+    private final List<Path> recoveredSegments;
+    private final Path recoveredSnapshot;
+    /**
+     * The latest snapshot, written by the previous run or by a checkpoint of this one, if any.
+     */
+    private volatile Path snapshot;
+    private final AtomicBoolean checkpointRunning = new AtomicBoolean();
+    private final List<Runnable> beforeCheckpointCallbacks = new CopyOnWriteArrayList<>();
+    private final ExecutorService checkpointExecutor = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "journal-checkpoint");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private final Thread writer;
+    private JournalSegment currentSegment;
+    private boolean closed;
+
+    @Inject
+    public Journal(@Named("journal.directory") String directory,
+                   @Named("journal.segmentSize") int segmentSize,
+                   @Named("journal.groupCommit.maxSize") int maxGroupSize,
+                   @Named("journal.checkpoint.segments") int checkpointSegments,
+                   JournalStatistics statistics) {
+        this.directory = Paths.get(directory);
+        this.segmentCapacity = segmentSize / JournalSegment.RECORD_SIZE;
+        this.maxGroupSize = maxGroupSize;
+        this.checkpointSegments = checkpointSegments;
+        this.statistics = statistics;
+        List<Path> snapshots = listFiles(this.directory, JournalSnapshot.SUFFIX);
+        this.recoveredSnapshot = snapshots.isEmpty() ? null : snapshots.get(snapshots.size() - 1);
+        this.snapshot = recoveredSnapshot;
+        long snapshotEnd = recoveredSnapshot == null ? 0 : JournalSnapshot.endRecord(recoveredSnapshot);
+        this.recoveredSegments = new ArrayList<>();
+        List<Path> stale = listFiles(this.directory, JournalSnapshot.TEMPORARY_SUFFIX);
+        stale.addAll(snapshots.subList(0, Math.max(0, snapshots.size() - 1)));
+        for (Path segment : listFiles(this.directory, JournalSegment.SUFFIX)) {
+            // a checkpoint which stopped before deleting its segments leaves them behind its snapshot
+            (JournalSegment.firstRecord(segment) < snapshotEnd ? stale : recoveredSegments).add(segment);
+        }
+        deleteAll(stale);
+        this.sealedSegments.addAll(recoveredSegments);
+        this.currentSegment = JournalSegment.create(this.directory,
+                Math.max(snapshotEnd, nextSegmentStart(recoveredSegments)), segmentCapacity);
+        this.writer = new Thread(this::writeGroups, "journal-writer");
+        this.writer.setDaemon(true);
+        this.writer.start();
+    }
+
+    /**
+     * Queues the states for writing. All of them are recovered or none is.
+     *
+     * @return future completed once the states are durable
+     */
+    public CompletableFuture<Void> append(List<Account> states) {
+        if (states.size() > segmentCapacity) {
+            throw new PersistenceException(String.format("%d account states don't fit into a journal segment",
+                    states.size()));
+        }
+        PendingEntry entry = new PendingEntry(states);
+        closeLock.lock();
+        try {
+            if (closed) {
+                entry.durable.completeExceptionally(new PersistenceException("Journal is closed"));
+            } else {
+                queue.add(entry);
+            }
+        } finally {
+            closeLock.unlock();
+        }
+        return entry.durable;
+    }
+
+    /**
+     * Latest states of the accounts written by the previous runs.
+     */
+    public Collection<Account> recover() {
+        List<Account> states = new ArrayList<>();
+        recover(RECOVERY_CHUNK_SIZE, states::addAll);
+        return states;
+    }
+
+    /**
+     * Passes the latest states of the accounts written by the previous runs to the consumer in chunks ordered
+     * by id, so that they are neither held in memory nor restored in a single transaction.
+     *
+     * @return the number of states recovered
+     */
+    public long recover(int chunkSize, Consumer<List<Account>> consumer) {
+        return recover(chunkSize, consumer, recoveredSnapshot);
+    }
+
+    /**
+     * Same as {@link #recover(int, Consumer)}, but only the states written after the latest snapshot, for
+     * a database which has kept the states of the snapshot itself, see {@link #beforeCheckpoint(Runnable)}.
+     */
+    public long recoverTail(int chunkSize, Consumer<List<Account>> consumer) {
+        return recover(chunkSize, consumer, null);
+    }
+
+    /**
+     * Registers a callback to be run by every checkpoint before it replaces segments with a snapshot, e.g. to make
+     * sure that the states in them are durable elsewhere. A failing callback fails the checkpoint, which leaves
+     * the segments in place.
+     */
+    public void beforeCheckpoint(Runnable callback) {
+        beforeCheckpointCallbacks.add(callback);
+    }
+
+    private long recover(int chunkSize, Consumer<List<Account>> consumer, Path snapshot) {
+        List<Account> tail = sortedById(readLatestStates(recoveredSegments));
+        long recovered = 0;
+        try (JournalSnapshot.Reader snapshotStates = snapshot == null ? null : JournalSnapshot.open(snapshot)) {
+            Iterator<Account> states = new MergedStates(
+                    snapshotStates == null ? Collections.emptyIterator() : snapshotStates, tail.iterator());
+            List<Account> chunk = new ArrayList<>(chunkSize);
+            while (states.hasNext()) {
+                chunk.add(states.next());
+                if (chunk.size() == chunkSize || !states.hasNext()) {
+                    consumer.accept(chunk);
+                    recovered += chunk.size();
+                    chunk = new ArrayList<>(chunkSize);
+                }
+            }
+        }
+        log.info("Recovered {} accounts from {} and {} journal segments", recovered,
+                snapshot == null ? "no snapshot" : snapshot.getFileName(), recoveredSegments.size());
+        return recovered;
+    }
+
+    /**
+     * Stops writing. Entries which are not durable yet fail.
+     */
+    @Override
+    public void close() {
+        writer.interrupt();
+        try {
+            writer.join();
+            closeLock.lock();
+            try {
+                closed = true;
+                PersistenceException failure = new PersistenceException("Journal is closed");
+                for (PendingEntry entry = queue.poll(); entry != null; entry = queue.poll()) {
+                    entry.durable.completeExceptionally(failure);
+                }
+            } finally {
+                closeLock.unlock();
+            }
+            // a running checkpoint may still be deleting segments
+            checkpointExecutor.shutdown();
+            checkpointExecutor.awaitTermination(1, TimeUnit.MINUTES);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        currentSegment.close();
+    }
+
+    private void writeGroups() {
+        List<PendingEntry> group = new ArrayList<>(maxGroupSize);
+        while (true) {
+            try {
+                group.add(queue.take());
+            } catch (InterruptedException e) {
+                return;
+            }
+            queue.drainTo(group, maxGroupSize - 1);
+            try {
+                int records = 0;
+                for (PendingEntry entry : group) {
+                    if (currentSegment.remaining() < entry.states.size()) {
+                        rollOver();
+                    }
+                    currentSegment.append(entry.states);
+                    records += entry.states.size();
+                }
+                currentSegment.force();
+                statistics.recordGroup(group.size(), records);
+                group.forEach(entry -> entry.durable.complete(null));
+            } catch (RuntimeException e) {
+                log.error("Could not write {} journal entries", group.size(), e);
+                group.forEach(entry -> entry.durable.completeExceptionally(e));
+            }
+            group.clear();
+        }
+    }
+
+    private void rollOver() {
+        currentSegment.force();
+        currentSegment.close();
+        sealedSegments.add(currentSegment.getPath());
+        currentSegment = JournalSegment.create(directory, currentSegment.nextRecord(), segmentCapacity);
+        if (sealedSegments.size() >= checkpointSegments && checkpointRunning.compareAndSet(false, true)) {
+            checkpointExecutor.execute(this::checkpoint);
+        }
+    }
+
+    /**
+     * Merges the latest states found in the sealed segments into a new snapshot, so that neither the sealed
+     * segments nor the previous snapshot are needed for recovery anymore. States written meanwhile go to the
+     * current segment, which follows the new snapshot.
+     */
+    private void checkpoint() {
+        try {
+            List<Path> segments = new ArrayList<>(sealedSegments);
+            beforeCheckpointCallbacks.forEach(Runnable::run);
+            long endRecord;
+            try (JournalSegment last = JournalSegment.open(segments.get(segments.size() - 1))) {
+                endRecord = last.endRecord();
+            }
+            List<Account> latest = sortedById(readLatestStates(segments));
+            Path previous = snapshot;
+            Path written;
+            try (JournalSnapshot.Reader previousStates = previous == null ? null : JournalSnapshot.open(previous)) {
+                written = JournalSnapshot.write(directory, endRecord, new MergedStates(
+                        previousStates == null ? Collections.emptyIterator() : previousStates, latest.iterator()));
+            }
+            snapshot = written;
+            List<Path> replaced = new ArrayList<>(segments);
+            if (previous != null) {
+                replaced.add(previous);
+            }
+            deleteAll(replaced);
+            sealedSegments.removeAll(segments);
+            statistics.recordCheckpoint();
+            log.info("Checkpointed {} accounts into {}, deleted {} journal segments", JournalSnapshot.count(written),
+                    written.getFileName(), segments.size());
+        } catch (RuntimeException e) {
+            log.error("Journal checkpoint failed", e);
+        } finally {
+            checkpointRunning.set(false);
+        }
+    }
+
+    private static List<Account> sortedById(Collection<Account> states) {
+        List<Account> sorted = new ArrayList<>(states);
+        sorted.sort(Comparator.comparingLong(Account::getId));
+        return sorted;
+    }
+
+    private static Collection<Account> readLatestStates(List<Path> segments) {
+        Map<Long, Account> states = new HashMap<>();
+        for (Path path : segments) {
+            try (JournalSegment segment = JournalSegment.open(path)) {
+                segment.read(entry -> entry.forEach(state -> states.merge(state.getId(), state,
+                        (current, next) -> next.getVersion() > current.getVersion() ? next : current)));
+            }
+        }
+        return states.values();
+    }
+
+    private static List<Path> listFiles(Path directory, String suffix) {
+        try {
+            Files.createDirectories(directory);
+            try (Stream<Path> files = Files.list(directory)) {
+                return files.filter(path -> path.getFileName().toString().endsWith(suffix))
+                        .sorted()
+                        .collect(Collectors.toList());
+            }
+        } catch (IOException e) {
+            throw new PersistenceException(e);
+        }
+    }
+
+    private static void deleteAll(List<Path> files) {
+        try {
+            for (Path file : files) {
+                Files.deleteIfExists(file);
+            }
+        } catch (IOException e) {
+            throw new PersistenceException(e);
+        }
+    }
+
+    /**
+     * The tail of the last segment may be torn, so writing always continues in a new one.
+     */
+    private static long nextSegmentStart(List<Path> segments) {
+        if (segments.isEmpty()) {
+            return 0;
+        }
+        Path last = segments.get(segments.size() - 1);
+        try (JournalSegment segment = JournalSegment.open(last)) {
+            return segment.endRecord();
+        }
+    }
+
+    /**
+     * Merges two sequences of states ordered by id, taking the one with the higher version for an id found in both.
+     */
+    private static class MergedStates implements Iterator<Account> {
+        private final Iterator<Account> first;
+        private final Iterator<Account> second;
+        private Account nextOfFirst;
+        private Account nextOfSecond;
+
+        private MergedStates(Iterator<Account> first, Iterator<Account> second) {
+            this.first = first;
+            this.second = second;
+            this.nextOfFirst = poll(first);
+            this.nextOfSecond = poll(second);
+        }
+
+        @Override
+        public boolean hasNext() {
+            return nextOfFirst != null || nextOfSecond != null;
+        }
+
+        @Override
+        public Account next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            int order = nextOfFirst == null ? 1
+                    : nextOfSecond == null ? -1
+                    : Long.compare(nextOfFirst.getId(), nextOfSecond.getId());
+            Account next;
+            if (order < 0) {
+                next = nextOfFirst;
+                nextOfFirst = poll(first);
+            } else if (order > 0) {
+                next = nextOfSecond;
+                nextOfSecond = poll(second);
+            } else {
+                next = nextOfSecond.getVersion() > nextOfFirst.getVersion() ? nextOfSecond : nextOfFirst;
+                nextOfFirst = poll(first);
+                nextOfSecond = poll(second);
+            }
+            return next;
+        }
+
+        private static Account poll(Iterator<Account> states) {
+            return states.hasNext() ? states.next() : null;
+        }
+    }
+
+    private static class PendingEntry {
+        private final List<Account> states;
+        private final CompletableFuture<Void> durable = new CompletableFuture<>();
+
+        private PendingEntry(List<Account> states) {
+            this.states = states;
+        }
+    }
+}
@@ -0,0 +1,198 @@
+package com.github.fertkir.moneytransfer.journal;
+
+import com.github.fertkir.moneytransfer.entity.Account;
+import com.github.fertkir.moneytransfer.entity.Money;
+import com.github.fertkir.moneytransfer.persistence.PersistenceException;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+import java.util.zip.CRC32;
+
+import static java.lang.String.format;
+import static java.nio.file.StandardOpenOption.CREATE_NEW;
+import static java.nio.file.StandardOpenOption.READ;
+import static java.nio.file.StandardOpenOption.WRITE;
+
+/**
+ * A journal file, mapped into memory at its full size when created. It holds fixed-size records,
+ * each one being the state of an account after a committed change:
+ * <pre>
+ * offset size
+ *      0    4  CRC32 of the remaining 28 bytes
+ *      4    1  flags: VALID, and MORE if the next record belongs to the same entry
+ *      5    1  scale of the balance, always {@link Money#SCALE} since balances are in minor units
+ *      6    2  reserved
+ *      8    8  account id
+ *     16    8  account version
+ *     24    8  balance in minor units
+ * </pre>
+ * Records of an entry (e.g. both accounts of a transfer) are written together, and an entry is read back only
+ * if all its records are intact. Reading stops at the first record which isn't, which is where the file
+ * was left when the process stopped.
+ */
+class JournalSegment implements Closeable {
+
+    static final int RECORD_SIZE = 32;
+    static final String SUFFIX = ".journal";
+
+    private static final byte VALID = 1;
+    private static final byte MORE = 2;
+
+    private final Path path;
+    private final long firstRecord;
+    private final FileChannel channel;
+    private final MappedByteBuffer buffer;
+    private final CRC32 crc = new CRC32();
+
+    private JournalSegment(Path path, long firstRecord, FileChannel channel, MappedByteBuffer buffer) {
+        this.path = path;
+        this.firstRecord = firstRecord;
+        this.channel = channel;
+        this.buffer = buffer;
+    }
+
+    static JournalSegment create(Path directory, long firstRecord, int capacity) {
+        Path path = directory.resolve(format("%020d%s", firstRecord, SUFFIX));
+        try {
+            FileChannel channel = FileChannel.open(path, CREATE_NEW, READ, WRITE);
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, (long) capacity * RECORD_SIZE);
+            return new JournalSegment(path, firstRecord, channel, buffer);
+        } catch (IOException e) {
+            throw new PersistenceException(e);
+        }
+    }
+
+    static JournalSegment open(Path path) {
+        long firstRecord = firstRecord(path);
+        try {
+            FileChannel channel = FileChannel.open(path, READ);
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            return new JournalSegment(path, firstRecord, channel, buffer);
+        } catch (IOException e) {
+            throw new PersistenceException(e);
+        }
+    }
+
+    static long firstRecord(Path path) {
+        String name = path.getFileName().toString();
+        return Long.parseLong(name.substring(0, name.length() - SUFFIX.length()));
+    }
+
+    Path getPath() {
+        return path;
+    }
+
+    /**
+     * Sequence number of the record to be written next, counting from the start of the journal.
+     */
+    long nextRecord() {
+        return firstRecord + buffer.position() / RECORD_SIZE;
+    }
+
+    /**
+     * Sequence number of the first record of the segment following this one.
+     */
+    long endRecord() {
+        return firstRecord + buffer.capacity() / RECORD_SIZE;
+    }
+
+    int remaining() {
+        return buffer.remaining() / RECORD_SIZE;
+    }
+
+    /**
+     * The whole entry is encoded before anything is put into the file, so a state which can't be encoded
+     * doesn't leave a partial entry behind.
+     */
+    void append(List<Account> entry) {
+        ByteBuffer records = ByteBuffer.allocate(entry.size() * RECORD_SIZE);
+        for (int i = 0; i < entry.size(); i++) {
+            encode(entry.get(i), i < entry.size() - 1, records);
+        }
+        records.flip();
+        buffer.put(records);
+    }
+
+    void force() {
+        buffer.force();
+    }
+
+    void read(Consumer<List<Account>> consumer) {
+        ByteBuffer records = buffer.duplicate();
+        records.position(0);
+        List<Account> entry = new ArrayList<>();
+        while (records.remaining() >= RECORD_SIZE) {
+            int start = records.position();
+            int checksum = records.getInt();
+            crc.reset();
+            crc.update(sliceOf(records, start + 4, RECORD_SIZE - 4));
+            byte flags = records.get();
+            if ((int) crc.getValue() != checksum || (flags & VALID) == 0) {
+                return;
+            }
+            int scale = records.get();
+            records.getShort();
+            entry.add(Account.builder()
+                    .id(records.getLong())
+                    .version(records.getLong())
+                    .balance(toMinorUnits(records.getLong(), scale))
+                    .build());
+            if ((flags & MORE) == 0) {
+                consumer.accept(entry);
+                entry = new ArrayList<>();
+            }
+        }
+    }
+
+    @Override
+    public void close() {
+        try {
+            channel.close();
+        } catch (IOException e) {
+            throw new PersistenceException(e);
+        }
+    }
+
+    private void encode(Account account, boolean more, ByteBuffer records) {
+        int start = records.position();
+        records.putInt(0);
+        records.put(more ? VALID | MORE : VALID);
+        records.put((byte) Money.SCALE);
+        records.putShort((short) 0);
+        records.putLong(account.getId());
+        records.putLong(account.getVersion());
+        records.putLong(account.getBalance());
+        crc.reset();
+        crc.update(sliceOf(records, start + 4, RECORD_SIZE - 4));
+        records.putInt(start, (int) crc.getValue());
+    }
+
+    /**
+     * Records written before balances were kept in minor units may have another scale.
+     */
+    private static long toMinorUnits(long unscaledBalance, int scale) {
+        if (scale == Money.SCALE) {
+            return unscaledBalance;
+        }
+        try {
+            return BigDecimal.valueOf(unscaledBalance, scale).movePointRight(Money.SCALE).longValueExact();
+        } catch (ArithmeticException e) {
+            throw new PersistenceException(format("Balance %s can't be recovered in minor units",
+                    BigDecimal.valueOf(unscaledBalance, scale).toPlainString()));
+        }
+    }
+
+    private static ByteBuffer sliceOf(ByteBuffer buffer, int offset, int length) {
+        ByteBuffer slice = buffer.duplicate();
+        slice.limit(offset + length).position(offset);
+        return slice;
+    }
+}
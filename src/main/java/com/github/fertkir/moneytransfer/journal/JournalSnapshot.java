@@ -0,0 +1,222 @@
+package com.github.fertkir.moneytransfer.journal;
+
+import com.github.fertkir.moneytransfer.entity.Account;
+import com.github.fertkir.moneytransfer.persistence.PersistenceException;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedOutputStream;
+
+import static java.lang.String.format;
+import static java.nio.file.StandardCopyOption.ATOMIC_MOVE;
+import static java.nio.file.StandardOpenOption.READ;
+
+/**
+ * Latest states of all the accounts journaled before a record, ordered by id. A checkpoint writes them, so that
+ * recovery reads the segments before that record from one compact file rather than from the segments themselves:
+ * <pre>
+ * offset  size
+ *      0     8  {@link #MAGIC}
+ *      8     8  sequence number of the first journal record not included
+ *     16   24n  states: account id, account version, balance in minor units
+ * 16+24n     8  number of states
+ * 24+24n     8  CRC32 of everything before it
+ * </pre>
+ * The file gets its name once it's complete and on disk, so a snapshot which can be found is whole.
+ */
+@Slf4j
+class JournalSnapshot {
+
+    static final String SUFFIX = ".snapshot";
+    static final String TEMPORARY_SUFFIX = SUFFIX + ".tmp";
+
+    private static final long MAGIC = 0x4d54534e41505631L; // MTSNAPV1
+    private static final int STATE_SIZE = 24;
+    private static final int HEADER_SIZE = 16;
+    private static final int TRAILER_SIZE = 16;
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    private JournalSnapshot() {
+    }
+
+    static long endRecord(Path path) {
+        String name = path.getFileName().toString();
+        return Long.parseLong(name.substring(0, name.length() - SUFFIX.length()));
+    }
+
+    /**
+     * @param states ordered by id
+     */
+    static Path write(Path directory, long endRecord, Iterator<Account> states) {
+        Path path = directory.resolve(format("%020d%s", endRecord, SUFFIX));
+        Path temporary = directory.resolve(format("%020d%s", endRecord, TEMPORARY_SUFFIX));
+        try {
+            try (FileOutputStream file = new FileOutputStream(temporary.toFile())) {
+                CheckedOutputStream checked = new CheckedOutputStream(new BufferedOutputStream(file, BUFFER_SIZE),
+                        new CRC32());
+                DataOutputStream out = new DataOutputStream(checked);
+                out.writeLong(MAGIC);
+                out.writeLong(endRecord);
+                long count = 0;
+                while (states.hasNext()) {
+                    Account state = states.next();
+                    out.writeLong(state.getId());
+                    out.writeLong(state.getVersion());
+                    out.writeLong(state.getBalance());
+                    count++;
+                }
+                out.writeLong(count);
+                out.writeLong(checked.getChecksum().getValue());
+                out.flush();
+                file.getChannel().force(true);
+            }
+            Files.move(temporary, path, ATOMIC_MOVE);
+            forceDirectory(directory);
+            return path;
+        } catch (IOException e) {
+            throw new PersistenceException(e);
+        }
+    }
+
+    static long count(Path path) {
+        try {
+            long size = Files.size(path);
+            if (size < HEADER_SIZE + TRAILER_SIZE || (size - HEADER_SIZE - TRAILER_SIZE) % STATE_SIZE != 0) {
+                throw new PersistenceException(format("Journal snapshot %s has a wrong size %d", path, size));
+            }
+            return (size - HEADER_SIZE - TRAILER_SIZE) / STATE_SIZE;
+        } catch (IOException e) {
+            throw new PersistenceException(e);
+        }
+    }
+
+    /**
+     * Checks the whole file before returning the first state, so that a damaged snapshot fails recovery
+     * rather than restoring part of it.
+     */
+    static Reader open(Path path) {
+        try (FileChannel channel = FileChannel.open(path)) {
+            long count = count(path);
+            long checksumOffset = channel.size() - 8;
+            if (readLong(channel, 0) != MAGIC) {
+                throw new PersistenceException(format("%s is not a journal snapshot", path));
+            }
+            if (readLong(channel, checksumOffset - 8) != count
+                    || readLong(channel, checksumOffset) != checksumOf(path, checksumOffset)) {
+                throw new PersistenceException(format("Journal snapshot %s is damaged", path));
+            }
+            return new Reader(path, count);
+        } catch (IOException e) {
+            throw new PersistenceException(e);
+        }
+    }
+
+    private static long readLong(FileChannel channel, long position) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(8);
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0) {
+                throw new IOException("Unexpected end of journal snapshot");
+            }
+        }
+        return buffer.getLong(0);
+    }
+
+    /**
+     * Makes the new name of the snapshot durable, so that the segments it replaces can be deleted.
+     */
+    private static void forceDirectory(Path directory) {
+        try (FileChannel channel = FileChannel.open(directory, READ)) {
+            channel.force(true);
+        } catch (IOException e) {
+            // directories can't be opened on some platforms, e.g. Windows, which don't need this either
+            log.debug("Could not force journal directory {}", directory, e);
+        }
+    }
+
+    private static long checksumOf(Path path, long length) throws IOException {
+        CRC32 crc = new CRC32();
+        byte[] buffer = new byte[BUFFER_SIZE];
+        try (InputStream in = Files.newInputStream(path)) {
+            long remaining = length;
+            while (remaining > 0) {
+                int read = in.read(buffer, 0, (int) Math.min(buffer.length, remaining));
+                if (read < 0) {
+                    throw new IOException("Unexpected end of " + path);
+                }
+                crc.update(buffer, 0, read);
+                remaining -= read;
+            }
+        }
+        return crc.getValue();
+    }
+
+    private static void skipFully(InputStream in, long bytes) throws IOException {
+        long remaining = bytes;
+        while (remaining > 0) {
+            long skipped = in.skip(remaining);
+            if (skipped <= 0) {
+                throw new IOException("Unexpected end of snapshot");
+            }
+            remaining -= skipped;
+        }
+    }
+
+    /**
+     * States of a snapshot in the order they were written.
+     */
+    static class Reader implements Iterator<Account>, Closeable {
+        private final DataInputStream in;
+        private long remaining;
+
+        private Reader(Path path, long count) throws IOException {
+            this.in = new DataInputStream(new BufferedInputStream(Files.newInputStream(path), BUFFER_SIZE));
+            this.remaining = count;
+            skipFully(in, HEADER_SIZE);
+        }
+
+        @Override
+        public boolean hasNext() {
+            return remaining > 0;
+        }
+
+        @Override
+        public Account next() {
+            if (remaining == 0) {
+                throw new NoSuchElementException();
+            }
+            try {
+                remaining--;
+                return Account.builder()
+                        .id(in.readLong())
+                        .version(in.readLong())
+                        .balance(in.readLong())
+                        .build();
+            } catch (IOException e) {
+                throw new PersistenceException(e);
+            }
+        }
+
+        @Override
+        public void close() {
+            try {
+                in.close();
+            } catch (IOException e) {
+                throw new PersistenceException(e);
+            }
+        }
+    }
+}
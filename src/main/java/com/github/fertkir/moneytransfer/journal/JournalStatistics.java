@@ -0,0 +1,48 @@
+package com.github.fertkir.moneytransfer.journal;
+
+import com.google.inject.Singleton;
+
+import java.util.concurrent.atomic.LongAdder;
+
+@Singleton
+public class JournalStatistics {
+
+    private final LongAdder forces = new LongAdder();
+    private final LongAdder entries = new LongAdder();
+    private final LongAdder records = new LongAdder();
+    private final LongAdder checkpoints = new LongAdder();
+
+    void recordGroup(int groupEntries, int groupRecords) {
+        forces.increment();
+        entries.add(groupEntries);
+        records.add(groupRecords);
+    }
+
+    void recordCheckpoint() {
+        checkpoints.increment();
+    }
+
+    public long getForces() {
+        return forces.sum();
+    }
+
+    public long getEntries() {
+        return entries.sum();
+    }
+
+    public long getRecords() {
+        return records.sum();
+    }
+
+    public long getCheckpoints() {
+        return checkpoints.sum();
+    }
+
+    /**
+     * Entries made durable per {@code force()} on average.
+     */
+    public double getAverageGroupSize() {
+        long forceCount = getForces();
+        return forceCount == 0 ? 0 : (double) getEntries() / forceCount;
+    }
+}
@@ -0,0 +1,99 @@
+package com.github.fertkir.moneytransfer.metrics;
+
+import java.io.PrintWriter;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Writes metrics in the Prometheus text exposition format. Every metric is started with {@link #declare}
+ * and followed by all its samples. Labels are given as name-value pairs.
+ */
+public class PrometheusWriter {
+
+    public static final String CONTENT_TYPE = "text/plain; version=0.0.4; charset=utf-8";
+
+    /**
+     * Histogram buckets are powers of two of nanoseconds, which are bucket bounds of {@link LatencyRecorder}
+     * as well, from about a microsecond to about 17 seconds.
+     */
+    private static final int FIRST_BUCKET_EXPONENT = 10;
+    private static final int LAST_BUCKET_EXPONENT = 34;
+    private static final double NANOS_PER_SECOND = TimeUnit.SECONDS.toNanos(1);
+
+    private final PrintWriter writer;
+
+    public PrometheusWriter(PrintWriter writer) {
+        this.writer = writer;
+    }
+
+    public PrometheusWriter declare(String name, String type, String help) {
+        writer.append("# HELP ").append(name).append(' ').append(help).append('\n');
+        writer.append("# TYPE ").append(name).append(' ').append(type).append('\n');
+        return this;
+    }
+
+    public PrometheusWriter sample(String name, double value, String... labels) {
+        writer.append(name);
+        appendLabels(labels, null);
+        writer.append(' ').append(format(value)).append('\n');
+        return this;
+    }
+
+    /**
+     * Writes the durations recorded, in seconds, as a histogram declared with the given name.
+     */
+    public PrometheusWriter histogram(String name, LatencyRecorder recorder, String... labels) {
+        for (int exponent = FIRST_BUCKET_EXPONENT; exponent <= LAST_BUCKET_EXPONENT; exponent++) {
+            long bound = 1L << exponent;
+            writer.append(name).append("_bucket");
+            appendLabels(labels, format(bound / NANOS_PER_SECOND));
+            writer.append(' ').append(Long.toString(recorder.getCountBelow(bound))).append('\n');
+        }
+        long count = recorder.getCount();
+        writer.append(name).append("_bucket");
+        appendLabels(labels, "+Inf");
+        writer.append(' ').append(Long.toString(count)).append('\n');
+        sample(name + "_sum", recorder.getSum() / NANOS_PER_SECOND, labels);
+        return sample(name + "_count", count, labels);
+    }
+
+    private void appendLabels(String[] labels, String le) {
+        if (labels.length == 0 && le == null) {
+            return;
+        }
+        writer.append('{');
+        for (int i = 0; i < labels.length; i += 2) {
+            if (i > 0) {
+                writer.append(',');
+            }
+            appendLabel(labels[i], labels[i + 1]);
+        }
+        if (le != null) {
+            if (labels.length > 0) {
+                writer.append(',');
+            }
+            appendLabel("le", le);
+        }
+        writer.append('}');
+    }
+
+    private void appendLabel(String name, String value) {
+        writer.append(name).append("=\"");
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '\\' || c == '"') {
+                writer.append('\\').append(c);
+            } else if (c == '\n') {
+                writer.append("\\n");
+            } else {
+                writer.append(c);
+            }
+        }
+        writer.append('"');
+    }
+
+    private static String format(double value) {
+        return value == Math.rint(value) && !Double.isInfinite(value)
+                ? Long.toString((long) value)
+                : Double.toString(value);
+    }
+}
@@ -0,0 +1,10 @@
+package com.github.fertkir.moneytransfer.persistence;
+
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+
+@FunctionalInterface
+public interface BatchStatementBinder<T> {
+
+    void bind(PreparedStatement statement, T item) throws SQLException;
+}
@@ -1,13 +1,49 @@
 package com.github.fertkir.moneytransfer.persistence;
 
+import com.google.inject.Inject;
 import com.google.inject.Singleton;
+import com.google.inject.name.Named;
 
 import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
 
 @Singleton
 class ConnectionKeeper {
 
     private final ThreadLocal<Connection> connections = new ThreadLocal<>();
+    private final ThreadLocal<StatementCache> statementCaches = new ThreadLocal<>();
+    private final ThreadLocal<List<Runnable>> beforeCommitCallbacks = new ThreadLocal<>();
+    private final ThreadLocal<List<Runnable>> afterCommitCallbacks = new ThreadLocal<>();
+    private final ThreadLocal<List<Runnable>> afterCompletionCallbacks = new ThreadLocal<>();
+    private final ThreadLocal<Map<Object, Object>> resources = new ThreadLocal<>();
+    private final ThreadLocal<Boolean> connectionBroken = new ThreadLocal<>();
+
+    /**
+     * Statement caches by physical connection. Statements prepared through a pool's proxy connection are closed
+     * by the pool as soon as the connection is returned, so they are prepared on the unwrapped one and live
+     * as long as it does.
+     * <p>
+     * The price is that the pool doesn't see these statements fail either, so it can't tell that one of them has
+     * broken the connection. Their failures are checked by {@link #checkFailure(SQLException)} instead, and
+     * {@link TransactionTemplate} evicts a broken connection from the pool itself.
+     */
+    private final Map<Connection, StatementCache> cachesByConnection = new ConcurrentHashMap<>();
+    private final StatementCacheStatistics statistics;
+    private final int statementCacheSize;
+
+    @Inject
+    ConnectionKeeper(StatementCacheStatistics statistics,
+                     @Named("persistence.statementCache.size") int statementCacheSize) {
+        this.statistics = statistics;
+        this.statementCacheSize = statementCacheSize;
+    }
 
     void set(Connection connection) {
         connections.set(connection);
@@ -15,6 +51,81 @@ class ConnectionKeeper {
 
     void remove() {
         connections.remove();
+        statementCaches.remove();
+        beforeCommitCallbacks.remove();
+        afterCommitCallbacks.remove();
+        afterCompletionCallbacks.remove();
+        resources.remove();
+        connectionBroken.remove();
+    }
+
+    /**
+     * Marks the connection of the current transaction broken if the failure of a cached statement has
+     * disconnected it (SQL state class 08, as the pool would check) or has left it no longer valid.
+     */
+    void checkFailure(SQLException failure) {
+        StatementCache cache = statementCaches.get();
+        if (cache == null) {
+            return;
+        }
+        String sqlState = failure.getSQLState();
+        if (sqlState != null && sqlState.startsWith("08") || !cache.isConnectionValid()) {
+            connectionBroken.set(true);
+        }
+    }
+
+    boolean isConnectionBroken() {
+        return connectionBroken.get() != null;
+    }
+
+    void addBeforeCommitCallback(Runnable callback) {
+        addCallback(beforeCommitCallbacks, callback);
+    }
+
+    List<Runnable> getBeforeCommitCallbacks() {
+        return getCallbacks(beforeCommitCallbacks);
+    }
+
+    void addAfterCommitCallback(Runnable callback) {
+        addCallback(afterCommitCallbacks, callback);
+    }
+
+    List<Runnable> getAfterCommitCallbacks() {
+        return getCallbacks(afterCommitCallbacks);
+    }
+
+    void addAfterCompletionCallback(Runnable callback) {
+        addCallback(afterCompletionCallbacks, callback);
+    }
+
+    List<Runnable> getAfterCompletionCallbacks() {
+        return getCallbacks(afterCompletionCallbacks);
+    }
+
+    private void addCallback(ThreadLocal<List<Runnable>> transactionCallbacks, Runnable callback) {
+        getConnection();
+        List<Runnable> callbacks = transactionCallbacks.get();
+        if (callbacks == null) {
+            callbacks = new ArrayList<>();
+            transactionCallbacks.set(callbacks);
+        }
+        callbacks.add(callback);
+    }
+
+    private static List<Runnable> getCallbacks(ThreadLocal<List<Runnable>> transactionCallbacks) {
+        List<Runnable> callbacks = transactionCallbacks.get();
+        return callbacks == null ? Collections.emptyList() : callbacks;
+    }
+
+    @SuppressWarnings("unchecked")
+    <T> T getResource(Object key, Supplier<T> initializer) {
+        getConnection();
+        Map<Object, Object> transactionResources = resources.get();
+        if (transactionResources == null) {
+            transactionResources = new HashMap<>();
+            resources.set(transactionResources);
+        }
+        return (T) transactionResources.computeIfAbsent(key, k -> initializer.get());
     }
 
     Connection getConnection() {
@@ -24,4 +135,24 @@ class ConnectionKeeper {
         }
         return connection;
     }
+
+    StatementCache getStatementCache() throws SQLException {
+        StatementCache cache = statementCaches.get();
+        if (cache == null) {
+            Connection physicalConnection = unwrap(getConnection());
+            cache = cachesByConnection.get(physicalConnection);
+            if (cache == null) {
+                // a physical connection we haven't seen yet usually means the pool has retired another one
+                cachesByConnection.values().removeIf(StatementCache::isConnectionClosed);
+                cache = new StatementCache(physicalConnection, statementCacheSize, statistics);
+                cachesByConnection.put(physicalConnection, cache);
+            }
+            statementCaches.set(cache);
+        }
+        return cache;
+    }
+
+    private static Connection unwrap(Connection connection) throws SQLException {
+        return connection.isWrapperFor(Connection.class) ? connection.unwrap(Connection.class) : connection;
+    }
 }
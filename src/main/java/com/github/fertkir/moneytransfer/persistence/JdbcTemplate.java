@@ -4,24 +4,130 @@ import com.google.inject.Inject;
 import com.google.inject.Singleton;
 
 import java.sql.PreparedStatement;
+import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Optional;
+import java.util.function.Consumer;
 
+/**
+ * Runs statements on the connection of the current transaction. Statements come from the connection's
+ * {@link StatementCache} and must not be closed by callers, result sets are closed before returning.
+ */
 @Singleton
 public class JdbcTemplate {
 
     private final ConnectionKeeper connectionKeeper;
+    private final StatementStatistics statistics;
 
     @Inject
-    public JdbcTemplate(ConnectionKeeper connectionKeeper) {
+    public JdbcTemplate(ConnectionKeeper connectionKeeper, StatementStatistics statistics) {
         this.connectionKeeper = connectionKeeper;
+        this.statistics = statistics;
     }
 
-    public PreparedStatement prepareStatement(String sql) {
+    public <T> List<T> query(String sql, StatementBinder binder, RowMapper<T> rowMapper) {
+        long start = System.nanoTime();
         try {
-            return connectionKeeper.getConnection()
-                    .prepareStatement(sql);
+            PreparedStatement statement = prepare(sql, binder);
+            try (ResultSet resultSet = statement.executeQuery()) {
+                List<T> result = new ArrayList<>();
+                while (resultSet.next()) {
+                    result.add(rowMapper.map(resultSet));
+                }
+                return result;
+            }
         } catch (SQLException e) {
-            throw new PersistenceException(e);
+            throw failed(e);
+        } finally {
+            statistics.recordExecution(System.nanoTime() - start);
         }
     }
+
+    public <T> Optional<T> queryForObject(String sql, StatementBinder binder, RowMapper<T> rowMapper) {
+        long start = System.nanoTime();
+        try {
+            PreparedStatement statement = prepare(sql, binder);
+            try (ResultSet resultSet = statement.executeQuery()) {
+                return resultSet.next() ? Optional.of(rowMapper.map(resultSet)) : Optional.empty();
+            }
+        } catch (SQLException e) {
+            throw failed(e);
+        } finally {
+            statistics.recordExecution(System.nanoTime() - start);
+        }
+    }
+
+    /**
+     * Hands rows to the consumer one by one as they are fetched, {@code fetchSize} rows at a time,
+     * so that memory use doesn't depend on the size of the result. Embedded H2 ignores {@code fetchSize}; it reads
+     * the rows as they are asked for only because its sessions execute queries lazily, see {@code DaoModule}.
+     * The consumer must not run statements of its own meanwhile.
+     */
+    public <T> void queryForEach(String sql, StatementBinder binder, int fetchSize,
+                                 RowMapper<T> rowMapper, Consumer<? super T> consumer) {
+        try {
+            long start = System.nanoTime();
+            PreparedStatement statement = prepare(sql, binder);
+            statement.setFetchSize(fetchSize);
+            try (ResultSet resultSet = statement.executeQuery()) {
+                statistics.recordExecution(System.nanoTime() - start);
+                while (resultSet.next()) {
+                    consumer.accept(rowMapper.map(resultSet));
+                }
+            }
+        } catch (SQLException e) {
+            throw failed(e);
+        }
+    }
+
+    public int update(String sql, StatementBinder binder) {
+        long start = System.nanoTime();
+        try {
+            return prepare(sql, binder).executeUpdate();
+        } catch (SQLException e) {
+            throw failed(e);
+        } finally {
+            statistics.recordExecution(System.nanoTime() - start);
+        }
+    }
+
+    /**
+     * Binds every item as a separate parameter set and sends them all with one {@link PreparedStatement#executeBatch()}.
+     */
+    public <T> int[] batchUpdate(String sql, Collection<T> items, BatchStatementBinder<T> binder) {
+        if (items.isEmpty()) {
+            return new int[0];
+        }
+        long start = System.nanoTime();
+        try {
+            PreparedStatement statement = prepare(sql, StatementBinder.NO_PARAMETERS);
+            try {
+                for (T item : items) {
+                    binder.bind(statement, item);
+                    statement.addBatch();
+                }
+                return statement.executeBatch();
+            } finally {
+                statement.clearBatch();
+            }
+        } catch (SQLException e) {
+            throw failed(e);
+        } finally {
+            statistics.recordExecution(System.nanoTime() - start);
+        }
+    }
+
+    private PersistenceException failed(SQLException failure) {
+        connectionKeeper.checkFailure(failure);
+        return new PersistenceException(failure);
+    }
+
+    private PreparedStatement prepare(String sql, StatementBinder binder) throws SQLException {
+        PreparedStatement statement = connectionKeeper.getStatementCache().get(sql);
+        binder.bind(statement);
+        return statement;
+    }
 }
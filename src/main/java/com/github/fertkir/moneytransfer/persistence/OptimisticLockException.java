@@ -0,0 +1,10 @@
+package com.github.fertkir.moneytransfer.persistence;
+
+/**
+ * The row has been changed by another transaction since it was read. Retried by {@link TransactionTemplate}.
+ */
+public class OptimisticLockException extends PersistenceException {
+    public OptimisticLockException(String message) {
+        super(message);
+    }
+}
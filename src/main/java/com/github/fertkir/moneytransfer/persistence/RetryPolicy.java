@@ -0,0 +1,68 @@
+package com.github.fertkir.moneytransfer.persistence;
+
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import com.google.inject.name.Named;
+
+import java.sql.SQLException;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Decides whether a failed transaction is worth running again: it has to have failed because of a conflict
+ * with a concurrent transaction (a lock or an {@link OptimisticLockException}), which is likely to be gone
+ * by the next attempt.
+ */
+@Singleton
+public class RetryPolicy {
+
+    private static final Set<String> RETRYABLE_SQL_STATES = new HashSet<>(Arrays.asList(
+            "40001", // serialization failure, reported by H2 for deadlocks too
+            "40P01", // deadlock detected (PostgreSQL)
+            "50200", // lock timeout (H2)
+            "90131", // concurrent update (H2)
+            "HYT00"  // lock or statement timeout
+    ));
+
+    private final int maxAttempts;
+    private final long initialBackoffMillis;
+    private final long maxBackoffMillis;
+
+    @Inject
+    public RetryPolicy(@Named("persistence.retry.maxAttempts") int maxAttempts,
+                       @Named("persistence.retry.initialBackoffMillis") long initialBackoffMillis,
+                       @Named("persistence.retry.maxBackoffMillis") long maxBackoffMillis) {
+        this.maxAttempts = maxAttempts;
+        this.initialBackoffMillis = initialBackoffMillis;
+        this.maxBackoffMillis = maxBackoffMillis;
+    }
+
+    public int getMaxAttempts() {
+        return maxAttempts;
+    }
+
+    public boolean isRetryable(Throwable e) {
+        for (Throwable cause = e; cause != null; cause = cause.getCause()) {
+            if (cause instanceof OptimisticLockException) {
+                return true;
+            }
+            if (cause instanceof SQLException && RETRYABLE_SQL_STATES.contains(((SQLException) cause).getSQLState())) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Exponential backoff with full jitter, so that transactions which have just collided
+     * don't collide again on their next attempt.
+     *
+     * @param attempt number of the attempt that has just failed, starting with 1
+     */
+    public long backoffMillis(int attempt) {
+        long ceiling = Math.min(maxBackoffMillis, initialBackoffMillis << Math.min(attempt - 1, 30));
+        return ThreadLocalRandom.current().nextLong(ceiling + 1);
+    }
+}
@@ -0,0 +1,10 @@
+package com.github.fertkir.moneytransfer.persistence;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+@FunctionalInterface
+public interface RowMapper<T> {
+
+    T map(ResultSet resultSet) throws SQLException;
+}
@@ -0,0 +1,13 @@
+package com.github.fertkir.moneytransfer.persistence;
+
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+
+@FunctionalInterface
+public interface StatementBinder {
+
+    StatementBinder NO_PARAMETERS = statement -> {
+    };
+
+    void bind(PreparedStatement statement) throws SQLException;
+}
@@ -0,0 +1,75 @@
+package com.github.fertkir.moneytransfer.persistence;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Prepared statements of a single physical connection keyed by SQL text, evicting the least recently used one
+ * once {@code maxSize} is reached. Like the connection itself, it is only ever used by one thread at a time.
+ */
+@Slf4j
+class StatementCache {
+
+    private static final int VALIDATION_TIMEOUT_SECONDS = 1;
+
+    private final Connection connection;
+    private final StatementCacheStatistics statistics;
+    private final Map<String, PreparedStatement> statements;
+
+    StatementCache(Connection connection, int maxSize, StatementCacheStatistics statistics) {
+        this.connection = connection;
+        this.statistics = statistics;
+        this.statements = new LinkedHashMap<String, PreparedStatement>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, PreparedStatement> eldest) {
+                if (size() <= maxSize) {
+                    return false;
+                }
+                close(eldest.getValue());
+                statistics.recordEviction();
+                return true;
+            }
+        };
+    }
+
+    PreparedStatement get(String sql) throws SQLException {
+        PreparedStatement statement = statements.get(sql);
+        if (statement != null && !statement.isClosed()) {
+            statistics.recordHit();
+            return statement;
+        }
+        statistics.recordMiss();
+        statement = connection.prepareStatement(sql);
+        statements.put(sql, statement);
+        return statement;
+    }
+
+    boolean isConnectionValid() {
+        try {
+            return connection.isValid(VALIDATION_TIMEOUT_SECONDS);
+        } catch (SQLException e) {
+            return false;
+        }
+    }
+
+    boolean isConnectionClosed() {
+        try {
+            return connection.isClosed();
+        } catch (SQLException e) {
+            return true;
+        }
+    }
+
+    private static void close(PreparedStatement statement) {
+        try {
+            statement.close();
+        } catch (SQLException e) {
+            log.warn("Could not close evicted statement", e);
+        }
+    }
+}
@@ -0,0 +1,22 @@
+package com.github.fertkir.moneytransfer.persistence;
+
+import com.github.fertkir.moneytransfer.metrics.LatencyRecorder;
+import com.google.inject.Singleton;
+
+@Singleton
+public class StatementStatistics {
+
+    private final LatencyRecorder executions = new LatencyRecorder();
+
+    void recordExecution(long nanos) {
+        executions.record(nanos);
+    }
+
+    /**
+     * Time of running a statement and reading its results, except for results handed to a consumer
+     * one by one, whose time is not counted.
+     */
+    public LatencyRecorder getExecutions() {
+        return executions;
+    }
+}
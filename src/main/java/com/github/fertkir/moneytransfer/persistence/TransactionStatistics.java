@@ -0,0 +1,71 @@
+package com.github.fertkir.moneytransfer.persistence;
+
+import com.github.fertkir.moneytransfer.metrics.LatencyRecorder;
+import com.google.inject.Singleton;
+
+import java.util.concurrent.atomic.LongAdder;
+
+@Singleton
+public class TransactionStatistics {
+
+    private final LongAdder retries = new LongAdder();
+    private final LongAdder exhaustedRetries = new LongAdder();
+    private final LatencyRecorder connectionAcquisitions = new LatencyRecorder();
+    private final LatencyRecorder commits = new LatencyRecorder();
+    private final LatencyRecorder attempts = new LatencyRecorder();
+
+    void recordRetry() {
+        retries.increment();
+    }
+
+    void recordExhaustedRetries() {
+        exhaustedRetries.increment();
+    }
+
+    void recordConnectionAcquisition(long nanos) {
+        connectionAcquisitions.record(nanos);
+    }
+
+    void recordCommit(long nanos) {
+        commits.record(nanos);
+    }
+
+    void recordAttempt(long nanos) {
+        attempts.record(nanos);
+    }
+
+    /**
+     * Number of times a transaction was run again after a conflict.
+     */
+    public long getRetries() {
+        return retries.sum();
+    }
+
+    /**
+     * Number of transactions which failed with a conflict on their last allowed attempt.
+     */
+    public long getExhaustedRetries() {
+        return exhaustedRetries.sum();
+    }
+
+    /**
+     * Time spent waiting for a connection from the pool.
+     */
+    public LatencyRecorder getConnectionAcquisitions() {
+        return connectionAcquisitions;
+    }
+
+    /**
+     * Time from the end of the transaction's work to its commit, including before-commit callbacks.
+     */
+    public LatencyRecorder getCommits() {
+        return commits;
+    }
+
+    /**
+     * Time of every attempt to run a transaction, from taking a connection to running the callbacks.
+     */
+    public LatencyRecorder getAttempts() {
+        return attempts;
+    }
+}
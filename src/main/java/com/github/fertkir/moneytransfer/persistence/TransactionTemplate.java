@@ -2,43 +2,263 @@ package com.github.fertkir.moneytransfer.persistence;
 
 import com.google.inject.Inject;
 import com.google.inject.Singleton;
+import com.zaxxer.hikari.HikariDataSource;
+import lombok.extern.slf4j.Slf4j;
 
 import javax.sql.DataSource;
 import java.sql.Connection;
 import java.sql.SQLException;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
 import java.util.function.Supplier;
 
 import static java.sql.Connection.TRANSACTION_REPEATABLE_READ;
 
+@Slf4j
 @Singleton
 public class TransactionTemplate {
 
     private final DataSource dataSource;
     private final ConnectionKeeper connectionKeeper;
+    private final RetryPolicy retryPolicy;
+    private final TransactionStatistics statistics;
+    private final ThreadLocal<Integer> currentAttempt = new ThreadLocal<>();
+    /**
+     * Numbers of running transactions which may write, by the parity of the epoch they started in,
+     * see {@link #awaitRunningTransactions()}.
+     */
+    private final LongAdder[] running = {new LongAdder(), new LongAdder()};
+    private final Lock epochLock = new ReentrantLock();
+    private volatile int epoch;
 
     @Inject
-    public TransactionTemplate(DataSource dataSource, ConnectionKeeper connectionKeeper) {
+    public TransactionTemplate(DataSource dataSource, ConnectionKeeper connectionKeeper,
+                               RetryPolicy retryPolicy, TransactionStatistics statistics) {
         this.dataSource = dataSource;
         this.connectionKeeper = connectionKeeper;
+        this.retryPolicy = retryPolicy;
+        this.statistics = statistics;
     }
 
+    /**
+     * Runs the supplier in a transaction. If the transaction fails because of a conflict with a concurrent one
+     * (see {@link RetryPolicy}), it's rolled back and the supplier is run again in a new transaction,
+     * so the supplier must not have side effects outside of the database.
+     * <p>
+     * Called within a transaction, runs the supplier as part of it: the outermost call commits, rolls back
+     * and retries everything together.
+     */
     public <T> T execute(Supplier<T> supplier) {
-        try (Connection connection = dataSource.getConnection()) {
+        if (currentAttempt.get() != null) {
+            return supplier.get();
+        }
+        LongAdder counter = enterEpoch();
+        try {
+            return executeWithRetries(supplier, false);
+        } finally {
+            counter.decrement();
+            currentAttempt.remove();
+        }
+    }
+
+    /**
+     * Same as {@link #execute(Supplier)}, but the connection is marked read-only, which H2 takes as a hint only,
+     * and the transaction isn't waited for by {@link #awaitRunningTransactions()}. The supplier must not write.
+     */
+    public <T> T executeReadOnly(Supplier<T> supplier) {
+        if (currentAttempt.get() != null) {
+            return supplier.get();
+        }
+        try {
+            return executeWithRetries(supplier, true);
+        } finally {
+            currentAttempt.remove();
+        }
+    }
+
+    /**
+     * Waits until every transaction which may write and which has started before the call is over, so that
+     * whatever such transactions have inserted is either committed or rolled back by then. Transactions
+     * starting meanwhile aren't waited for.
+     */
+    public void awaitRunningTransactions() throws InterruptedException {
+        epochLock.lockInterruptibly();
+        try {
+            int previous = epoch;
+            epoch = previous + 1;
+            LongAdder counter = running[previous & 1];
+            while (counter.sum() != 0) {
+                Thread.sleep(1);
+            }
+        } finally {
+            epochLock.unlock();
+        }
+    }
+
+    /**
+     * Whether the current thread is running a transaction.
+     */
+    public boolean isActive() {
+        return currentAttempt.get() != null;
+    }
+
+    /**
+     * A transaction is counted in the epoch which is still current after it has been counted, so that one
+     * which has read the epoch right before {@link #awaitRunningTransactions()} advanced it is waited for.
+     */
+    private LongAdder enterEpoch() {
+        while (true) {
+            int current = epoch;
+            LongAdder counter = running[current & 1];
+            counter.increment();
+            if (epoch == current) {
+                return counter;
+            }
+            counter.decrement();
+        }
+    }
+
+    private <T> T executeWithRetries(Supplier<T> supplier, boolean readOnly) {
+        for (int attempt = 1; ; attempt++) {
             try {
-                connectionKeeper.set(connection);
-                connection.setTransactionIsolation(TRANSACTION_REPEATABLE_READ);
-                connection.setAutoCommit(false);
-                T result = supplier.get();
-                connection.commit();
-                return result;
-            } catch (Exception e) {
-                connection.rollback();
+                currentAttempt.set(attempt);
+                long start = System.nanoTime();
+                try {
+                    return executeOnce(supplier, readOnly);
+                } finally {
+                    statistics.recordAttempt(System.nanoTime() - start);
+                }
+            } catch (PersistenceException e) {
+                if (!retryPolicy.isRetryable(e)) {
+                    throw e;
+                }
+                if (attempt >= retryPolicy.getMaxAttempts()) {
+                    statistics.recordExhaustedRetries();
+                    throw e;
+                }
+                statistics.recordRetry();
+                long backoff = retryPolicy.backoffMillis(attempt);
+                log.warn("Transaction attempt {} failed with a conflict, retrying in {} ms: {}",
+                        attempt, backoff, e.getMessage());
+                sleep(backoff, e);
+            }
+        }
+    }
+
+    private <T> T executeOnce(Supplier<T> supplier, boolean readOnly) {
+        T result;
+        List<Runnable> afterCommitCallbacks;
+        List<Runnable> afterCompletionCallbacks = Collections.emptyList();
+        try {
+            long acquisitionStart = System.nanoTime();
+            try (Connection connection = dataSource.getConnection()) {
+                statistics.recordConnectionAcquisition(System.nanoTime() - acquisitionStart);
+                try {
+                    connectionKeeper.set(connection);
+                    // H2 changes the isolation level with a database-wide SET LOCK_MODE, which fails now and then
+                    // if sessions run it concurrently, so pooled connections come with the level already set
+                    if (connection.getTransactionIsolation() != TRANSACTION_REPEATABLE_READ) {
+                        connection.setTransactionIsolation(TRANSACTION_REPEATABLE_READ);
+                    }
+                    connection.setAutoCommit(false);
+                    if (readOnly) {
+                        connection.setReadOnly(true);
+                    }
+                    result = supplier.get();
+                    long commitStart = System.nanoTime();
+                    connectionKeeper.getBeforeCommitCallbacks().forEach(Runnable::run);
+                    connection.commit();
+                    statistics.recordCommit(System.nanoTime() - commitStart);
+                    afterCommitCallbacks = connectionKeeper.getAfterCommitCallbacks();
+                } catch (Exception e) {
+                    connection.rollback();
+                    throw new PersistenceException(e);
+                } finally {
+                    afterCompletionCallbacks = connectionKeeper.getAfterCompletionCallbacks();
+                    if (connectionKeeper.isConnectionBroken()) {
+                        evict(connection);
+                    }
+                    connectionKeeper.remove();
+                }
+            } catch (SQLException e) {
                 throw new PersistenceException(e);
-            } finally {
-                connectionKeeper.remove();
+            }
+            runCallbacks(afterCommitCallbacks);
+            return result;
+        } finally {
+            runCallbacks(afterCompletionCallbacks);
+        }
+    }
+
+    /**
+     * The pool checks failures of statements it has prepared itself only, see {@link ConnectionKeeper}, so it has
+     * to be told about a connection broken by a cached statement, or it would hand the connection out again.
+     */
+    private void evict(Connection connection) {
+        try {
+            if (dataSource.isWrapperFor(HikariDataSource.class)) {
+                log.warn("Evicting connection broken by a failed statement from the pool");
+                dataSource.unwrap(HikariDataSource.class).evictConnection(connection);
             }
         } catch (SQLException e) {
-            throw new PersistenceException(e);
+            log.warn("Could not evict broken connection from the pool", e);
+        }
+    }
+
+    private static void sleep(long millis, PersistenceException failure) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw failure;
+        }
+    }
+
+    /**
+     * Registers a callback to be run right before the current transaction is committed, while it still holds
+     * its locks. A failing callback rolls the transaction back.
+     */
+    public void beforeCommit(Runnable callback) {
+        connectionKeeper.addBeforeCommitCallback(callback);
+    }
+
+    /**
+     * Registers a callback to be run once the current transaction is committed (and its connection is released).
+     * The callback is discarded if the transaction is rolled back.
+     */
+    public void afterCommit(Runnable callback) {
+        connectionKeeper.addAfterCommitCallback(callback);
+    }
+
+    /**
+     * Registers a callback to be run once the current transaction is over, whether it's committed or rolled back,
+     * after the after-commit callbacks.
+     */
+    public void afterCompletion(Runnable callback) {
+        connectionKeeper.addAfterCompletionCallback(callback);
+    }
+
+    /**
+     * Returns a value bound to the current transaction, initializing it on first access within the transaction.
+     */
+    public <T> T getResource(Object key, Supplier<T> initializer) {
+        return connectionKeeper.getResource(key, initializer);
+    }
+
+    /**
+     * The transaction is already over at this point, so a failing callback must neither
+     * prevent the rest from running nor change the outcome of the operation.
+     */
+    private static void runCallbacks(List<Runnable> callbacks) {
+        for (Runnable callback : callbacks) {
+            try {
+                callback.run();
+            } catch (RuntimeException e) {
+                log.error("Transaction callback failed", e);
+            }
         }
     }
 }
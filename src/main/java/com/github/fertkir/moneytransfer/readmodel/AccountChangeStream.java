@@ -0,0 +1,85 @@
+package com.github.fertkir.moneytransfer.readmodel;
+
+import com.github.fertkir.moneytransfer.entity.Account;
+import com.github.fertkir.moneytransfer.persistence.TransactionTemplate;
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Consumer;
+
+/**
+ * Hands the states of accounts written by a transaction to the subscribers once the transaction commits,
+ * on the committing thread. Commits of the same account may be delivered out of order, which subscribers
+ * tell by the versions of the states.
+ * <p>
+ * A transaction counts as undelivered from right before its commit until its states are delivered or it's rolled
+ * back, so that {@link #getLagNanos()} bounds how far behind the database the subscribers may be.
+ */
+@Singleton
+public class AccountChangeStream {
+
+    private static final Object TRANSACTION_STATE = new Object();
+
+    private final TransactionTemplate transactionTemplate;
+    private final List<Consumer<List<Account>>> subscribers = new CopyOnWriteArrayList<>();
+    private final Set<Publication> undelivered = ConcurrentHashMap.newKeySet();
+
+    @Inject
+    public AccountChangeStream(TransactionTemplate transactionTemplate) {
+        this.transactionTemplate = transactionTemplate;
+    }
+
+    /**
+     * Transactions which published before the subscriber came are not delivered to it, so it has to subscribe
+     * before the writes start.
+     */
+    public void subscribe(Consumer<List<Account>> subscriber) {
+        subscribers.add(subscriber);
+    }
+
+    /**
+     * Must be called within the transaction writing the states, which must have versions.
+     * Does nothing while there are no subscribers.
+     */
+    public void publish(List<Account> states) {
+        if (subscribers.isEmpty()) {
+            return;
+        }
+        transactionTemplate.getResource(TRANSACTION_STATE, () -> {
+            Publication publication = new Publication();
+            transactionTemplate.beforeCommit(() -> {
+                publication.commitStart = System.nanoTime();
+                undelivered.add(publication);
+            });
+            transactionTemplate.afterCommit(() -> subscribers.forEach(subscriber ->
+                    subscriber.accept(publication.states)));
+            transactionTemplate.afterCompletion(() -> undelivered.remove(publication));
+            return publication;
+        }).states.addAll(states);
+    }
+
+    /**
+     * @return time since the oldest commit whose states haven't been delivered yet started, or 0
+     */
+    public long getLagNanos() {
+        long now = System.nanoTime();
+        long oldest = now;
+        for (Publication publication : undelivered) {
+            oldest = Math.min(oldest, publication.commitStart);
+        }
+        return now - oldest;
+    }
+
+    /**
+     * Compared by identity, since two transactions may publish equal states.
+     */
+    private static class Publication {
+        private final List<Account> states = new ArrayList<>();
+        private volatile long commitStart;
+    }
+}
@@ -0,0 +1,98 @@
+package com.github.fertkir.moneytransfer.readmodel;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.StampedLock;
+
+/**
+ * Ids of all the accounts in ascending order, for reading pages of them. Most ids are in a sorted array; new ones
+ * go to a small concurrent set first, which is merged into a new array once it holds more than an eighth of the
+ * array, so that every id is copied a few times on the whole rather than on every insert.
+ */
+class AccountIdIndex {
+
+    private static final int MIN_RECENT_SIZE = 4096;
+
+    private final ConcurrentSkipListSet<Long> recent = new ConcurrentSkipListSet<>();
+    private final AtomicInteger recentSize = new AtomicInteger();
+    /**
+     * Guards replacing the array together with removing the merged ids from the set, so that a reader sees
+     * every id in either of them.
+     */
+    private final StampedLock lock = new StampedLock();
+    /**
+     * Taken by the thread merging the set, so that the others don't wait for it.
+     */
+    private final ReentrantLock mergeLock = new ReentrantLock();
+    private volatile long[] sorted = new long[0];
+
+    /**
+     * Must be called once per id.
+     */
+    void add(long id) {
+        recent.add(id);
+        if (recentSize.incrementAndGet() > Math.max(MIN_RECENT_SIZE, sorted.length / 8) && mergeLock.tryLock()) {
+            try {
+                merge();
+            } finally {
+                mergeLock.unlock();
+            }
+        }
+    }
+
+    /**
+     * @return up to {@code limit} ids greater than {@code afterId}, ascending
+     */
+    long[] page(long afterId, int limit) {
+        long stamp = lock.readLock();
+        try {
+            long[] ids = sorted;
+            int index = Arrays.binarySearch(ids, afterId);
+            index = index >= 0 ? index + 1 : -index - 1;
+            Iterator<Long> recentIds = recent.tailSet(afterId, false).iterator();
+            long nextRecent = recentIds.hasNext() ? recentIds.next() : Long.MAX_VALUE;
+            long[] page = new long[limit];
+            int size = 0;
+            while (size < limit && (index < ids.length || nextRecent != Long.MAX_VALUE)) {
+                if (index < ids.length && ids[index] <= nextRecent) {
+                    page[size++] = ids[index++];
+                } else {
+                    page[size++] = nextRecent;
+                    nextRecent = recentIds.hasNext() ? recentIds.next() : Long.MAX_VALUE;
+                }
+            }
+            return size == limit ? page : Arrays.copyOf(page, size);
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    private void merge() {
+        List<Long> added = new ArrayList<>(recent);
+        long[] ids = sorted;
+        long[] result = new long[ids.length + added.size()];
+        int i = 0;
+        int j = 0;
+        int size = 0;
+        while (i < ids.length || j < added.size()) {
+            if (j == added.size() || i < ids.length && ids[i] < added.get(j)) {
+                result[size++] = ids[i++];
+            } else {
+                result[size++] = added.get(j++);
+            }
+        }
+        long stamp = lock.writeLock();
+        try {
+            sorted = result;
+            added.forEach(recent::remove);
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+        recentSize.addAndGet(-added.size());
+    }
+}
@@ -0,0 +1,171 @@
+package com.github.fertkir.moneytransfer.readmodel;
+
+import com.github.fertkir.moneytransfer.entity.Account;
+
+import java.util.concurrent.locks.StampedLock;
+
+/**
+ * Balances, held money and versions of accounts by id, kept in open-addressing tables of primitive longs rather
+ * than in a map of boxed keys and {@link Account} objects: a slot takes 32 bytes, and a lookup allocates nothing
+ * but the account it returns. Ids are spread over segments, each with a lock of its own; lookups take no lock
+ * unless a write of the segment interleaves with them.
+ */
+class BalanceTable {
+
+    private static final int SEGMENTS = 64;
+    private static final int INITIAL_CAPACITY = 1024;
+    private static final long EMPTY = 0;
+    private static final int SLOT_SIZE = 4;
+
+    private final Segment[] segments = new Segment[SEGMENTS];
+
+    BalanceTable() {
+        for (int i = 0; i < SEGMENTS; i++) {
+            segments[i] = new Segment();
+        }
+    }
+
+    /**
+     * @return null if there's no such account
+     */
+    Account get(long id) {
+        long hash = hash(id);
+        return segments[(int) (hash >>> 58)].get(id, hash);
+    }
+
+    /**
+     * Keeps the state unless the table already has a later version of the account.
+     *
+     * @return whether the account is new to the table
+     */
+    boolean put(long id, long balance, long held, long version) {
+        if (id == EMPTY) {
+            throw new IllegalArgumentException("Account id must not be " + EMPTY);
+        }
+        long hash = hash(id);
+        return segments[(int) (hash >>> 58)].put(id, hash, balance, held, version);
+    }
+
+    long size() {
+        long size = 0;
+        for (Segment segment : segments) {
+            size += segment.size;
+        }
+        return size;
+    }
+
+    /**
+     * Account ids are consecutive numbers, which have to be spread over the whole table.
+     */
+    private static long hash(long id) {
+        long hash = id;
+        hash ^= hash >>> 33;
+        hash *= 0xff51afd7ed558ccdL;
+        hash ^= hash >>> 33;
+        hash *= 0xc4ceb9fe1a85ec53L;
+        hash ^= hash >>> 33;
+        return hash;
+    }
+
+    /**
+     * Slot i takes slots[4i] for the id, slots[4i + 1] for the balance, slots[4i + 2] for the held money
+     * and slots[4i + 3] for the version. Ids are positive, so 0 marks an empty slot. The whole array is replaced
+     * when it grows, so a reader never sees slots of two sizes at once.
+     */
+    private static class Segment {
+        private final StampedLock lock = new StampedLock();
+        private volatile long[] slots = new long[INITIAL_CAPACITY * SLOT_SIZE];
+        private volatile int size;
+
+        private Account get(long id, long hash) {
+            long stamp = lock.tryOptimisticRead();
+            Account account = find(slots, id, hash);
+            if (lock.validate(stamp)) {
+                return account;
+            }
+            stamp = lock.readLock();
+            try {
+                return find(slots, id, hash);
+            } finally {
+                lock.unlockRead(stamp);
+            }
+        }
+
+        private boolean put(long id, long hash, long balance, long held, long version) {
+            long stamp = lock.writeLock();
+            try {
+                long[] table = slots;
+                int slot = slotOf(table, id, hash);
+                if (table[slot] == id) {
+                    if (table[slot + 3] < version) {
+                        table[slot + 1] = balance;
+                        table[slot + 2] = held;
+                        table[slot + 3] = version;
+                    }
+                    return false;
+                }
+                // at most three quarters of the slots are taken, so that probes stay short
+                if ((size + 1) * 4L > table.length / SLOT_SIZE * 3L) {
+                    table = grow(table);
+                    slot = slotOf(table, id, hash);
+                }
+                table[slot + 1] = balance;
+                table[slot + 2] = held;
+                table[slot + 3] = version;
+                table[slot] = id;
+                size++;
+                slots = table;
+                return true;
+            } finally {
+                lock.unlockWrite(stamp);
+            }
+        }
+
+        /**
+         * May read a table being written under an optimistic stamp, which is then discarded: it only has
+         * to stay within the array and terminate, which a table never full does.
+         */
+        private static Account find(long[] table, long id, long hash) {
+            int slot = slotOf(table, id, hash);
+            if (table[slot] != id) {
+                return null;
+            }
+            return Account.builder()
+                    .id(id)
+                    .balance(table[slot + 1])
+                    .held(table[slot + 2])
+                    .version(table[slot + 3])
+                    .build();
+        }
+
+        /**
+         * @return the slot of the id, or the empty slot where it belongs
+         */
+        private static int slotOf(long[] table, long id, long hash) {
+            int mask = table.length / SLOT_SIZE - 1;
+            int index = (int) hash & mask;
+            while (true) {
+                long slotId = table[index * SLOT_SIZE];
+                if (slotId == id || slotId == EMPTY) {
+                    return index * SLOT_SIZE;
+                }
+                index = (index + 1) & mask;
+            }
+        }
+
+        private static long[] grow(long[] table) {
+            long[] grown = new long[table.length * 2];
+            for (int slot = 0; slot < table.length; slot += SLOT_SIZE) {
+                long id = table[slot];
+                if (id != EMPTY) {
+                    int target = slotOf(grown, id, hash(id));
+                    grown[target] = id;
+                    grown[target + 1] = table[slot + 1];
+                    grown[target + 2] = table[slot + 2];
+                    grown[target + 3] = table[slot + 3];
+                }
+            }
+            return grown;
+        }
+    }
+}
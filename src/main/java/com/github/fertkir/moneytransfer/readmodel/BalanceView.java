@@ -0,0 +1,115 @@
+package com.github.fertkir.moneytransfer.readmodel;
+
+import com.github.fertkir.moneytransfer.dao.AccountDao;
+import com.github.fertkir.moneytransfer.entity.Account;
+import com.github.fertkir.moneytransfer.persistence.TransactionTemplate;
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import com.google.inject.name.Named;
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Balances of all the accounts in memory, kept up to date by {@link AccountChangeStream}, so that reads don't
+ * need a database connection. A read is served only while the view is at most
+ * {@code service.readModel.maxStalenessMillis} behind the database; otherwise, or before the accounts
+ * are loaded on start-up, callers read the database.
+ * <p>
+ * The view subscribes to the changes before loading the accounts, and keeps the higher version of every account
+ * either of them brings, so neither a change committed during the load nor the load itself is lost.
+ */
+@Slf4j
+@Singleton
+public class BalanceView {
+
+    private final AccountChangeStream changes;
+    private final long maxStalenessNanos;
+    private final BalanceTable balances = new BalanceTable();
+    private final AccountIdIndex ids = new AccountIdIndex();
+    private volatile boolean loaded;
+
+    @Inject
+    public BalanceView(AccountChangeStream changes, AccountDao accountDao, TransactionTemplate transactionTemplate,
+                       @Named("service.readModel.enabled") boolean enabled,
+                       @Named("service.readModel.maxStalenessMillis") long maxStalenessMillis) {
+        this.changes = changes;
+        this.maxStalenessNanos = TimeUnit.MILLISECONDS.toNanos(maxStalenessMillis);
+        if (enabled) {
+            changes.subscribe(states -> states.forEach(this::apply));
+            Thread loader = new Thread(() -> load(accountDao, transactionTemplate), "balance-view-loader");
+            loader.setDaemon(true);
+            loader.start();
+        }
+    }
+
+    public boolean isLoaded() {
+        return loaded;
+    }
+
+    /**
+     * @return empty if the view can't serve the read, or doesn't have the account
+     */
+    public Optional<ViewRead<Account>> getById(long id) {
+        long lagNanos = changes.getLagNanos();
+        if (!canServe(lagNanos)) {
+            return Optional.empty();
+        }
+        Account account = balances.get(id);
+        return account == null ? Optional.empty() : Optional.of(new ViewRead<>(account, toMillis(lagNanos)));
+    }
+
+    /**
+     * @return empty if the view can't serve the read, otherwise up to {@code limit} accounts with ids greater
+     * than {@code afterId}, ordered by id
+     */
+    public Optional<ViewRead<List<Account>>> list(long afterId, int limit) {
+        long lagNanos = changes.getLagNanos();
+        if (!canServe(lagNanos)) {
+            return Optional.empty();
+        }
+        long[] page = ids.page(afterId, limit);
+        List<Account> accounts = new ArrayList<>(page.length);
+        for (long id : page) {
+            // an id gets into the index after its account gets into the table
+            accounts.add(balances.get(id));
+        }
+        return Optional.of(new ViewRead<>(accounts, toMillis(lagNanos)));
+    }
+
+    /**
+     * The lag is measured before the view is read, so every change committed before the returned bound
+     * is either in the view by then or still counted as undelivered.
+     */
+    private boolean canServe(long lagNanos) {
+        return loaded && lagNanos <= maxStalenessNanos;
+    }
+
+    private void load(AccountDao accountDao, TransactionTemplate transactionTemplate) {
+        long start = System.nanoTime();
+        try {
+            transactionTemplate.execute(() -> {
+                accountDao.forEach(this::apply);
+                return null;
+            });
+            loaded = true;
+            log.info("Loaded {} accounts into the balance view in {} ms", balances.size(),
+                    TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+        } catch (RuntimeException e) {
+            log.error("Could not load the balance view, reads go to the database", e);
+        }
+    }
+
+    private void apply(Account account) {
+        if (balances.put(account.getId(), account.getBalance(), account.getHeld(), account.getVersion())) {
+            ids.add(account.getId());
+        }
+    }
+
+    private static long toMillis(long nanos) {
+        return (nanos + TimeUnit.MILLISECONDS.toNanos(1) - 1) / TimeUnit.MILLISECONDS.toNanos(1);
+    }
+}
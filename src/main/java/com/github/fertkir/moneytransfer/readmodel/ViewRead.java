@@ -0,0 +1,13 @@
+package com.github.fertkir.moneytransfer.readmodel;
+
+import lombok.Value;
+
+/**
+ * A value read from {@link BalanceView}, which reflects every change committed more than
+ * {@code stalenessMillis} before it was read.
+ */
+@Value
+public class ViewRead<T> {
+    T value;
+    long stalenessMillis;
+}
@@ -0,0 +1,175 @@
+package com.github.fertkir.moneytransfer.reconciliation;
+
+import com.github.fertkir.moneytransfer.dao.AccountDao;
+import com.github.fertkir.moneytransfer.dao.LedgerDao;
+import com.github.fertkir.moneytransfer.dao.ReconciliationDao;
+import com.github.fertkir.moneytransfer.entity.Money;
+import com.github.fertkir.moneytransfer.entity.ReconciliationReport;
+import com.github.fertkir.moneytransfer.entity.ReconciliationReport.Discrepancy;
+import com.github.fertkir.moneytransfer.entity.ReconciliationReport.DiscrepancyType;
+import com.github.fertkir.moneytransfer.persistence.TransactionTemplate;
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import com.google.inject.name.Named;
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.Optional;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static java.lang.String.format;
+
+/**
+ * Checks that money is neither created nor lost while transfers go on: every balance must equal the sum
+ * of the ledger entries of its account as of the same moment, see {@link ReconciliationRun}, and the entries
+ * of transfers must net to zero. Ranges of account ids are read in parallel by a fork/join pool
+ * of {@code reconciliation.parallelism} threads, each taking a pooled connection while it reads a range.
+ * <p>
+ * Ranges are read at different moments, so a transfer between two of them may be seen by one but not the other.
+ * Transfers are therefore summed over the entries committed before the reconciliation started only: it takes
+ * a value of the ledger sequence and waits for the transactions running by then, after which no entry with a
+ * lower sequence number can appear.
+ */
+@Slf4j
+@Singleton
+public class Reconciliation {
+
+    private final TransactionTemplate transactionTemplate;
+    private final ReconciliationDao reconciliationDao;
+    private final AccountDao accountDao;
+    private final LedgerDao ledgerDao;
+    private final int parallelism;
+    private final long rangeSize;
+    private final int maxReportedDiscrepancies;
+    private final ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "reconciliation");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private final AtomicBoolean running = new AtomicBoolean();
+    private volatile ReconciliationReport lastReport;
+
+    @Inject
+    public Reconciliation(TransactionTemplate transactionTemplate, ReconciliationDao reconciliationDao,
+                          AccountDao accountDao, LedgerDao ledgerDao,
+                          @Named("reconciliation.parallelism") int parallelism,
+                          @Named("reconciliation.rangeSize") long rangeSize,
+                          @Named("reconciliation.maxReportedDiscrepancies") int maxReportedDiscrepancies,
+                          @Named("reconciliation.intervalMillis") long intervalMillis) {
+        this.transactionTemplate = transactionTemplate;
+        this.reconciliationDao = reconciliationDao;
+        this.accountDao = accountDao;
+        this.ledgerDao = ledgerDao;
+        this.parallelism = parallelism;
+        this.rangeSize = rangeSize;
+        this.maxReportedDiscrepancies = maxReportedDiscrepancies;
+        if (intervalMillis > 0) {
+            executor.scheduleWithFixedDelay(() -> {
+                if (running.compareAndSet(false, true)) {
+                    runInBackground();
+                }
+            }, intervalMillis, intervalMillis, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Starts a reconciliation in the background.
+     *
+     * @return false if one is running already
+     */
+    public boolean start() {
+        if (!running.compareAndSet(false, true)) {
+            return false;
+        }
+        executor.execute(this::runInBackground);
+        return true;
+    }
+
+    /**
+     * Runs a reconciliation on the calling thread.
+     *
+     * @throws IllegalStateException if one is running already
+     */
+    public ReconciliationReport run() throws InterruptedException {
+        if (!running.compareAndSet(false, true)) {
+            throw new IllegalStateException("Reconciliation is running already");
+        }
+        try {
+            return reconcile();
+        } finally {
+            running.set(false);
+        }
+    }
+
+    public boolean isRunning() {
+        return running.get();
+    }
+
+    public Optional<ReconciliationReport> getLastReport() {
+        return Optional.ofNullable(lastReport);
+    }
+
+    private void runInBackground() {
+        try {
+            reconcile();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (RuntimeException e) {
+            log.error("Reconciliation failed", e);
+        } finally {
+            running.set(false);
+        }
+    }
+
+    private ReconciliationReport reconcile() throws InterruptedException {
+        long startedAt = System.currentTimeMillis();
+        long start = System.nanoTime();
+        long ledgerSeq = ledgerDao.nextSeq();
+        transactionTemplate.awaitRunningTransactions();
+        // every account having entries up to ledgerSeq is committed by now
+        long maxAccountId = transactionTemplate.executeReadOnly(reconciliationDao::maxAccountId);
+        int ranges = Math.toIntExact((maxAccountId + rangeSize - 1) / rangeSize);
+        ReconciliationRun run = new ReconciliationRun(transactionTemplate, reconciliationDao, accountDao, ledgerDao,
+                ledgerSeq, rangeSize, maxReportedDiscrepancies);
+        ForkJoinPool pool = new ForkJoinPool(parallelism);
+        ReconciliationRun.Totals totals;
+        try {
+            totals = pool.invoke(run.scan(0, ranges));
+        } finally {
+            pool.shutdown();
+        }
+        if (totals.transfers != 0) {
+            totals.addDiscrepancy(Discrepancy.builder()
+                    .type(DiscrepancyType.UNPAIRED_TRANSFERS)
+                    .message(format("Transfer entries sum up to %s rather than 0", Money.format(totals.transfers)))
+                    .build());
+        }
+        ReconciliationReport report = ReconciliationReport.builder()
+                .startedAt(startedAt)
+                .durationMillis(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start))
+                .ledgerSeq(ledgerSeq)
+                .maxAccountId(maxAccountId)
+                .accounts(totals.accounts)
+                .balance(totals.balance)
+                .topUps(totals.topUps)
+                .withdrawals(totals.withdrawals)
+                .transfers(totals.transfers)
+                .discrepancyCount(totals.discrepancyCount)
+                .discrepancies(totals.discrepancies)
+                .ranges(totals.ranges)
+                .build();
+        lastReport = report;
+        if (report.isConsistent()) {
+            log.info("Reconciled {} accounts in {} ranges in {} ms", report.getAccounts(), ranges,
+                    report.getDurationMillis());
+        } else {
+            log.error("Reconciled {} accounts in {} ranges in {} ms, found {} discrepancies: {}",
+                    report.getAccounts(), ranges, report.getDurationMillis(), report.getDiscrepancyCount(),
+                    report.getDiscrepancies());
+        }
+        return report;
+    }
+}
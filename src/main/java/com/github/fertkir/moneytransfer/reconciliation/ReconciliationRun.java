@@ -0,0 +1,200 @@
+package com.github.fertkir.moneytransfer.reconciliation;
+
+import com.github.fertkir.moneytransfer.dao.AccountDao;
+import com.github.fertkir.moneytransfer.dao.LedgerDao;
+import com.github.fertkir.moneytransfer.dao.ReconciliationDao;
+import com.github.fertkir.moneytransfer.entity.AuditedAccount;
+import com.github.fertkir.moneytransfer.entity.LedgerEntry;
+import com.github.fertkir.moneytransfer.entity.Money;
+import com.github.fertkir.moneytransfer.entity.ReconciliationReport;
+import com.github.fertkir.moneytransfer.entity.ReconciliationReport.Discrepancy;
+import com.github.fertkir.moneytransfer.entity.ReconciliationReport.DiscrepancyType;
+import com.github.fertkir.moneytransfer.persistence.TransactionTemplate;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.RecursiveTask;
+import java.util.stream.Collectors;
+import java.util.zip.CRC32;
+
+import static java.lang.String.format;
+
+/**
+ * One reconciliation of the accounts with ids within [1, {@code ranges * rangeSize}], split into ranges
+ * of {@code rangeSize} ids. The accounts of a range are read by a read-only transaction of its own, so memory use
+ * depends on the size of a range rather than the number of accounts, and no lock is held for longer than reading
+ * a range takes.
+ * <p>
+ * The ledger is kept in memory, see {@code LedgerTable}, so it can't be read by the same statement as the balances.
+ * Ledger balances are taken right after the accounts, and the accounts are read once more afterwards. An account
+ * whose version is the same both times hasn't changed in between, so its balance is checked against its ledger
+ * balance as is. One which has changed, or doesn't match, is checked again while it's locked: its ledger balance is
+ * as of that moment once the entries of the transactions committed before have been added.
+ */
+class ReconciliationRun {
+
+    private final TransactionTemplate transactionTemplate;
+    private final ReconciliationDao reconciliationDao;
+    private final AccountDao accountDao;
+    private final LedgerDao ledgerDao;
+    private final long ledgerSeq;
+    private final long rangeSize;
+    private final int maxReportedDiscrepancies;
+
+    ReconciliationRun(TransactionTemplate transactionTemplate, ReconciliationDao reconciliationDao,
+                      AccountDao accountDao, LedgerDao ledgerDao, long ledgerSeq, long rangeSize,
+                      int maxReportedDiscrepancies) {
+        this.transactionTemplate = transactionTemplate;
+        this.reconciliationDao = reconciliationDao;
+        this.accountDao = accountDao;
+        this.ledgerDao = ledgerDao;
+        this.ledgerSeq = ledgerSeq;
+        this.rangeSize = rangeSize;
+        this.maxReportedDiscrepancies = maxReportedDiscrepancies;
+    }
+
+    /**
+     * @return totals of ranges [{@code fromRange}, {@code toRange}), to be invoked in a fork/join pool
+     */
+    RecursiveTask<Totals> scan(int fromRange, int toRange) {
+        return new RangeScan(fromRange, toRange);
+    }
+
+    private Totals scan(int range) {
+        long fromId = 1 + range * rangeSize;
+        long toId = fromId + rangeSize;
+        List<AuditedAccount> accounts = read(fromId, toId);
+        long[] ledgerBalances = new long[accounts.size()];
+        for (int i = 0; i < ledgerBalances.length; i++) {
+            ledgerBalances[i] = ledgerDao.sumAmounts(accounts.get(i).getId());
+        }
+        List<AuditedAccount> reread = read(fromId, toId);
+        Map<LedgerEntry.Type, Long> sums = ledgerDao.sumAmountsByType(accounts.stream()
+                .map(AuditedAccount::getId)
+                .collect(Collectors.toList()), ledgerSeq);
+
+        Totals totals = new Totals();
+        totals.topUps = sums.getOrDefault(LedgerEntry.Type.TOP_UP, 0L);
+        totals.withdrawals = sums.getOrDefault(LedgerEntry.Type.WITHDRAWAL, 0L);
+        totals.transfers = sums.getOrDefault(LedgerEntry.Type.TRANSFER, 0L);
+        CRC32 checksum = new CRC32();
+        ByteBuffer row = ByteBuffer.allocate(2 * Long.BYTES);
+        // accounts are never deleted, so every account read the first time is read again, possibly among new ones
+        int next = 0;
+        for (int i = 0; i < accounts.size(); i++) {
+            AuditedAccount account = accounts.get(i);
+            totals.accounts++;
+            totals.balance += account.getBalance();
+            row.clear();
+            row.putLong(account.getId()).putLong(account.getBalance());
+            checksum.update(row.array());
+            while (reread.get(next).getId() != account.getId()) {
+                next++;
+            }
+            if (reread.get(next).getVersion() != account.getVersion() || account.getBalance() != ledgerBalances[i]) {
+                checkLocked(account.getId()).ifPresent(totals::addDiscrepancy);
+            }
+        }
+        totals.ranges.add(ReconciliationReport.Range.builder()
+                .fromId(fromId)
+                .toId(toId)
+                .accounts(totals.accounts)
+                .balance(totals.balance)
+                .checksum(format("%08x", checksum.getValue()))
+                .build());
+        return totals;
+    }
+
+    /**
+     * The transaction may be retried, so the accounts are collected anew on every attempt.
+     */
+    private List<AuditedAccount> read(long fromId, long toId) {
+        return transactionTemplate.executeReadOnly(() -> {
+            List<AuditedAccount> accounts = new ArrayList<>();
+            reconciliationDao.forEachAccount(fromId, toId, accounts::add);
+            return accounts;
+        });
+    }
+
+    private Optional<Discrepancy> checkLocked(long id) {
+        return transactionTemplate.execute(() -> accountDao.getByIdForUpdate(id).flatMap(account -> {
+            ledgerDao.awaitCommitted(id);
+            long ledgerBalance = ledgerDao.sumAmounts(id);
+            if (account.getBalance() == ledgerBalance) {
+                return Optional.empty();
+            }
+            return Optional.of(Discrepancy.builder()
+                    .type(DiscrepancyType.BALANCE_MISMATCH)
+                    .accountId(id)
+                    .message(format("Balance %s differs from %s recorded in the ledger",
+                            Money.format(account.getBalance()), Money.format(ledgerBalance)))
+                    .build());
+        }));
+    }
+
+    /**
+     * Splits the ranges in halves down to single ones, scanning one half while the other may be stolen
+     * by an idle thread of the pool.
+     */
+    private class RangeScan extends RecursiveTask<Totals> {
+        private final int fromRange;
+        private final int toRange;
+
+        private RangeScan(int fromRange, int toRange) {
+            this.fromRange = fromRange;
+            this.toRange = toRange;
+        }
+
+        @Override
+        protected Totals compute() {
+            if (toRange - fromRange <= 1) {
+                return fromRange == toRange ? new Totals() : scan(fromRange);
+            }
+            int middle = (fromRange + toRange) >>> 1;
+            RangeScan left = new RangeScan(fromRange, middle);
+            left.fork();
+            Totals right = new RangeScan(middle, toRange).compute();
+            return left.join().add(right);
+        }
+    }
+
+    /**
+     * Sums over consecutive ranges, listed in order.
+     */
+    class Totals {
+        long accounts;
+        long balance;
+        long topUps;
+        long withdrawals;
+        long transfers;
+        long discrepancyCount;
+        final List<Discrepancy> discrepancies = new ArrayList<>();
+        final List<ReconciliationReport.Range> ranges = new ArrayList<>();
+
+        void addDiscrepancy(Discrepancy discrepancy) {
+            discrepancyCount++;
+            if (discrepancies.size() < maxReportedDiscrepancies) {
+                discrepancies.add(discrepancy);
+            }
+        }
+
+        /**
+         * @param next totals of the ranges right after these
+         */
+        private Totals add(Totals next) {
+            accounts += next.accounts;
+            balance += next.balance;
+            topUps += next.topUps;
+            withdrawals += next.withdrawals;
+            transfers += next.transfers;
+            discrepancyCount += next.discrepancyCount;
+            discrepancies.addAll(next.discrepancies.subList(0,
+                    Math.min(next.discrepancies.size(), maxReportedDiscrepancies - discrepancies.size())));
+            ranges.addAll(next.ranges);
+            return this;
+        }
+    }
+}
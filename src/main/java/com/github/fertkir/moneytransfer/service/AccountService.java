@@ -1,22 +1,58 @@
 package com.github.fertkir.moneytransfer.service;
 
 import com.github.fertkir.moneytransfer.entity.Account;
+import com.github.fertkir.moneytransfer.entity.BatchTransferResult;
+import com.github.fertkir.moneytransfer.entity.LedgerEntry;
+import com.github.fertkir.moneytransfer.entity.TransferRequest;
 import com.github.fertkir.moneytransfer.entity.TransferResult;
 
-import java.math.BigDecimal;
 import java.util.List;
+import java.util.function.Consumer;
 
+/**
+ * Amounts are in minor units, see {@link com.github.fertkir.moneytransfer.entity.Money}.
+ */
 public interface AccountService {
 
     List<Account> list();
 
+    /**
+     * @return up to {@code limit} accounts with ids greater than {@code afterId}, ordered by id
+     */
+    List<Account> list(long afterId, int limit);
+
+    /**
+     * Hands every account, ordered by id, to the consumer as soon as it's read.
+     */
+    void exportAll(Consumer<? super Account> consumer);
+
     Account getById(long id);
 
     Account createNew();
 
-    Account topUp(long accountId, BigDecimal amount);
+    /**
+     * Creates {@code count} accounts with zero balance in one transaction.
+     *
+     * @return the new accounts, ordered by id
+     */
+    List<Account> createNew(int count);
+
+    Account topUp(long accountId, long amount);
+
+    Account withdraw(long accountId, long amount);
+
+    TransferResult transfer(long accountFrom, long accountTo, long amount);
 
-    Account withdraw(long accountId, BigDecimal amount);
+    /**
+     * Executes transfers in order within one transaction.
+     *
+     * @param atomic whether to apply all the transfers or none of them; otherwise failed transfers are skipped
+     */
+    BatchTransferResult transferBatch(List<TransferRequest> transfers, boolean atomic);
 
-    TransferResult transfer(long accountFrom, long accountTo, BigDecimal amount);
+    /**
+     * @return up to {@code limit} ledger entries of the account with sequence numbers greater than
+     * {@code afterSeq} created within [{@code from}, {@code to}) epoch milliseconds, ordered by sequence number
+     */
+    List<LedgerEntry> history(long accountId, long from, long to, long afterSeq, int limit);
 }
@@ -0,0 +1,29 @@
+package com.github.fertkir.moneytransfer.service;
+
+import com.github.fertkir.moneytransfer.entity.Account;
+import com.github.fertkir.moneytransfer.entity.Hold;
+
+/**
+ * Reserves money of an account without moving it yet. Held money isn't available for withdrawals and transfers
+ * until the hold is captured, released or expires. Amounts are in minor units.
+ */
+public interface HoldService {
+
+    /**
+     * @param ttlMillis time after which the hold is released unless it's captured or released before
+     */
+    Hold place(long accountId, long amount, long ttlMillis);
+
+    /**
+     * Withdraws {@code amount} of the held money and releases the rest.
+     *
+     * @param amount up to the amount of the hold, or null to capture all of it
+     * @return the account after the capture
+     */
+    Account capture(long holdId, Long amount);
+
+    /**
+     * @return the account after the release
+     */
+    Account release(long holdId);
+}
@@ -0,0 +1,16 @@
+package com.github.fertkir.moneytransfer.service;
+
+import java.util.function.Supplier;
+
+public interface IdempotencyService {
+
+    /**
+     * Runs the operation once per key, in one transaction with storing its response, and answers repeats
+     * of the request with the stored response. A repeat arriving while the operation runs waits for it.
+     * Failed operations aren't stored, so the request can be repeated with the same key.
+     *
+     * @param request what the key is used for; the key can't be used for anything else while it's stored
+     * @return response of the operation
+     */
+    String execute(String key, String request, Supplier<String> operation);
+}
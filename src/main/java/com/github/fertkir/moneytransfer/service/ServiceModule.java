@@ -1,12 +1,85 @@
 package com.github.fertkir.moneytransfer.service;
 
+import com.github.fertkir.moneytransfer.dao.DaoModule;
+import com.github.fertkir.moneytransfer.dao.impl.AccountStripes;
+import com.github.fertkir.moneytransfer.holds.HoldExpiry;
+import com.github.fertkir.moneytransfer.readmodel.BalanceView;
 import com.github.fertkir.moneytransfer.service.impl.AccountServiceImpl;
+import com.github.fertkir.moneytransfer.service.impl.CoalescingAccountService;
+import com.github.fertkir.moneytransfer.service.impl.HoldServiceImpl;
+import com.github.fertkir.moneytransfer.service.impl.IdempotencyServiceImpl;
+import com.github.fertkir.moneytransfer.service.impl.UnsupportedHoldService;
+import com.github.fertkir.moneytransfer.service.impl.sharded.ShardedAccountService;
 import com.google.inject.AbstractModule;
+import com.google.inject.name.Names;
+
+import java.util.Properties;
 
 public class ServiceModule extends AbstractModule {
 
+    public static final String ENGINE = "service.engine";
+    public static final String ENGINE_JDBC = "jdbc";
+    public static final String ENGINE_SHARDED = "sharded";
+    public static final String READ_MODEL_ENABLED = "service.readModel.enabled";
+    public static final String COALESCING_ENABLED = "service.coalescing.enabled";
+
+    private final Properties properties;
+
+    public ServiceModule(Properties properties) {
+        this.properties = properties;
+    }
+
     @Override
     protected void configure() {
-        bind(AccountService.class).to(AccountServiceImpl.class);
+        String engine = properties.getProperty(ENGINE, ENGINE_JDBC);
+        boolean coalescing = Boolean.parseBoolean(properties.getProperty(COALESCING_ENABLED));
+        if (coalescing && !ENGINE_JDBC.equals(engine)) {
+            // shards apply the operations of an account one by one in memory anyway
+            throw new IllegalArgumentException(String.format("%s can only be used with %s=%s",
+                    COALESCING_ENABLED, ENGINE, ENGINE_JDBC));
+        }
+        switch (engine) {
+            case ENGINE_JDBC:
+                if (coalescing) {
+                    bind(AccountService.class).annotatedWith(Names.named(CoalescingAccountService.DELEGATE))
+                            .to(AccountServiceImpl.class);
+                    bind(AccountService.class).to(CoalescingAccountService.class);
+                } else {
+                    bind(AccountService.class).to(AccountServiceImpl.class);
+                }
+                if (Boolean.parseBoolean(properties.getProperty(DaoModule.JOURNAL_ENABLED))
+                        && DaoModule.STORAGE_MEMORY.equals(properties.getProperty(DaoModule.STORAGE,
+                        DaoModule.STORAGE_MEMORY))) {
+                    bind(HoldService.class).toInstance(new UnsupportedHoldService(
+                            "Holds are not supported with the journal and the in-memory database"));
+                } else {
+                    bind(HoldService.class).to(HoldServiceImpl.class);
+                    // schedules the outstanding holds on start-up rather than on the first request
+                    bind(HoldExpiry.class).asEagerSingleton();
+                }
+                break;
+            case ENGINE_SHARDED:
+                bind(ShardedAccountService.class).asEagerSingleton();
+                bind(AccountService.class).to(ShardedAccountService.class);
+                bind(HoldService.class).toInstance(
+                        new UnsupportedHoldService("Holds are not supported by the sharded engine"));
+                break;
+            default:
+                throw new IllegalArgumentException(String.format("Unknown %s: %s", ENGINE, engine));
+        }
+        if (Boolean.parseBoolean(properties.getProperty(READ_MODEL_ENABLED))) {
+            // only the jdbc engine publishes its changes, and the versions of a striped account don't order them
+            if (!ENGINE_JDBC.equals(engine)) {
+                throw new IllegalArgumentException(String.format("%s can only be used with %s=%s",
+                        READ_MODEL_ENABLED, ENGINE, ENGINE_JDBC));
+            }
+            if (!properties.getProperty(AccountStripes.ACCOUNTS, "").trim().isEmpty()) {
+                throw new IllegalArgumentException(String.format("%s can't be used with %s",
+                        AccountStripes.ACCOUNTS, READ_MODEL_ENABLED));
+            }
+            // subscribes to the changes before any request is served
+            bind(BalanceView.class).asEagerSingleton();
+        }
+        bind(IdempotencyService.class).to(IdempotencyServiceImpl.class);
     }
 }
@@ -1,29 +1,48 @@
 package com.github.fertkir.moneytransfer.service.impl;
 
 import com.github.fertkir.moneytransfer.dao.AccountDao;
+import com.github.fertkir.moneytransfer.dao.LedgerDao;
 import com.github.fertkir.moneytransfer.entity.Account;
+import com.github.fertkir.moneytransfer.entity.BatchTransferResult;
+import com.github.fertkir.moneytransfer.entity.LedgerEntry;
+import com.github.fertkir.moneytransfer.entity.Money;
+import com.github.fertkir.moneytransfer.entity.TransferRequest;
 import com.github.fertkir.moneytransfer.entity.TransferResult;
 import com.github.fertkir.moneytransfer.persistence.TransactionTemplate;
+import com.github.fertkir.moneytransfer.readmodel.AccountChangeStream;
 import com.github.fertkir.moneytransfer.service.AccountService;
 import com.github.fertkir.moneytransfer.service.exception.AccountingException;
 import com.google.inject.Inject;
 import lombok.extern.slf4j.Slf4j;
 
-import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.function.Consumer;
 
 import static java.lang.String.format;
+import static java.util.Arrays.asList;
+import static java.util.Collections.singletonList;
 
 @Slf4j
 public class AccountServiceImpl implements AccountService {
 
     private final AccountDao accountDao;
+    private final LedgerDao ledgerDao;
     private final TransactionTemplate transactionTemplate;
+    private final AccountChangeStream changes;
 
     @Inject
-    public AccountServiceImpl(AccountDao accountDao, TransactionTemplate transactionTemplate) {
+    public AccountServiceImpl(AccountDao accountDao, LedgerDao ledgerDao, TransactionTemplate transactionTemplate,
+                              AccountChangeStream changes) {
         this.accountDao = accountDao;
+        this.ledgerDao = ledgerDao;
         this.transactionTemplate = transactionTemplate;
+        this.changes = changes;
     }
 
     @Override
@@ -32,6 +51,21 @@ public class AccountServiceImpl implements AccountService {
         return transactionTemplate.execute(accountDao::findAll);
     }
 
+    @Override
+    public List<Account> list(long afterId, int limit) {
+        log.info("Requested {} accounts after id {}", limit, afterId);
+        return transactionTemplate.execute(() -> accountDao.findPage(afterId, limit));
+    }
+
+    @Override
+    public void exportAll(Consumer<? super Account> consumer) {
+        log.info("Requested export of accounts");
+        transactionTemplate.execute(() -> {
+            accountDao.forEach(consumer);
+            return null;
+        });
+    }
+
     @Override
     public Account getById(long id) {
         log.info("Requested account by id: {}", id);
@@ -44,54 +78,70 @@ public class AccountServiceImpl implements AccountService {
     @Override
     public Account createNew() {
         log.info("Requested account creation");
-        Account account = transactionTemplate.execute(() ->
-                accountDao.save(Account.builder()
-                        .balance(BigDecimal.ZERO)
-                        .build()));
+        Account account = transactionTemplate.execute(() -> {
+            Account created = accountDao.save(Account.builder()
+                    .balance(0)
+                    .build());
+            changes.publish(singletonList(created));
+            return created;
+        });
         log.info("Created new account: {}", account);
         return account;
     }
 
     @Override
-    public Account topUp(long accountId, BigDecimal amount) {
-        log.info("Requested top up of amount {} on account id {}", amount, accountId);
+    public List<Account> createNew(int count) {
+        List<Account> accounts = transactionTemplate.execute(() -> {
+            List<Account> created = accountDao.createAll(count);
+            changes.publish(created);
+            return created;
+        });
+        log.info("Created {} new accounts", accounts.size());
+        return accounts;
+    }
+
+    @Override
+    public Account topUp(long accountId, long amount) {
+        log.info("Requested top up of amount {} on account id {}", Money.format(amount), accountId);
         Account result = transactionTemplate.execute(() -> {
             validateAmount(amount);
-            Account account = accountDao.getById(accountId)
-                    .orElseThrow(() -> createNoAccountException(accountId));
-            BigDecimal newBalance = account.getBalance().add(amount);
-            Account updatedAccount = account.toBuilder()
-                    .balance(newBalance)
-                    .build();
-            return accountDao.save(updatedAccount);
+            Account account = accountDao.credit(accountId, amount)
+                    .orElseThrow(() -> {
+                        checkExists(accountId);
+                        return new AccountingException(tooLargeBalanceMessage("top up", amount));
+                    });
+            ledgerDao.insertAll(singletonList(
+                    ledgerEntry(account, LedgerEntry.Type.TOP_UP, amount, null, System.currentTimeMillis())));
+            changes.publish(singletonList(account));
+            return account;
         });
         log.info("Account data after top up: {}", result);
         return result;
     }
 
     @Override
-    public Account withdraw(long accountId, BigDecimal amount) {
-        log.info("Requested withdrawal of amount {} from account id {}", amount, accountId);
+    public Account withdraw(long accountId, long amount) {
+        log.info("Requested withdrawal of amount {} from account id {}", Money.format(amount), accountId);
         Account result = transactionTemplate.execute(() -> {
             validateAmount(amount);
-            Account account = accountDao.getById(accountId)
-                    .orElseThrow(() -> createNoAccountException(accountId));
-            BigDecimal newBalance = account.getBalance().subtract(amount);
-            if (newBalance.compareTo(BigDecimal.ZERO) < 0) {
-                throw new AccountingException(format("Cannot withdraw %s. Not enough money", amount));
-            }
-            Account updatedAccount = account.toBuilder()
-                    .balance(newBalance)
-                    .build();
-            return accountDao.save(updatedAccount);
+            Account account = accountDao.debitIfSufficient(accountId, amount)
+                    .orElseThrow(() -> {
+                        checkExists(accountId);
+                        return createNotEnoughMoneyException("withdraw", amount);
+                    });
+            ledgerDao.insertAll(singletonList(ledgerEntry(account, LedgerEntry.Type.WITHDRAWAL, -amount, null,
+                    System.currentTimeMillis())));
+            changes.publish(singletonList(account));
+            return account;
         });
         log.info("Account data after withdrawal: {}", result);
         return result;
     }
 
     @Override
-    public TransferResult transfer(long accountFrom, long accountTo, BigDecimal amount) {
-        log.info("Requested transfer of amount {} from account {} to account {}", amount, accountFrom, accountTo);
+    public TransferResult transfer(long accountFrom, long accountTo, long amount) {
+        log.info("Requested transfer of amount {} from account {} to account {}",
+                Money.format(amount), accountFrom, accountTo);
         TransferResult transferResult = transactionTemplate.execute(() -> {
             validateAmount(amount);
 
@@ -99,38 +149,250 @@ public class AccountServiceImpl implements AccountService {
                 throw new AccountingException("Source and destination accounts must be different");
             }
 
-            Account source = accountDao.getById(accountFrom)
-                    .orElseThrow(() -> createNoAccountException(accountFrom));
-            Account target = accountDao.getById(accountTo)
-                    .orElseThrow(() -> createNoAccountException(accountTo));
-
-            BigDecimal newSourceBalance = source.getBalance().subtract(amount);
-            if (newSourceBalance.compareTo(BigDecimal.ZERO) < 0) {
-                throw new AccountingException(format("Cannot transfer %s. Not enough money", amount));
+            // rows are always read and written in ascending id order, so opposite transfers wait for each other
+            // instead of deadlocking
+            boolean sourceFirst = accountFrom < accountTo;
+            Optional<Account> first = accountDao.getByIdForUpdate(sourceFirst ? accountFrom : accountTo);
+            Optional<Account> second = accountDao.getByIdForUpdate(sourceFirst ? accountTo : accountFrom);
+            Account source = (sourceFirst ? first : second).orElseThrow(() -> createNoAccountException(accountFrom));
+            Account target = (sourceFirst ? second : first).orElseThrow(() -> createNoAccountException(accountTo));
+            if (source.getAvailable() < amount) {
+                throw createNotEnoughMoneyException("transfer", amount);
+            }
+            if (target.getBalance() > Long.MAX_VALUE - amount) {
+                throw new AccountingException(tooLargeBalanceMessage("transfer", amount));
             }
-            BigDecimal newTargetBalance = target.getBalance().add(amount);
 
+            Account debited = source.toBuilder()
+                    .balance(source.getBalance() - amount)
+                    .build();
+            Account credited = target.toBuilder()
+                    .balance(target.getBalance() + amount)
+                    .build();
+            if (sourceFirst) {
+                debited = accountDao.save(debited);
+                credited = accountDao.save(credited);
+            } else {
+                credited = accountDao.save(credited);
+                debited = accountDao.save(debited);
+            }
+            ledgerDao.insertAll(transferEntries(debited, credited, amount, System.currentTimeMillis()));
+            changes.publish(asList(debited, credited));
             return TransferResult.builder()
-                    .source(accountDao.save(source.toBuilder()
-                            .balance(newSourceBalance)
-                            .build()))
-                    .target(accountDao.save(target.toBuilder()
-                            .balance(newTargetBalance)
-                            .build()))
+                    .source(debited)
+                    .target(credited)
                     .build();
         });
         log.info("Result of transfer: {}", transferResult);
         return transferResult;
     }
 
-    private void validateAmount(BigDecimal amount) {
-        if (amount.compareTo(BigDecimal.ZERO) > 0) {
+    @Override
+    public BatchTransferResult transferBatch(List<TransferRequest> transfers, boolean atomic) {
+        log.info("Requested batch of {} transfers, atomic: {}", transfers.size(), atomic);
+        String[] errors = new String[transfers.size()];
+        boolean valid = true;
+        for (int i = 0; i < errors.length; i++) {
+            errors[i] = validateTransfer(transfers.get(i));
+            valid &= errors[i] == null;
+        }
+        BatchTransferResult result = atomic && !valid
+                ? toBatchTransferResult(false, errors, new TransferResult[errors.length])
+                : transactionTemplate.execute(() -> applyBatch(transfers, errors, atomic));
+        log.info("Batch of {} transfers is committed: {}", transfers.size(), result.isCommitted());
+        return result;
+    }
+
+    /**
+     * Locks all the accounts involved at once, plays the transfers against their balances in memory
+     * and writes the net change of every account with one batched statement.
+     */
+    private BatchTransferResult applyBatch(List<TransferRequest> transfers, String[] errors, boolean atomic) {
+        Set<Long> ids = new HashSet<>();
+        for (int i = 0; i < errors.length; i++) {
+            if (errors[i] == null) {
+                ids.add(transfers.get(i).getFrom());
+                ids.add(transfers.get(i).getTo());
+            }
+        }
+        Map<Long, Account> locked = new HashMap<>();
+        Map<Long, Long> balances = new HashMap<>();
+        for (Account account : accountDao.lockAll(ids)) {
+            locked.put(account.getId(), account);
+            balances.put(account.getId(), account.getBalance());
+        }
+
+        Map<Long, Long> deltas = new HashMap<>();
+        // balances of the source and the target right after every applied transfer
+        long[][] applied = new long[errors.length][];
+        for (int i = 0; i < errors.length; i++) {
+            if (errors[i] != null) {
+                continue;
+            }
+            TransferRequest transfer = transfers.get(i);
+            Long sourceBalance = balances.get(transfer.getFrom());
+            Long targetBalance = balances.get(transfer.getTo());
+            long amount = transfer.getAmount();
+            if (sourceBalance == null) {
+                errors[i] = noAccountMessage(transfer.getFrom());
+            } else if (targetBalance == null) {
+                errors[i] = noAccountMessage(transfer.getTo());
+            } else if (sourceBalance - locked.get(transfer.getFrom()).getHeld() < amount) {
+                errors[i] = notEnoughMoneyMessage("transfer", amount);
+            } else if (targetBalance > Long.MAX_VALUE - amount) {
+                errors[i] = tooLargeBalanceMessage("transfer", amount);
+            } else {
+                applied[i] = new long[]{
+                        applyDelta(transfer.getFrom(), -amount, balances, deltas),
+                        applyDelta(transfer.getTo(), amount, balances, deltas)};
+            }
+            if (atomic && errors[i] != null) {
+                return toBatchTransferResult(false, errors, new TransferResult[errors.length]);
+            }
+        }
+        deltas.values().removeIf(delta -> delta == 0);
+        Map<Long, Integer> versionIncrements = accountDao.applyDeltas(deltas);
+        // an account whose transfers net to zero isn't written and keeps its version
+        Map<Long, Long> versions = new HashMap<>();
+        locked.forEach((id, account) -> versions.put(id,
+                account.getVersion() + versionIncrements.getOrDefault(id, 0)));
+        List<Account> changed = new ArrayList<>(deltas.size());
+        deltas.keySet().forEach(id -> changed.add(withBalance(locked.get(id), balances.get(id), versions)));
+        changes.publish(changed);
+        TransferResult[] results = new TransferResult[errors.length];
+        List<LedgerEntry> entries = new ArrayList<>();
+        long now = System.currentTimeMillis();
+        for (int i = 0; i < results.length; i++) {
+            if (applied[i] != null) {
+                TransferRequest transfer = transfers.get(i);
+                results[i] = TransferResult.builder()
+                        .source(withBalance(locked.get(transfer.getFrom()), applied[i][0], versions))
+                        .target(withBalance(locked.get(transfer.getTo()), applied[i][1], versions))
+                        .build();
+                entries.addAll(transferEntries(results[i].getSource(), results[i].getTarget(),
+                        transfer.getAmount(), now));
+            }
+        }
+        ledgerDao.insertAll(entries);
+        return toBatchTransferResult(true, errors, results);
+    }
+
+    @Override
+    public List<LedgerEntry> history(long accountId, long from, long to, long afterSeq, int limit) {
+        log.info("Requested {} ledger entries of account {} after seq {} within [{}, {})",
+                limit, accountId, afterSeq, from, to);
+        return transactionTemplate.execute(() -> {
+            checkExists(accountId);
+            return ledgerDao.findByAccount(accountId, from, to, afterSeq, limit);
+        });
+    }
+
+    private static List<LedgerEntry> transferEntries(Account debited, Account credited, long amount,
+                                                     long createdAt) {
+        return asList(
+                ledgerEntry(debited, LedgerEntry.Type.TRANSFER, -amount, credited.getId(), createdAt),
+                ledgerEntry(credited, LedgerEntry.Type.TRANSFER, amount, debited.getId(), createdAt));
+    }
+
+    static LedgerEntry ledgerEntry(Account account, LedgerEntry.Type type, long amount,
+                                           Long counterpartyId, long createdAt) {
+        return LedgerEntry.builder()
+                .accountId(account.getId())
+                .type(type)
+                .amount(amount)
+                .balance(account.getBalance())
+                .counterpartyId(counterpartyId)
+                .createdAt(createdAt)
+                .build();
+    }
+
+    /**
+     * @return the new balance of the account
+     */
+    private static long applyDelta(long accountId, long delta, Map<Long, Long> balances, Map<Long, Long> deltas) {
+        long newBalance = balances.get(accountId) + delta;
+        balances.put(accountId, newBalance);
+        deltas.merge(accountId, delta, Long::sum);
+        return newBalance;
+    }
+
+    /**
+     * The locked account with a balance it had within the batch and the version it has once the batch is written.
+     */
+    private static Account withBalance(Account locked, long balance, Map<Long, Long> versions) {
+        return locked.toBuilder()
+                .balance(balance)
+                .version(versions.get(locked.getId()))
+                .build();
+    }
+
+    private static BatchTransferResult toBatchTransferResult(boolean committed, String[] errors,
+                                                             TransferResult[] results) {
+        List<BatchTransferResult.Item> items = new ArrayList<>(errors.length);
+        for (int i = 0; i < errors.length; i++) {
+            BatchTransferResult.Status status = results[i] != null ? BatchTransferResult.Status.APPLIED
+                    : errors[i] != null ? BatchTransferResult.Status.FAILED
+                    : BatchTransferResult.Status.NOT_APPLIED;
+            items.add(BatchTransferResult.Item.builder()
+                    .index(i)
+                    .status(status)
+                    .message(errors[i])
+                    .result(results[i])
+                    .build());
+        }
+        return BatchTransferResult.builder()
+                .committed(committed)
+                .items(items)
+                .build();
+    }
+
+    private static String validateTransfer(TransferRequest transfer) {
+        if (transfer.getFrom() == null || transfer.getTo() == null || transfer.getAmount() == null) {
+            return "Transfer must have from, to and amount";
+        }
+        if (transfer.getAmount() <= 0) {
+            return format("Amount must be positive, but given %s", Money.format(transfer.getAmount()));
+        }
+        if (transfer.getFrom().equals(transfer.getTo())) {
+            return "Source and destination accounts must be different";
+        }
+        return null;
+    }
+
+    static String noAccountMessage(long accountId) {
+        return format("Account id \"%d\" does not exist", accountId);
+    }
+
+    static String notEnoughMoneyMessage(String operation, long amount) {
+        return format("Cannot %s %s. Not enough money", operation, Money.format(amount));
+    }
+
+    static String tooLargeBalanceMessage(String operation, long amount) {
+        return format("Cannot %s %s. Balance would be too large", operation, Money.format(amount));
+    }
+
+    private AccountingException createNotEnoughMoneyException(String operation, long amount) {
+        return new AccountingException(notEnoughMoneyMessage(operation, amount));
+    }
+
+    /**
+     * Conditional debit doesn't tell a missing account from a lack of money,
+     * so existence is checked only on this (unhappy) path.
+     */
+    private void checkExists(long accountId) {
+        if (!accountDao.getById(accountId).isPresent()) {
+            throw createNoAccountException(accountId);
+        }
+    }
+
+    static void validateAmount(long amount) {
+        if (amount > 0) {
             return;
         }
-        throw new AccountingException(format("Amount must be positive, but given %s", amount.toString()));
+        throw new AccountingException(format("Amount must be positive, but given %s", Money.format(amount)));
     }
 
     private AccountingException createNoAccountException(long accountId) {
-        return new AccountingException(format("Account id \"%d\" does not exist", accountId));
+        return new AccountingException(noAccountMessage(accountId));
     }
 }
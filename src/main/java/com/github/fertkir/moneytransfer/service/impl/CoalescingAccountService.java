@@ -0,0 +1,338 @@
+package com.github.fertkir.moneytransfer.service.impl;
+
+import com.github.fertkir.moneytransfer.dao.AccountDao;
+import com.github.fertkir.moneytransfer.dao.LedgerDao;
+import com.github.fertkir.moneytransfer.entity.Account;
+import com.github.fertkir.moneytransfer.entity.BatchTransferResult;
+import com.github.fertkir.moneytransfer.entity.LedgerEntry;
+import com.github.fertkir.moneytransfer.entity.Money;
+import com.github.fertkir.moneytransfer.entity.TransferRequest;
+import com.github.fertkir.moneytransfer.entity.TransferResult;
+import com.github.fertkir.moneytransfer.persistence.TransactionTemplate;
+import com.github.fertkir.moneytransfer.readmodel.AccountChangeStream;
+import com.github.fertkir.moneytransfer.service.AccountService;
+import com.github.fertkir.moneytransfer.service.exception.AccountingException;
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import com.google.inject.name.Named;
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+
+import static com.github.fertkir.moneytransfer.service.impl.AccountServiceImpl.ledgerEntry;
+import static com.github.fertkir.moneytransfer.service.impl.AccountServiceImpl.noAccountMessage;
+import static com.github.fertkir.moneytransfer.service.impl.AccountServiceImpl.notEnoughMoneyMessage;
+import static com.github.fertkir.moneytransfer.service.impl.AccountServiceImpl.tooLargeBalanceMessage;
+import static com.github.fertkir.moneytransfer.service.impl.AccountServiceImpl.validateAmount;
+import static java.util.Collections.singletonList;
+import static java.util.Collections.singletonMap;
+
+/**
+ * Combines concurrent top-ups and withdrawals of the same account, so that a hot account is written once
+ * per batch of them rather than once per operation.
+ * <p>
+ * Operations arriving while the account is being written by the previous batch make up the next one. Its first
+ * operation waits for {@code service.coalescing.windowMicros}, or until the batch holds
+ * {@code service.coalescing.maxOps} operations, and then for the previous batch to be written, while later
+ * operations join it. An operation finding no batch of the account in progress is written right away, so that
+ * an account which isn't contended doesn't wait for the window.
+ * <p>
+ * A batch is applied in one transaction: the operations are played in order against the locked balance, each
+ * of them failing on its own as it would alone, the net change is written with one update and every applied
+ * operation gets its own ledger entry. Every caller gets the balance right after its operation, with the version
+ * the combined write gives the account.
+ * <p>
+ * Operations called within a transaction aren't combined, since they have to commit or roll back with it.
+ */
+@Slf4j
+@Singleton
+public class CoalescingAccountService implements AccountService {
+
+    public static final String DELEGATE = "coalescingAccountService.delegate";
+
+    private final AccountService delegate;
+    private final AccountDao accountDao;
+    private final LedgerDao ledgerDao;
+    private final TransactionTemplate transactionTemplate;
+    private final AccountChangeStream changes;
+    private final long windowNanos;
+    private final int maxOps;
+    /**
+     * The latest batch of every account which has one open or being written.
+     */
+    private final ConcurrentMap<Long, Batch> batches = new ConcurrentHashMap<>();
+
+    @Inject
+    public CoalescingAccountService(@Named(DELEGATE) AccountService delegate,
+                                    AccountDao accountDao, LedgerDao ledgerDao,
+                                    TransactionTemplate transactionTemplate, AccountChangeStream changes,
+                                    @Named("service.coalescing.windowMicros") long windowMicros,
+                                    @Named("service.coalescing.maxOps") int maxOps) {
+        if (maxOps < 1) {
+            throw new IllegalArgumentException("service.coalescing.maxOps must be positive, but given " + maxOps);
+        }
+        this.delegate = delegate;
+        this.accountDao = accountDao;
+        this.ledgerDao = ledgerDao;
+        this.transactionTemplate = transactionTemplate;
+        this.changes = changes;
+        this.windowNanos = TimeUnit.MICROSECONDS.toNanos(windowMicros);
+        this.maxOps = maxOps;
+    }
+
+    @Override
+    public List<Account> list() {
+        return delegate.list();
+    }
+
+    @Override
+    public List<Account> list(long afterId, int limit) {
+        return delegate.list(afterId, limit);
+    }
+
+    @Override
+    public void exportAll(Consumer<? super Account> consumer) {
+        delegate.exportAll(consumer);
+    }
+
+    @Override
+    public Account getById(long id) {
+        return delegate.getById(id);
+    }
+
+    @Override
+    public Account createNew() {
+        return delegate.createNew();
+    }
+
+    @Override
+    public List<Account> createNew(int count) {
+        return delegate.createNew(count);
+    }
+
+    @Override
+    public Account topUp(long accountId, long amount) {
+        if (transactionTemplate.isActive()) {
+            return delegate.topUp(accountId, amount);
+        }
+        log.info("Requested top up of amount {} on account id {}", Money.format(amount), accountId);
+        validateAmount(amount);
+        Account result = submit(accountId, amount);
+        log.info("Account data after top up: {}", result);
+        return result;
+    }
+
+    @Override
+    public Account withdraw(long accountId, long amount) {
+        if (transactionTemplate.isActive()) {
+            return delegate.withdraw(accountId, amount);
+        }
+        log.info("Requested withdrawal of amount {} from account id {}", Money.format(amount), accountId);
+        validateAmount(amount);
+        Account result = submit(accountId, -amount);
+        log.info("Account data after withdrawal: {}", result);
+        return result;
+    }
+
+    @Override
+    public TransferResult transfer(long accountFrom, long accountTo, long amount) {
+        return delegate.transfer(accountFrom, accountTo, amount);
+    }
+
+    @Override
+    public BatchTransferResult transferBatch(List<TransferRequest> transfers, boolean atomic) {
+        return delegate.transferBatch(transfers, atomic);
+    }
+
+    @Override
+    public List<LedgerEntry> history(long accountId, long from, long to, long afterSeq, int limit) {
+        return delegate.history(accountId, from, to, afterSeq, limit);
+    }
+
+    /**
+     * @param amount positive for a top-up, negative for a withdrawal
+     */
+    private Account submit(long accountId, long amount) {
+        Operation operation = new Operation(amount);
+        Batch batch;
+        do {
+            batch = batches.compute(accountId, (id, latest) -> latest != null && latest.isOpen(maxOps)
+                    ? latest
+                    : new Batch(latest));
+        } while (!batch.add(operation, maxOps));
+        if (batch.leader == Thread.currentThread()) {
+            lead(accountId, batch);
+        }
+        try {
+            return operation.result.join();
+        } catch (CompletionException e) {
+            throw e.getCause() instanceof RuntimeException ? (RuntimeException) e.getCause() : e;
+        }
+    }
+
+    private void lead(long accountId, Batch batch) {
+        try {
+            long deadline = System.nanoTime() + windowNanos;
+            long remaining = batch.previous != null ? windowNanos : 0;
+            while (remaining > 0 && batch.isOpen(maxOps)) {
+                LockSupport.parkNanos(this, remaining);
+                remaining = deadline - System.nanoTime();
+            }
+            // batches of an account are written one after another, and the next one fills up meanwhile
+            if (batch.previous != null) {
+                batch.previous.written.join();
+                batch.previous = null;
+            }
+            List<Operation> operations = batch.close();
+            try {
+                Account[] results = transactionTemplate.execute(() -> apply(accountId, operations));
+                for (int i = 0; i < results.length; i++) {
+                    operations.get(i).complete(results[i]);
+                }
+            } catch (RuntimeException e) {
+                operations.forEach(operation -> operation.result.completeExceptionally(e));
+            }
+        } finally {
+            batch.written.complete(null);
+            batches.remove(accountId, batch);
+        }
+    }
+
+    /**
+     * @return the account right after every operation, or null for the ones failed
+     * with {@link Operation#error} set
+     */
+    private Account[] apply(long accountId, List<Operation> operations) {
+        Optional<Account> locked = accountDao.getByIdForUpdate(accountId);
+        if (!locked.isPresent()) {
+            operations.forEach(operation -> operation.error = noAccountMessage(accountId));
+            return new Account[operations.size()];
+        }
+        Account account = locked.get();
+        long balance = account.getBalance();
+        long now = System.currentTimeMillis();
+        Account[] results = new Account[operations.size()];
+        List<LedgerEntry> entries = new ArrayList<>(operations.size());
+        for (int i = 0; i < results.length; i++) {
+            Operation operation = operations.get(i);
+            long amount = operation.amount;
+            // a retried transaction plays the operations again
+            operation.error = null;
+            if (amount > 0 && balance > Long.MAX_VALUE - amount) {
+                operation.error = tooLargeBalanceMessage("top up", amount);
+            } else if (amount < 0 && balance - account.getHeld() < -amount) {
+                operation.error = notEnoughMoneyMessage("withdraw", -amount);
+            } else {
+                balance += amount;
+                // the version is known once the balance is written
+                results[i] = account.toBuilder()
+                        .balance(balance)
+                        .build();
+                entries.add(ledgerEntry(results[i], amount > 0 ? LedgerEntry.Type.TOP_UP
+                        : LedgerEntry.Type.WITHDRAWAL, amount, null, now));
+            }
+        }
+        if (!entries.isEmpty()) {
+            long version = account.getVersion() + accountDao.applyDeltas(
+                    singletonMap(accountId, balance - account.getBalance())).get(accountId);
+            for (int i = 0; i < results.length; i++) {
+                if (results[i] != null) {
+                    results[i] = results[i].toBuilder()
+                            .version(version)
+                            .build();
+                }
+            }
+            ledgerDao.insertAll(entries);
+            changes.publish(singletonList(account.toBuilder()
+                    .balance(balance)
+                    .version(version)
+                    .build()));
+        }
+        return results;
+    }
+
+    private static class Operation {
+        private final long amount;
+        private final CompletableFuture<Account> result = new CompletableFuture<>();
+        private String error;
+
+        private Operation(long amount) {
+            this.amount = amount;
+        }
+
+        private void complete(Account account) {
+            if (account != null) {
+                result.complete(account);
+            } else {
+                result.completeExceptionally(new AccountingException(error));
+            }
+        }
+    }
+
+    private static class Batch {
+        /**
+         * The batch which was the latest of the account when this one was started, until it's written.
+         */
+        private volatile Batch previous;
+        private final List<Operation> operations = new ArrayList<>();
+        private final CompletableFuture<Void> written = new CompletableFuture<>();
+        private final Lock lock = new ReentrantLock();
+        private Thread leader;
+        private boolean closed;
+
+        private Batch(Batch previous) {
+            this.previous = previous;
+        }
+
+        boolean isOpen(int maxOps) {
+            lock.lock();
+            try {
+                return !closed && operations.size() < maxOps;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        /**
+         * The thread adding the first operation becomes the leader, which writes the batch.
+         */
+        boolean add(Operation operation, int maxOps) {
+            lock.lock();
+            try {
+                if (closed || operations.size() >= maxOps) {
+                    return false;
+                }
+                operations.add(operation);
+                if (leader == null) {
+                    leader = Thread.currentThread();
+                } else if (operations.size() == maxOps) {
+                    LockSupport.unpark(leader);
+                }
+                return true;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        List<Operation> close() {
+            lock.lock();
+            try {
+                closed = true;
+                return operations;
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+}
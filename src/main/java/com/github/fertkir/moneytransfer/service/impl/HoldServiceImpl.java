@@ -0,0 +1,134 @@
+package com.github.fertkir.moneytransfer.service.impl;
+
+import com.github.fertkir.moneytransfer.dao.AccountDao;
+import com.github.fertkir.moneytransfer.dao.HoldDao;
+import com.github.fertkir.moneytransfer.dao.LedgerDao;
+import com.github.fertkir.moneytransfer.entity.Account;
+import com.github.fertkir.moneytransfer.entity.Hold;
+import com.github.fertkir.moneytransfer.entity.LedgerEntry;
+import com.github.fertkir.moneytransfer.entity.Money;
+import com.github.fertkir.moneytransfer.holds.HoldExpiry;
+import com.github.fertkir.moneytransfer.persistence.TransactionTemplate;
+import com.github.fertkir.moneytransfer.readmodel.AccountChangeStream;
+import com.github.fertkir.moneytransfer.service.HoldService;
+import com.github.fertkir.moneytransfer.service.exception.AccountingException;
+import com.google.inject.Inject;
+import com.google.inject.name.Named;
+import lombok.extern.slf4j.Slf4j;
+
+import static com.github.fertkir.moneytransfer.service.impl.AccountServiceImpl.ledgerEntry;
+import static com.github.fertkir.moneytransfer.service.impl.AccountServiceImpl.noAccountMessage;
+import static com.github.fertkir.moneytransfer.service.impl.AccountServiceImpl.notEnoughMoneyMessage;
+import static com.github.fertkir.moneytransfer.service.impl.AccountServiceImpl.validateAmount;
+import static java.lang.String.format;
+import static java.util.Collections.singletonList;
+
+/**
+ * Held money is kept on the account row next to its balance, so that withdrawals and transfers check the money
+ * available with the same statement or locked read as before. A captured hold becomes a withdrawal in the ledger;
+ * placing and releasing one doesn't change the balance and has no ledger entry.
+ */
+@Slf4j
+public class HoldServiceImpl implements HoldService {
+
+    private final AccountDao accountDao;
+    private final HoldDao holdDao;
+    private final LedgerDao ledgerDao;
+    private final TransactionTemplate transactionTemplate;
+    private final AccountChangeStream changes;
+    private final HoldExpiry holdExpiry;
+    private final long maxTtlMillis;
+
+    @Inject
+    public HoldServiceImpl(AccountDao accountDao, HoldDao holdDao, LedgerDao ledgerDao,
+                           TransactionTemplate transactionTemplate, AccountChangeStream changes, HoldExpiry holdExpiry,
+                           @Named("holds.maxTtlMillis") long maxTtlMillis) {
+        this.accountDao = accountDao;
+        this.holdDao = holdDao;
+        this.ledgerDao = ledgerDao;
+        this.transactionTemplate = transactionTemplate;
+        this.changes = changes;
+        this.holdExpiry = holdExpiry;
+        this.maxTtlMillis = maxTtlMillis;
+    }
+
+    @Override
+    public Hold place(long accountId, long amount, long ttlMillis) {
+        log.info("Requested hold of amount {} on account id {} for {} ms", Money.format(amount), accountId, ttlMillis);
+        Hold result = transactionTemplate.execute(() -> {
+            validateAmount(amount);
+            if (ttlMillis <= 0 || ttlMillis > maxTtlMillis) {
+                throw new AccountingException(format("Time to live must be between 1 and %d ms, but given %d",
+                        maxTtlMillis, ttlMillis));
+            }
+            Account account = accountDao.holdIfAvailable(accountId, amount)
+                    .orElseThrow(() -> {
+                        checkExists(accountId);
+                        return new AccountingException(notEnoughMoneyMessage("hold", amount));
+                    });
+            long now = System.currentTimeMillis();
+            Hold hold = holdDao.insert(Hold.builder()
+                    .accountId(accountId)
+                    .amount(amount)
+                    .createdAt(now)
+                    .expiresAt(now + ttlMillis)
+                    .build());
+            changes.publish(singletonList(account));
+            transactionTemplate.afterCommit(() -> holdExpiry.schedule(hold));
+            return hold;
+        });
+        log.info("Placed hold: {}", result);
+        return result;
+    }
+
+    @Override
+    public Account capture(long holdId, Long amount) {
+        log.info("Requested capture of amount {} of hold id {}", amount != null ? Money.format(amount) : "all", holdId);
+        Account result = transactionTemplate.execute(() -> {
+            Hold hold = lockOutstanding(holdId);
+            long captured = amount != null ? amount : hold.getAmount();
+            validateAmount(captured);
+            if (captured > hold.getAmount()) {
+                throw new AccountingException(format("Cannot capture %s. Hold is only %s",
+                        Money.format(captured), Money.format(hold.getAmount())));
+            }
+            Account account = settle(hold, captured);
+            ledgerDao.insertAll(singletonList(ledgerEntry(account, LedgerEntry.Type.WITHDRAWAL, -captured, null,
+                    System.currentTimeMillis())));
+            return account;
+        });
+        log.info("Account data after capture: {}", result);
+        return result;
+    }
+
+    @Override
+    public Account release(long holdId) {
+        log.info("Requested release of hold id {}", holdId);
+        Account result = transactionTemplate.execute(() -> settle(lockOutstanding(holdId), 0));
+        log.info("Account data after release: {}", result);
+        return result;
+    }
+
+    /**
+     * An expired hold may not have been released yet, but it can't be captured or released any more.
+     */
+    private Hold lockOutstanding(long holdId) {
+        return holdDao.getByIdForUpdate(holdId)
+                .filter(hold -> hold.getExpiresAt() > System.currentTimeMillis())
+                .orElseThrow(() -> new AccountingException(format("Hold id \"%d\" does not exist", holdId)));
+    }
+
+    private Account settle(Hold hold, long captured) {
+        Account account = accountDao.settleHold(hold.getAccountId(), hold.getAmount(), captured)
+                .orElseThrow(() -> new AccountingException(noAccountMessage(hold.getAccountId())));
+        holdDao.deleteAll(singletonList(hold.getId()));
+        changes.publish(singletonList(account));
+        return account;
+    }
+
+    private void checkExists(long accountId) {
+        if (!accountDao.getById(accountId).isPresent()) {
+            throw new AccountingException(noAccountMessage(accountId));
+        }
+    }
+}
@@ -0,0 +1,192 @@
+package com.github.fertkir.moneytransfer.service.impl;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.fertkir.moneytransfer.dao.IdempotencyKeyDao;
+import com.github.fertkir.moneytransfer.entity.IdempotentResponse;
+import com.github.fertkir.moneytransfer.persistence.TransactionTemplate;
+import com.github.fertkir.moneytransfer.service.IdempotencyService;
+import com.github.fertkir.moneytransfer.service.ServiceModule;
+import com.github.fertkir.moneytransfer.service.exception.AccountingException;
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import com.google.inject.name.Named;
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+import static java.lang.String.format;
+
+/**
+ * Responses are stored in the {@code idempotency_key} table. Memory maps a 64-bit hash of their keys to their
+ * row ids, so that a repeat reads its response by the row id rather than through the index of the keys, and
+ * doesn't hold the responses themselves. The key of the row read is compared with the requested one, since
+ * another key may have the same hash. Both forget a response {@code idempotency.ttlMillis} after it's stored;
+ * the memory holds up to {@code idempotency.cache.maximumSize} row ids and falls back to the index for the rest.
+ * <p>
+ * With the {@code jdbc} engine the operation runs in the transaction storing its response, so that both commit
+ * or neither does. Operations of the {@code sharded} engine don't take part in it, and a retry of the transaction
+ * would run them again, so they run on their own between looking the key up and storing the response. A response
+ * which can't be stored is lost then, and a repeat of the request runs the operation again.
+ */
+@Slf4j
+@Singleton
+public class IdempotencyServiceImpl implements IdempotencyService {
+
+    private static final int MAX_KEY_LENGTH = 255;
+    private static final long PURGE_INTERVAL_MILLIS = TimeUnit.MINUTES.toMillis(1);
+    private static final long FNV_OFFSET_BASIS = 0xcbf29ce484222325L;
+    private static final long FNV_PRIME = 0x100000001b3L;
+
+    private final IdempotencyKeyDao idempotencyKeyDao;
+    private final TransactionTemplate transactionTemplate;
+    private final long ttlMillis;
+    private final boolean transactional;
+    /**
+     * Row ids of the stored responses by the hashes of their keys.
+     */
+    private final Cache<Long, Long> responseIds;
+    private final ConcurrentMap<String, CompletableFuture<IdempotentResponse>> executions = new ConcurrentHashMap<>();
+
+    @Inject
+    public IdempotencyServiceImpl(IdempotencyKeyDao idempotencyKeyDao,
+                                  TransactionTemplate transactionTemplate,
+                                  @Named("idempotency.ttlMillis") long ttlMillis,
+                                  @Named("idempotency.cache.maximumSize") long maximumSize,
+                                  @Named(ServiceModule.ENGINE) String engine) {
+        this.idempotencyKeyDao = idempotencyKeyDao;
+        this.transactionTemplate = transactionTemplate;
+        this.ttlMillis = ttlMillis;
+        this.transactional = ServiceModule.ENGINE_JDBC.equals(engine);
+        this.responseIds = Caffeine.newBuilder()
+                .maximumSize(maximumSize)
+                .expireAfterWrite(ttlMillis, TimeUnit.MILLISECONDS)
+                .build();
+        ScheduledExecutorService purger = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "idempotency-purge");
+            thread.setDaemon(true);
+            return thread;
+        });
+        purger.scheduleWithFixedDelay(this::purgeExpired, PURGE_INTERVAL_MILLIS, PURGE_INTERVAL_MILLIS,
+                TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public String execute(String key, String request, Supplier<String> operation) {
+        if (key.isEmpty() || key.length() > MAX_KEY_LENGTH) {
+            throw new AccountingException(format("Idempotency key must be 1 to %d characters long", MAX_KEY_LENGTH));
+        }
+        long keyHash = hash(key);
+        Long id = responseIds.getIfPresent(keyHash);
+        if (id != null) {
+            Optional<IdempotentResponse> stored = transactionTemplate.executeReadOnly(() ->
+                    idempotencyKeyDao.getById(id, System.currentTimeMillis() - ttlMillis));
+            if (stored.isPresent() && stored.get().getKey().equals(key)) {
+                return replay(stored.get(), key, request);
+            }
+        }
+        CompletableFuture<IdempotentResponse> execution = new CompletableFuture<>();
+        CompletableFuture<IdempotentResponse> running = executions.putIfAbsent(key, execution);
+        if (running != null) {
+            return replay(await(running), key, request);
+        }
+        try {
+            IdempotentResponse response = transactional
+                    ? transactionTemplate.execute(() -> getOrExecute(key, request, operation))
+                    : getOrExecuteOutsideTransaction(key, request, operation);
+            responseIds.put(keyHash, response.getId());
+            execution.complete(response);
+            return replay(response, key, request);
+        } catch (RuntimeException e) {
+            execution.completeExceptionally(e);
+            throw e;
+        } finally {
+            executions.remove(key);
+        }
+    }
+
+    private IdempotentResponse getOrExecute(String key, String request, Supplier<String> operation) {
+        long now = System.currentTimeMillis();
+        return idempotencyKeyDao.getByKey(key, now - ttlMillis)
+                .orElseGet(() -> {
+                    IdempotentResponse executed = executeOperation(key, request, operation, now);
+                    return executed.toBuilder().id(idempotencyKeyDao.save(executed)).build();
+                });
+    }
+
+    private IdempotentResponse getOrExecuteOutsideTransaction(String key, String request,
+                                                              Supplier<String> operation) {
+        long now = System.currentTimeMillis();
+        Optional<IdempotentResponse> stored = transactionTemplate.executeReadOnly(() ->
+                idempotencyKeyDao.getByKey(key, now - ttlMillis));
+        if (stored.isPresent()) {
+            return stored.get();
+        }
+        IdempotentResponse executed = executeOperation(key, request, operation, now);
+        long id = transactionTemplate.execute(() -> idempotencyKeyDao.save(executed));
+        return executed.toBuilder().id(id).build();
+    }
+
+    private static IdempotentResponse executeOperation(String key, String request, Supplier<String> operation,
+                                                       long now) {
+        return IdempotentResponse.builder()
+                .key(key)
+                .request(request)
+                .body(operation.get())
+                .createdAt(now)
+                .build();
+    }
+
+    private static String replay(IdempotentResponse response, String key, String request) {
+        if (!response.getRequest().equals(request)) {
+            throw new AccountingException(format("Idempotency key \"%s\" has already been used for another request",
+                    key));
+        }
+        return response.getBody();
+    }
+
+    /**
+     * A repeat of a failed request fails the same way.
+     */
+    private static IdempotentResponse await(CompletableFuture<IdempotentResponse> execution) {
+        try {
+            return execution.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * 64-bit FNV-1a of the UTF-16 code units of the key.
+     */
+    private static long hash(String key) {
+        long hash = FNV_OFFSET_BASIS;
+        for (int i = 0; i < key.length(); i++) {
+            char c = key.charAt(i);
+            hash = (hash ^ (c & 0xff)) * FNV_PRIME;
+            hash = (hash ^ (c >>> 8)) * FNV_PRIME;
+        }
+        return hash;
+    }
+
+    private void purgeExpired() {
+        try {
+            int purged = transactionTemplate.execute(() ->
+                    idempotencyKeyDao.deleteCreatedBefore(System.currentTimeMillis() - ttlMillis));
+            log.debug("Purged {} expired idempotency keys", purged);
+        } catch (RuntimeException e) {
+            log.error("Could not purge expired idempotency keys", e);
+        }
+    }
+}
@@ -0,0 +1,38 @@
+package com.github.fertkir.moneytransfer.service.impl;
+
+import com.github.fertkir.moneytransfer.entity.Account;
+import com.github.fertkir.moneytransfer.entity.Hold;
+import com.github.fertkir.moneytransfer.service.HoldService;
+import com.github.fertkir.moneytransfer.service.exception.AccountingException;
+
+/**
+ * Rejects every hold, for configurations which can't keep them:
+ * <ul>
+ * <li>shards check withdrawals and transfers against balances in memory, which don't know about held money;</li>
+ * <li>the journal keeps balances only, so the in-memory database restored from it would make held money
+ * available again.</li>
+ * </ul>
+ */
+public class UnsupportedHoldService implements HoldService {
+
+    private final String message;
+
+    public UnsupportedHoldService(String message) {
+        this.message = message;
+    }
+
+    @Override
+    public Hold place(long accountId, long amount, long ttlMillis) {
+        throw new AccountingException(message);
+    }
+
+    @Override
+    public Account capture(long holdId, Long amount) {
+        throw new AccountingException(message);
+    }
+
+    @Override
+    public Account release(long holdId) {
+        throw new AccountingException(message);
+    }
+}
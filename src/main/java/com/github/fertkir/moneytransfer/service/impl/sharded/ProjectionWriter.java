@@ -0,0 +1,89 @@
+package com.github.fertkir.moneytransfer.service.impl.sharded;
+
+import com.github.fertkir.moneytransfer.dao.AccountDao;
+import com.github.fertkir.moneytransfer.dao.LedgerDao;
+import com.github.fertkir.moneytransfer.entity.Account;
+import com.github.fertkir.moneytransfer.entity.LedgerEntry;
+import com.github.fertkir.moneytransfer.persistence.TransactionTemplate;
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Persists the latest balances produced by the shards into the {@code account} table, along with
+ * the ledger entries of the changes. Writes happen on a dedicated thread, so the shards never wait for H2.
+ * <p>
+ * Changes which failed to be written stay pending: they're merged with the ones handed over next, the later
+ * balance of an account replacing the earlier one, and written again with them, or after
+ * {@code retryDelayMillis} if nothing comes in the meantime.
+ */
+@Slf4j
+class ProjectionWriter {
+
+    private final AccountDao accountDao;
+    private final LedgerDao ledgerDao;
+    private final TransactionTemplate transactionTemplate;
+    private final long retryDelayMillis;
+    private final ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "shard-projection");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    // touched only from the executor's thread
+    private Map<Long, Long> pendingBalances = new HashMap<>();
+    private List<LedgerEntry> pendingEntries = new ArrayList<>();
+    private boolean retryScheduled;
+
+    ProjectionWriter(AccountDao accountDao, LedgerDao ledgerDao, TransactionTemplate transactionTemplate,
+                     long retryDelayMillis) {
+        this.accountDao = accountDao;
+        this.ledgerDao = ledgerDao;
+        this.transactionTemplate = transactionTemplate;
+        this.retryDelayMillis = retryDelayMillis;
+    }
+
+    void write(Map<Long, Long> balances, List<LedgerEntry> ledgerEntries) {
+        executor.execute(() -> {
+            pendingBalances.putAll(balances);
+            pendingEntries.addAll(ledgerEntries);
+            flush();
+        });
+    }
+
+    private void flush() {
+        if (pendingBalances.isEmpty()) {
+            return;
+        }
+        Map<Long, Long> balances = pendingBalances;
+        List<LedgerEntry> ledgerEntries = pendingEntries;
+        try {
+            transactionTemplate.execute(() -> {
+                balances.forEach((id, balance) -> accountDao.save(Account.builder()
+                        .id(id)
+                        .balance(balance)
+                        .build()));
+                ledgerDao.insertAll(ledgerEntries);
+                return null;
+            });
+        } catch (RuntimeException e) {
+            log.error("Could not persist {} balances, will try again", balances.size(), e);
+            if (!retryScheduled) {
+                retryScheduled = true;
+                executor.schedule(() -> {
+                    retryScheduled = false;
+                    flush();
+                }, retryDelayMillis, TimeUnit.MILLISECONDS);
+            }
+            return;
+        }
+        pendingBalances = new HashMap<>();
+        pendingEntries = new ArrayList<>();
+    }
+}
@@ -0,0 +1,186 @@
+package com.github.fertkir.moneytransfer.service.impl.sharded;
+
+import com.github.fertkir.moneytransfer.entity.Account;
+import com.github.fertkir.moneytransfer.entity.LedgerEntry;
+import com.github.fertkir.moneytransfer.entity.Money;
+import com.github.fertkir.moneytransfer.entity.TransferResult;
+import com.github.fertkir.moneytransfer.service.exception.AccountingException;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+import static java.lang.String.format;
+
+/**
+ * A partition of accounts owned by exactly one thread. All state is touched only from that thread,
+ * so none of the operations below need locks; callers hand work over via {@link #call(Supplier)}.
+ */
+class Shard {
+
+    private final Map<Long, Long> balances = new HashMap<>();
+    /**
+     * Money on its way to the accounts from other shards, which their balances must still have room for.
+     */
+    private final Map<Long, Long> reservedCredits = new HashMap<>();
+    private Map<Long, Long> dirty = new HashMap<>();
+    private List<LedgerEntry> ledgerEntries = new ArrayList<>();
+
+    private final ScheduledExecutorService executor;
+    private final ProjectionWriter projectionWriter;
+
+    Shard(int index, ProjectionWriter projectionWriter, long flushIntervalMillis) {
+        this.projectionWriter = projectionWriter;
+        this.executor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "shard-" + index);
+            thread.setDaemon(true);
+            return thread;
+        });
+        executor.scheduleWithFixedDelay(this::flush, flushIntervalMillis, flushIntervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Runs the task on the shard's thread and waits for its result, rethrowing whatever the task threw.
+     */
+    <T> T call(Supplier<T> task) {
+        try {
+            return CompletableFuture.supplyAsync(task, executor).join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw e;
+        }
+    }
+
+    // the methods below must only be invoked from the shard's thread
+
+    Account register(Account account) {
+        balances.put(account.getId(), account.getBalance());
+        return account;
+    }
+
+    Account get(long id) {
+        return toAccount(id, balances.get(id));
+    }
+
+    List<Account> snapshot() {
+        List<Account> accounts = new ArrayList<>(balances.size());
+        balances.forEach((id, balance) -> accounts.add(toAccount(id, balance)));
+        return accounts;
+    }
+
+    List<Account> page(long afterId, int limit) {
+        List<Account> accounts = new ArrayList<>();
+        balances.forEach((id, balance) -> {
+            if (id > afterId) {
+                accounts.add(toAccount(id, balance));
+            }
+        });
+        accounts.sort(Comparator.comparing(Account::getId));
+        return accounts.size() > limit ? new ArrayList<>(accounts.subList(0, limit)) : accounts;
+    }
+
+    /**
+     * @param counterpartyId the other account of a transfer, {@code null} for a top up
+     */
+    Account credit(long id, long amount, Long counterpartyId) {
+        checkCanCredit(id, amount, counterpartyId == null ? "top up" : "transfer");
+        LedgerEntry.Type type = counterpartyId == null ? LedgerEntry.Type.TOP_UP : LedgerEntry.Type.TRANSFER;
+        return update(id, amount, type, counterpartyId);
+    }
+
+    /**
+     * @param counterpartyId the other account of a transfer, {@code null} for a withdrawal
+     */
+    Account debit(long id, long amount, Long counterpartyId) {
+        if (balances.get(id) < amount) {
+            String operation = counterpartyId == null ? "withdraw" : "transfer";
+            throw new AccountingException(format("Cannot %s %s. Not enough money", operation, Money.format(amount)));
+        }
+        LedgerEntry.Type type = counterpartyId == null ? LedgerEntry.Type.WITHDRAWAL : LedgerEntry.Type.TRANSFER;
+        return update(id, -amount, type, counterpartyId);
+    }
+
+    /**
+     * Makes room for a transfer from another shard, so that crediting it with
+     * {@link #creditReserved(long, long, long)} can't fail once the money has been debited there.
+     */
+    Void reserveCredit(long id, long amount) {
+        checkCanCredit(id, amount, "transfer");
+        reservedCredits.merge(id, amount, Long::sum);
+        return null;
+    }
+
+    /**
+     * Gives up the room made by {@link #reserveCredit(long, long)} when the debit has failed.
+     */
+    Void releaseCredit(long id, long amount) {
+        reservedCredits.computeIfPresent(id, (key, reserved) -> reserved == amount ? null : reserved - amount);
+        return null;
+    }
+
+    Account creditReserved(long id, long amount, long counterpartyId) {
+        releaseCredit(id, amount);
+        return update(id, amount, LedgerEntry.Type.TRANSFER, counterpartyId);
+    }
+
+    /**
+     * A transfer between two accounts of this shard, either applied in full or not at all.
+     */
+    TransferResult transfer(long from, long to, long amount) {
+        checkCanCredit(to, amount, "transfer");
+        return TransferResult.builder()
+                .source(debit(from, amount, to))
+                .target(credit(to, amount, from))
+                .build();
+    }
+
+    private void checkCanCredit(long id, long amount, String operation) {
+        if (balances.get(id) + reservedCredits.getOrDefault(id, 0L) > Long.MAX_VALUE - amount) {
+            throw new AccountingException(format("Cannot %s %s. Balance would be too large",
+                    operation, Money.format(amount)));
+        }
+    }
+
+    private Account update(long id, long delta, LedgerEntry.Type type, Long counterpartyId) {
+        long newBalance = balances.get(id) + delta;
+        balances.put(id, newBalance);
+        dirty.put(id, newBalance);
+        ledgerEntries.add(LedgerEntry.builder()
+                .accountId(id)
+                .type(type)
+                .amount(delta)
+                .balance(newBalance)
+                .counterpartyId(counterpartyId)
+                .createdAt(System.currentTimeMillis())
+                .build());
+        return toAccount(id, newBalance);
+    }
+
+    private void flush() {
+        if (dirty.isEmpty()) {
+            return;
+        }
+        Map<Long, Long> changes = dirty;
+        List<LedgerEntry> entries = ledgerEntries;
+        dirty = new HashMap<>();
+        ledgerEntries = new ArrayList<>();
+        projectionWriter.write(changes, entries);
+    }
+
+    private static Account toAccount(long id, long balance) {
+        return Account.builder()
+                .id(id)
+                .balance(balance)
+                .build();
+    }
+}
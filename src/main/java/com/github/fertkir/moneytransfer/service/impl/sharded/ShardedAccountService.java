@@ -0,0 +1,254 @@
+package com.github.fertkir.moneytransfer.service.impl.sharded;
+
+import com.github.fertkir.moneytransfer.dao.AccountDao;
+import com.github.fertkir.moneytransfer.dao.LedgerDao;
+import com.github.fertkir.moneytransfer.entity.Account;
+import com.github.fertkir.moneytransfer.entity.BatchTransferResult;
+import com.github.fertkir.moneytransfer.entity.LedgerEntry;
+import com.github.fertkir.moneytransfer.entity.Money;
+import com.github.fertkir.moneytransfer.entity.TransferRequest;
+import com.github.fertkir.moneytransfer.entity.TransferResult;
+import com.github.fertkir.moneytransfer.persistence.TransactionTemplate;
+import com.github.fertkir.moneytransfer.service.AccountService;
+import com.github.fertkir.moneytransfer.service.exception.AccountingException;
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import com.google.inject.name.Named;
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
+
+import static java.lang.String.format;
+
+/**
+ * {@link AccountService} keeping balances in memory, partitioned across single-writer {@link Shard}s.
+ * <p>
+ * Account creation still goes through H2 synchronously (ids come from {@code account_seq}); every balance
+ * change is applied in memory and persisted to the {@code account} table asynchronously by {@link ProjectionWriter}.
+ * <p>
+ * A cross-shard transfer is three single-shard steps executed in a fixed order: room for the credit is reserved
+ * on the target shard, which rejects a transfer the target's balance would overflow with, then the source shard
+ * debits and the target shard credits. Both accounts are checked for existence up front and accounts are never
+ * deleted, so once the debit succeeds the credit cannot fail and no compensation is ever needed; a failed debit
+ * only gives up the reservation. No step waits for two shards at once, hence there is nothing to deadlock on.
+ */
+@Slf4j
+@Singleton
+public class ShardedAccountService implements AccountService {
+
+    private final AccountDao accountDao;
+    private final LedgerDao ledgerDao;
+    private final TransactionTemplate transactionTemplate;
+    private final Shard[] shards;
+    private final Set<Long> accountIds = ConcurrentHashMap.newKeySet();
+
+    @Inject
+    public ShardedAccountService(AccountDao accountDao,
+                                 LedgerDao ledgerDao,
+                                 TransactionTemplate transactionTemplate,
+                                 @Named("service.sharded.shards") int shardCount,
+                                 @Named("service.sharded.flushIntervalMillis") long flushIntervalMillis) {
+        this.accountDao = accountDao;
+        this.ledgerDao = ledgerDao;
+        this.transactionTemplate = transactionTemplate;
+        ProjectionWriter projectionWriter = new ProjectionWriter(accountDao, ledgerDao, transactionTemplate,
+                flushIntervalMillis);
+        this.shards = new Shard[shardCount];
+        for (int i = 0; i < shardCount; i++) {
+            shards[i] = new Shard(i, projectionWriter, flushIntervalMillis);
+        }
+        List<Account> accounts = transactionTemplate.execute(accountDao::findAll);
+        accounts.forEach(this::register);
+        log.info("Loaded {} accounts into {} shards", accounts.size(), shardCount);
+    }
+
+    @Override
+    public List<Account> list() {
+        log.info("Requested list of accounts");
+        List<Account> accounts = new ArrayList<>(accountIds.size());
+        for (Shard shard : shards) {
+            accounts.addAll(shard.call(shard::snapshot));
+        }
+        accounts.sort(Comparator.comparing(Account::getId));
+        return accounts;
+    }
+
+    @Override
+    public List<Account> list(long afterId, int limit) {
+        log.info("Requested {} accounts after id {}", limit, afterId);
+        List<Account> accounts = new ArrayList<>();
+        for (Shard shard : shards) {
+            accounts.addAll(shard.call(() -> shard.page(afterId, limit)));
+        }
+        accounts.sort(Comparator.comparing(Account::getId));
+        return accounts.size() > limit ? new ArrayList<>(accounts.subList(0, limit)) : accounts;
+    }
+
+    /**
+     * Unlike the JDBC engine this isn't a point-in-time snapshot: shards are copied one after another.
+     */
+    @Override
+    public void exportAll(Consumer<? super Account> consumer) {
+        log.info("Requested export of accounts");
+        list().forEach(consumer);
+    }
+
+    @Override
+    public Account getById(long id) {
+        log.info("Requested account by id: {}", id);
+        checkExists(id);
+        Shard shard = shardOf(id);
+        Account account = shard.call(() -> shard.get(id));
+        log.info("Returning account: {}", account);
+        return account;
+    }
+
+    @Override
+    public Account createNew() {
+        log.info("Requested account creation");
+        Account account = register(transactionTemplate.execute(() ->
+                accountDao.save(Account.builder()
+                        .balance(0)
+                        .build())));
+        log.info("Created new account: {}", account);
+        return account;
+    }
+
+    @Override
+    public List<Account> createNew(int count) {
+        List<Account> accounts = transactionTemplate.execute(() -> accountDao.createAll(count));
+        accounts.forEach(this::register);
+        log.info("Created {} new accounts", accounts.size());
+        return accounts;
+    }
+
+    @Override
+    public Account topUp(long accountId, long amount) {
+        log.info("Requested top up of amount {} on account id {}", Money.format(amount), accountId);
+        validateAmount(amount);
+        checkExists(accountId);
+        Shard shard = shardOf(accountId);
+        Account result = shard.call(() -> shard.credit(accountId, amount, null));
+        log.info("Account data after top up: {}", result);
+        return result;
+    }
+
+    @Override
+    public Account withdraw(long accountId, long amount) {
+        log.info("Requested withdrawal of amount {} from account id {}", Money.format(amount), accountId);
+        validateAmount(amount);
+        checkExists(accountId);
+        Shard shard = shardOf(accountId);
+        Account result = shard.call(() -> shard.debit(accountId, amount, null));
+        log.info("Account data after withdrawal: {}", result);
+        return result;
+    }
+
+    @Override
+    public TransferResult transfer(long accountFrom, long accountTo, long amount) {
+        log.info("Requested transfer of amount {} from account {} to account {}",
+                Money.format(amount), accountFrom, accountTo);
+        validateAmount(amount);
+        if (accountFrom == accountTo) {
+            throw new AccountingException("Source and destination accounts must be different");
+        }
+        checkExists(accountFrom);
+        checkExists(accountTo);
+
+        Shard source = shardOf(accountFrom);
+        Shard target = shardOf(accountTo);
+        TransferResult transferResult;
+        if (source == target) {
+            transferResult = source.call(() -> source.transfer(accountFrom, accountTo, amount));
+        } else {
+            target.call(() -> target.reserveCredit(accountTo, amount));
+            Account debited;
+            try {
+                debited = source.call(() -> source.debit(accountFrom, amount, accountTo));
+            } catch (RuntimeException e) {
+                target.call(() -> target.releaseCredit(accountTo, amount));
+                throw e;
+            }
+            Account credited = target.call(() -> target.creditReserved(accountTo, amount, accountFrom));
+            transferResult = TransferResult.builder()
+                    .source(debited)
+                    .target(credited)
+                    .build();
+        }
+        log.info("Result of transfer: {}", transferResult);
+        return transferResult;
+    }
+
+    /**
+     * Shards don't share a transaction, so only best-effort batches are supported: each transfer runs
+     * exactly like a standalone one.
+     */
+    @Override
+    public BatchTransferResult transferBatch(List<TransferRequest> transfers, boolean atomic) {
+        log.info("Requested batch of {} transfers, atomic: {}", transfers.size(), atomic);
+        if (atomic) {
+            throw new AccountingException("Atomic batch transfers are not supported by the sharded engine");
+        }
+        List<BatchTransferResult.Item> items = new ArrayList<>(transfers.size());
+        for (int i = 0; i < transfers.size(); i++) {
+            TransferRequest transfer = transfers.get(i);
+            BatchTransferResult.Item.ItemBuilder item = BatchTransferResult.Item.builder().index(i);
+            try {
+                if (transfer.getFrom() == null || transfer.getTo() == null || transfer.getAmount() == null) {
+                    throw new AccountingException("Transfer must have from, to and amount");
+                }
+                item.status(BatchTransferResult.Status.APPLIED)
+                        .result(transfer(transfer.getFrom(), transfer.getTo(), transfer.getAmount()));
+            } catch (AccountingException e) {
+                item.status(BatchTransferResult.Status.FAILED)
+                        .message(e.getMessage());
+            }
+            items.add(item.build());
+        }
+        return BatchTransferResult.builder()
+                .committed(true)
+                .items(items)
+                .build();
+    }
+
+    /**
+     * Ledger entries are persisted together with the balances, so the history lags behind
+     * by up to {@code service.sharded.flushIntervalMillis}.
+     */
+    @Override
+    public List<LedgerEntry> history(long accountId, long from, long to, long afterSeq, int limit) {
+        log.info("Requested {} ledger entries of account {} after seq {} within [{}, {})",
+                limit, accountId, afterSeq, from, to);
+        checkExists(accountId);
+        return transactionTemplate.execute(() -> ledgerDao.findByAccount(accountId, from, to, afterSeq, limit));
+    }
+
+    private Account register(Account account) {
+        Shard shard = shardOf(account.getId());
+        shard.call(() -> shard.register(account));
+        accountIds.add(account.getId());
+        return account;
+    }
+
+    private Shard shardOf(long accountId) {
+        return shards[(int) Math.floorMod(accountId, (long) shards.length)];
+    }
+
+    private void checkExists(long accountId) {
+        if (!accountIds.contains(accountId)) {
+            throw new AccountingException(format("Account id \"%d\" does not exist", accountId));
+        }
+    }
+
+    private void validateAmount(long amount) {
+        if (amount > 0) {
+            return;
+        }
+        throw new AccountingException(format("Amount must be positive, but given %s", Money.format(amount)));
+    }
+}
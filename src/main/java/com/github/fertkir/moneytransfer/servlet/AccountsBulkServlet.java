@@ -0,0 +1,75 @@
+package com.github.fertkir.moneytransfer.servlet;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.github.fertkir.moneytransfer.entity.Account;
+import com.github.fertkir.moneytransfer.service.AccountService;
+import com.github.fertkir.moneytransfer.service.exception.AccountingException;
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import com.google.inject.name.Named;
+
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.util.List;
+
+import static com.github.fertkir.moneytransfer.servlet.AppServletModule.AccountsParameters.COUNT;
+import static com.github.fertkir.moneytransfer.servlet.AppServletModule.CONTENT_TYPE;
+import static java.lang.String.format;
+
+/**
+ * Creates accounts in transactions of up to {@code service.bulk.chunkSize} of them, writing the ids of every
+ * chunk to the response as soon as it's committed, so neither memory use nor the size of a transaction depends
+ * on the number of accounts.
+ */
+@Singleton
+public class AccountsBulkServlet extends HttpServlet {
+
+    private final AccountService accountService;
+    private final ObjectMapper objectMapper;
+    private final int maxCount;
+    private final int chunkSize;
+
+    @Inject
+    public AccountsBulkServlet(AccountService accountService, ObjectMapper objectMapper,
+                               @Named("service.bulk.maxCount") int maxCount,
+                               @Named("service.bulk.chunkSize") int chunkSize) {
+        this.accountService = accountService;
+        this.objectMapper = objectMapper;
+        this.maxCount = maxCount;
+        this.chunkSize = chunkSize;
+    }
+
+    @Override
+    protected void doPost(HttpServletRequest req, HttpServletResponse resp) throws IOException {
+        int count = Integer.parseInt(req.getParameter(COUNT));
+        if (count < 1 || count > maxCount) {
+            throw new AccountingException(format("Count must be between 1 and %d, but given %d", maxCount, count));
+        }
+        // the first chunk is created before the response is committed, so that its failure still gets an error
+        int created = Math.min(chunkSize, count);
+        List<Account> chunk = accountService.createNew(created);
+        resp.setStatus(HttpServletResponse.SC_CREATED);
+        resp.setContentType(CONTENT_TYPE);
+        try (JsonGenerator generator = objectMapper.getFactory().createGenerator(resp.getOutputStream())) {
+            // a chunk failing leaves the array unterminated, so that the ids can't be taken for all of them
+            generator.disable(JsonGenerator.Feature.AUTO_CLOSE_JSON_CONTENT);
+            generator.writeStartArray();
+            while (true) {
+                for (Account account : chunk) {
+                    generator.writeNumber(account.getId());
+                }
+                generator.flush();
+                if (created == count) {
+                    break;
+                }
+                int size = Math.min(chunkSize, count - created);
+                chunk = accountService.createNew(size);
+                created += size;
+            }
+            generator.writeEndArray();
+        }
+    }
+}
@@ -1,27 +1,25 @@
 package com.github.fertkir.moneytransfer.servlet;
 
-import com.fasterxml.jackson.databind.ObjectMapper;
 import com.github.fertkir.moneytransfer.persistence.PersistenceException;
 import com.github.fertkir.moneytransfer.service.exception.AccountingException;
 import com.google.inject.Inject;
 import com.google.inject.Singleton;
-import lombok.Builder;
-import lombok.Data;
 
 import javax.servlet.*;
+import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 import java.io.IOException;
 
-import static com.github.fertkir.moneytransfer.servlet.AppServletModule.CONTENT_TYPE;
-
 @Singleton
 public class AccountsExceptionHandler implements Filter {
 
-    private final ObjectMapper objectMapper;
+    private final JsonResponseWriter responseWriter;
+    private final RequestStatistics statistics;
 
     @Inject
-    public AccountsExceptionHandler(ObjectMapper objectMapper) {
-        this.objectMapper = objectMapper;
+    public AccountsExceptionHandler(JsonResponseWriter responseWriter, RequestStatistics statistics) {
+        this.responseWriter = responseWriter;
+        this.statistics = statistics;
     }
 
     @Override
@@ -33,35 +31,42 @@ public class AccountsExceptionHandler implements Filter {
     public void doFilter(ServletRequest request, ServletResponse response, FilterChain chain) throws IOException, ServletException {
         try {
             chain.doFilter(request, response);
-        } catch (AccountingException e) {
-            handle(e.getMessage(), response);
-        } catch (PersistenceException e) {
-            if (e.getCause() instanceof AccountingException) {
-                handle(e.getCause().getMessage(), response);
-            } else {
+        } catch (AccountingException | PersistenceException e) {
+            String message = getAccountingMessage(e);
+            if (message == null) {
                 throw e;
             }
+            HttpServletResponse resp = (HttpServletResponse) response;
+            resp.setStatus(HttpServletResponse.SC_CONFLICT);
+            responseWriter.write(resp, reject((HttpServletRequest) request, message));
         }
     }
 
-    private void handle(String message, ServletResponse response) throws IOException {
-        HttpServletResponse resp = (HttpServletResponse) response;
-        resp.setContentType(CONTENT_TYPE);
-        resp.setStatus(HttpServletResponse.SC_CONFLICT);
-        resp.getWriter().println(objectMapper.writeValueAsString(
-                ExceptionResponse.builder()
-                        .message(message)
-                        .build()));
+    /**
+     * @return message of the accounting rule the failure is caused by, or null if it's caused by something else
+     */
+    static String getAccountingMessage(Throwable e) {
+        if (e instanceof AccountingException) {
+            return e.getMessage();
+        }
+        if (e instanceof PersistenceException && e.getCause() instanceof AccountingException) {
+            return e.getCause().getMessage();
+        }
+        return null;
+    }
+
+    /**
+     * Counts the request as rejected by accounting rules.
+     *
+     * @return body of the response telling why
+     */
+    byte[] reject(HttpServletRequest request, String message) {
+        statistics.recordAccountingException(request.getRequestURI());
+        return responseWriter.error(message);
     }
 
     @Override
     public void destroy() {
         // no implementation
     }
-
-    @Data
-    @Builder
-    private static class ExceptionResponse {
-        private final String message;
-    }
 }
@@ -0,0 +1,68 @@
+package com.github.fertkir.moneytransfer.servlet;
+
+import com.github.fertkir.moneytransfer.service.AccountService;
+import com.github.fertkir.moneytransfer.service.exception.AccountingException;
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import com.google.inject.name.Named;
+
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+
+import static com.github.fertkir.moneytransfer.servlet.AppServletModule.AccountsParameters.ACCOUNT_ID;
+import static com.github.fertkir.moneytransfer.servlet.AppServletModule.AccountsParameters.AFTER_SEQ;
+import static com.github.fertkir.moneytransfer.servlet.AppServletModule.AccountsParameters.FROM;
+import static com.github.fertkir.moneytransfer.servlet.AppServletModule.AccountsParameters.LIMIT;
+import static com.github.fertkir.moneytransfer.servlet.AppServletModule.AccountsParameters.TO;
+import static java.lang.String.format;
+
+@Singleton
+public class AccountsHistoryServlet extends HttpServlet {
+
+    private final AccountService accountService;
+    private final int defaultPageSize;
+    private final int maxPageSize;
+    private final JsonResponseWriter responseWriter;
+    private final AsyncRequests asyncRequests;
+
+    @Inject
+    public AccountsHistoryServlet(AccountService accountService,
+                                  @Named("service.page.defaultSize") int defaultPageSize,
+                                  @Named("service.page.maxSize") int maxPageSize,
+                                  JsonResponseWriter responseWriter, AsyncRequests asyncRequests) {
+        this.accountService = accountService;
+        this.defaultPageSize = defaultPageSize;
+        this.maxPageSize = maxPageSize;
+        this.responseWriter = responseWriter;
+        this.asyncRequests = asyncRequests;
+    }
+
+    @Override
+    protected void doGet(HttpServletRequest req, HttpServletResponse resp) throws IOException {
+        long accountId = Long.parseLong(req.getParameter(ACCOUNT_ID));
+        long from = parseLong(req.getParameter(FROM), 0);
+        long to = parseLong(req.getParameter(TO), Long.MAX_VALUE);
+        long afterSeq = parseLong(req.getParameter(AFTER_SEQ), 0);
+        int limit = parseLimit(req.getParameter(LIMIT));
+
+        asyncRequests.execute(req, resp, () ->
+                responseWriter.ledgerEntries(accountService.history(accountId, from, to, afterSeq, limit)));
+    }
+
+    private int parseLimit(String limitParam) {
+        if (limitParam == null) {
+            return defaultPageSize;
+        }
+        int limit = Integer.parseInt(limitParam);
+        if (limit < 1 || limit > maxPageSize) {
+            throw new AccountingException(format("Limit must be between 1 and %d, but given %d", maxPageSize, limit));
+        }
+        return limit;
+    }
+
+    private static long parseLong(String param, long defaultValue) {
+        return param == null ? defaultValue : Long.parseLong(param);
+    }
+}
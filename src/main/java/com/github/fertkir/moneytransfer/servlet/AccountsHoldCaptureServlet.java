@@ -0,0 +1,45 @@
+package com.github.fertkir.moneytransfer.servlet;
+
+import com.github.fertkir.moneytransfer.entity.Money;
+import com.github.fertkir.moneytransfer.service.HoldService;
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+
+import static com.github.fertkir.moneytransfer.servlet.AppServletModule.AccountsParameters.AMOUNT;
+import static com.github.fertkir.moneytransfer.servlet.AppServletModule.AccountsParameters.HOLD_ID;
+
+/**
+ * Captures the given amount of the hold, or all of it if there's no amount.
+ */
+@Singleton
+public class AccountsHoldCaptureServlet extends HttpServlet {
+
+    private final HoldService holdService;
+    private final IdempotentRequests idempotentRequests;
+    private final JsonResponseWriter responseWriter;
+    private final AsyncRequests asyncRequests;
+
+    @Inject
+    public AccountsHoldCaptureServlet(HoldService holdService, IdempotentRequests idempotentRequests,
+                                      JsonResponseWriter responseWriter, AsyncRequests asyncRequests) {
+        this.holdService = holdService;
+        this.idempotentRequests = idempotentRequests;
+        this.responseWriter = responseWriter;
+        this.asyncRequests = asyncRequests;
+    }
+
+    @Override
+    protected void doPut(HttpServletRequest req, HttpServletResponse resp) throws IOException {
+        long holdId = Long.parseLong(req.getParameter(HOLD_ID));
+        String amountParam = req.getParameter(AMOUNT);
+        Long amount = amountParam != null ? Money.parse(amountParam) : null;
+
+        asyncRequests.execute(req, resp, () -> idempotentRequests.execute(req,
+                () -> holdService.capture(holdId, amount), responseWriter::account));
+    }
+}
@@ -0,0 +1,48 @@
+package com.github.fertkir.moneytransfer.servlet;
+
+import com.github.fertkir.moneytransfer.entity.Hold;
+import com.github.fertkir.moneytransfer.entity.Money;
+import com.github.fertkir.moneytransfer.service.HoldService;
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+
+import static com.github.fertkir.moneytransfer.servlet.AppServletModule.AccountsParameters.ACCOUNT_ID;
+import static com.github.fertkir.moneytransfer.servlet.AppServletModule.AccountsParameters.AMOUNT;
+import static com.github.fertkir.moneytransfer.servlet.AppServletModule.AccountsParameters.TTL_MILLIS;
+
+@Singleton
+public class AccountsHoldsServlet extends HttpServlet {
+
+    private final HoldService holdService;
+    private final IdempotentRequests idempotentRequests;
+    private final JsonResponseWriter responseWriter;
+    private final AsyncRequests asyncRequests;
+
+    @Inject
+    public AccountsHoldsServlet(HoldService holdService, IdempotentRequests idempotentRequests,
+                                JsonResponseWriter responseWriter, AsyncRequests asyncRequests) {
+        this.holdService = holdService;
+        this.idempotentRequests = idempotentRequests;
+        this.responseWriter = responseWriter;
+        this.asyncRequests = asyncRequests;
+    }
+
+    @Override
+    protected void doPost(HttpServletRequest req, HttpServletResponse resp) throws IOException {
+        long accountId = Long.parseLong(req.getParameter(ACCOUNT_ID));
+        long amount = Money.parse(req.getParameter(AMOUNT));
+        long ttlMillis = Long.parseLong(req.getParameter(TTL_MILLIS));
+
+        asyncRequests.execute(req, resp, () -> {
+            byte[] body = idempotentRequests.execute(req,
+                    () -> holdService.place(accountId, amount, ttlMillis), responseWriter::hold);
+            resp.setStatus(HttpServletResponse.SC_CREATED);
+            return body;
+        });
+    }
+}
@@ -1,55 +1,177 @@
 package com.github.fertkir.moneytransfer.servlet;
 
+import com.fasterxml.jackson.core.JsonGenerator;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.github.fertkir.moneytransfer.entity.Account;
+import com.github.fertkir.moneytransfer.readmodel.BalanceView;
+import com.github.fertkir.moneytransfer.readmodel.ViewRead;
 import com.github.fertkir.moneytransfer.service.AccountService;
+import com.github.fertkir.moneytransfer.service.exception.AccountingException;
 import com.google.inject.Inject;
 import com.google.inject.Singleton;
+import com.google.inject.name.Named;
 
 import javax.servlet.http.HttpServlet;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.util.List;
+import java.util.Optional;
 
 import static com.github.fertkir.moneytransfer.servlet.AppServletModule.AccountsParameters.ACCOUNT_ID;
+import static com.github.fertkir.moneytransfer.servlet.AppServletModule.AccountsParameters.AFTER_ID;
+import static com.github.fertkir.moneytransfer.servlet.AppServletModule.AccountsParameters.CONSISTENCY;
+import static com.github.fertkir.moneytransfer.servlet.AppServletModule.AccountsParameters.LIMIT;
 import static com.github.fertkir.moneytransfer.servlet.AppServletModule.CONTENT_TYPE;
+import static java.lang.String.format;
 
+/**
+ * Single accounts and pages of them are read from {@link BalanceView} when it can serve them, right on the request
+ * thread, and from the database otherwise or when {@code consistency=strong} asks for the writes made so far.
+ * Either way, {@code X-Staleness-Millis} tells how long a change may have been committed without being reflected
+ * in the response.
+ */
 @Singleton
 public class AccountsServlet extends HttpServlet {
 
+    public static final String CONSISTENCY_BOUNDED = "bounded";
+    public static final String CONSISTENCY_STRONG = "strong";
+    public static final String STALENESS = "X-Staleness-Millis";
+
+    private static final String ETAG = "ETag";
+    private static final String IF_NONE_MATCH = "If-None-Match";
+
     private final AccountService accountService;
     private final ObjectMapper objectMapper;
+    private final int defaultPageSize;
+    private final int maxPageSize;
+    private final JsonResponseWriter responseWriter;
+    private final AsyncRequests asyncRequests;
+    private final BalanceView balanceView;
 
     @Inject
-    public AccountsServlet(AccountService accountService, ObjectMapper objectMapper) {
+    public AccountsServlet(AccountService accountService, ObjectMapper objectMapper,
+                           @Named("service.page.defaultSize") int defaultPageSize,
+                           @Named("service.page.maxSize") int maxPageSize,
+                           JsonResponseWriter responseWriter, AsyncRequests asyncRequests, BalanceView balanceView) {
         this.accountService = accountService;
         this.objectMapper = objectMapper;
+        this.defaultPageSize = defaultPageSize;
+        this.maxPageSize = maxPageSize;
+        this.responseWriter = responseWriter;
+        this.asyncRequests = asyncRequests;
+        this.balanceView = balanceView;
     }
 
     @Override
     protected void doGet(HttpServletRequest req, HttpServletResponse resp) throws IOException {
         String accountIdParam = req.getParameter(ACCOUNT_ID);
-        String responseValue;
+        String afterIdParam = req.getParameter(AFTER_ID);
+        String limitParam = req.getParameter(LIMIT);
+        if (accountIdParam == null && afterIdParam == null && limitParam == null) {
+            exportAll(resp);
+            return;
+        }
+        boolean strong = isStrong(req.getParameter(CONSISTENCY));
         if (accountIdParam == null) {
-            List<Account> accounts = accountService.list();
-            responseValue = objectMapper.writeValueAsString(accounts);
-        } else {
-            long accountId = Long.parseLong(accountIdParam);
-            Account account = accountService.getById(accountId);
-            responseValue = objectMapper.writeValueAsString(account);
+            long afterId = afterIdParam == null ? 0 : Long.parseLong(afterIdParam);
+            int limit = parseLimit(limitParam);
+            Optional<ViewRead<List<Account>>> page = strong ? Optional.empty() : balanceView.list(afterId, limit);
+            if (page.isPresent()) {
+                resp.setHeader(STALENESS, String.valueOf(page.get().getStalenessMillis()));
+                responseWriter.write(resp, responseWriter.accounts(page.get().getValue()));
+                return;
+            }
+            asyncRequests.execute(req, resp, () -> {
+                resp.setHeader(STALENESS, "0");
+                return responseWriter.accounts(accountService.list(afterId, limit));
+            });
+            return;
         }
-        resp.setStatus(HttpServletResponse.SC_OK);
-        resp.setContentType(CONTENT_TYPE);
-        resp.getWriter().println(responseValue);
+        long accountId = Long.parseLong(accountIdParam);
+        String ifNoneMatch = req.getHeader(IF_NONE_MATCH);
+        // an account missing from the view may have just been created, and the database tells if it doesn't exist
+        Optional<ViewRead<Account>> account = strong ? Optional.empty() : balanceView.getById(accountId);
+        if (account.isPresent()) {
+            resp.setHeader(STALENESS, String.valueOf(account.get().getStalenessMillis()));
+            byte[] body = respond(resp, account.get().getValue(), ifNoneMatch);
+            if (body != null) {
+                responseWriter.write(resp, body);
+            }
+            return;
+        }
+        asyncRequests.execute(req, resp, () -> {
+            resp.setHeader(STALENESS, "0");
+            return respond(resp, accountService.getById(accountId), ifNoneMatch);
+        });
     }
 
     @Override
     protected void doPost(HttpServletRequest req, HttpServletResponse resp) throws IOException {
-        Account result = accountService.createNew();
+        asyncRequests.execute(req, resp, () -> {
+            Account result = accountService.createNew();
+            resp.setStatus(HttpServletResponse.SC_CREATED);
+            return responseWriter.account(result);
+        });
+    }
 
+    /**
+     * Writes accounts to the response as they are read from the database, so memory use doesn't depend on
+     * the number of accounts. The response is committed by the time the first accounts are flushed.
+     */
+    private void exportAll(HttpServletResponse resp) throws IOException {
+        resp.setStatus(HttpServletResponse.SC_OK);
         resp.setContentType(CONTENT_TYPE);
-        resp.setStatus(HttpServletResponse.SC_CREATED);
-        resp.getWriter().println(objectMapper.writeValueAsString(result));
+        try (JsonGenerator generator = objectMapper.getFactory().createGenerator(resp.getOutputStream())) {
+            // a failed read leaves the array unterminated, so that a partial export can't be taken for a whole one
+            generator.disable(JsonGenerator.Feature.AUTO_CLOSE_JSON_CONTENT);
+            generator.writeStartArray();
+            accountService.exportAll(account -> {
+                try {
+                    generator.writeObject(account);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+            generator.writeEndArray();
+        }
+    }
+
+    /**
+     * @return the body, or null if the client has the current version already
+     */
+    private byte[] respond(HttpServletResponse resp, Account account, String ifNoneMatch) {
+        if (account.getVersion() != null) {
+            String eTag = format("\"%d\"", account.getVersion());
+            resp.setHeader(ETAG, eTag);
+            if (eTag.equals(ifNoneMatch)) {
+                resp.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+                return null;
+            }
+        }
+        return responseWriter.account(account);
+    }
+
+    private static boolean isStrong(String consistency) {
+        if (consistency == null || CONSISTENCY_BOUNDED.equals(consistency)) {
+            return false;
+        }
+        if (CONSISTENCY_STRONG.equals(consistency)) {
+            return true;
+        }
+        throw new AccountingException(format("Unknown consistency \"%s\", expected %s or %s", consistency,
+                CONSISTENCY_BOUNDED, CONSISTENCY_STRONG));
+    }
+
+    private int parseLimit(String limitParam) {
+        if (limitParam == null) {
+            return defaultPageSize;
+        }
+        int limit = Integer.parseInt(limitParam);
+        if (limit < 1 || limit > maxPageSize) {
+            throw new AccountingException(format("Limit must be between 1 and %d, but given %d", maxPageSize, limit));
+        }
+        return limit;
     }
 }
@@ -0,0 +1,88 @@
+package com.github.fertkir.moneytransfer.servlet;
+
+import com.fasterxml.jackson.databind.MappingIterator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.github.fertkir.moneytransfer.entity.BatchTransferResult;
+import com.github.fertkir.moneytransfer.entity.TransferRequest;
+import com.github.fertkir.moneytransfer.service.AccountService;
+import com.github.fertkir.moneytransfer.service.exception.AccountingException;
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import com.google.inject.name.Named;
+
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import static com.github.fertkir.moneytransfer.servlet.AppServletModule.AccountsParameters.MODE;
+import static java.lang.String.format;
+
+/**
+ * Accepts either a JSON array of transfers or a stream of them (e.g. newline-delimited JSON).
+ */
+@Singleton
+public class AccountsTransferBatchServlet extends HttpServlet {
+
+    public static final String MODE_ATOMIC = "atomic";
+    public static final String MODE_BEST_EFFORT = "best-effort";
+
+    private final AccountService accountService;
+    private final ObjectReader transferReader;
+    private final int maxBatchSize;
+    private final JsonResponseWriter responseWriter;
+    private final AsyncRequests asyncRequests;
+
+    @Inject
+    public AccountsTransferBatchServlet(AccountService accountService, ObjectMapper objectMapper,
+                                        @Named("service.batch.maxSize") int maxBatchSize,
+                                        JsonResponseWriter responseWriter, AsyncRequests asyncRequests) {
+        this.accountService = accountService;
+        this.transferReader = objectMapper.readerFor(TransferRequest.class);
+        this.maxBatchSize = maxBatchSize;
+        this.responseWriter = responseWriter;
+        this.asyncRequests = asyncRequests;
+    }
+
+    @Override
+    protected void doPost(HttpServletRequest req, HttpServletResponse resp) throws IOException {
+        boolean atomic = isAtomic(req.getParameter(MODE));
+        List<TransferRequest> transfers = readTransfers(req);
+
+        asyncRequests.execute(req, resp, () -> {
+            BatchTransferResult result = accountService.transferBatch(transfers, atomic);
+            byte[] response = responseWriter.batchTransferResult(result);
+            if (!result.isCommitted()) {
+                resp.setStatus(HttpServletResponse.SC_CONFLICT);
+            }
+            return response;
+        });
+    }
+
+    private List<TransferRequest> readTransfers(HttpServletRequest req) throws IOException {
+        List<TransferRequest> transfers = new ArrayList<>();
+        // a root-level array is unwrapped by the iterator, so arrays and streams of objects are read the same way
+        try (MappingIterator<TransferRequest> iterator = transferReader.readValues(req.getInputStream())) {
+            while (iterator.hasNextValue()) {
+                if (transfers.size() == maxBatchSize) {
+                    throw new AccountingException(format("Batch must not contain more than %d transfers", maxBatchSize));
+                }
+                transfers.add(iterator.nextValue());
+            }
+        }
+        return transfers;
+    }
+
+    private static boolean isAtomic(String mode) {
+        if (mode == null || MODE_ATOMIC.equals(mode)) {
+            return true;
+        }
+        if (MODE_BEST_EFFORT.equals(mode)) {
+            return false;
+        }
+        throw new AccountingException(format("Unknown mode \"%s\", expected %s or %s", mode, MODE_ATOMIC, MODE_BEST_EFFORT));
+    }
+}
@@ -1,7 +1,6 @@
 package com.github.fertkir.moneytransfer.servlet;
 
-import com.fasterxml.jackson.databind.ObjectMapper;
-import com.github.fertkir.moneytransfer.entity.TransferResult;
+import com.github.fertkir.moneytransfer.entity.Money;
 import com.github.fertkir.moneytransfer.service.AccountService;
 import com.google.inject.Inject;
 import com.google.inject.Singleton;
@@ -10,21 +9,24 @@ import javax.servlet.http.HttpServlet;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 import java.io.IOException;
-import java.math.BigDecimal;
 
 import static com.github.fertkir.moneytransfer.servlet.AppServletModule.AccountsParameters.*;
-import static com.github.fertkir.moneytransfer.servlet.AppServletModule.CONTENT_TYPE;
 
 @Singleton
 public class AccountsTransferServlet extends HttpServlet {
 
     private final AccountService accountService;
-    private final ObjectMapper objectMapper;
+    private final IdempotentRequests idempotentRequests;
+    private final JsonResponseWriter responseWriter;
+    private final AsyncRequests asyncRequests;
 
     @Inject
-    public AccountsTransferServlet(AccountService accountService, ObjectMapper objectMapper) {
+    public AccountsTransferServlet(AccountService accountService, IdempotentRequests idempotentRequests,
+                                   JsonResponseWriter responseWriter, AsyncRequests asyncRequests) {
         this.accountService = accountService;
-        this.objectMapper = objectMapper;
+        this.idempotentRequests = idempotentRequests;
+        this.responseWriter = responseWriter;
+        this.asyncRequests = asyncRequests;
     }
 
     @Override
@@ -32,12 +34,9 @@ public class AccountsTransferServlet extends HttpServlet {
 
         long accountFrom = Long.parseLong(req.getParameter(FROM));
         long accountTo = Long.parseLong(req.getParameter(TO));
-        BigDecimal amount = new BigDecimal(req.getParameter(AMOUNT));
+        long amount = Money.parse(req.getParameter(AMOUNT));
 
-        TransferResult transferResult = accountService.transfer(accountFrom, accountTo, amount);
-
-        resp.setContentType(CONTENT_TYPE);
-        resp.setStatus(HttpServletResponse.SC_OK);
-        resp.getWriter().println(objectMapper.writeValueAsString(transferResult));
+        asyncRequests.execute(req, resp, () -> idempotentRequests.execute(req,
+                () -> accountService.transfer(accountFrom, accountTo, amount), responseWriter::transferResult));
     }
 }
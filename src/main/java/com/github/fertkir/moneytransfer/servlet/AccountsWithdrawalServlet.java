@@ -1,7 +1,6 @@
 package com.github.fertkir.moneytransfer.servlet;
 
-import com.fasterxml.jackson.databind.ObjectMapper;
-import com.github.fertkir.moneytransfer.entity.Account;
+import com.github.fertkir.moneytransfer.entity.Money;
 import com.github.fertkir.moneytransfer.service.AccountService;
 import com.google.inject.Inject;
 import com.google.inject.Singleton;
@@ -10,33 +9,33 @@ import javax.servlet.http.HttpServlet;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 import java.io.IOException;
-import java.math.BigDecimal;
 
 import static com.github.fertkir.moneytransfer.servlet.AppServletModule.AccountsParameters.ACCOUNT_ID;
 import static com.github.fertkir.moneytransfer.servlet.AppServletModule.AccountsParameters.AMOUNT;
-import static com.github.fertkir.moneytransfer.servlet.AppServletModule.CONTENT_TYPE;
 
 @Singleton
 public class AccountsWithdrawalServlet extends HttpServlet {
 
     private final AccountService accountService;
-    private final ObjectMapper objectMapper;
+    private final IdempotentRequests idempotentRequests;
+    private final JsonResponseWriter responseWriter;
+    private final AsyncRequests asyncRequests;
 
     @Inject
-    public AccountsWithdrawalServlet(AccountService accountService, ObjectMapper objectMapper) {
+    public AccountsWithdrawalServlet(AccountService accountService, IdempotentRequests idempotentRequests,
+                                     JsonResponseWriter responseWriter, AsyncRequests asyncRequests) {
         this.accountService = accountService;
-        this.objectMapper = objectMapper;
+        this.idempotentRequests = idempotentRequests;
+        this.responseWriter = responseWriter;
+        this.asyncRequests = asyncRequests;
     }
 
     @Override
     protected void doPut(HttpServletRequest req, HttpServletResponse resp) throws IOException {
         long accountId = Long.parseLong(req.getParameter(ACCOUNT_ID));
-        BigDecimal amount = new BigDecimal(req.getParameter(AMOUNT));
+        long amount = Money.parse(req.getParameter(AMOUNT));
 
-        Account result = accountService.withdraw(accountId, amount);
-
-        resp.setContentType(CONTENT_TYPE);
-        resp.setStatus(HttpServletResponse.SC_OK);
-        resp.getWriter().println(objectMapper.writeValueAsString(result));
+        asyncRequests.execute(req, resp, () -> idempotentRequests.execute(req,
+                () -> accountService.withdraw(accountId, amount), responseWriter::account));
     }
 }
@@ -2,29 +2,64 @@ package com.github.fertkir.moneytransfer.servlet;
 
 import com.google.inject.servlet.ServletModule;
 
+import java.util.Arrays;
+
 public class AppServletModule extends ServletModule {
 
     public static final String CONTENT_TYPE = "application/json";
+    /**
+     * Routes whose requests are measured by {@link RequestStatisticsFilter}.
+     */
+    static final String[] ENDPOINTS = {"/accounts", "/accounts/bulk", "/accounts/history", "/accounts/holds",
+            "/accounts/holds/capture", "/accounts/holds/release", "/accounts/topup", "/accounts/transfer",
+            "/accounts/transfer/batch", "/accounts/withdraw"};
 
     public interface AccountsParameters {
         String ACCOUNT_ID = "accountId";
         String AMOUNT = "amount";
         String FROM = "from";
         String TO = "to";
+        String MODE = "mode";
+        String AFTER_ID = "afterId";
+        String LIMIT = "limit";
+        String AFTER_SEQ = "afterSeq";
+        String COUNT = "count";
+        String CONSISTENCY = "consistency";
+        String HOLD_ID = "holdId";
+        String TTL_MILLIS = "ttlMillis";
     }
 
     @Override
     protected void configureServlets() {
         bind(AccountsServlet.class);
+        bind(AccountsBulkServlet.class);
+        bind(AccountsHistoryServlet.class);
+        bind(AccountsHoldsServlet.class);
+        bind(AccountsHoldCaptureServlet.class);
+        bind(AccountsHoldReleaseServlet.class);
         bind(AccountsTopUpServlet.class);
         bind(AccountsTransferServlet.class);
+        bind(AccountsTransferBatchServlet.class);
         bind(AccountsWithdrawalServlet.class);
+        bind(MetricsServlet.class);
+        bind(ReconciliationServlet.class);
 
-        filter("/accounts*").through(AccountsExceptionHandler.class);
+        // outermost, so that it sees the responses written by the exception handler
+        filter(ENDPOINTS[0], Arrays.copyOfRange(ENDPOINTS, 1, ENDPOINTS.length))
+                .through(RequestStatisticsFilter.class);
+        filter("/accounts*", "/admin/reconciliation").through(AccountsExceptionHandler.class);
 
         serve("/accounts").with(AccountsServlet.class);
+        serve("/accounts/bulk").with(AccountsBulkServlet.class);
+        serve("/accounts/history").with(AccountsHistoryServlet.class);
+        serve("/accounts/holds").with(AccountsHoldsServlet.class);
+        serve("/accounts/holds/capture").with(AccountsHoldCaptureServlet.class);
+        serve("/accounts/holds/release").with(AccountsHoldReleaseServlet.class);
         serve("/accounts/topup").with(AccountsTopUpServlet.class);
         serve("/accounts/transfer").with(AccountsTransferServlet.class);
+        serve("/accounts/transfer/batch").with(AccountsTransferBatchServlet.class);
         serve("/accounts/withdraw").with(AccountsWithdrawalServlet.class);
+        serve("/metrics").with(MetricsServlet.class);
+        serve("/admin/reconciliation").with(ReconciliationServlet.class);
     }
 }
@@ -0,0 +1,75 @@
+package com.github.fertkir.moneytransfer.servlet;
+
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import lombok.extern.slf4j.Slf4j;
+
+import javax.servlet.AsyncContext;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * Releases Jetty's thread as soon as a request is parsed: the call producing the response runs
+ * on {@link RequestExecutor}, and the response is written without blocking once it's ready.
+ * If the executor is full, the request is answered with 503 Service Unavailable right away.
+ */
+@Slf4j
+@Singleton
+public class AsyncRequests {
+
+    private static final String RETRY_AFTER = "Retry-After";
+    private static final String RETRY_AFTER_SECONDS = "1";
+
+    private final RequestExecutor executor;
+    private final AccountsExceptionHandler exceptionHandler;
+    private final JsonResponseWriter responseWriter;
+
+    @Inject
+    public AsyncRequests(RequestExecutor executor, AccountsExceptionHandler exceptionHandler,
+                         JsonResponseWriter responseWriter) {
+        this.executor = executor;
+        this.exceptionHandler = exceptionHandler;
+        this.responseWriter = responseWriter;
+    }
+
+    /**
+     * @param call returns the JSON body of a response, e.g. made by {@link JsonResponseWriter}, or null
+     *             for a response without body. The response status is 200 unless the call sets another one
+     */
+    public void execute(HttpServletRequest req, HttpServletResponse resp, Callable<byte[]> call) throws IOException {
+        AsyncContext async = req.startAsync();
+        async.setTimeout(0);
+        try {
+            executor.execute(() -> responseWriter.write(async, resp, respond(req, resp, call)));
+        } catch (RejectedExecutionException e) {
+            resp.setStatus(HttpServletResponse.SC_SERVICE_UNAVAILABLE);
+            resp.setHeader(RETRY_AFTER, RETRY_AFTER_SECONDS);
+            responseWriter.write(async, resp,
+                    responseWriter.error("Too many requests are being executed, try again later"));
+        }
+    }
+
+    /**
+     * Failures are answered the way {@link AccountsExceptionHandler} answers those of synchronous requests.
+     * Errors are answered too, since nothing else would complete a request which never times out.
+     */
+    private byte[] respond(HttpServletRequest req, HttpServletResponse resp, Callable<byte[]> call) {
+        try {
+            resp.setStatus(HttpServletResponse.SC_OK);
+            return call.call();
+        } catch (Throwable e) {
+            resp.reset();
+            String message = AccountsExceptionHandler.getAccountingMessage(e);
+            if (message == null) {
+                log.error("Request {} {}?{} failed", req.getMethod(), req.getRequestURI(), req.getQueryString(), e);
+                resp.setStatus(HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
+                return null;
+            }
+            resp.setStatus(HttpServletResponse.SC_CONFLICT);
+            return exceptionHandler.reject(req, message);
+        }
+    }
+}
@@ -0,0 +1,43 @@
+package com.github.fertkir.moneytransfer.servlet;
+
+import com.github.fertkir.moneytransfer.service.IdempotencyService;
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+
+import javax.servlet.http.HttpServletRequest;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * Runs operations of requests which clients may repeat, e.g. after a timeout. A request made with
+ * an {@code Idempotency-Key} header is executed once, and its repeats get the response of that execution.
+ */
+@Singleton
+public class IdempotentRequests {
+
+    public static final String IDEMPOTENCY_KEY = "Idempotency-Key";
+
+    private final IdempotencyService idempotencyService;
+
+    @Inject
+    public IdempotentRequests(IdempotencyService idempotencyService) {
+        this.idempotencyService = idempotencyService;
+    }
+
+    /**
+     * @param toJson e.g. one of {@link JsonResponseWriter}
+     * @return result of the operation as UTF-8 JSON
+     */
+    public <T> byte[] execute(HttpServletRequest req, Supplier<T> operation, Function<? super T, byte[]> toJson) {
+        String key = req.getHeader(IDEMPOTENCY_KEY);
+        if (key == null) {
+            return toJson.apply(operation.get());
+        }
+        String request = req.getMethod() + " " + req.getRequestURI() + "?" + req.getQueryString();
+        // responses are stored as text, so only requests with a key pay for the conversions
+        return idempotencyService.execute(key, request, () -> new String(toJson.apply(operation.get()), UTF_8))
+                .getBytes(UTF_8);
+    }
+}
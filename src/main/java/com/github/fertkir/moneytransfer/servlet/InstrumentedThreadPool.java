@@ -0,0 +1,24 @@
+package com.github.fertkir.moneytransfer.servlet;
+
+import org.eclipse.jetty.util.thread.QueuedThreadPool;
+
+/**
+ * Jetty's thread pool recording how long every job waits in its queue for a thread.
+ */
+public class InstrumentedThreadPool extends QueuedThreadPool {
+
+    private final RequestStatistics statistics;
+
+    public InstrumentedThreadPool(RequestStatistics statistics) {
+        this.statistics = statistics;
+    }
+
+    @Override
+    public void execute(Runnable job) {
+        long queuedAt = System.nanoTime();
+        super.execute(() -> {
+            statistics.recordQueueWait(System.nanoTime() - queuedAt);
+            job.run();
+        });
+    }
+}
@@ -0,0 +1,179 @@
+package com.github.fertkir.moneytransfer.servlet;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.github.fertkir.moneytransfer.entity.Account;
+import com.github.fertkir.moneytransfer.entity.BatchTransferResult;
+import com.github.fertkir.moneytransfer.entity.Hold;
+import com.github.fertkir.moneytransfer.entity.LedgerEntry;
+import com.github.fertkir.moneytransfer.entity.ReconciliationStatus;
+import com.github.fertkir.moneytransfer.entity.TransferResult;
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import lombok.Builder;
+import lombok.Data;
+import lombok.extern.slf4j.Slf4j;
+
+import javax.servlet.AsyncContext;
+import javax.servlet.ServletOutputStream;
+import javax.servlet.WriteListener;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.List;
+
+import static com.github.fertkir.moneytransfer.servlet.AppServletModule.CONTENT_TYPE;
+
+/**
+ * Writes JSON bodies of responses. Values are serialized to UTF-8 by writers built once per type, in buffers
+ * which Jackson recycles per thread, so the only copy of a body is the array it ends up in, whose length
+ * is the {@code Content-Length}. The array is what gets written to the response, without going through
+ * a {@code String} or a {@code PrintWriter}.
+ */
+@Slf4j
+@Singleton
+public class JsonResponseWriter {
+
+    private static final byte[] NEW_LINE = {'\n'};
+
+    private final ObjectWriter accountWriter;
+    private final ObjectWriter accountListWriter;
+    private final ObjectWriter transferResultWriter;
+    private final ObjectWriter batchTransferResultWriter;
+    private final ObjectWriter ledgerEntryListWriter;
+    private final ObjectWriter holdWriter;
+    private final ObjectWriter reconciliationStatusWriter;
+    private final ObjectWriter errorWriter;
+    private final RequestStatistics statistics;
+
+    @Inject
+    public JsonResponseWriter(ObjectMapper objectMapper, RequestStatistics statistics) {
+        this.accountWriter = objectMapper.writerFor(Account.class);
+        this.accountListWriter = objectMapper.writerFor(new TypeReference<List<Account>>() {
+        });
+        this.transferResultWriter = objectMapper.writerFor(TransferResult.class);
+        this.batchTransferResultWriter = objectMapper.writerFor(BatchTransferResult.class);
+        this.ledgerEntryListWriter = objectMapper.writerFor(new TypeReference<List<LedgerEntry>>() {
+        });
+        this.holdWriter = objectMapper.writerFor(Hold.class);
+        this.reconciliationStatusWriter = objectMapper.writerFor(ReconciliationStatus.class);
+        this.errorWriter = objectMapper.writerFor(ErrorResponse.class);
+        this.statistics = statistics;
+    }
+
+    public byte[] account(Account account) {
+        return serialize(accountWriter, account);
+    }
+
+    public byte[] accounts(List<Account> accounts) {
+        return serialize(accountListWriter, accounts);
+    }
+
+    public byte[] transferResult(TransferResult transferResult) {
+        return serialize(transferResultWriter, transferResult);
+    }
+
+    public byte[] batchTransferResult(BatchTransferResult batchTransferResult) {
+        return serialize(batchTransferResultWriter, batchTransferResult);
+    }
+
+    public byte[] ledgerEntries(List<LedgerEntry> ledgerEntries) {
+        return serialize(ledgerEntryListWriter, ledgerEntries);
+    }
+
+    public byte[] hold(Hold hold) {
+        return serialize(holdWriter, hold);
+    }
+
+    public byte[] reconciliationStatus(ReconciliationStatus reconciliationStatus) {
+        return serialize(reconciliationStatusWriter, reconciliationStatus);
+    }
+
+    public byte[] error(String message) {
+        try {
+            return errorWriter.writeValueAsBytes(ErrorResponse.builder()
+                    .message(message)
+                    .build());
+        } catch (JsonProcessingException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Writes the body on the calling thread, blocking while the client doesn't read it.
+     */
+    void write(HttpServletResponse resp, byte[] body) throws IOException {
+        setHeaders(resp, body);
+        ServletOutputStream out = resp.getOutputStream();
+        out.write(body);
+        out.write(NEW_LINE);
+    }
+
+    /**
+     * Writes the body without blocking, completing the request once it's written.
+     *
+     * @param body null for a response without body
+     */
+    void write(AsyncContext async, HttpServletResponse resp, byte[] body) {
+        if (body == null) {
+            async.complete();
+            return;
+        }
+        setHeaders(resp, body);
+        try {
+            ServletOutputStream out = resp.getOutputStream();
+            out.setWriteListener(new WriteListener() {
+                private int chunksWritten;
+
+                @Override
+                public void onWritePossible() throws IOException {
+                    // a write which can't complete right away makes isReady() false until it does
+                    while (out.isReady()) {
+                        if (chunksWritten == 0) {
+                            out.write(body);
+                        } else if (chunksWritten == 1) {
+                            out.write(NEW_LINE);
+                        } else {
+                            async.complete();
+                            return;
+                        }
+                        chunksWritten++;
+                    }
+                }
+
+                @Override
+                public void onError(Throwable t) {
+                    log.debug("Could not write response", t);
+                    async.complete();
+                }
+            });
+        } catch (IOException e) {
+            log.debug("Could not write response", e);
+            async.complete();
+        }
+    }
+
+    private byte[] serialize(ObjectWriter writer, Object value) {
+        long start = System.nanoTime();
+        try {
+            return writer.writeValueAsBytes(value);
+        } catch (JsonProcessingException e) {
+            throw new UncheckedIOException(e);
+        } finally {
+            statistics.recordSerialization(System.nanoTime() - start);
+        }
+    }
+
+    private static void setHeaders(HttpServletResponse resp, byte[] body) {
+        resp.setContentType(CONTENT_TYPE);
+        resp.setContentLength(body.length + NEW_LINE.length);
+    }
+
+    @Data
+    @Builder
+    private static class ErrorResponse {
+        private final String message;
+    }
+}
@@ -0,0 +1,198 @@
+package com.github.fertkir.moneytransfer.servlet;
+
+import com.github.benmanes.caffeine.cache.stats.CacheStats;
+import com.github.fertkir.moneytransfer.dao.AccountDao;
+import com.github.fertkir.moneytransfer.dao.impl.CachingAccountDao;
+import com.github.fertkir.moneytransfer.journal.JournalStatistics;
+import com.github.fertkir.moneytransfer.metrics.PrometheusWriter;
+import com.github.fertkir.moneytransfer.persistence.StatementCacheStatistics;
+import com.github.fertkir.moneytransfer.persistence.StatementStatistics;
+import com.github.fertkir.moneytransfer.persistence.TransactionStatistics;
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import com.zaxxer.hikari.HikariDataSource;
+import com.zaxxer.hikari.HikariPoolMXBean;
+import org.eclipse.jetty.server.Request;
+import org.eclipse.jetty.util.thread.QueuedThreadPool;
+import org.eclipse.jetty.util.thread.ThreadPool;
+
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import javax.sql.DataSource;
+import java.io.IOException;
+import java.util.Map;
+
+import static com.github.fertkir.moneytransfer.servlet.RequestStatistics.METHODS;
+
+/**
+ * Exposes the statistics gathered since start-up in the Prometheus text format.
+ */
+@Singleton
+public class MetricsServlet extends HttpServlet {
+
+    private static final String PREFIX = "moneytransfer_";
+    private static final String STAGE_DURATION = PREFIX + "stage_duration_seconds";
+    private static final String REQUEST_DURATION = PREFIX + "request_duration_seconds";
+    private static final String RESPONSES = PREFIX + "responses_total";
+
+    private final RequestStatistics requestStatistics;
+    private final TransactionStatistics transactionStatistics;
+    private final StatementStatistics statementStatistics;
+    private final StatementCacheStatistics statementCacheStatistics;
+    private final JournalStatistics journalStatistics;
+    private final AccountDao accountDao;
+    private final DataSource dataSource;
+    private final RequestExecutor requestExecutor;
+
+    @Inject
+    public MetricsServlet(RequestStatistics requestStatistics,
+                          TransactionStatistics transactionStatistics,
+                          StatementStatistics statementStatistics,
+                          StatementCacheStatistics statementCacheStatistics,
+                          JournalStatistics journalStatistics,
+                          AccountDao accountDao,
+                          DataSource dataSource,
+                          RequestExecutor requestExecutor) {
+        this.requestStatistics = requestStatistics;
+        this.transactionStatistics = transactionStatistics;
+        this.statementStatistics = statementStatistics;
+        this.statementCacheStatistics = statementCacheStatistics;
+        this.journalStatistics = journalStatistics;
+        this.accountDao = accountDao;
+        this.dataSource = dataSource;
+        this.requestExecutor = requestExecutor;
+    }
+
+    @Override
+    protected void doGet(HttpServletRequest req, HttpServletResponse resp) throws IOException {
+        resp.setContentType(PrometheusWriter.CONTENT_TYPE);
+        resp.setStatus(HttpServletResponse.SC_OK);
+        PrometheusWriter writer = new PrometheusWriter(resp.getWriter());
+        writeRequests(writer);
+        writeStages(writer);
+        writeTransactions(writer);
+        writeCaches(writer);
+        writeJournal(writer);
+        writeConnectionPool(writer);
+        writeRequestExecutor(writer);
+        writeThreadPool(writer, Request.getBaseRequest(req).getHttpChannel().getServer().getThreadPool());
+    }
+
+    private void writeRequests(PrometheusWriter writer) {
+        Map<String, RequestStatistics.Endpoint> endpoints = requestStatistics.getEndpoints();
+        writer.declare(REQUEST_DURATION, "histogram", "Time of handling requests by the application");
+        endpoints.forEach((path, endpoint) -> {
+            for (int method = 0; method < METHODS.length; method++) {
+                if (endpoint.getDurations(method).getCount() > 0) {
+                    writer.histogram(REQUEST_DURATION, endpoint.getDurations(method),
+                            "endpoint", path, "method", METHODS[method]);
+                }
+            }
+        });
+        writer.declare(RESPONSES, "counter", "Responses by status class");
+        endpoints.forEach((path, endpoint) -> {
+            for (int method = 0; method < METHODS.length; method++) {
+                for (int statusClass = 1; statusClass <= 5; statusClass++) {
+                    long responses = endpoint.getResponses(method, statusClass);
+                    if (responses > 0) {
+                        writer.sample(RESPONSES, responses,
+                                "endpoint", path, "method", METHODS[method], "status", statusClass + "xx");
+                    }
+                }
+            }
+        });
+        writer.declare(PREFIX + "accounting_exceptions_total", "counter",
+                "Requests rejected by accounting rules, e.g. for lack of money");
+        endpoints.forEach((path, endpoint) -> writer.sample(PREFIX + "accounting_exceptions_total",
+                endpoint.getAccountingExceptions(), "endpoint", path));
+    }
+
+    private void writeStages(PrometheusWriter writer) {
+        writer.declare(STAGE_DURATION, "histogram", "Time of the stages of handling requests")
+                .histogram(STAGE_DURATION, requestStatistics.getQueueWaits(), "stage", "queue")
+                .histogram(STAGE_DURATION, transactionStatistics.getConnectionAcquisitions(), "stage", "connection")
+                .histogram(STAGE_DURATION, statementStatistics.getExecutions(), "stage", "statement")
+                .histogram(STAGE_DURATION, transactionStatistics.getCommits(), "stage", "commit")
+                .histogram(STAGE_DURATION, transactionStatistics.getAttempts(), "stage", "transaction")
+                .histogram(STAGE_DURATION, requestStatistics.getSerializations(), "stage", "serialization");
+    }
+
+    private void writeTransactions(PrometheusWriter writer) {
+        writer.declare(PREFIX + "transaction_retries_total", "counter",
+                        "Transactions run again after a conflict")
+                .sample(PREFIX + "transaction_retries_total", transactionStatistics.getRetries())
+                .declare(PREFIX + "transaction_exhausted_retries_total", "counter",
+                        "Transactions failed with a conflict on their last allowed attempt")
+                .sample(PREFIX + "transaction_exhausted_retries_total", transactionStatistics.getExhaustedRetries());
+    }
+
+    private void writeCaches(PrometheusWriter writer) {
+        writer.declare(PREFIX + "statement_cache_requests_total", "counter", "Prepared statement cache lookups")
+                .sample(PREFIX + "statement_cache_requests_total", statementCacheStatistics.getHits(), "result", "hit")
+                .sample(PREFIX + "statement_cache_requests_total", statementCacheStatistics.getMisses(), "result", "miss")
+                .declare(PREFIX + "statement_cache_evictions_total", "counter", "Prepared statements evicted")
+                .sample(PREFIX + "statement_cache_evictions_total", statementCacheStatistics.getEvictions());
+        if (accountDao instanceof CachingAccountDao) {
+            CacheStats stats = ((CachingAccountDao) accountDao).getStatistics();
+            writer.declare(PREFIX + "account_cache_requests_total", "counter", "Account cache lookups")
+                    .sample(PREFIX + "account_cache_requests_total", stats.hitCount(), "result", "hit")
+                    .sample(PREFIX + "account_cache_requests_total", stats.missCount(), "result", "miss")
+                    .declare(PREFIX + "account_cache_evictions_total", "counter", "Accounts evicted from the cache")
+                    .sample(PREFIX + "account_cache_evictions_total", stats.evictionCount());
+        }
+    }
+
+    private void writeJournal(PrometheusWriter writer) {
+        writer.declare(PREFIX + "journal_forces_total", "counter", "Journal writes forced to disk")
+                .sample(PREFIX + "journal_forces_total", journalStatistics.getForces())
+                .declare(PREFIX + "journal_entries_total", "counter", "Journal entries made durable")
+                .sample(PREFIX + "journal_entries_total", journalStatistics.getEntries())
+                .declare(PREFIX + "journal_checkpoints_total", "counter", "Journal checkpoints")
+                .sample(PREFIX + "journal_checkpoints_total", journalStatistics.getCheckpoints());
+    }
+
+    private void writeConnectionPool(PrometheusWriter writer) {
+        if (!(dataSource instanceof HikariDataSource)) {
+            return;
+        }
+        HikariDataSource hikari = (HikariDataSource) dataSource;
+        HikariPoolMXBean pool = hikari.getHikariPoolMXBean();
+        if (pool == null) {
+            return;
+        }
+        writer.declare(PREFIX + "pool_connections", "gauge", "Pooled database connections by state")
+                .sample(PREFIX + "pool_connections", pool.getActiveConnections(), "state", "active")
+                .sample(PREFIX + "pool_connections", pool.getIdleConnections(), "state", "idle")
+                .declare(PREFIX + "pool_max_connections", "gauge", "Max size of the connection pool")
+                .sample(PREFIX + "pool_max_connections", hikari.getMaximumPoolSize())
+                .declare(PREFIX + "pool_pending_threads", "gauge", "Threads waiting for a connection")
+                .sample(PREFIX + "pool_pending_threads", pool.getThreadsAwaitingConnection());
+    }
+
+    private void writeRequestExecutor(PrometheusWriter writer) {
+        writer.declare(PREFIX + "request_executor_active_threads", "gauge", "Threads running service calls of requests")
+                .sample(PREFIX + "request_executor_active_threads", requestExecutor.getActiveThreads())
+                .declare(PREFIX + "request_executor_max_threads", "gauge", "Max size of the request executor")
+                .sample(PREFIX + "request_executor_max_threads", requestExecutor.getMaxThreads())
+                .declare(PREFIX + "request_executor_queued_calls", "gauge", "Service calls waiting for a thread")
+                .sample(PREFIX + "request_executor_queued_calls", requestExecutor.getQueuedCalls())
+                .declare(PREFIX + "request_executor_rejected_total", "counter",
+                        "Requests answered with 503 because the request executor was full")
+                .sample(PREFIX + "request_executor_rejected_total", requestExecutor.getRejectedCalls());
+    }
+
+    private static void writeThreadPool(PrometheusWriter writer, ThreadPool threadPool) {
+        if (!(threadPool instanceof QueuedThreadPool)) {
+            return;
+        }
+        QueuedThreadPool pool = (QueuedThreadPool) threadPool;
+        writer.declare(PREFIX + "jetty_threads", "gauge", "Jetty threads by state")
+                .sample(PREFIX + "jetty_threads", pool.getBusyThreads(), "state", "busy")
+                .sample(PREFIX + "jetty_threads", pool.getIdleThreads(), "state", "idle")
+                .declare(PREFIX + "jetty_max_threads", "gauge", "Max size of Jetty's thread pool")
+                .sample(PREFIX + "jetty_max_threads", pool.getMaxThreads())
+                .declare(PREFIX + "jetty_queued_jobs", "gauge", "Jobs waiting for a Jetty thread")
+                .sample(PREFIX + "jetty_queued_jobs", pool.getQueueSize());
+    }
+}
@@ -0,0 +1,51 @@
+package com.github.fertkir.moneytransfer.servlet;
+
+import com.github.fertkir.moneytransfer.entity.ReconciliationStatus;
+import com.github.fertkir.moneytransfer.reconciliation.Reconciliation;
+import com.github.fertkir.moneytransfer.service.exception.AccountingException;
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+
+/**
+ * {@code POST} starts a reconciliation in the background, {@code GET} tells whether one is running
+ * and returns the report of the last one.
+ */
+@Singleton
+public class ReconciliationServlet extends HttpServlet {
+
+    private final Reconciliation reconciliation;
+    private final JsonResponseWriter responseWriter;
+
+    @Inject
+    public ReconciliationServlet(Reconciliation reconciliation, JsonResponseWriter responseWriter) {
+        this.reconciliation = reconciliation;
+        this.responseWriter = responseWriter;
+    }
+
+    @Override
+    protected void doGet(HttpServletRequest req, HttpServletResponse resp) throws IOException {
+        resp.setStatus(HttpServletResponse.SC_OK);
+        responseWriter.write(resp, responseWriter.reconciliationStatus(status()));
+    }
+
+    @Override
+    protected void doPost(HttpServletRequest req, HttpServletResponse resp) throws IOException {
+        if (!reconciliation.start()) {
+            throw new AccountingException("Reconciliation is running already");
+        }
+        resp.setStatus(HttpServletResponse.SC_ACCEPTED);
+        responseWriter.write(resp, responseWriter.reconciliationStatus(status()));
+    }
+
+    private ReconciliationStatus status() {
+        return ReconciliationStatus.builder()
+                .running(reconciliation.isRunning())
+                .lastReport(reconciliation.getLastReport().orElse(null))
+                .build();
+    }
+}
@@ -0,0 +1,125 @@
+package com.github.fertkir.moneytransfer.servlet;
+
+import com.github.fertkir.moneytransfer.config.VirtualThreads;
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import com.google.inject.name.Named;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+import static java.lang.String.format;
+
+/**
+ * Runs service calls of requests off Jetty's threads, so that while the database is slow it's these threads
+ * that wait rather than Jetty's, which stay free to accept requests. Calls are admitted as long as there are
+ * fewer than {@code persistence.pool.maxSize + server.executor.queueCapacity} of them, i.e. one per database
+ * connection plus as many waiting for one, and rejected beyond that.
+ * <p>
+ * With {@code server.executor.threads=platform} the calls run on a pool with a thread per connection, the rest
+ * waiting in its queue. With {@code virtual} every call gets a virtual thread of its own, and waits
+ * for a connection in the connection pool.
+ */
+@Singleton
+public class RequestExecutor {
+
+    public static final String PLATFORM_THREADS = "platform";
+    public static final String VIRTUAL_THREADS = "virtual";
+
+    private static final String THREAD_NAME_PREFIX = "request-executor-";
+
+    /**
+     * Either the pool of platform threads or the executor of virtual ones is used, the other one is null.
+     */
+    private final ThreadPoolExecutor pool;
+    private final ExecutorService virtualThreads;
+    /**
+     * Limits the calls of virtual threads, for which there's no queue to fill up.
+     */
+    private final Semaphore admission;
+    private final int maxCalls;
+    private final LongAdder rejected = new LongAdder();
+
+    @Inject
+    public RequestExecutor(@Named("persistence.pool.maxSize") int connections,
+                           @Named("server.executor.queueCapacity") int queueCapacity,
+                           @Named("server.executor.threads") String threads) {
+        this.maxCalls = connections + queueCapacity;
+        if (VIRTUAL_THREADS.equals(threads)) {
+            this.pool = null;
+            this.virtualThreads = VirtualThreads.newThreadPerTaskExecutor(THREAD_NAME_PREFIX);
+            this.admission = new Semaphore(maxCalls);
+        } else if (PLATFORM_THREADS.equals(threads)) {
+            AtomicInteger threadNumber = new AtomicInteger();
+            this.pool = new ThreadPoolExecutor(connections, connections, 0, TimeUnit.MILLISECONDS,
+                    new ArrayBlockingQueue<>(queueCapacity), runnable -> {
+                        Thread thread = new Thread(runnable, THREAD_NAME_PREFIX + threadNumber.incrementAndGet());
+                        thread.setDaemon(true);
+                        return thread;
+                    });
+            this.virtualThreads = null;
+            this.admission = null;
+        } else {
+            throw new IllegalArgumentException(format("Unknown server.executor.threads \"%s\", expected %s or %s",
+                    threads, PLATFORM_THREADS, VIRTUAL_THREADS));
+        }
+    }
+
+    /**
+     * @throws RejectedExecutionException if there are too many calls already
+     */
+    void execute(Runnable call) {
+        try {
+            if (pool != null) {
+                pool.execute(call);
+                return;
+            }
+            if (!admission.tryAcquire()) {
+                throw new RejectedExecutionException(format("%d calls are running already", maxCalls));
+            }
+            try {
+                virtualThreads.execute(() -> {
+                    try {
+                        call.run();
+                    } finally {
+                        admission.release();
+                    }
+                });
+            } catch (RejectedExecutionException e) {
+                admission.release();
+                throw e;
+            }
+        } catch (RejectedExecutionException e) {
+            rejected.increment();
+            throw e;
+        }
+    }
+
+    /**
+     * Max number of threads running calls, which is one per call for virtual threads.
+     */
+    public int getMaxThreads() {
+        return pool == null ? maxCalls : pool.getMaximumPoolSize();
+    }
+
+    public int getActiveThreads() {
+        return pool == null ? maxCalls - admission.availablePermits() : pool.getActiveCount();
+    }
+
+    /**
+     * Calls waiting for a thread. Those of virtual threads never wait for one, but for a database connection.
+     */
+    public int getQueuedCalls() {
+        return pool == null ? 0 : pool.getQueue().size();
+    }
+
+    public long getRejectedCalls() {
+        return rejected.sum();
+    }
+}
@@ -0,0 +1,127 @@
+package com.github.fertkir.moneytransfer.servlet;
+
+import com.github.fertkir.moneytransfer.metrics.LatencyRecorder;
+import com.google.inject.Singleton;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Statistics of requests by endpoint and method. Endpoints are the routes of {@link AppServletModule#ENDPOINTS},
+ * registered up front; requests to any other path are counted under {@value #OTHER}.
+ */
+@Singleton
+public class RequestStatistics {
+
+    public static final String OTHER = "other";
+    static final String[] METHODS = {"GET", "POST", "PUT", OTHER};
+
+    /**
+     * Never changed after construction, so it's read without synchronization.
+     */
+    private final Map<String, Endpoint> endpoints = new HashMap<>();
+    private final LatencyRecorder queueWaits = new LatencyRecorder();
+    private final LatencyRecorder serializations = new LatencyRecorder();
+
+    public RequestStatistics() {
+        for (String path : AppServletModule.ENDPOINTS) {
+            endpoints.put(path, new Endpoint());
+        }
+        endpoints.put(OTHER, new Endpoint());
+    }
+
+    void recordRequest(String path, String method, int status, long nanos) {
+        Endpoint endpoint = endpoint(path);
+        int methodIndex = methodIndex(method);
+        endpoint.durations[methodIndex].record(nanos);
+        endpoint.statusClasses[methodIndex][Math.min(Math.max(status / 100, 1), 5) - 1].increment();
+    }
+
+    void recordAccountingException(String path) {
+        endpoint(path).accountingExceptions.increment();
+    }
+
+    void recordQueueWait(long nanos) {
+        queueWaits.record(nanos);
+    }
+
+    void recordSerialization(long nanos) {
+        serializations.record(nanos);
+    }
+
+    public Map<String, Endpoint> getEndpoints() {
+        return Collections.unmodifiableMap(new TreeMap<>(endpoints));
+    }
+
+    /**
+     * Time Jetty's jobs (handling of requests among them) waited in the queue of its thread pool.
+     */
+    public LatencyRecorder getQueueWaits() {
+        return queueWaits;
+    }
+
+    /**
+     * Time of writing responses as JSON, except for those streamed while being read from the database.
+     */
+    public LatencyRecorder getSerializations() {
+        return serializations;
+    }
+
+    private Endpoint endpoint(String path) {
+        Endpoint endpoint = endpoints.get(path);
+        return endpoint != null ? endpoint : endpoints.get(OTHER);
+    }
+
+    private static int methodIndex(String method) {
+        switch (method) {
+            case "GET":
+                return 0;
+            case "POST":
+                return 1;
+            case "PUT":
+                return 2;
+            default:
+                return 3;
+        }
+    }
+
+    public static class Endpoint {
+        private final LatencyRecorder[] durations = new LatencyRecorder[METHODS.length];
+        private final LongAdder[][] statusClasses = new LongAdder[METHODS.length][5];
+        private final LongAdder accountingExceptions = new LongAdder();
+
+        private Endpoint() {
+            for (int i = 0; i < METHODS.length; i++) {
+                durations[i] = new LatencyRecorder();
+                for (int j = 0; j < statusClasses[i].length; j++) {
+                    statusClasses[i][j] = new LongAdder();
+                }
+            }
+        }
+
+        /**
+         * Time from the start of handling of a request by the application to the end of it, by method.
+         */
+        public LatencyRecorder getDurations(int method) {
+            return durations[method];
+        }
+
+        /**
+         * Number of responses by method and status class, 1xx to 5xx. Requests failed with an exception
+         * are counted as 5xx.
+         */
+        public long getResponses(int method, int statusClass) {
+            return statusClasses[method][statusClass - 1].sum();
+        }
+
+        /**
+         * Number of requests rejected because of an {@code AccountingException}.
+         */
+        public long getAccountingExceptions() {
+            return accountingExceptions.sum();
+        }
+    }
+}
@@ -0,0 +1,82 @@
+package com.github.fertkir.moneytransfer.servlet;
+
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+
+import javax.servlet.*;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+
+@Singleton
+public class RequestStatisticsFilter implements Filter {
+
+    private static final String START_NANOS = RequestStatisticsFilter.class.getName() + ".startNanos";
+
+    private final RequestStatistics statistics;
+    /**
+     * Shared by all the asynchronous requests, which carry their start times as attributes.
+     */
+    private final AsyncListener completionListener = new AsyncListener() {
+        @Override
+        public void onComplete(AsyncEvent event) {
+            HttpServletRequest req = (HttpServletRequest) event.getSuppliedRequest();
+            statistics.recordRequest(req.getRequestURI(), req.getMethod(),
+                    ((HttpServletResponse) event.getSuppliedResponse()).getStatus(),
+                    System.nanoTime() - (Long) req.getAttribute(START_NANOS));
+        }
+
+        @Override
+        public void onTimeout(AsyncEvent event) {
+            // no implementation
+        }
+
+        @Override
+        public void onError(AsyncEvent event) {
+            // no implementation
+        }
+
+        @Override
+        public void onStartAsync(AsyncEvent event) {
+            // no implementation
+        }
+    };
+
+    @Inject
+    public RequestStatisticsFilter(RequestStatistics statistics) {
+        this.statistics = statistics;
+    }
+
+    @Override
+    public void init(FilterConfig filterConfig) {
+        // no implementation
+    }
+
+    @Override
+    public void doFilter(ServletRequest request, ServletResponse response, FilterChain chain) throws IOException, ServletException {
+        HttpServletRequest req = (HttpServletRequest) request;
+        long start = System.nanoTime();
+        int status = HttpServletResponse.SC_INTERNAL_SERVER_ERROR;
+        boolean async = false;
+        try {
+            chain.doFilter(request, response);
+            async = req.isAsyncStarted();
+            if (async) {
+                // the request is handled until its response is written, after the filter returns
+                req.setAttribute(START_NANOS, start);
+                req.getAsyncContext().addListener(completionListener);
+            } else {
+                status = ((HttpServletResponse) response).getStatus();
+            }
+        } finally {
+            if (!async) {
+                statistics.recordRequest(req.getRequestURI(), req.getMethod(), status, System.nanoTime() - start);
+            }
+        }
+    }
+
+    @Override
+    public void destroy() {
+        // no implementation
+    }
+}
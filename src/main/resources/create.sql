@@ -1,7 +1,62 @@
-CREATE TABLE account (
+-- runs on every start-up, so that a file database keeps its data
+
+CREATE TABLE IF NOT EXISTS account (
     id NUMBER NOT NULL,
-    balance NUMBER,
+    balance BIGINT NOT NULL,
+    version NUMBER DEFAULT 0 NOT NULL,
+    -- part of the balance reserved by the account's holds
+    held BIGINT DEFAULT 0 NOT NULL,
     CONSTRAINT account_pk PRIMARY KEY (id)
 );
 
-CREATE SEQUENCE account_seq START WITH 1 INCREMENT BY 1;
\ No newline at end of file
+CREATE SEQUENCE IF NOT EXISTS account_seq START WITH 1 INCREMENT BY 1;
+
+-- parts of the balances of striped accounts, which are added to the balance and version of the account row
+CREATE TABLE IF NOT EXISTS account_stripe (
+    account_id BIGINT NOT NULL,
+    stripe INT NOT NULL,
+    balance BIGINT NOT NULL,
+    version BIGINT NOT NULL,
+    CONSTRAINT account_stripe_pk PRIMARY KEY (account_id, stripe)
+);
+
+-- the ledger entries of one transaction of a file database, packed by LedgerTable, which keeps the ledger
+-- in memory and is built from these rows on startup. id is the sequence number of the first entry; a BIGINT primary
+-- key is the row key of the table itself, so H2 doesn't maintain a separate index for it
+CREATE TABLE IF NOT EXISTS ledger_page (
+    id BIGINT NOT NULL,
+    entries VARBINARY NOT NULL,
+    CONSTRAINT ledger_page_pk PRIMARY KEY (id)
+);
+
+CREATE TABLE IF NOT EXISTS idempotency_key (
+    idempotency_key VARCHAR(255) NOT NULL,
+    request VARCHAR(4096) NOT NULL,
+    response VARCHAR NOT NULL,
+    created_at BIGINT NOT NULL,
+    CONSTRAINT idempotency_key_key_pk PRIMARY KEY (idempotency_key)
+);
+
+-- file databases created when keys were looked up by a 64-bit hash of them, which let colliding keys share a row
+ALTER TABLE idempotency_key DROP CONSTRAINT IF EXISTS idempotency_key_pk;
+ALTER TABLE idempotency_key DROP COLUMN IF EXISTS key_hash;
+ALTER TABLE idempotency_key ADD CONSTRAINT IF NOT EXISTS idempotency_key_key_pk PRIMARY KEY (idempotency_key);
+
+CREATE INDEX IF NOT EXISTS idempotency_key_created_idx ON idempotency_key (created_at);
+
+-- file databases created before holds were added
+ALTER TABLE account ADD COLUMN IF NOT EXISTS held BIGINT DEFAULT 0 NOT NULL;
+
+-- outstanding holds; the expiry index lets them be read in the order they expire after a restart
+CREATE TABLE IF NOT EXISTS account_hold (
+    id BIGINT NOT NULL,
+    account_id BIGINT NOT NULL,
+    amount BIGINT NOT NULL,
+    created_at BIGINT NOT NULL,
+    expires_at BIGINT NOT NULL,
+    CONSTRAINT account_hold_pk PRIMARY KEY (id)
+);
+
+CREATE INDEX IF NOT EXISTS account_hold_expires_idx ON account_hold (expires_at);
+
+CREATE SEQUENCE IF NOT EXISTS account_hold_seq START WITH 1 INCREMENT BY 1 CACHE 1000;
@@ -0,0 +1,66 @@
+package com.github.fertkir.moneytransfer.dao;
+
+import com.github.fertkir.moneytransfer.config.ApplicationProperties;
+import com.github.fertkir.moneytransfer.config.ConfigModule;
+import com.github.fertkir.moneytransfer.dao.impl.AccountIdGenerator;
+import com.github.fertkir.moneytransfer.entity.Account;
+import com.github.fertkir.moneytransfer.persistence.TransactionTemplate;
+import com.google.inject.Guice;
+import com.google.inject.Injector;
+import com.zaxxer.hikari.HikariDataSource;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import javax.sql.DataSource;
+import java.util.List;
+import java.util.Properties;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class DaoModuleIntegrationTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void shouldNotHandOutReservedIdsAgainAfterBlockSizeIsLowered() {
+        // given
+        String path = folder.getRoot().toPath().resolve("db").toString();
+        Injector before = fileInjector(path, 1000);
+        long lastBefore = createAccount(before, 3);
+        close(before);
+
+        // when
+        Injector after = fileInjector(path, 10);
+        long firstAfter = createAccount(after, 1);
+        close(after);
+
+        // then
+        assertThat(lastBefore).isEqualTo(3L);
+        // the block of 1000 reserved before the restart is skipped
+        assertThat(firstAfter).isEqualTo(1001L);
+    }
+
+    private static Injector fileInjector(String path, int blockSize) {
+        Properties properties = ApplicationProperties.load();
+        properties.setProperty(DaoModule.STORAGE, DaoModule.STORAGE_FILE);
+        properties.setProperty("persistence.file.path", path);
+        properties.setProperty(AccountIdGenerator.BLOCK_SIZE, Integer.toString(blockSize));
+        return Guice.createInjector(new ConfigModule(properties), new DaoModule(properties));
+    }
+
+    /**
+     * @return the id of the last account created
+     */
+    private static long createAccount(Injector injector, int count) {
+        AccountDao accountDao = injector.getInstance(AccountDao.class);
+        List<Account> created = injector.getInstance(TransactionTemplate.class)
+                .execute(() -> accountDao.createAll(count));
+        return created.get(created.size() - 1).getId();
+    }
+
+    private static void close(Injector injector) {
+        ((HikariDataSource) injector.getInstance(DataSource.class)).close();
+    }
+}
@@ -3,14 +3,21 @@ package com.github.fertkir.moneytransfer.dao.impl;
 import com.github.fertkir.moneytransfer.ApplicationMain;
 import com.github.fertkir.moneytransfer.dao.AccountDao;
 import com.github.fertkir.moneytransfer.entity.Account;
+import com.github.fertkir.moneytransfer.persistence.OptimisticLockException;
 import com.github.fertkir.moneytransfer.persistence.PersistenceException;
+import com.github.fertkir.moneytransfer.persistence.StatementCacheStatistics;
 import com.github.fertkir.moneytransfer.persistence.TransactionTemplate;
 import com.google.inject.Injector;
 import org.junit.Test;
 
-import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import static org.assertj.core.api.Assertions.*;
 
@@ -20,6 +27,7 @@ public class AccountDaoImplIntegrationTest {
 
     private final TransactionTemplate transactionTemplate = injector.getInstance(TransactionTemplate.class);
     private final AccountDao accountDao = injector.getInstance(AccountDao.class);
+    private final StatementCacheStatistics statementCacheStatistics = injector.getInstance(StatementCacheStatistics.class);
 
     @Test
     public void crudTest() {
@@ -31,19 +39,19 @@ public class AccountDaoImplIntegrationTest {
             assertThat(missingAccount).isEmpty();
 
             // adding a new one
-            Account newAccount = Account.builder().balance(BigDecimal.TEN).build();
+            Account newAccount = Account.builder().balance(10L).build();
             Long id = accountDao.save(newAccount).getId();
             Account account = accountDao.getById(id).get();
-            Account expectedAccount = Account.builder().id(id).balance(BigDecimal.TEN).build();
+            Account expectedAccount = Account.builder().id(id).balance(10L).build();
             assertThat(account).isEqualTo(expectedAccount);
 
             // altering account's balance
-            Account toBeUpdated = account.toBuilder().balance(BigDecimal.ONE).build();
+            Account toBeUpdated = account.toBuilder().balance(1L).build();
             Account updatedAccount = accountDao.save(toBeUpdated);
             assertThat(updatedAccount).isEqualTo(toBeUpdated);
 
             // adding one more account
-            Account savedAccount2 = accountDao.save(Account.builder().balance(new BigDecimal(2)).build());
+            Account savedAccount2 = accountDao.save(Account.builder().balance(2L).build());
 
             // checking there are 2 accounts
             List<Account> twoAccounts = accountDao.findAll();
@@ -55,7 +63,7 @@ public class AccountDaoImplIntegrationTest {
     public void saveShouldThrowExceptionWhenSavingAccountWithUnknownId() {
         executeWithTransactionRollback(() -> {
             // given
-            Account newAccount = Account.builder().id(1000L).balance(BigDecimal.TEN).build();
+            Account newAccount = Account.builder().id(1000L).balance(10L).build();
 
             // when
             Throwable thrown = catchThrowable(() -> accountDao.save(newAccount));
@@ -67,6 +75,128 @@ public class AccountDaoImplIntegrationTest {
         });
     }
 
+    @Test
+    public void saveShouldThrowExceptionWhenVersionIsStale() {
+        executeWithTransactionRollback(() -> {
+            // given
+            Account account = accountDao.save(Account.builder().balance(10L).build());
+            Account updated = accountDao.save(account.toBuilder().balance(1L).build());
+            Account credited = accountDao.credit(account.getId(), 1L).get();
+
+            // when
+            Throwable thrown = catchThrowable(() -> accountDao.save(updated.toBuilder().balance(0L).build()));
+
+            // then
+            assertThat(account.getVersion()).isEqualTo(0L);
+            assertThat(updated.getVersion()).isEqualTo(1L);
+            assertThat(credited.getVersion()).isEqualTo(2L);
+            assertThat(thrown)
+                    .isInstanceOf(OptimisticLockException.class)
+                    .hasMessage(String.format("Cannot update entity with id %d and version 1", account.getId()));
+        });
+    }
+
+    @Test
+    public void creditAndDebitShouldChangeBalanceInPlace() {
+        executeWithTransactionRollback(() -> {
+            // given
+            Long id = accountDao.save(Account.builder().balance(10L).build()).getId();
+
+            // when
+            Optional<Account> credited = accountDao.credit(id, 1L);
+            Optional<Account> debited = accountDao.debitIfSufficient(id, 10L);
+            Optional<Account> notDebited = accountDao.debitIfSufficient(id, 2L);
+
+            // then
+            assertThat(credited).contains(Account.builder().id(id).balance(11L).build());
+            assertThat(debited).contains(Account.builder().id(id).balance(1L).build());
+            assertThat(notDebited).isEmpty();
+            assertThat(accountDao.getById(id)).contains(Account.builder().id(id).balance(1L).build());
+        });
+    }
+
+    @Test
+    public void createAllShouldInsertAccountsWithZeroBalance() {
+        executeWithTransactionRollback(() -> {
+            // when
+            List<Account> created = accountDao.createAll(3);
+
+            // then
+            assertThat(created).extracting(Account::getId).isSorted().doesNotHaveDuplicates();
+            assertThat(accountDao.findAll()).containsExactlyElementsOf(created);
+            assertThat(accountDao.getById(created.get(2).getId()))
+                    .contains(Account.builder().id(created.get(2).getId()).balance(0L).build());
+        });
+    }
+
+    @Test
+    public void idsShouldBeUniqueAcrossThreadsAndBlocks() throws Exception {
+        // given
+        int threads = 4;
+        int accountsPerThread = injector.getInstance(AccountIdGenerator.class).getBlockSize() * 3 / 2;
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        List<Future<List<Account>>> futures = new ArrayList<>();
+
+        // when
+        for (int i = 0; i < threads; i++) {
+            futures.add(executor.submit(() -> {
+                List<Account> created = new ArrayList<>();
+                executeWithTransactionRollback(() -> created.addAll(accountDao.createAll(accountsPerThread)));
+                return created;
+            }));
+        }
+        Set<Long> ids = new HashSet<>();
+        for (Future<List<Account>> future : futures) {
+            future.get().forEach(account -> ids.add(account.getId()));
+        }
+        executor.shutdown();
+
+        // then
+        assertThat(ids).hasSize(threads * accountsPerThread);
+    }
+
+    @Test
+    public void creditAndDebitShouldReturnEmptyForUnknownId() {
+        executeWithTransactionRollback(() -> {
+            assertThat(accountDao.credit(1000L, 1L)).isEmpty();
+            assertThat(accountDao.debitIfSufficient(1000L, 1L)).isEmpty();
+        });
+    }
+
+    @Test
+    public void shouldPageAndStreamAccountsInIdOrder() {
+        executeWithTransactionRollback(() -> {
+            // given
+            Account first = accountDao.save(Account.builder().balance(1L).build());
+            Account second = accountDao.save(Account.builder().balance(10L).build());
+            Account third = accountDao.save(Account.builder().balance(0L).build());
+
+            // when
+            List<Account> firstPage = accountDao.findPage(0, 2);
+            List<Account> secondPage = accountDao.findPage(second.getId(), 2);
+            List<Account> streamed = new ArrayList<>();
+            accountDao.forEach(streamed::add);
+
+            // then
+            assertThat(firstPage).containsExactly(first, second);
+            assertThat(secondPage).containsExactly(third);
+            assertThat(streamed).containsExactly(first, second, third);
+        });
+    }
+
+    @Test
+    public void statementsShouldBeReusedAcrossTransactions() {
+        // given
+        executeWithTransactionRollback(() -> accountDao.getById(1));
+        long hits = statementCacheStatistics.getHits();
+
+        // when
+        executeWithTransactionRollback(() -> accountDao.getById(1));
+
+        // then
+        assertThat(statementCacheStatistics.getHits()).isGreaterThan(hits);
+    }
+
     private void executeWithTransactionRollback(Runnable runnable) {
         Throwable thrown = catchThrowable(() -> transactionTemplate.execute(() -> {
             runnable.run();
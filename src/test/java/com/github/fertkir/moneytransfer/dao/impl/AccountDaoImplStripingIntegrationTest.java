@@ -0,0 +1,189 @@
+package com.github.fertkir.moneytransfer.dao.impl;
+
+import com.github.fertkir.moneytransfer.ApplicationMain;
+import com.github.fertkir.moneytransfer.dao.LedgerDao;
+import com.github.fertkir.moneytransfer.entity.Account;
+import com.github.fertkir.moneytransfer.entity.BatchTransferResult;
+import com.github.fertkir.moneytransfer.entity.TransferRequest;
+import com.github.fertkir.moneytransfer.entity.TransferResult;
+import com.github.fertkir.moneytransfer.persistence.JdbcTemplate;
+import com.github.fertkir.moneytransfer.persistence.OptimisticLockException;
+import com.github.fertkir.moneytransfer.persistence.TransactionTemplate;
+import com.github.fertkir.moneytransfer.readmodel.AccountChangeStream;
+import com.github.fertkir.moneytransfer.service.AccountService;
+import com.github.fertkir.moneytransfer.service.impl.AccountServiceImpl;
+import com.google.inject.Injector;
+import org.h2.tools.RunScript;
+import org.junit.AfterClass;
+import org.junit.Test;
+
+import javax.sql.DataSource;
+import java.io.InputStreamReader;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static java.util.Arrays.asList;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.catchThrowable;
+import static org.assertj.core.api.Assertions.tuple;
+
+public class AccountDaoImplStripingIntegrationTest {
+
+    private static final int STRIPES = 4;
+    private static final int THREADS = 8;
+    private static final int ITERATIONS = 100;
+
+    private static final Injector injector = ApplicationMain.getInjector();
+
+    private final TransactionTemplate transactionTemplate = injector.getInstance(TransactionTemplate.class);
+    private final AccountDaoImpl accountDao = injector.getInstance(AccountDaoImpl.class);
+
+    @AfterClass
+    public static void tearDown() throws SQLException {
+        DataSource dataSource = injector.getInstance(DataSource.class);
+        try (Connection connection = dataSource.getConnection()) {
+            RunScript.execute(connection, new InputStreamReader(AccountDaoImplStripingIntegrationTest.class
+                    .getClassLoader().getResourceAsStream("clean.sql")));
+        }
+    }
+
+    @Test
+    public void creditsShouldGoToStripesAndDebitsShouldTakeThemBack() {
+        // given
+        long id = createAccount(10L);
+        AccountDaoImpl stripedDao = stripedDao(id);
+
+        // when
+        Account credited = transactionTemplate.execute(() -> stripedDao.credit(id, 5L)).get();
+        Account row = transactionTemplate.execute(() -> accountDao.getById(id)).get();
+        List<Account> page = transactionTemplate.execute(() -> stripedDao.findPage(id - 1, 1));
+        Account debited = transactionTemplate.execute(() -> stripedDao.debitIfSufficient(id, 12L)).get();
+        Account rowAfterDebit = transactionTemplate.execute(() -> accountDao.getById(id)).get();
+
+        // then
+        assertThat(credited.getBalance()).isEqualTo(15L);
+        assertThat(credited.getVersion()).isEqualTo(1L);
+        assertThat(row.getBalance()).isEqualTo(10L);
+        assertThat(page).containsExactly(credited);
+        assertThat(page.get(0).getVersion()).isEqualTo(1L);
+        assertThat(debited.getBalance()).isEqualTo(3L);
+        assertThat(debited.getVersion()).isGreaterThan(credited.getVersion());
+        assertThat(rowAfterDebit.getBalance()).isEqualTo(3L);
+        assertThat(transactionTemplate.execute(() -> stripedDao.debitIfSufficient(id, 4L))).isEmpty();
+        assertThat(transactionTemplate.execute(() -> stripedDao.getById(id))).contains(debited);
+    }
+
+    @Test
+    public void saveShouldCheckVersionSummedOverStripes() {
+        // given
+        long id = createAccount(10L);
+        AccountDaoImpl stripedDao = stripedDao(id);
+        Account credited = transactionTemplate.execute(() -> stripedDao.credit(id, 5L)).get();
+
+        // when
+        Throwable thrown = catchThrowable(() -> transactionTemplate.execute(() ->
+                stripedDao.save(credited.toBuilder().version(0L).balance(1L).build())));
+        Account saved = transactionTemplate.execute(() -> stripedDao.save(credited.toBuilder().balance(1L).build()));
+
+        // then
+        assertThat(thrown)
+                .hasCauseInstanceOf(OptimisticLockException.class)
+                .hasStackTraceContaining(String.format("Cannot update entity with id %d and version 0", id));
+        assertThat(transactionTemplate.execute(() -> stripedDao.getById(id))).contains(saved);
+        assertThat(transactionTemplate.execute(() -> stripedDao.getById(id)).get().getVersion())
+                .isEqualTo(saved.getVersion());
+        assertThat(transactionTemplate.execute(() -> accountDao.getById(id)).get().getBalance()).isEqualTo(1L);
+    }
+
+    @Test
+    public void batchShouldReturnAndPublishVersionsOfStripedAccountDebitedFromItsStripes() {
+        // given
+        long hotId = createAccount(10L);
+        long otherId = createAccount(0L);
+        AccountDaoImpl stripedDao = stripedDao(hotId);
+        transactionTemplate.execute(() -> stripedDao.credit(hotId, 5L));
+        transactionTemplate.execute(() -> stripedDao.credit(hotId, 5L));
+        AccountChangeStream changes = new AccountChangeStream(transactionTemplate);
+        List<Account> published = new CopyOnWriteArrayList<>();
+        changes.subscribe(published::addAll);
+        AccountService accountService = new AccountServiceImpl(stripedDao, injector.getInstance(LedgerDao.class),
+                transactionTemplate, changes);
+
+        // when
+        BatchTransferResult result = accountService.transferBatch(asList(
+                new TransferRequest(hotId, otherId, 12L),
+                new TransferRequest(otherId, hotId, 2L)), false);
+        Account stored = transactionTemplate.execute(() -> stripedDao.getById(hotId)).get();
+
+        // then
+        TransferResult debit = result.getItems().get(0).getResult();
+        TransferResult credit = result.getItems().get(1).getResult();
+        assertThat(stored.getBalance()).isEqualTo(10L);
+        assertThat(debit.getSource().getBalance()).isEqualTo(8L);
+        assertThat(debit.getSource().getVersion()).isEqualTo(stored.getVersion());
+        assertThat(credit.getTarget().getBalance()).isEqualTo(10L);
+        assertThat(credit.getTarget().getVersion()).isEqualTo(stored.getVersion());
+        assertThat(published).filteredOn(account -> account.getId() == hotId)
+                .extracting(Account::getBalance, Account::getVersion)
+                .containsExactly(tuple(10L, stored.getVersion()));
+    }
+
+    @Test
+    public void balanceShouldStayNonNegativeAndExactUnderConcurrentTopUpsWithdrawalsAndTransfers() throws Exception {
+        // given
+        long hotId = createAccount(0L);
+        long otherId = createAccount(0L);
+        AccountService accountService = new AccountServiceImpl(stripedDao(hotId), injector.getInstance(LedgerDao.class),
+                transactionTemplate, injector.getInstance(AccountChangeStream.class));
+        ExecutorService executor = Executors.newFixedThreadPool(THREADS + 1);
+        CountDownLatch start = new CountDownLatch(1);
+        AtomicBoolean running = new AtomicBoolean(true);
+
+        // when
+        Future<?> reader = executor.submit(() -> {
+            while (running.get()) {
+                assertThat(accountService.getById(hotId).getBalance()).isNotNegative();
+            }
+        });
+        List<Future<?>> writers = new ArrayList<>();
+        for (int i = 0; i < THREADS; i++) {
+            writers.add(executor.submit(() -> {
+                start.await();
+                for (int j = 0; j < ITERATIONS; j++) {
+                    accountService.topUp(hotId, 3L);
+                    accountService.withdraw(hotId, 1L);
+                    accountService.transfer(hotId, otherId, 1L);
+                }
+                return null;
+            }));
+        }
+        start.countDown();
+        for (Future<?> writer : writers) {
+            writer.get();
+        }
+        running.set(false);
+        reader.get();
+        executor.shutdown();
+
+        // then
+        assertThat(accountService.getById(hotId).getBalance()).isEqualTo(THREADS * ITERATIONS);
+        assertThat(accountService.getById(otherId).getBalance()).isEqualTo(THREADS * ITERATIONS);
+    }
+
+    private long createAccount(long balance) {
+        return transactionTemplate.execute(() -> accountDao.save(Account.builder().balance(balance).build())).getId();
+    }
+
+    private static AccountDaoImpl stripedDao(long id) {
+        return new AccountDaoImpl(injector.getInstance(JdbcTemplate.class), 1000,
+                new AccountStripes(String.valueOf(id), STRIPES), injector.getInstance(AccountIdGenerator.class));
+    }
+}
@@ -0,0 +1,132 @@
+package com.github.fertkir.moneytransfer.dao.impl;
+
+import com.github.fertkir.moneytransfer.ApplicationMain;
+import com.github.fertkir.moneytransfer.dao.LedgerDao;
+import com.github.fertkir.moneytransfer.entity.Account;
+import com.github.fertkir.moneytransfer.persistence.TransactionTemplate;
+import com.github.fertkir.moneytransfer.readmodel.AccountChangeStream;
+import com.github.fertkir.moneytransfer.service.AccountService;
+import com.github.fertkir.moneytransfer.service.impl.AccountServiceImpl;
+import com.google.inject.Injector;
+import org.h2.tools.RunScript;
+import org.junit.AfterClass;
+import org.junit.Test;
+
+import javax.sql.DataSource;
+import java.io.InputStreamReader;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.catchThrowable;
+
+public class CachingAccountDaoIntegrationTest {
+
+    private static final Injector injector = ApplicationMain.getInjector();
+
+    private final TransactionTemplate transactionTemplate = injector.getInstance(TransactionTemplate.class);
+    private final AccountDaoImpl accountDao = injector.getInstance(AccountDaoImpl.class);
+    private final CachingAccountDao cachingAccountDao = new CachingAccountDao(accountDao, transactionTemplate, 1000);
+    private final AccountService accountService = new AccountServiceImpl(
+            cachingAccountDao, injector.getInstance(LedgerDao.class), transactionTemplate,
+            injector.getInstance(AccountChangeStream.class));
+
+    @AfterClass
+    public static void tearDown() throws SQLException {
+        DataSource dataSource = injector.getInstance(DataSource.class);
+        try (Connection connection = dataSource.getConnection()) {
+            RunScript.execute(connection, new InputStreamReader(CachingAccountDaoIntegrationTest.class.getClassLoader()
+                    .getResourceAsStream("clean.sql")));
+        }
+    }
+
+    @Test
+    public void shouldServeRepeatedReadsFromCache() {
+        // given
+        long id = accountService.createNew().getId();
+        accountService.getById(id);
+        long hits = cachingAccountDao.getStatistics().hitCount();
+
+        // when
+        Account account = accountService.getById(id);
+
+        // then
+        assertThat(account.getBalance()).isEqualTo(0L);
+        assertThat(cachingAccountDao.getStatistics().hitCount()).isEqualTo(hits + 1);
+    }
+
+    @Test
+    public void shouldNotCacheAnythingSeenByRolledBackTransaction() {
+        // given
+        long id = accountService.createNew().getId();
+        accountService.getById(id);
+
+        // when
+        Throwable thrown = catchThrowable(() -> transactionTemplate.execute(() -> {
+            cachingAccountDao.credit(id, 10L);
+            assertThat(cachingAccountDao.getById(id).get().getBalance()).isEqualTo(10L);
+            throw new IllegalStateException("rollback");
+        }));
+
+        // then
+        assertThat(thrown).hasCauseInstanceOf(IllegalStateException.class);
+        assertThat(accountService.getById(id).getBalance()).isEqualTo(0L);
+    }
+
+    @Test
+    public void readersShouldNeverSeeStaleBalancesWhileWritersCommit() throws Exception {
+        // given
+        int accounts = 4;
+        List<Long> ids = new ArrayList<>();
+        for (int i = 0; i < accounts; i++) {
+            ids.add(accountService.createNew().getId());
+        }
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        AtomicBoolean writing = new AtomicBoolean(true);
+
+        // when
+        List<Future<?>> writers = new ArrayList<>();
+        for (int i = 0; i < 4; i++) {
+            writers.add(executor.submit(() -> {
+                for (int j = 0; j < 200; j++) {
+                    accountService.topUp(ids.get(j % accounts), 1L);
+                }
+            }));
+        }
+        List<Future<?>> readers = new ArrayList<>();
+        for (int i = 0; i < 4; i++) {
+            readers.add(executor.submit(() -> {
+                long[] lastSeen = new long[accounts];
+                while (writing.get()) {
+                    for (int j = 0; j < accounts; j++) {
+                        long balance = accountService.getById(ids.get(j)).getBalance();
+                        // only top ups happen, so a smaller balance than already seen means a stale read
+                        assertThat(balance).isGreaterThanOrEqualTo(lastSeen[j]);
+                        lastSeen[j] = balance;
+                    }
+                }
+            }));
+        }
+        for (Future<?> writer : writers) {
+            writer.get();
+        }
+        writing.set(false);
+        for (Future<?> reader : readers) {
+            reader.get();
+        }
+        executor.shutdown();
+
+        // then
+        for (Long id : ids) {
+            long actual = transactionTemplate.execute(() -> accountDao.getById(id)).get().getBalance();
+            assertThat(actual).isEqualTo(200L);
+            assertThat(accountService.getById(id).getBalance()).isEqualTo(actual);
+        }
+    }
+}
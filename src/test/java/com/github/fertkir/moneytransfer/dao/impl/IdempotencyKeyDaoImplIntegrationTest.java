@@ -0,0 +1,100 @@
+package com.github.fertkir.moneytransfer.dao.impl;
+
+import com.github.fertkir.moneytransfer.ApplicationMain;
+import com.github.fertkir.moneytransfer.dao.IdempotencyKeyDao;
+import com.github.fertkir.moneytransfer.entity.IdempotentResponse;
+import com.github.fertkir.moneytransfer.persistence.TransactionTemplate;
+import com.google.inject.Injector;
+import org.junit.Test;
+
+import java.util.Optional;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.catchThrowable;
+
+public class IdempotencyKeyDaoImplIntegrationTest {
+
+    private static final Injector injector = ApplicationMain.getInjector();
+
+    private final TransactionTemplate transactionTemplate = injector.getInstance(TransactionTemplate.class);
+    private final IdempotencyKeyDao idempotencyKeyDao = injector.getInstance(IdempotencyKeyDao.class);
+
+    @Test
+    public void shouldKeepResponsesOfDifferentKeysApart() {
+        executeWithTransactionRollback(() -> {
+            // given
+            // "Aa" and "BB" have the same String.hashCode()
+            long firstId = idempotencyKeyDao.save(response("Aa", "first", 1000));
+            long secondId = idempotencyKeyDao.save(response("BB", "second", 2000));
+
+            // when
+            Optional<IdempotentResponse> first = idempotencyKeyDao.getByKey("Aa", 0);
+            Optional<IdempotentResponse> second = idempotencyKeyDao.getByKey("BB", 0);
+            Optional<IdempotentResponse> unknown = idempotencyKeyDao.getByKey("C#", 0);
+
+            // then
+            assertThat(first).contains(stored(firstId, "Aa", "first", 1000));
+            assertThat(second).contains(stored(secondId, "BB", "second", 2000));
+            assertThat(firstId).isNotEqualTo(secondId);
+            assertThat(unknown).isEmpty();
+        });
+    }
+
+    @Test
+    public void shouldReplaceResponseOfSameKey() {
+        executeWithTransactionRollback(() -> {
+            // given
+            long expiredId = idempotencyKeyDao.save(response("key", "expired", 1000));
+
+            // when
+            long id = idempotencyKeyDao.save(response("key", "new", 2000));
+
+            // then
+            assertThat(idempotencyKeyDao.getByKey("key", 0)).contains(stored(id, "key", "new", 2000));
+            assertThat(idempotencyKeyDao.getByKey("key", 2001)).isEmpty();
+            assertThat(id).isEqualTo(expiredId);
+        });
+    }
+
+    @Test
+    public void shouldGetResponseByRowId() {
+        executeWithTransactionRollback(() -> {
+            // given
+            long id = idempotencyKeyDao.save(response("key", "response", 1000));
+            long otherId = idempotencyKeyDao.save(response("other key", "other response", 2000));
+
+            // when
+            Optional<IdempotentResponse> response = idempotencyKeyDao.getById(id, 0);
+            Optional<IdempotentResponse> other = idempotencyKeyDao.getById(otherId, 0);
+
+            // then
+            assertThat(response).contains(stored(id, "key", "response", 1000));
+            assertThat(other).contains(stored(otherId, "other key", "other response", 2000));
+            assertThat(idempotencyKeyDao.getById(id, 1001)).isEmpty();
+            assertThat(idempotencyKeyDao.getById(Math.max(id, otherId) + 1, 0)).isEmpty();
+        });
+    }
+
+    private static IdempotentResponse response(String key, String body, long createdAt) {
+        return IdempotentResponse.builder()
+                .key(key)
+                .request("request")
+                .body(body)
+                .createdAt(createdAt)
+                .build();
+    }
+
+    private static IdempotentResponse stored(long id, String key, String body, long createdAt) {
+        return response(key, body, createdAt).toBuilder().id(id).build();
+    }
+
+    private void executeWithTransactionRollback(Runnable runnable) {
+        Throwable thrown = catchThrowable(() -> transactionTemplate.execute(() -> {
+            runnable.run();
+            throw new RollbackException();
+        }));
+        assertThat(thrown).hasCauseInstanceOf(RollbackException.class);
+    }
+
+    private static class RollbackException extends RuntimeException {}
+}
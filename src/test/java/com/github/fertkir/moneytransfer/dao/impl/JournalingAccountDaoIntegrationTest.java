@@ -0,0 +1,160 @@
+package com.github.fertkir.moneytransfer.dao.impl;
+
+import com.github.fertkir.moneytransfer.ApplicationMain;
+import com.github.fertkir.moneytransfer.config.ApplicationProperties;
+import com.github.fertkir.moneytransfer.config.ConfigModule;
+import com.github.fertkir.moneytransfer.dao.DaoModule;
+import com.github.fertkir.moneytransfer.dao.LedgerDao;
+import com.github.fertkir.moneytransfer.entity.Account;
+import com.github.fertkir.moneytransfer.entity.Hold;
+import com.github.fertkir.moneytransfer.entity.LedgerEntry;
+import com.github.fertkir.moneytransfer.entity.TransferRequest;
+import com.github.fertkir.moneytransfer.journal.Journal;
+import com.github.fertkir.moneytransfer.journal.JournalStatistics;
+import com.github.fertkir.moneytransfer.persistence.JdbcTemplate;
+import com.github.fertkir.moneytransfer.persistence.TransactionTemplate;
+import com.github.fertkir.moneytransfer.readmodel.AccountChangeStream;
+import com.github.fertkir.moneytransfer.service.AccountService;
+import com.github.fertkir.moneytransfer.service.HoldService;
+import com.github.fertkir.moneytransfer.service.ServiceModule;
+import com.github.fertkir.moneytransfer.service.impl.AccountServiceImpl;
+import com.google.inject.Guice;
+import com.google.inject.Injector;
+import com.zaxxer.hikari.HikariDataSource;
+import org.h2.tools.RunScript;
+import org.junit.AfterClass;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import javax.sql.DataSource;
+import java.io.InputStreamReader;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+
+import static java.util.Collections.singletonList;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.tuple;
+
+public class JournalingAccountDaoIntegrationTest {
+
+    private static final Injector injector = ApplicationMain.getInjector();
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private final TransactionTemplate transactionTemplate = injector.getInstance(TransactionTemplate.class);
+    private final AccountDaoImpl accountDao = injector.getInstance(AccountDaoImpl.class);
+    private final LedgerDao ledgerDao = injector.getInstance(LedgerDao.class);
+    private final JdbcTemplate jdbcTemplate = injector.getInstance(JdbcTemplate.class);
+    private final AccountChangeStream changes = injector.getInstance(AccountChangeStream.class);
+
+    @AfterClass
+    public static void tearDown() throws SQLException {
+        cleanDatabase();
+    }
+
+    @Test
+    public void shouldRestoreAccountsFromJournalAfterRestart() throws SQLException {
+        // given
+        Journal journal = openJournal();
+        AccountService accountService = new AccountServiceImpl(journalingAccountDao(journal), ledgerDao,
+                transactionTemplate, changes);
+        long first = accountService.createNew().getId();
+        long second = accountService.createNew().getId();
+        accountService.topUp(first, 100L);
+        accountService.transfer(first, second, 30L);
+        accountService.withdraw(second, 5L);
+        accountService.transferBatch(singletonList(new TransferRequest(first, second, 10L)), true);
+        Account firstBeforeRestart = accountService.getById(first);
+        journal.close();
+        cleanDatabase();
+
+        // when
+        Journal reopenedJournal = openJournal();
+        AccountService restartedService = new AccountServiceImpl(journalingAccountDao(reopenedJournal), ledgerDao,
+                transactionTemplate, changes);
+        reopenedJournal.close();
+
+        // then
+        Account firstAfterRestart = restartedService.getById(first);
+        assertThat(firstAfterRestart.getBalance()).isEqualTo(60L);
+        assertThat(firstAfterRestart.getVersion()).isEqualTo(firstBeforeRestart.getVersion());
+        assertThat(restartedService.getById(second).getBalance()).isEqualTo(35L);
+        assertThat(restartedService.list()).hasSize(2);
+    }
+
+    @Test
+    public void fileDatabaseShouldKeepBalancesLedgerAndHoldsAcrossRestart() {
+        // given
+        Injector before = fileInjector();
+        AccountService accountService = before.getInstance(AccountService.class);
+        long first = accountService.createNew().getId();
+        long second = accountService.createNew().getId();
+        accountService.topUp(first, 100L);
+        accountService.transfer(first, second, 30L);
+        Hold hold = before.getInstance(HoldService.class).place(first, 20L, TimeUnit.HOURS.toMillis(1));
+        // a checkpoint or two run in the meantime
+        accountService.withdraw(second, 5L);
+        close(before);
+
+        // when
+        Injector after = fileInjector();
+        AccountService restartedService = after.getInstance(AccountService.class);
+        Account firstAfterRestart = restartedService.getById(first);
+        Account secondAfterRestart = restartedService.getById(second);
+        List<LedgerEntry> history = restartedService.history(first, 0, Long.MAX_VALUE, 0, 10);
+        Account captured = after.getInstance(HoldService.class).capture(hold.getId(), null);
+        close(after);
+
+        // then
+        assertThat(firstAfterRestart.getBalance()).isEqualTo(70L);
+        assertThat(firstAfterRestart.getAvailable()).isEqualTo(50L);
+        assertThat(secondAfterRestart.getBalance()).isEqualTo(25L);
+        assertThat(history)
+                .extracting(LedgerEntry::getType, LedgerEntry::getAmount, LedgerEntry::getBalance)
+                .containsExactly(
+                        tuple(LedgerEntry.Type.TOP_UP, 100L, 100L),
+                        tuple(LedgerEntry.Type.TRANSFER, -30L, 70L));
+        assertThat(captured.getBalance()).isEqualTo(50L);
+    }
+
+    private Injector fileInjector() {
+        Properties properties = ApplicationProperties.load();
+        properties.setProperty(DaoModule.STORAGE, DaoModule.STORAGE_FILE);
+        properties.setProperty("persistence.file.path", folder.getRoot().toPath().resolve("db").toString());
+        properties.setProperty(DaoModule.JOURNAL_ENABLED, "true");
+        properties.setProperty("journal.directory", folder.getRoot().toPath().resolve("journal").toString());
+        // two states a segment, so that checkpoints replace some of them with a snapshot
+        properties.setProperty("journal.segmentSize", Integer.toString(2 * 32));
+        properties.setProperty("journal.checkpoint.segments", "2");
+        return Guice.createInjector(new ConfigModule(properties), new DaoModule(properties),
+                new ServiceModule(properties));
+    }
+
+    private static void close(Injector injector) {
+        // a running checkpoint writes the database to disk
+        injector.getInstance(Journal.class).close();
+        ((HikariDataSource) injector.getInstance(DataSource.class)).close();
+    }
+
+    private JournalingAccountDao journalingAccountDao(Journal journal) {
+        return new JournalingAccountDao(accountDao, transactionTemplate, journal, jdbcTemplate,
+                DaoModule.STORAGE_MEMORY);
+    }
+
+    private Journal openJournal() {
+        return new Journal(folder.getRoot().getPath(), 1 << 20, 16, 4, new JournalStatistics());
+    }
+
+    private static void cleanDatabase() throws SQLException {
+        DataSource dataSource = injector.getInstance(DataSource.class);
+        try (Connection connection = dataSource.getConnection()) {
+            RunScript.execute(connection, new InputStreamReader(JournalingAccountDaoIntegrationTest.class
+                    .getClassLoader().getResourceAsStream("clean.sql")));
+        }
+    }
+}
@@ -0,0 +1,183 @@
+package com.github.fertkir.moneytransfer.dao.impl;
+
+import com.github.fertkir.moneytransfer.ApplicationMain;
+import com.github.fertkir.moneytransfer.config.ApplicationProperties;
+import com.github.fertkir.moneytransfer.config.ConfigModule;
+import com.github.fertkir.moneytransfer.dao.DaoModule;
+import com.github.fertkir.moneytransfer.dao.LedgerDao;
+import com.github.fertkir.moneytransfer.entity.LedgerEntry;
+import com.github.fertkir.moneytransfer.persistence.TransactionTemplate;
+import com.google.inject.Guice;
+import com.google.inject.Injector;
+import com.zaxxer.hikari.HikariDataSource;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import javax.sql.DataSource;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static java.util.Arrays.asList;
+import static java.util.Collections.singletonList;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.catchThrowable;
+
+public class LedgerDaoImplIntegrationTest {
+
+    private static final Injector injector = ApplicationMain.getInjector();
+    // the ledger is kept in memory, where it outlives the rows deleted by clean.sql, so every test takes accounts
+    // of its own
+    private static final AtomicLong ACCOUNT_IDS = new AtomicLong(1_000_000_000L);
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private final TransactionTemplate transactionTemplate = injector.getInstance(TransactionTemplate.class);
+    private final LedgerDao ledgerDao = injector.getInstance(LedgerDao.class);
+    private final long account = ACCOUNT_IDS.incrementAndGet();
+    private final long counterparty = ACCOUNT_IDS.incrementAndGet();
+
+    @Test
+    public void shouldReturnEntriesOfAccountPageByPage() {
+        // given
+        insertAll(ledgerDao, asList(
+                entry(account, counterparty, 100, 1000),
+                entry(counterparty, account, -100, 1000),
+                entry(account, counterparty, 50, 2000),
+                entry(account, counterparty, -30, 3000)));
+
+        // when
+        List<LedgerEntry> firstPage = findByAccount(account, 0, Long.MAX_VALUE, 0, 2);
+        List<LedgerEntry> secondPage = findByAccount(account, 0, Long.MAX_VALUE, firstPage.get(1).getSeq(), 2);
+
+        // then
+        assertThat(firstPage).extracting(LedgerEntry::getCreatedAt).containsExactly(1000L, 2000L);
+        assertThat(firstPage.get(0).getSeq()).isLessThan(firstPage.get(1).getSeq());
+        assertThat(firstPage.get(0).getCounterpartyId()).isEqualTo(counterparty);
+        assertThat(secondPage).extracting(LedgerEntry::getCreatedAt).containsExactly(3000L);
+        assertThat(ledgerDao.sumAmounts(account)).isEqualTo(120L);
+        assertThat(ledgerDao.sumAmounts(counterparty)).isEqualTo(-100L);
+    }
+
+    @Test
+    public void shouldReturnEntriesWithinTimeRange() {
+        // given
+        insertAll(ledgerDao, asList(
+                entry(account, counterparty, 100, 1000),
+                entry(account, counterparty, 50, 2000),
+                entry(account, counterparty, -30, 3000)));
+
+        // when
+        List<LedgerEntry> entries = findByAccount(account, 2000, 3000, 0, 10);
+
+        // then
+        assertThat(entries).extracting(LedgerEntry::getAmount).containsExactly(50L);
+    }
+
+    @Test
+    public void shouldNotCountEntriesOfRolledBackTransaction() {
+        // given
+        Throwable thrown = catchThrowable(() -> transactionTemplate.execute(() -> {
+            ledgerDao.insertAll(singletonList(entry(account, counterparty, 100, 1000)));
+            throw new RollbackException();
+        }));
+
+        // when
+        List<LedgerEntry> entries = findByAccount(account, 0, Long.MAX_VALUE, 0, 10);
+
+        // then
+        assertThat(thrown).hasCauseInstanceOf(RollbackException.class);
+        assertThat(entries).isEmpty();
+        assertThat(ledgerDao.sumAmounts(account)).isZero();
+    }
+
+    @Test
+    public void shouldSumAmountsByTypeUpToSequenceNumber() {
+        // given
+        insertAll(ledgerDao, asList(
+                entry(account, counterparty, -100, 1000),
+                entry(counterparty, account, 100, 1000)));
+        long maxSeq = ledgerDao.nextSeq();
+        insertAll(ledgerDao, singletonList(entry(account, counterparty, 50, 2000)));
+
+        // when
+        Map<LedgerEntry.Type, Long> sums = ledgerDao.sumAmountsByType(asList(account, counterparty), maxSeq);
+
+        // then
+        assertThat(sums).containsEntry(LedgerEntry.Type.TRANSFER, 0L);
+        assertThat(ledgerDao.sumAmountsByType(singletonList(account), maxSeq))
+                .containsEntry(LedgerEntry.Type.TRANSFER, -100L);
+    }
+
+    @Test
+    public void shouldLoadEntriesOfFileDatabaseOnStartup() {
+        // given
+        String path = folder.getRoot().toPath().resolve("db").toString();
+        Injector before = fileInjector(path);
+        LedgerDao ledgerBefore = before.getInstance(LedgerDao.class);
+        insertAll(before, asList(
+                entry(account, counterparty, -100, 1000),
+                entry(counterparty, account, 100, 1000)));
+        insertAll(before, singletonList(entry(account, counterparty, 30, 2000)));
+        List<LedgerEntry> entriesBefore = ledgerBefore.findByAccount(account, 0, Long.MAX_VALUE, 0, 10);
+        close(before);
+
+        // when
+        Injector after = fileInjector(path);
+        LedgerDao ledgerAfter = after.getInstance(LedgerDao.class);
+        List<LedgerEntry> entriesAfter = ledgerAfter.findByAccount(account, 0, Long.MAX_VALUE, 0, 10);
+        long nextSeq = ledgerAfter.nextSeq();
+        close(after);
+
+        // then
+        assertThat(entriesAfter).hasSize(2).isEqualTo(entriesBefore);
+        assertThat(ledgerAfter.sumAmounts(account)).isEqualTo(-70L);
+        assertThat(ledgerAfter.sumAmounts(counterparty)).isEqualTo(100L);
+        assertThat(nextSeq).isGreaterThan(entriesAfter.get(1).getSeq());
+    }
+
+    private List<LedgerEntry> findByAccount(long accountId, long from, long to, long afterSeq, int limit) {
+        return transactionTemplate.executeReadOnly(() -> ledgerDao.findByAccount(accountId, from, to, afterSeq, limit));
+    }
+
+    private void insertAll(LedgerDao ledgerDao, List<LedgerEntry> entries) {
+        transactionTemplate.execute(() -> {
+            ledgerDao.insertAll(entries);
+            return null;
+        });
+    }
+
+    private static void insertAll(Injector injector, List<LedgerEntry> entries) {
+        injector.getInstance(TransactionTemplate.class).execute(() -> {
+            injector.getInstance(LedgerDao.class).insertAll(entries);
+            return null;
+        });
+    }
+
+    private static Injector fileInjector(String path) {
+        Properties properties = ApplicationProperties.load();
+        properties.setProperty(DaoModule.STORAGE, DaoModule.STORAGE_FILE);
+        properties.setProperty("persistence.file.path", path);
+        return Guice.createInjector(new ConfigModule(properties), new DaoModule(properties));
+    }
+
+    private static void close(Injector injector) {
+        ((HikariDataSource) injector.getInstance(DataSource.class)).close();
+    }
+
+    private static LedgerEntry entry(long accountId, long counterpartyId, long amount, long createdAt) {
+        return LedgerEntry.builder()
+                .accountId(accountId)
+                .type(LedgerEntry.Type.TRANSFER)
+                .amount(amount)
+                .balance(amount)
+                .counterpartyId(counterpartyId)
+                .createdAt(createdAt)
+                .build();
+    }
+
+    private static class RollbackException extends RuntimeException {}
+}
@@ -0,0 +1,87 @@
+package com.github.fertkir.moneytransfer.entity;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.exc.InvalidFormatException;
+import org.junit.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.catchThrowable;
+
+public class MoneyTest {
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+
+    @Test
+    public void shouldParseAmountsInMajorUnits() {
+        assertThat(Money.parse("12")).isEqualTo(1200);
+        assertThat(Money.parse("12.5")).isEqualTo(1250);
+        assertThat(Money.parse("12.50")).isEqualTo(1250);
+        assertThat(Money.parse("12.500")).isEqualTo(1250);
+        assertThat(Money.parse("0.01")).isEqualTo(1);
+        assertThat(Money.parse(".5")).isEqualTo(50);
+        assertThat(Money.parse("+3.")).isEqualTo(300);
+        assertThat(Money.parse("-0.5")).isEqualTo(-50);
+        assertThat(Money.parse("92233720368547758.07")).isEqualTo(Long.MAX_VALUE);
+        assertThat(Money.parse("x12.5x".toCharArray(), 1, 4)).isEqualTo(1250);
+    }
+
+    @Test
+    public void shouldNotParseInexactOrTooLargeAmounts() {
+        assertThat(catchThrowable(() -> Money.parse("12.345")))
+                .isInstanceOf(NumberFormatException.class)
+                .hasMessage("Amount \"12.345\" has more than 2 decimal places");
+        assertThat(catchThrowable(() -> Money.parse("92233720368547758.08")))
+                .isInstanceOf(NumberFormatException.class)
+                .hasMessage("Amount \"92233720368547758.08\" is too large");
+        assertThat(catchThrowable(() -> Money.parse("100000000000000000")))
+                .isInstanceOf(NumberFormatException.class)
+                .hasMessage("Amount \"100000000000000000\" is too large");
+        for (String text : new String[]{"", "-", ".", "1..2", "1e3", "1,5", " 1"}) {
+            assertThat(catchThrowable(() -> Money.parse(text)))
+                    .isInstanceOf(NumberFormatException.class)
+                    .hasMessage("Amount \"" + text + "\" is not a number");
+        }
+    }
+
+    @Test
+    public void shouldFormatAmountsWithoutTrailingZeros() {
+        assertThat(Money.format(0)).isEqualTo("0");
+        assertThat(Money.format(1200)).isEqualTo("12");
+        assertThat(Money.format(1250)).isEqualTo("12.5");
+        assertThat(Money.format(1)).isEqualTo("0.01");
+        assertThat(Money.format(-1)).isEqualTo("-0.01");
+        assertThat(Money.format(Long.MAX_VALUE)).isEqualTo("92233720368547758.07");
+        assertThat(Money.format(Long.MIN_VALUE)).isEqualTo("-92233720368547758.08");
+    }
+
+    @Test
+    public void shouldWriteAndReadAmountsAsJsonNumbers() throws Exception {
+        // given
+        TransferRequest request = new TransferRequest(1L, 2L, 1250L);
+
+        // when
+        String json = objectMapper.writeValueAsString(request);
+
+        // then
+        assertThat(json).isEqualTo("{\"from\":1,\"to\":2,\"amount\":12.5}");
+        assertThat(objectMapper.readValue(json, TransferRequest.class)).isEqualTo(request);
+        assertThat(objectMapper.readValue("{\"from\":1,\"to\":2,\"amount\":12}", TransferRequest.class).getAmount())
+                .isEqualTo(1200);
+        assertThat(objectMapper.readValue("{\"from\":1,\"to\":2,\"amount\":\"0.5\"}", TransferRequest.class)
+                .getAmount()).isEqualTo(50);
+        assertThat(objectMapper.writeValueAsString(Account.builder().id(1L).balance(-700).build()))
+                .contains("\"balance\":-7");
+    }
+
+    @Test
+    public void shouldNotReadInexactAmountFromJson() {
+        // when
+        Throwable thrown = catchThrowable(() ->
+                objectMapper.readValue("{\"from\":1,\"to\":2,\"amount\":0.001}", TransferRequest.class));
+
+        // then
+        assertThat(thrown)
+                .isInstanceOf(InvalidFormatException.class)
+                .hasMessageStartingWith("Amount \"0.001\" has more than 2 decimal places");
+    }
+}
@@ -0,0 +1,96 @@
+package com.github.fertkir.moneytransfer.holds;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.catchThrowable;
+
+public class TimingWheelTest {
+
+    @Test
+    public void shouldHandOutIdsOnceTheirTickHasPassed() {
+        // given
+        TimingWheel wheel = new TimingWheel(10, 4, 1000);
+        wheel.schedule(1, 1025);
+        wheel.schedule(2, 1005);
+        wheel.schedule(3, 1030);
+        List<Long> due = new ArrayList<>();
+
+        // when
+        wheel.advance(1030, due::add);
+
+        // then
+        assertThat(due).containsExactly(2L, 1L);
+        assertThat(wheel.size()).isEqualTo(1);
+    }
+
+    @Test
+    public void shouldNeverHandOutIdsEarlyOrMoreThanTickLate() {
+        // given
+        TimingWheel wheel = new TimingWheel(10, 8, 0);
+        long[] dueMillis = new long[10_000];
+        for (int id = 0; id < dueMillis.length; id++) {
+            // spans several levels
+            dueMillis[id] = (id * 7919L) % 5_000_000;
+            wheel.schedule(id, dueMillis[id]);
+        }
+        long[] handedOut = new long[dueMillis.length];
+
+        // when
+        for (long now = 0; now <= 5_000_020; now += 10) {
+            long clock = now;
+            wheel.advance(now, id -> handedOut[(int) id] = clock);
+        }
+
+        // then
+        for (int id = 0; id < dueMillis.length; id++) {
+            assertThat(handedOut[id]).isGreaterThan(dueMillis[id]).isLessThanOrEqualTo(dueMillis[id] + 20);
+        }
+        assertThat(wheel.size()).isEqualTo(0);
+    }
+
+    @Test
+    public void shouldHandOutIdsDueInPastOnNextAdvance() {
+        // given
+        TimingWheel wheel = new TimingWheel(100, 512, 50_000);
+        wheel.schedule(1, 0);
+        List<Long> due = new ArrayList<>();
+
+        // when
+        wheel.advance(50_100, due::add);
+
+        // then
+        assertThat(due).containsExactly(1L);
+    }
+
+    @Test
+    public void shouldHandOutIdsManyLevelsAhead() {
+        // given
+        TimingWheel wheel = new TimingWheel(1, 2, 0);
+        wheel.schedule(1, 1 << 20);
+        List<Long> early = new ArrayList<>();
+        List<Long> due = new ArrayList<>();
+
+        // when
+        wheel.advance(1 << 20, early::add);
+        wheel.advance((1 << 20) + 1, due::add);
+
+        // then
+        assertThat(early).isEmpty();
+        assertThat(due).containsExactly(1L);
+    }
+
+    @Test
+    public void shouldRejectWheelSizeWhichIsNotPowerOfTwo() {
+        // when
+        Throwable thrown = catchThrowable(() -> new TimingWheel(10, 100, 0));
+
+        // then
+        assertThat(thrown)
+                .isInstanceOf(IllegalArgumentException.class)
+                .hasMessage("Tick must be positive and wheel size a power of two, but given 10 and 100");
+    }
+}
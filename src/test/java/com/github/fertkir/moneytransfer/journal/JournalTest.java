@@ -0,0 +1,211 @@
+package com.github.fertkir.moneytransfer.journal;
+
+import com.github.fertkir.moneytransfer.entity.Account;
+import com.github.fertkir.moneytransfer.entity.Money;
+import com.github.fertkir.moneytransfer.persistence.PersistenceException;
+import org.junit.After;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+
+import static java.util.Arrays.asList;
+import static java.util.Collections.singletonList;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.catchThrowable;
+
+public class JournalTest {
+
+    private static final int RECORDS_PER_SEGMENT = 4;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private final List<Journal> journals = new ArrayList<>();
+
+    @After
+    public void tearDown() {
+        journals.forEach(Journal::close);
+    }
+
+    @Test
+    public void shouldRecoverLatestStatesAfterRestart() {
+        // given
+        Journal journal = open(100);
+        journal.append(singletonList(account(1, 0, "0"))).join();
+        journal.append(asList(account(1, 1, "70"), account(2, 5, "30.50"))).join();
+        journal.append(singletonList(account(1, 2, "100"))).join();
+        journal.close();
+
+        // when
+        List<Account> recovered = new ArrayList<>(open(100).recover());
+
+        // then
+        assertThat(recovered).containsExactlyInAnyOrder(account(1, 2, "100"), account(2, 5, "30.50"));
+        assertThat(recovered).extracting(Account::getVersion).containsExactlyInAnyOrder(2L, 5L);
+    }
+
+    @Test
+    public void shouldNotRecoverPartiallyWrittenEntry() throws IOException {
+        // given
+        Journal journal = open(100);
+        journal.append(singletonList(account(1, 0, "100"))).join();
+        journal.append(asList(account(1, 1, "70"), account(2, 1, "30"))).join();
+        journal.close();
+        Path segment = segments().get(0);
+        try (RandomAccessFile file = new RandomAccessFile(segment.toFile(), "rw")) {
+            file.seek(2 * JournalSegment.RECORD_SIZE + 20);
+            file.write(0xFF);
+        }
+
+        // when
+        List<Account> recovered = new ArrayList<>(open(100).recover());
+
+        // then
+        assertThat(recovered).containsExactly(account(1, 0, "100"));
+    }
+
+    @Test
+    public void shouldRecoverBalanceWrittenWithAnotherScale() throws IOException {
+        // given
+        Journal journal = open(100);
+        journal.append(singletonList(account(1, 0, "0"))).join();
+        journal.close();
+        // as the record would have been written for a BigDecimal balance of 30.5
+        ByteBuffer record = ByteBuffer.allocate(JournalSegment.RECORD_SIZE);
+        try (FileChannel channel = FileChannel.open(segments().get(0), StandardOpenOption.READ,
+                StandardOpenOption.WRITE)) {
+            channel.read(record, 0);
+            record.put(5, (byte) 1);
+            record.putLong(24, 305);
+            CRC32 crc = new CRC32();
+            crc.update(record.array(), 4, JournalSegment.RECORD_SIZE - 4);
+            record.putInt(0, (int) crc.getValue());
+            record.rewind();
+            channel.write(record, 0);
+        }
+
+        // when
+        List<Account> recovered = new ArrayList<>(open(100).recover());
+
+        // then
+        assertThat(recovered).containsExactly(account(1, 0, "30.5"));
+    }
+
+    @Test
+    public void shouldDeleteFilledSegmentsAfterCheckpoint() throws Exception {
+        // given
+        JournalStatistics statistics = new JournalStatistics();
+        Journal journal = open(2, statistics);
+
+        // when
+        for (int version = 0; version < 20; version++) {
+            journal.append(asList(account(1, version, "" + version), account(2, version, "1"))).join();
+        }
+        awaitCheckpoint(statistics);
+        journal.close();
+
+        // then
+        assertThat(statistics.getCheckpoints()).isPositive();
+        assertThat(segments().size()).isLessThan(20 * 2 / RECORDS_PER_SEGMENT);
+        assertThat(open(100).recover()).containsExactlyInAnyOrder(account(1, 19, "19"), account(2, 19, "1"));
+    }
+
+    @Test
+    public void shouldRecoverSnapshotAndSegmentsWrittenAfterItInChunksOrderedById() throws Exception {
+        // given
+        JournalStatistics statistics = new JournalStatistics();
+        Journal journal = open(2, statistics);
+        for (int version = 0; version < 10; version++) {
+            journal.append(asList(account(3, version, "" + version), account(1, version, "1"))).join();
+        }
+        awaitCheckpoint(statistics);
+        journal.append(asList(account(2, 0, "5"), account(3, 10, "10"))).join();
+        journal.close();
+        List<List<Account>> chunks = new ArrayList<>();
+
+        // when
+        long recovered = open(100).recover(2, chunks::add);
+
+        // then
+        assertThat(files(JournalSnapshot.SUFFIX)).hasSize(1);
+        assertThat(recovered).isEqualTo(3);
+        assertThat(chunks).containsExactly(
+                asList(account(1, 9, "1"), account(2, 0, "5")),
+                singletonList(account(3, 10, "10")));
+        assertThat(chunks.get(1).get(0).getVersion()).isEqualTo(10L);
+    }
+
+    @Test
+    public void shouldFailToRecoverDamagedSnapshot() throws Exception {
+        // given
+        JournalStatistics statistics = new JournalStatistics();
+        Journal journal = open(2, statistics);
+        for (int version = 0; version < 10; version++) {
+            journal.append(asList(account(1, version, "" + version), account(2, version, "1"))).join();
+        }
+        awaitCheckpoint(statistics);
+        journal.close();
+        try (RandomAccessFile file = new RandomAccessFile(files(JournalSnapshot.SUFFIX).get(0).toFile(), "rw")) {
+            file.seek(20);
+            file.write(0xFF);
+        }
+
+        // when
+        Throwable thrown = catchThrowable(() -> open(100).recover());
+
+        // then
+        assertThat(thrown)
+                .isInstanceOf(PersistenceException.class)
+                .hasMessageContaining("is damaged");
+    }
+
+    private Journal open(int checkpointSegments) {
+        return open(checkpointSegments, new JournalStatistics());
+    }
+
+    private Journal open(int checkpointSegments, JournalStatistics statistics) {
+        Journal journal = new Journal(folder.getRoot().getPath(), RECORDS_PER_SEGMENT * JournalSegment.RECORD_SIZE,
+                16, checkpointSegments, statistics);
+        journals.add(journal);
+        return journal;
+    }
+
+    private List<Path> segments() throws IOException {
+        return files(JournalSegment.SUFFIX);
+    }
+
+    private List<Path> files(String suffix) throws IOException {
+        try (Stream<Path> files = Files.list(folder.getRoot().toPath())) {
+            return files.filter(path -> path.getFileName().toString().endsWith(suffix))
+                    .sorted()
+                    .collect(Collectors.toList());
+        }
+    }
+
+    private static void awaitCheckpoint(JournalStatistics statistics) throws InterruptedException {
+        for (int i = 0; i < 100 && statistics.getCheckpoints() == 0; i++) {
+            Thread.sleep(10);
+        }
+    }
+
+    private static Account account(long id, long version, String balance) {
+        return Account.builder()
+                .id(id)
+                .version(version)
+                .balance(Money.parse(balance))
+                .build();
+    }
+}
@@ -0,0 +1,48 @@
+package com.github.fertkir.moneytransfer.metrics;
+
+import org.junit.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.within;
+
+public class LatencyRecorderTest {
+
+    private final LatencyRecorder recorder = new LatencyRecorder();
+
+    @Test
+    public void shouldReturnQuantilesWithinBucketPrecision() {
+        // given
+        for (long value = 1; value <= 100_000; value++) {
+            recorder.record(value * 1000);
+        }
+
+        // when
+        long median = recorder.getValueAtQuantile(0.5);
+        long p99 = recorder.getValueAtQuantile(0.99);
+
+        // then
+        assertThat(recorder.getCount()).isEqualTo(100_000);
+        assertThat(recorder.getMax()).isEqualTo(100_000_000);
+        assertThat((double) median).isCloseTo(50_000_000, within(50_000_000 / 16.0));
+        assertThat((double) p99).isCloseTo(99_000_000, within(99_000_000 / 16.0));
+        assertThat(recorder.getValueAtQuantile(1)).isEqualTo(100_000_000);
+    }
+
+    @Test
+    public void shouldCountValuesBelowPowerOfTwoExactly() {
+        // given
+        recorder.record(1023);
+        recorder.record(1024);
+        recorder.record(1025);
+        recorder.record(Long.MAX_VALUE);
+        recorder.record(-1);
+
+        // when
+        long below = recorder.getCountBelow(1024);
+
+        // then
+        assertThat(below).isEqualTo(2);
+        assertThat(recorder.getCountBelow(1L << 62)).isEqualTo(4);
+        assertThat(recorder.getCount()).isEqualTo(5);
+    }
+}
@@ -0,0 +1,104 @@
+package com.github.fertkir.moneytransfer.persistence;
+
+import com.github.fertkir.moneytransfer.ApplicationMain;
+import com.google.inject.Injector;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static com.github.fertkir.moneytransfer.persistence.StatementBinder.NO_PARAMETERS;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.catchThrowable;
+
+public class JdbcTemplateIntegrationTest {
+
+    private static final int ROWS = 10_000;
+    private static final AtomicInteger evaluatedRows = new AtomicInteger();
+
+    private static final Injector injector = ApplicationMain.getInjector();
+
+    private final TransactionTemplate transactionTemplate = injector.getInstance(TransactionTemplate.class);
+    private final JdbcTemplate jdbcTemplate = injector.getInstance(JdbcTemplate.class);
+    private final ConnectionKeeper connectionKeeper = injector.getInstance(ConnectionKeeper.class);
+
+    /**
+     * Called by H2 for every row of the query it evaluates.
+     */
+    public static long evaluate(long value) {
+        evaluatedRows.incrementAndGet();
+        return value;
+    }
+
+    @Before
+    public void setUp() {
+        evaluatedRows.set(0);
+        transactionTemplate.execute(() -> jdbcTemplate.update(String.format(
+                "CREATE ALIAS evaluate FOR \"%s.evaluate\"", getClass().getName()), NO_PARAMETERS));
+    }
+
+    @After
+    public void tearDown() {
+        transactionTemplate.execute(() -> jdbcTemplate.update("DROP ALIAS evaluate", NO_PARAMETERS));
+    }
+
+    @Test
+    public void queryForEachShouldHandRowsToConsumerBeforeQueryHasReadThemAll() {
+        // given
+        List<Integer> evaluatedOnFirstRow = new ArrayList<>();
+        List<Long> values = new ArrayList<>();
+
+        // when
+        transactionTemplate.execute(() -> {
+            jdbcTemplate.queryForEach("SELECT evaluate(x) FROM system_range(1, " + ROWS + ")", NO_PARAMETERS, 100,
+                    rs -> rs.getLong(1), value -> {
+                        if (values.isEmpty()) {
+                            evaluatedOnFirstRow.add(evaluatedRows.get());
+                        }
+                        values.add(value);
+                    });
+            return null;
+        });
+
+        // then
+        assertThat(values).hasSize(ROWS);
+        assertThat(evaluatedOnFirstRow.get(0)).isLessThan(ROWS);
+    }
+
+    @Test
+    public void connectionBrokenUnderCachedStatementShouldNotBeHandedOutAgain() {
+        // given
+        List<Connection> broken = new ArrayList<>();
+        Throwable thrown = catchThrowable(() -> transactionTemplate.execute(() -> {
+            try {
+                Connection physicalConnection = connectionKeeper.getConnection().unwrap(Connection.class);
+                broken.add(physicalConnection);
+                physicalConnection.close();
+            } catch (SQLException e) {
+                throw new PersistenceException(e);
+            }
+            return jdbcTemplate.queryForObject("SELECT 1", NO_PARAMETERS, rs -> rs.getInt(1));
+        }));
+
+        // when
+        List<Connection> used = new ArrayList<>();
+        int result = transactionTemplate.execute(() -> {
+            try {
+                used.add(connectionKeeper.getConnection().unwrap(Connection.class));
+            } catch (SQLException e) {
+                throw new PersistenceException(e);
+            }
+            return jdbcTemplate.queryForObject("SELECT 1", NO_PARAMETERS, rs -> rs.getInt(1)).get();
+        });
+
+        // then
+        assertThat(thrown).isInstanceOf(PersistenceException.class);
+        assertThat(result).isEqualTo(1);
+        assertThat(used.get(0)).isNotSameAs(broken.get(0));
+    }
+}
@@ -0,0 +1,74 @@
+package com.github.fertkir.moneytransfer.persistence;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.junit.MockitoJUnitRunner;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.*;
+
+@RunWith(MockitoJUnitRunner.class)
+public class StatementCacheTest {
+
+    @Mock
+    private Connection connection;
+
+    private final StatementCacheStatistics statistics = new StatementCacheStatistics();
+    private StatementCache statementCache;
+
+    @Before
+    public void setUp() throws SQLException {
+        when(connection.prepareStatement(anyString())).thenAnswer(invocation -> mock(PreparedStatement.class));
+        statementCache = new StatementCache(connection, 2, statistics);
+    }
+
+    @Test
+    public void shouldReuseStatementForSameSql() throws SQLException {
+        // when
+        PreparedStatement first = statementCache.get("SELECT 1");
+        PreparedStatement second = statementCache.get("SELECT 1");
+
+        // then
+        assertThat(second).isSameAs(first);
+        verify(connection, times(1)).prepareStatement("SELECT 1");
+        assertThat(statistics.getMisses()).isEqualTo(1);
+        assertThat(statistics.getHits()).isEqualTo(1);
+    }
+
+    @Test
+    public void shouldEvictAndCloseLeastRecentlyUsedStatement() throws SQLException {
+        // given
+        PreparedStatement first = statementCache.get("SELECT 1");
+        PreparedStatement second = statementCache.get("SELECT 2");
+        statementCache.get("SELECT 1");
+
+        // when
+        statementCache.get("SELECT 3");
+
+        // then
+        verify(second).close();
+        verify(first, never()).close();
+        assertThat(statistics.getEvictions()).isEqualTo(1);
+        assertThat(statementCache.get("SELECT 1")).isSameAs(first);
+    }
+
+    @Test
+    public void shouldPrepareAgainIfStatementWasClosed() throws SQLException {
+        // given
+        PreparedStatement closed = statementCache.get("SELECT 1");
+        when(closed.isClosed()).thenReturn(true);
+
+        // when
+        PreparedStatement statement = statementCache.get("SELECT 1");
+
+        // then
+        assertThat(statement).isNotSameAs(closed);
+        assertThat(statistics.getMisses()).isEqualTo(2);
+    }
+}
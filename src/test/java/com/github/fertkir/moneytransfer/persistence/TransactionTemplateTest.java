@@ -1,5 +1,6 @@
 package com.github.fertkir.moneytransfer.persistence;
 
+import com.zaxxer.hikari.HikariDataSource;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.mockito.InOrder;
@@ -10,8 +11,14 @@ import org.mockito.junit.MockitoJUnitRunner;
 import javax.sql.DataSource;
 import java.sql.Connection;
 import java.sql.SQLException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 import java.util.function.Supplier;
 
+import static java.util.Arrays.asList;
 import static org.assertj.core.api.Assertions.assertThat;
 import static org.assertj.core.api.Assertions.catchThrowable;
 import static org.mockito.Mockito.*;
@@ -23,6 +30,10 @@ public class TransactionTemplateTest {
     private DataSource dataSource;
     @Mock
     private ConnectionKeeper connectionKeeper;
+    @Mock
+    private RetryPolicy retryPolicy;
+    @Mock
+    private TransactionStatistics statistics;
     @InjectMocks
     private TransactionTemplate transactionTemplate;
 
@@ -41,15 +52,35 @@ public class TransactionTemplateTest {
         // then
         InOrder inOrder = inOrder(connection, supplier, connectionKeeper);
         inOrder.verify(connectionKeeper).set(connection);
+        inOrder.verify(connection).getTransactionIsolation();
         inOrder.verify(connection).setTransactionIsolation(Connection.TRANSACTION_REPEATABLE_READ);
         inOrder.verify(connection).setAutoCommit(false);
         inOrder.verify(supplier).get();
+        inOrder.verify(connectionKeeper).getBeforeCommitCallbacks();
         inOrder.verify(connection).commit();
+        inOrder.verify(connectionKeeper).getAfterCommitCallbacks();
+        inOrder.verify(connectionKeeper).getAfterCompletionCallbacks();
+        inOrder.verify(connectionKeeper).isConnectionBroken();
         inOrder.verify(connectionKeeper).remove();
         inOrder.verify(connection).close();
         verifyNoMoreInteractions(connection, supplier, connectionKeeper);
     }
 
+    @Test
+    public void shouldNotSetIsolationLevelConnectionAlreadyHas() throws SQLException {
+        // given
+        Connection connection = mock(Connection.class);
+        when(dataSource.getConnection()).thenReturn(connection);
+        when(connection.getTransactionIsolation()).thenReturn(Connection.TRANSACTION_REPEATABLE_READ);
+
+        // when
+        transactionTemplate.execute(supplier);
+
+        // then
+        verify(connection, never()).setTransactionIsolation(anyInt());
+        verify(connection).commit();
+    }
+
     @Test
     public void shouldHandleUnsuccessfulTransactionCorrectly() throws SQLException {
         // given
@@ -64,10 +95,13 @@ public class TransactionTemplateTest {
         // then
         InOrder inOrder = inOrder(connection, supplier, connectionKeeper);
         inOrder.verify(connectionKeeper).set(connection);
+        inOrder.verify(connection).getTransactionIsolation();
         inOrder.verify(connection).setTransactionIsolation(Connection.TRANSACTION_REPEATABLE_READ);
         inOrder.verify(connection).setAutoCommit(false);
         inOrder.verify(supplier).get();
         inOrder.verify(connection).rollback();
+        inOrder.verify(connectionKeeper).getAfterCompletionCallbacks();
+        inOrder.verify(connectionKeeper).isConnectionBroken();
         inOrder.verify(connectionKeeper).remove();
         inOrder.verify(connection).close();
         verifyNoMoreInteractions(connection, supplier, connectionKeeper);
@@ -75,6 +109,158 @@ public class TransactionTemplateTest {
         assertThat(thrown).hasCause(exception);
     }
 
+    @Test
+    public void shouldEvictConnectionBrokenByStatementFromPool() throws SQLException {
+        // given
+        Connection connection = mock(Connection.class);
+        when(dataSource.getConnection()).thenReturn(connection);
+        HikariDataSource pool = mock(HikariDataSource.class);
+        when(dataSource.isWrapperFor(HikariDataSource.class)).thenReturn(true);
+        when(dataSource.unwrap(HikariDataSource.class)).thenReturn(pool);
+        when(connectionKeeper.isConnectionBroken()).thenReturn(true);
+        when(supplier.get()).thenThrow(new PersistenceException("Connection is broken"));
+
+        // when
+        catchThrowable(() -> transactionTemplate.execute(supplier));
+
+        // then
+        InOrder inOrder = inOrder(connection, pool);
+        inOrder.verify(connection).rollback();
+        inOrder.verify(pool).evictConnection(connection);
+        inOrder.verify(connection).close();
+    }
+
+    @Test
+    public void shouldRunAfterCommitCallbacksOnceConnectionIsReleased() throws SQLException {
+        // given
+        Connection connection = mock(Connection.class);
+        when(dataSource.getConnection()).thenReturn(connection);
+        Runnable failingCallback = mock(Runnable.class);
+        doThrow(new RuntimeException()).when(failingCallback).run();
+        Runnable callback = mock(Runnable.class);
+        when(connectionKeeper.getAfterCommitCallbacks()).thenReturn(asList(failingCallback, callback));
+
+        // when
+        transactionTemplate.execute(supplier);
+
+        // then
+        InOrder inOrder = inOrder(connection, failingCallback, callback);
+        inOrder.verify(connection).commit();
+        inOrder.verify(connection).close();
+        inOrder.verify(failingCallback).run();
+        inOrder.verify(callback).run();
+    }
+
+    @Test
+    public void shouldRunAfterCompletionCallbacksWhenTransactionIsRolledBack() throws SQLException {
+        // given
+        Connection connection = mock(Connection.class);
+        when(dataSource.getConnection()).thenReturn(connection);
+        when(supplier.get()).thenThrow(new RuntimeException());
+        Runnable afterCompletion = mock(Runnable.class);
+        when(connectionKeeper.getAfterCompletionCallbacks()).thenReturn(asList(afterCompletion));
+
+        // when
+        catchThrowable(() -> transactionTemplate.execute(supplier));
+
+        // then
+        InOrder inOrder = inOrder(connection, afterCompletion);
+        inOrder.verify(connection).rollback();
+        inOrder.verify(connection).close();
+        inOrder.verify(afterCompletion).run();
+    }
+
+    @Test
+    public void shouldRollbackIfBeforeCommitCallbackFails() throws SQLException {
+        // given
+        Connection connection = mock(Connection.class);
+        when(dataSource.getConnection()).thenReturn(connection);
+        RuntimeException exception = new RuntimeException();
+        Runnable callback = mock(Runnable.class);
+        doThrow(exception).when(callback).run();
+        when(connectionKeeper.getBeforeCommitCallbacks()).thenReturn(asList(callback));
+
+        // when
+        Throwable thrown = catchThrowable(() -> transactionTemplate.execute(supplier));
+
+        // then
+        InOrder inOrder = inOrder(connection, supplier, callback);
+        inOrder.verify(supplier).get();
+        inOrder.verify(callback).run();
+        inOrder.verify(connection).rollback();
+        verify(connection, never()).commit();
+
+        assertThat(thrown).hasCause(exception);
+    }
+
+    @Test
+    public void shouldJoinTransactionInProgress() throws SQLException {
+        // given
+        Connection connection = mock(Connection.class);
+        when(dataSource.getConnection()).thenReturn(connection);
+        when(supplier.get()).thenReturn(42);
+
+        // when
+        Integer result = transactionTemplate.execute(() -> transactionTemplate.execute(supplier));
+
+        // then
+        verify(dataSource).getConnection();
+        verify(connection).commit();
+        assertThat(result).isEqualTo(42);
+    }
+
+    @Test
+    public void shouldRetryTransactionFailedWithConflict() throws SQLException {
+        // given
+        Connection connection = mock(Connection.class);
+        when(dataSource.getConnection()).thenReturn(connection);
+        SQLException conflict = new SQLException("Deadlock detected", "40001");
+        when(supplier.get()).thenThrow(new PersistenceException(conflict)).thenReturn(42);
+        when(retryPolicy.isRetryable(any())).thenReturn(true);
+        when(retryPolicy.getMaxAttempts()).thenReturn(3);
+
+        // when
+        Integer result = transactionTemplate.execute(supplier);
+
+        // then
+        InOrder inOrder = inOrder(connection, supplier, statistics);
+        inOrder.verify(supplier).get();
+        inOrder.verify(connection).rollback();
+        inOrder.verify(statistics).recordRetry();
+        inOrder.verify(supplier).get();
+        inOrder.verify(connection).commit();
+        verify(retryPolicy).backoffMillis(1);
+        verify(statistics, never()).recordExhaustedRetries();
+        verify(statistics, times(2)).recordConnectionAcquisition(anyLong());
+        verify(statistics, times(2)).recordAttempt(anyLong());
+        verify(statistics).recordCommit(anyLong());
+
+        assertThat(result).isEqualTo(42);
+    }
+
+    @Test
+    public void shouldGiveUpAfterMaxAttempts() throws SQLException {
+        // given
+        Connection connection = mock(Connection.class);
+        when(dataSource.getConnection()).thenReturn(connection);
+        SQLException conflict = new SQLException("Timeout trying to lock table", "50200");
+        when(supplier.get()).thenThrow(new PersistenceException(conflict));
+        when(retryPolicy.isRetryable(any())).thenReturn(true);
+        when(retryPolicy.getMaxAttempts()).thenReturn(2);
+
+        // when
+        Throwable thrown = catchThrowable(() -> transactionTemplate.execute(supplier));
+
+        // then
+        verify(supplier, times(2)).get();
+        verify(connection, times(2)).rollback();
+        verify(statistics).recordRetry();
+        verify(statistics).recordExhaustedRetries();
+        verify(connection, never()).commit();
+
+        assertThat(thrown).hasRootCause(conflict);
+    }
+
     @Test
     public void shouldHandleExceptionIfCouldNotGetConnection() throws SQLException {
         // given
@@ -88,4 +274,58 @@ public class TransactionTemplateTest {
         verifyNoMoreInteractions(supplier, connectionKeeper);
         assertThat(thrown).hasCause(exception);
     }
-}
\ No newline at end of file
+
+    @Test
+    public void shouldMarkConnectionOfReadOnlyTransactionReadOnly() throws SQLException {
+        // given
+        Connection connection = mock(Connection.class);
+        when(dataSource.getConnection()).thenReturn(connection);
+
+        // when
+        transactionTemplate.executeReadOnly(supplier);
+
+        // then
+        InOrder inOrder = inOrder(connection, supplier);
+        inOrder.verify(connection).setReadOnly(true);
+        inOrder.verify(supplier).get();
+        inOrder.verify(connection).commit();
+    }
+
+    @Test
+    public void shouldAwaitOnlyTransactionsWhichMayWrite() throws Exception {
+        // given
+        when(dataSource.getConnection()).thenAnswer(invocation -> mock(Connection.class));
+        CountDownLatch started = new CountDownLatch(2);
+        CountDownLatch release = new CountDownLatch(1);
+        ExecutorService executor = Executors.newFixedThreadPool(3);
+        try {
+            executor.submit(() -> transactionTemplate.execute(() -> await(started, release)));
+            executor.submit(() -> transactionTemplate.executeReadOnly(() -> await(started, new CountDownLatch(1))));
+            started.await();
+
+            // when
+            Future<?> awaited = executor.submit(() -> {
+                transactionTemplate.awaitRunningTransactions();
+                return null;
+            });
+
+            // then
+            Thread.sleep(50);
+            assertThat(awaited).isNotDone();
+            release.countDown();
+            awaited.get(1, TimeUnit.SECONDS);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private static Integer await(CountDownLatch started, CountDownLatch release) {
+        started.countDown();
+        try {
+            release.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        return null;
+    }
+}
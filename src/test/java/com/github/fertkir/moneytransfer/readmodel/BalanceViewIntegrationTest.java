@@ -0,0 +1,132 @@
+package com.github.fertkir.moneytransfer.readmodel;
+
+import com.github.fertkir.moneytransfer.ApplicationMain;
+import com.github.fertkir.moneytransfer.dao.AccountDao;
+import com.github.fertkir.moneytransfer.dao.LedgerDao;
+import com.github.fertkir.moneytransfer.entity.Account;
+import com.github.fertkir.moneytransfer.persistence.TransactionTemplate;
+import com.github.fertkir.moneytransfer.service.AccountService;
+import com.github.fertkir.moneytransfer.service.impl.AccountServiceImpl;
+import com.google.inject.Injector;
+import org.h2.tools.RunScript;
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.Test;
+
+import javax.sql.DataSource;
+import java.io.InputStreamReader;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class BalanceViewIntegrationTest {
+
+    private static final Injector injector = ApplicationMain.getInjector();
+
+    private final TransactionTemplate transactionTemplate = injector.getInstance(TransactionTemplate.class);
+    private final AccountDao accountDao = injector.getInstance(AccountDao.class);
+    private final AccountChangeStream changes = new AccountChangeStream(transactionTemplate);
+    private final AccountService accountService = new AccountServiceImpl(
+            accountDao, injector.getInstance(LedgerDao.class), transactionTemplate, changes);
+    private BalanceView balanceView;
+    private long existingId;
+
+    @AfterClass
+    public static void tearDown() throws SQLException {
+        DataSource dataSource = injector.getInstance(DataSource.class);
+        try (Connection connection = dataSource.getConnection()) {
+            RunScript.execute(connection, new InputStreamReader(BalanceViewIntegrationTest.class.getClassLoader()
+                    .getResourceAsStream("clean.sql")));
+        }
+    }
+
+    @Before
+    public void setUp() throws InterruptedException {
+        existingId = accountService.createNew().getId();
+        accountService.topUp(existingId, 500L);
+        balanceView = new BalanceView(changes, accountDao, transactionTemplate, true, 1);
+        for (int i = 0; i < 100 && !balanceView.isLoaded(); i++) {
+            Thread.sleep(10);
+        }
+    }
+
+    @Test
+    public void shouldLoadAccountsExistingOnStartUp() {
+        // when
+        Optional<ViewRead<Account>> read = balanceView.getById(existingId);
+
+        // then
+        assertThat(read).isPresent();
+        assertThat(read.get().getValue().getBalance()).isEqualTo(500L);
+        assertThat(read.get().getStalenessMillis()).isEqualTo(0L);
+    }
+
+    @Test
+    public void shouldReflectCommittedWrites() {
+        // given
+        long from = accountService.createNew().getId();
+        long to = accountService.createNew().getId();
+        accountService.topUp(from, 1000L);
+
+        // when
+        accountService.transfer(from, to, 300L);
+
+        // then
+        assertThat(balanceView.getById(from).map(read -> read.getValue().getBalance())).contains(700L);
+        assertThat(balanceView.getById(to).map(read -> read.getValue().getBalance())).contains(300L);
+        assertThat(balanceView.getById(from).map(read -> read.getValue().getVersion()))
+                .contains(accountService.getById(from).getVersion());
+    }
+
+    @Test
+    public void shouldListAccountsOrderedById() {
+        // given
+        long first = accountService.createNew().getId();
+        List<Account> created = accountService.createNew(3000);
+
+        // when
+        Optional<ViewRead<List<Account>>> page = balanceView.list(first, 2000);
+
+        // then
+        assertThat(page).isPresent();
+        assertThat(page.get().getValue()).extracting(Account::getId)
+                .isSorted()
+                .hasSize(2000)
+                .startsWith(created.get(0).getId());
+        assertThat(balanceView.list(created.get(2998).getId(), 10).map(ViewRead::getValue).get())
+                .extracting(Account::getId)
+                .containsExactly(created.get(2999).getId());
+    }
+
+    @Test
+    public void shouldNotServeReadsWhileCommitIsUndeliveredLongerThanAllowed() {
+        // given
+        AtomicReference<Optional<ViewRead<Account>>> readDuringCommit = new AtomicReference<>();
+
+        // when
+        transactionTemplate.execute(() -> {
+            accountService.topUp(existingId, 1L);
+            transactionTemplate.beforeCommit(() -> {
+                sleep(5);
+                readDuringCommit.set(balanceView.getById(existingId));
+            });
+            return null;
+        });
+
+        // then
+        assertThat(readDuringCommit.get()).isEmpty();
+        assertThat(balanceView.getById(existingId)).isPresent();
+    }
+
+    private static void sleep(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
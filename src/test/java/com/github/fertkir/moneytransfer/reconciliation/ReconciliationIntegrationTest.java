@@ -0,0 +1,163 @@
+package com.github.fertkir.moneytransfer.reconciliation;
+
+import com.github.fertkir.moneytransfer.ApplicationMain;
+import com.github.fertkir.moneytransfer.dao.AccountDao;
+import com.github.fertkir.moneytransfer.dao.LedgerDao;
+import com.github.fertkir.moneytransfer.dao.ReconciliationDao;
+import com.github.fertkir.moneytransfer.entity.LedgerEntry;
+import com.github.fertkir.moneytransfer.entity.ReconciliationReport;
+import com.github.fertkir.moneytransfer.persistence.JdbcTemplate;
+import com.github.fertkir.moneytransfer.persistence.TransactionTemplate;
+import com.github.fertkir.moneytransfer.service.AccountService;
+import com.google.inject.Injector;
+import org.h2.tools.RunScript;
+import org.junit.After;
+import org.junit.Test;
+
+import javax.sql.DataSource;
+import java.io.InputStreamReader;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static java.util.Collections.singletonList;
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class ReconciliationIntegrationTest {
+
+    private static final Injector injector = ApplicationMain.getInjector();
+    private static final long RANGE_SIZE = 3;
+
+    private final TransactionTemplate transactionTemplate = injector.getInstance(TransactionTemplate.class);
+    private final JdbcTemplate jdbcTemplate = injector.getInstance(JdbcTemplate.class);
+    private final AccountService accountService = injector.getInstance(AccountService.class);
+    private final Reconciliation reconciliation = new Reconciliation(transactionTemplate,
+            injector.getInstance(ReconciliationDao.class), injector.getInstance(AccountDao.class),
+            injector.getInstance(LedgerDao.class), 2, RANGE_SIZE, 10, 0);
+
+    @After
+    public void tearDown() throws SQLException {
+        DataSource dataSource = injector.getInstance(DataSource.class);
+        try (Connection connection = dataSource.getConnection()) {
+            RunScript.execute(connection, new InputStreamReader(ReconciliationIntegrationTest.class.getClassLoader()
+                    .getResourceAsStream("clean.sql")));
+        }
+    }
+
+    @Test
+    public void shouldFindNoDiscrepanciesWhileTransfersGoOn() throws Exception {
+        // given
+        List<Long> ids = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            ids.add(accountService.createNew().getId());
+            accountService.topUp(ids.get(i), 1000L);
+        }
+        accountService.withdraw(ids.get(0), 300L);
+        AtomicBoolean stopped = new AtomicBoolean();
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        Future<?> transfers = executor.submit(() -> {
+            for (int i = 0; !stopped.get(); i++) {
+                accountService.transfer(ids.get(i % 10), ids.get((i + 7) % 10), 1L);
+            }
+        });
+
+        // when
+        ReconciliationReport report;
+        try {
+            report = reconciliation.run();
+        } finally {
+            stopped.set(true);
+            transfers.get();
+            executor.shutdown();
+        }
+
+        // then
+        assertThat(report.isConsistent()).isTrue();
+        assertThat(report.getDiscrepancies()).isEmpty();
+        assertThat(report.getAccounts()).isEqualTo(10);
+        assertThat(report.getTopUps()).isEqualTo(10_000L);
+        assertThat(report.getWithdrawals()).isEqualTo(-300L);
+        assertThat(report.getTransfers()).isZero();
+        assertThat(report.getRanges()).extracting(ReconciliationReport.Range::getFromId).isSorted();
+        assertThat(report.getRanges().get(report.getRanges().size() - 1).getToId())
+                .isGreaterThan(report.getMaxAccountId());
+        assertThat(reconciliation.getLastReport()).contains(report);
+    }
+
+    @Test
+    public void shouldReportBalanceChangedBypassingLedger() throws InterruptedException {
+        // given
+        long id = accountService.createNew().getId();
+        accountService.topUp(id, 1000L);
+        transactionTemplate.execute(() -> jdbcTemplate.update("UPDATE account SET balance = balance + 1 WHERE id = ?",
+                statement -> statement.setLong(1, id)));
+
+        // when
+        ReconciliationReport report = reconciliation.run();
+
+        // then
+        assertThat(report.isConsistent()).isFalse();
+        assertThat(report.getDiscrepancyCount()).isEqualTo(1);
+        assertThat(report.getDiscrepancies()).containsExactly(ReconciliationReport.Discrepancy.builder()
+                .type(ReconciliationReport.DiscrepancyType.BALANCE_MISMATCH)
+                .accountId(id)
+                .message("Balance 10.01 differs from 10 recorded in the ledger")
+                .build());
+        assertThat(report.getBalance()).isEqualTo(1001L);
+    }
+
+    @Test
+    public void shouldReportTransferWithoutCounterpart() throws InterruptedException {
+        // given
+        long id = accountService.createNew().getId();
+        transactionTemplate.execute(() -> {
+            injector.getInstance(LedgerDao.class).insertAll(singletonList(LedgerEntry.builder()
+                    .accountId(id)
+                    .type(LedgerEntry.Type.TRANSFER)
+                    .amount(500L)
+                    .balance(500L)
+                    .counterpartyId(id + 1)
+                    .createdAt(System.currentTimeMillis())
+                    .build()));
+            return jdbcTemplate.update("UPDATE account SET balance = 500 WHERE id = ?",
+                    statement -> statement.setLong(1, id));
+        });
+
+        // when
+        ReconciliationReport report = reconciliation.run();
+
+        // then
+        assertThat(report.getDiscrepancies()).containsExactly(ReconciliationReport.Discrepancy.builder()
+                .type(ReconciliationReport.DiscrepancyType.UNPAIRED_TRANSFERS)
+                .message("Transfer entries sum up to 5 rather than 0")
+                .build());
+        assertThat(report.getTransfers()).isEqualTo(500L);
+    }
+
+    @Test
+    public void shouldChecksumRangesByTheirAccounts() throws InterruptedException {
+        // given
+        long id = accountService.createNew().getId();
+        String before = rangeOf(reconciliation.run(), id).getChecksum();
+
+        // when
+        accountService.topUp(id, 1L);
+
+        // then
+        ReconciliationReport report = reconciliation.run();
+        assertThat(rangeOf(report, id).getChecksum()).isNotEqualTo(before);
+        assertThat(rangeOf(reconciliation.run(), id).getChecksum()).isEqualTo(rangeOf(report, id).getChecksum());
+    }
+
+    private static ReconciliationReport.Range rangeOf(ReconciliationReport report, long id) {
+        return report.getRanges().stream()
+                .filter(range -> range.getFromId() <= id && id < range.getToId())
+                .findFirst()
+                .orElseThrow(AssertionError::new);
+    }
+}
@@ -0,0 +1,84 @@
+package com.github.fertkir.moneytransfer.service.impl;
+
+import com.github.fertkir.moneytransfer.ApplicationMain;
+import com.github.fertkir.moneytransfer.config.VirtualThreads;
+import com.github.fertkir.moneytransfer.entity.Account;
+import com.github.fertkir.moneytransfer.service.AccountService;
+import com.google.inject.Injector;
+import org.h2.tools.RunScript;
+import org.junit.AfterClass;
+import org.junit.Test;
+
+import javax.sql.DataSource;
+import java.io.InputStreamReader;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.Assume.assumeTrue;
+
+public class AccountServiceImplConcurrencyTest {
+
+    private static final int THREADS = 64;
+    private static final int ITERATIONS = 100;
+
+    private static final Injector injector = ApplicationMain.getInjector();
+
+    private final AccountService accountService = injector.getInstance(AccountServiceImpl.class);
+
+    @AfterClass
+    public static void tearDown() throws SQLException {
+        DataSource dataSource = injector.getInstance(DataSource.class);
+        try (Connection connection = dataSource.getConnection()) {
+            RunScript.execute(connection, new InputStreamReader(AccountServiceImplConcurrencyTest.class.getClassLoader()
+                    .getResourceAsStream("clean.sql")));
+        }
+    }
+
+    @Test
+    public void concurrentTopUpsAndWithdrawalsShouldNotLoseUpdates() throws Exception {
+        concurrentTopUpsAndWithdrawalsShouldNotLoseUpdates(Executors.newFixedThreadPool(THREADS));
+    }
+
+    @Test
+    public void concurrentTopUpsAndWithdrawalsShouldNotLoseUpdatesOnVirtualThreads() throws Exception {
+        assumeTrue(VirtualThreads.isSupported());
+        // the threads move between carriers while waiting for connections, and their transactions mustn't mix up
+        concurrentTopUpsAndWithdrawalsShouldNotLoseUpdates(VirtualThreads.newThreadPerTaskExecutor("test-"));
+    }
+
+    private void concurrentTopUpsAndWithdrawalsShouldNotLoseUpdates(ExecutorService executor) throws Exception {
+        // given
+        long accountId = accountService.createNew().getId();
+        accountService.topUp(accountId, 1000L);
+        CountDownLatch start = new CountDownLatch(1);
+        List<Future<?>> futures = new ArrayList<>();
+
+        // when
+        for (int i = 0; i < THREADS; i++) {
+            futures.add(executor.submit(() -> {
+                start.await();
+                for (int j = 0; j < ITERATIONS; j++) {
+                    accountService.topUp(accountId, 3L);
+                    accountService.withdraw(accountId, 1L);
+                }
+                return null;
+            }));
+        }
+        start.countDown();
+        for (Future<?> future : futures) {
+            future.get();
+        }
+        executor.shutdown();
+
+        // then
+        Account account = accountService.getById(accountId);
+        assertThat(account.getBalance()).isEqualTo(1000L + THREADS * ITERATIONS * 2);
+    }
+}
@@ -1,9 +1,14 @@
 package com.github.fertkir.moneytransfer.service.impl;
 
 import com.github.fertkir.moneytransfer.dao.AccountDao;
+import com.github.fertkir.moneytransfer.dao.LedgerDao;
 import com.github.fertkir.moneytransfer.entity.Account;
+import com.github.fertkir.moneytransfer.entity.BatchTransferResult;
+import com.github.fertkir.moneytransfer.entity.LedgerEntry;
+import com.github.fertkir.moneytransfer.entity.TransferRequest;
 import com.github.fertkir.moneytransfer.entity.TransferResult;
 import com.github.fertkir.moneytransfer.persistence.TransactionTemplate;
+import com.github.fertkir.moneytransfer.readmodel.AccountChangeStream;
 import com.github.fertkir.moneytransfer.service.exception.AccountingException;
 import org.junit.Before;
 import org.junit.Test;
@@ -12,11 +17,13 @@ import org.mockito.*;
 import org.mockito.junit.MockitoJUnitRunner;
 import org.mockito.stubbing.Answer;
 
-import java.math.BigDecimal;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
 import java.util.function.Supplier;
 
+import static java.util.Arrays.asList;
 import static java.util.Collections.singletonList;
 import static org.assertj.core.api.Assertions.*;
 import static org.mockito.Mockito.*;
@@ -27,8 +34,11 @@ public class AccountServiceImplTest {
     @Mock
     private AccountDao accountDao;
     @Mock
+    private LedgerDao ledgerDao;
+    @Mock
     private TransactionTemplate transactionTemplate;
-    @InjectMocks
+    @Mock
+    private AccountChangeStream changes;
     private AccountServiceImpl accountService;
 
     @Captor
@@ -37,9 +47,14 @@ public class AccountServiceImplTest {
     private ArgumentCaptor<Supplier<List<Account>>> accountListCaptor;
     @Captor
     private ArgumentCaptor<Supplier<TransferResult>> transferResultCaptor;
+    @Captor
+    private ArgumentCaptor<List<LedgerEntry>> ledgerEntriesCaptor;
+    @Captor
+    private ArgumentCaptor<List<Account>> publishedCaptor;
 
     @Before
     public void setUp() {
+        accountService = new AccountServiceImpl(accountDao, ledgerDao, transactionTemplate, changes);
         when(transactionTemplate.execute(Mockito.<Supplier>any())).thenAnswer((Answer) invocation -> {
             Object[] args = invocation.getArguments();
             Supplier arg = (Supplier) args[0];
@@ -114,7 +129,7 @@ public class AccountServiceImplTest {
 
         // then
         Account passedAccount = Account.builder()
-                .balance(BigDecimal.ZERO)
+                .balance(0L)
                 .build();
         verify(accountDao).save(passedAccount);
         verify(transactionTemplate).execute(accountCaptor.capture());
@@ -128,39 +143,35 @@ public class AccountServiceImplTest {
     public void shouldTopUpAccount() {
         // given
         long accountId = 1;
-        BigDecimal amount = BigDecimal.valueOf(100);
+        long amount = 100L;
 
-        Account initialAccount = Account.builder()
+        Account updatedAccount = Account.builder()
                 .id(accountId)
-                .balance(BigDecimal.valueOf(50))
+                .balance(150L)
                 .build();
-        when(accountDao.getById(accountId)).thenReturn(Optional.of(initialAccount));
-
-        Account returnMock = mock(Account.class);
-        when(accountDao.save(any(Account.class))).thenReturn(returnMock);
+        when(accountDao.credit(accountId, amount)).thenReturn(Optional.of(updatedAccount));
 
         // when
         Account actualAccount = accountService.topUp(accountId, amount);
 
         // then
-        Account passedAccount = Account.builder()
-                .id(accountId)
-                .balance(BigDecimal.valueOf(150))
-                .build();
-        verify(accountDao).getById(accountId);
-        verify(accountDao).save(passedAccount);
+        verify(accountDao).credit(accountId, amount);
         verify(transactionTemplate).execute(accountCaptor.capture());
+        verify(ledgerDao).insertAll(ledgerEntriesCaptor.capture());
         verifyNoMoreInteractions(accountDao, transactionTemplate);
 
-        assertThat(accountCaptor.getValue().get()).isEqualTo(returnMock);
-        assertThat(actualAccount).isEqualTo(returnMock);
+        assertThat(actualAccount).isEqualTo(updatedAccount);
+        assertThat(ledgerEntriesCaptor.getValue())
+                .extracting(LedgerEntry::getAccountId, LedgerEntry::getType, LedgerEntry::getAmount,
+                        LedgerEntry::getBalance, LedgerEntry::getCounterpartyId)
+                .containsExactly(tuple(accountId, LedgerEntry.Type.TOP_UP, amount, 150L, null));
     }
 
     @Test
     public void shouldNotTopUpAccountIfAmountIsNotPositive() {
         // given
         long accountId = 1;
-        BigDecimal amount = BigDecimal.valueOf(-1);
+        long amount = -1L;
 
         // when
         Throwable thrown = catchThrowable(() -> accountService.topUp(accountId, amount));
@@ -171,20 +182,21 @@ public class AccountServiceImplTest {
 
         assertThat(thrown)
                 .isInstanceOf(AccountingException.class)
-                .hasMessage("Amount must be positive, but given -1");
+                .hasMessage("Amount must be positive, but given -0.01");
     }
 
     @Test
     public void shouldNotTopUpIfNoSuchAccount() {
         // given
         long accountId = 1;
-        when(accountDao.getById(accountId)).thenReturn(Optional.empty());
-        BigDecimal amount = BigDecimal.valueOf(1);
+        long amount = 1L;
+        when(accountDao.credit(accountId, amount)).thenReturn(Optional.empty());
 
         // when
         Throwable thrown = catchThrowable(() -> accountService.topUp(accountId, amount));
 
         // then
+        verify(accountDao).credit(accountId, amount);
         verify(accountDao).getById(accountId);
         verify(transactionTemplate).execute(accountCaptor.capture());
         verifyNoMoreInteractions(accountDao, transactionTemplate);
@@ -194,43 +206,65 @@ public class AccountServiceImplTest {
                 .hasMessage("Account id \"1\" does not exist");
     }
 
+    @Test
+    public void shouldNotTopUpIfBalanceWouldBeTooLarge() {
+        // given
+        long accountId = 1;
+        long amount = 1L;
+        when(accountDao.credit(accountId, amount)).thenReturn(Optional.empty());
+        when(accountDao.getById(accountId)).thenReturn(Optional.of(Account.builder()
+                .id(accountId)
+                .balance(Long.MAX_VALUE)
+                .build()));
+
+        // when
+        Throwable thrown = catchThrowable(() -> accountService.topUp(accountId, amount));
+
+        // then
+        verify(accountDao).credit(accountId, amount);
+        verify(accountDao).getById(accountId);
+        verifyNoMoreInteractions(accountDao);
+        verifyZeroInteractions(ledgerDao);
+
+        assertThat(thrown)
+                .isInstanceOf(AccountingException.class)
+                .hasMessage("Cannot top up 0.01. Balance would be too large");
+    }
+
     @Test
     public void shouldWithdrawFromAccount() {
         // given
         long accountId = 1;
-        BigDecimal amount = BigDecimal.valueOf(30);
+        long amount = 30L;
 
-        Account initialAccount = Account.builder()
+        Account updatedAccount = Account.builder()
                 .id(accountId)
-                .balance(BigDecimal.valueOf(100))
+                .balance(70L)
                 .build();
-        when(accountDao.getById(accountId)).thenReturn(Optional.of(initialAccount));
-
-        Account returnMock = mock(Account.class);
-        when(accountDao.save(any(Account.class))).thenReturn(returnMock);
+        when(accountDao.debitIfSufficient(accountId, amount)).thenReturn(Optional.of(updatedAccount));
 
         // when
         Account actualAccount = accountService.withdraw(accountId, amount);
 
         // then
-        Account passedAccount = Account.builder()
-                .id(accountId)
-                .balance(BigDecimal.valueOf(70))
-                .build();
-        verify(accountDao).getById(accountId);
-        verify(accountDao).save(passedAccount);
+        verify(accountDao).debitIfSufficient(accountId, amount);
         verify(transactionTemplate).execute(accountCaptor.capture());
+        verify(ledgerDao).insertAll(ledgerEntriesCaptor.capture());
         verifyNoMoreInteractions(accountDao, transactionTemplate);
 
-        assertThat(accountCaptor.getValue().get()).isEqualTo(returnMock);
-        assertThat(actualAccount).isEqualTo(returnMock);
+        assertThat(actualAccount).isEqualTo(updatedAccount);
+        assertThat(ledgerEntriesCaptor.getValue())
+                .extracting(LedgerEntry::getAccountId, LedgerEntry::getType, LedgerEntry::getAmount,
+                        LedgerEntry::getBalance, LedgerEntry::getCounterpartyId)
+                .containsExactly(tuple(accountId, LedgerEntry.Type.WITHDRAWAL, -amount,
+                        70L, null));
     }
 
     @Test
     public void shouldNotWithdrawFromAccountIfAmountIsNotPositive() {
         // given
         long accountId = 1;
-        BigDecimal amount = BigDecimal.valueOf(-1);
+        long amount = -1L;
 
         // when
         Throwable thrown = catchThrowable(() -> accountService.withdraw(accountId, amount));
@@ -241,45 +275,45 @@ public class AccountServiceImplTest {
 
         assertThat(thrown)
                 .isInstanceOf(AccountingException.class)
-                .hasMessage("Amount must be positive, but given -1");
+                .hasMessage("Amount must be positive, but given -0.01");
     }
 
     @Test
     public void shouldNotWithdrawIfNotEnoughMoney() {
         // given
         long accountId = 1;
-        BigDecimal amount = BigDecimal.valueOf(100);
+        long amount = 100L;
 
-        Account initialAccount = Account.builder()
-                .id(accountId)
-                .balance(BigDecimal.valueOf(50))
-                .build();
-        when(accountDao.getById(accountId)).thenReturn(Optional.of(initialAccount));
+        when(accountDao.debitIfSufficient(accountId, amount)).thenReturn(Optional.empty());
+        when(accountDao.getById(accountId)).thenReturn(Optional.of(mock(Account.class)));
 
         // when
         Throwable thrown = catchThrowable(() -> accountService.withdraw(accountId, amount));
 
         // then
+        verify(accountDao).debitIfSufficient(accountId, amount);
         verify(accountDao).getById(accountId);
         verify(transactionTemplate).execute(accountCaptor.capture());
         verifyNoMoreInteractions(accountDao, transactionTemplate);
 
         assertThat(thrown)
                 .isInstanceOf(AccountingException.class)
-                .hasMessage("Cannot withdraw 100. Not enough money");
+                .hasMessage("Cannot withdraw 1. Not enough money");
     }
 
     @Test
     public void shouldNotWithdrawIfNoSuchAccount() {
         // given
         long accountId = 1;
+        long amount = 1L;
+        when(accountDao.debitIfSufficient(accountId, amount)).thenReturn(Optional.empty());
         when(accountDao.getById(accountId)).thenReturn(Optional.empty());
-        BigDecimal amount = BigDecimal.valueOf(1);
 
         // when
         Throwable thrown = catchThrowable(() -> accountService.withdraw(accountId, amount));
 
         // then
+        verify(accountDao).debitIfSufficient(accountId, amount);
         verify(accountDao).getById(accountId);
         verify(transactionTemplate).execute(accountCaptor.capture());
         verifyNoMoreInteractions(accountDao, transactionTemplate);
@@ -294,80 +328,166 @@ public class AccountServiceImplTest {
         // given
         long accountFrom = 1;
         long accountTo = 2;
-        BigDecimal amount = BigDecimal.valueOf(30);
+        long amount = 30L;
 
-        Account initialAccountFrom = Account.builder()
+        Account updatedAccountFrom = Account.builder()
                 .id(accountFrom)
-                .balance(BigDecimal.valueOf(100))
+                .balance(70L)
                 .build();
-        when(accountDao.getById(accountFrom)).thenReturn(Optional.of(initialAccountFrom));
-        Account initialAccountTo = Account.builder()
+        Account updatedAccountTo = Account.builder()
                 .id(accountTo)
-                .balance(BigDecimal.valueOf(200))
+                .balance(230L)
                 .build();
-        when(accountDao.getById(accountTo)).thenReturn(Optional.of(initialAccountTo));
-
-        Account passedAccountFrom = Account.builder()
+        when(accountDao.getByIdForUpdate(accountFrom)).thenReturn(Optional.of(Account.builder()
                 .id(accountFrom)
-                .balance(BigDecimal.valueOf(70))
-                .build();
-        Account passedAccountTo = Account.builder()
+                .balance(100L)
+                .build()));
+        when(accountDao.getByIdForUpdate(accountTo)).thenReturn(Optional.of(Account.builder()
                 .id(accountTo)
-                .balance(BigDecimal.valueOf(230))
-                .build();
-        when(accountDao.save(passedAccountFrom)).thenReturn(passedAccountFrom);
-        when(accountDao.save(passedAccountTo)).thenReturn(passedAccountTo);
+                .balance(200L)
+                .build()));
+        when(accountDao.save(any(Account.class))).then(invocation -> invocation.getArgument(0));
 
         // when
         TransferResult transferResult = accountService.transfer(accountFrom, accountTo, amount);
 
         // then
-        verify(accountDao).getById(accountFrom);
-        verify(accountDao).getById(accountTo);
-        verify(accountDao).save(passedAccountFrom);
-        verify(accountDao).save(passedAccountTo);
+        InOrder inOrder = inOrder(accountDao);
+        inOrder.verify(accountDao).getByIdForUpdate(accountFrom);
+        inOrder.verify(accountDao).getByIdForUpdate(accountTo);
+        inOrder.verify(accountDao).save(updatedAccountFrom);
+        inOrder.verify(accountDao).save(updatedAccountTo);
         verify(transactionTemplate).execute(transferResultCaptor.capture());
         verifyNoMoreInteractions(accountDao, transactionTemplate);
 
         TransferResult expectedTransferResult = TransferResult.builder()
-                .source(passedAccountFrom)
-                .target(passedAccountTo)
+                .source(updatedAccountFrom)
+                .target(updatedAccountTo)
                 .build();
 
-        assertThat(transferResultCaptor.getValue().get()).isEqualTo(expectedTransferResult);
         assertThat(transferResult).isEqualTo(expectedTransferResult);
     }
 
     @Test
-    public void shouldNotTransferIfNotEnoughMoney() {
+    public void shouldRecordDebitAndCreditOfTransfer() {
         // given
         long accountFrom = 1;
         long accountTo = 2;
-        BigDecimal amount = BigDecimal.valueOf(30);
+        long amount = 30L;
 
-        Account initialAccountFrom = Account.builder()
+        when(accountDao.getByIdForUpdate(accountFrom)).thenReturn(Optional.of(Account.builder()
                 .id(accountFrom)
-                .balance(BigDecimal.valueOf(20))
-                .build();
-        when(accountDao.getById(accountFrom)).thenReturn(Optional.of(initialAccountFrom));
-        Account initialAccountTo = Account.builder()
+                .balance(100L)
+                .build()));
+        when(accountDao.getByIdForUpdate(accountTo)).thenReturn(Optional.of(Account.builder()
                 .id(accountTo)
-                .balance(BigDecimal.valueOf(200))
-                .build();
-        when(accountDao.getById(accountTo)).thenReturn(Optional.of(initialAccountTo));
+                .balance(200L)
+                .build()));
+        when(accountDao.save(any(Account.class))).then(invocation -> invocation.getArgument(0));
+
+        // when
+        accountService.transfer(accountFrom, accountTo, amount);
+
+        // then
+        InOrder inOrder = inOrder(accountDao, ledgerDao);
+        inOrder.verify(accountDao, times(2)).save(any(Account.class));
+        inOrder.verify(ledgerDao).insertAll(ledgerEntriesCaptor.capture());
+        verifyNoMoreInteractions(ledgerDao);
+
+        assertThat(ledgerEntriesCaptor.getValue())
+                .extracting(LedgerEntry::getAccountId, LedgerEntry::getType, LedgerEntry::getAmount,
+                        LedgerEntry::getBalance, LedgerEntry::getCounterpartyId)
+                .containsExactly(
+                        tuple(accountFrom, LedgerEntry.Type.TRANSFER, -amount, 70L, accountTo),
+                        tuple(accountTo, LedgerEntry.Type.TRANSFER, amount, 230L, accountFrom));
+    }
+
+    @Test
+    public void shouldLockAccountsInAscendingIdOrder() {
+        // given
+        long accountFrom = 2;
+        long accountTo = 1;
+        long amount = 30L;
+
+        when(accountDao.getByIdForUpdate(accountFrom)).thenReturn(Optional.of(Account.builder()
+                .id(accountFrom)
+                .balance(100L)
+                .build()));
+        when(accountDao.getByIdForUpdate(accountTo)).thenReturn(Optional.of(Account.builder()
+                .id(accountTo)
+                .balance(200L)
+                .build()));
+        when(accountDao.save(any(Account.class))).then(invocation -> invocation.getArgument(0));
+
+        // when
+        TransferResult transferResult = accountService.transfer(accountFrom, accountTo, amount);
+
+        // then
+        InOrder inOrder = inOrder(accountDao);
+        inOrder.verify(accountDao).getByIdForUpdate(accountTo);
+        inOrder.verify(accountDao).getByIdForUpdate(accountFrom);
+        inOrder.verify(accountDao).save(argThat(account -> account.getId() == accountTo));
+        inOrder.verify(accountDao).save(argThat(account -> account.getId() == accountFrom));
+
+        assertThat(transferResult.getSource().getBalance()).isEqualTo(70L);
+        assertThat(transferResult.getTarget().getBalance()).isEqualTo(230L);
+    }
+
+    @Test
+    public void shouldNotTransferIfNotEnoughMoney() {
+        // given
+        long accountFrom = 1;
+        long accountTo = 2;
+        long amount = 30L;
+
+        when(accountDao.getByIdForUpdate(accountFrom)).thenReturn(Optional.of(Account.builder()
+                .id(accountFrom)
+                .balance(29L)
+                .build()));
+        when(accountDao.getByIdForUpdate(accountTo)).thenReturn(Optional.of(mock(Account.class)));
 
         // when
         Throwable thrown = catchThrowable(() -> accountService.transfer(accountFrom, accountTo, amount));
 
         // then
-        verify(accountDao).getById(accountFrom);
-        verify(accountDao).getById(accountTo);
+        verify(accountDao).getByIdForUpdate(accountFrom);
+        verify(accountDao).getByIdForUpdate(accountTo);
         verify(transactionTemplate).execute(transferResultCaptor.capture());
         verifyNoMoreInteractions(accountDao, transactionTemplate);
 
         assertThat(thrown)
                 .isInstanceOf(AccountingException.class)
-                .hasMessage("Cannot transfer 30. Not enough money");
+                .hasMessage("Cannot transfer 0.3. Not enough money");
+    }
+
+    @Test
+    public void shouldNotTransferIfTargetBalanceWouldBeTooLarge() {
+        // given
+        long accountFrom = 1;
+        long accountTo = 2;
+        long amount = 30L;
+
+        when(accountDao.getByIdForUpdate(accountFrom)).thenReturn(Optional.of(Account.builder()
+                .id(accountFrom)
+                .balance(100L)
+                .build()));
+        when(accountDao.getByIdForUpdate(accountTo)).thenReturn(Optional.of(Account.builder()
+                .id(accountTo)
+                .balance(Long.MAX_VALUE - 29)
+                .build()));
+
+        // when
+        Throwable thrown = catchThrowable(() -> accountService.transfer(accountFrom, accountTo, amount));
+
+        // then
+        verify(accountDao).getByIdForUpdate(accountFrom);
+        verify(accountDao).getByIdForUpdate(accountTo);
+        verifyNoMoreInteractions(accountDao);
+        verifyZeroInteractions(ledgerDao);
+
+        assertThat(thrown)
+                .isInstanceOf(AccountingException.class)
+                .hasMessage("Cannot transfer 0.3. Balance would be too large");
     }
 
     @Test
@@ -375,7 +495,7 @@ public class AccountServiceImplTest {
         // given
         long accountFrom = 1;
         long accountTo = 2;
-        BigDecimal amount = BigDecimal.valueOf(-1);
+        long amount = -1L;
 
         // when
         Throwable thrown = catchThrowable(() -> accountService.transfer(accountFrom, accountTo, amount));
@@ -386,7 +506,7 @@ public class AccountServiceImplTest {
 
         assertThat(thrown)
                 .isInstanceOf(AccountingException.class)
-                .hasMessage("Amount must be positive, but given -1");
+                .hasMessage("Amount must be positive, but given -0.01");
     }
 
     @Test
@@ -394,7 +514,7 @@ public class AccountServiceImplTest {
         // given
         long accountFrom = 1;
         long accountTo = 1;
-        BigDecimal amount = BigDecimal.valueOf(1);
+        long amount = 1L;
 
         // when
         Throwable throwable = catchThrowable(() -> accountService.transfer(accountFrom, accountTo, amount));
@@ -413,15 +533,17 @@ public class AccountServiceImplTest {
         // given
         long accountFrom = 1;
         long accountTo = 2;
-        BigDecimal amount = BigDecimal.valueOf(1);
+        long amount = 1L;
 
-        when(accountDao.getById(accountFrom)).thenReturn(Optional.empty());
+        when(accountDao.getByIdForUpdate(accountFrom)).thenReturn(Optional.empty());
+        when(accountDao.getByIdForUpdate(accountTo)).thenReturn(Optional.empty());
 
         // when
         Throwable thrown = catchThrowable(() -> accountService.transfer(accountFrom, accountTo, amount));
 
         // then
-        verify(accountDao).getById(accountFrom);
+        verify(accountDao).getByIdForUpdate(accountFrom);
+        verify(accountDao).getByIdForUpdate(accountTo);
         verify(transactionTemplate).execute(accountCaptor.capture());
         verifyNoMoreInteractions(accountDao, transactionTemplate);
 
@@ -435,21 +557,20 @@ public class AccountServiceImplTest {
         // given
         long accountFrom = 1;
         long accountTo = 2;
-        BigDecimal amount = BigDecimal.valueOf(1);
+        long amount = 1L;
 
-        Account initialAccountFrom = Account.builder()
+        when(accountDao.getByIdForUpdate(accountFrom)).thenReturn(Optional.of(Account.builder()
                 .id(accountFrom)
-                .balance(BigDecimal.valueOf(20))
-                .build();
-        when(accountDao.getById(accountFrom)).thenReturn(Optional.of(initialAccountFrom));
-        when(accountDao.getById(accountTo)).thenReturn(Optional.empty());
+                .balance(100L)
+                .build()));
+        when(accountDao.getByIdForUpdate(accountTo)).thenReturn(Optional.empty());
 
         // when
         Throwable thrown = catchThrowable(() -> accountService.transfer(accountFrom, accountTo, amount));
 
         // then
-        verify(accountDao).getById(accountFrom);
-        verify(accountDao).getById(accountTo);
+        verify(accountDao).getByIdForUpdate(accountFrom);
+        verify(accountDao).getByIdForUpdate(accountTo);
         verify(transactionTemplate).execute(accountCaptor.capture());
         verifyNoMoreInteractions(accountDao, transactionTemplate);
 
@@ -457,4 +578,117 @@ public class AccountServiceImplTest {
                 .isInstanceOf(AccountingException.class)
                 .hasMessage("Account id \"2\" does not exist");
     }
-}
\ No newline at end of file
+
+    @Test
+    public void shouldNotTransferIfNoTargetAccountAndNotEnoughMoney() {
+        // given
+        long accountFrom = 1;
+        long accountTo = 2;
+        long amount = 1L;
+
+        when(accountDao.getByIdForUpdate(accountFrom)).thenReturn(Optional.of(Account.builder()
+                .id(accountFrom)
+                .balance(0L)
+                .build()));
+        when(accountDao.getByIdForUpdate(accountTo)).thenReturn(Optional.empty());
+
+        // when
+        Throwable thrown = catchThrowable(() -> accountService.transfer(accountFrom, accountTo, amount));
+
+        // then
+        verify(accountDao).getByIdForUpdate(accountFrom);
+        verify(accountDao).getByIdForUpdate(accountTo);
+        verify(transactionTemplate).execute(accountCaptor.capture());
+        verifyNoMoreInteractions(accountDao, transactionTemplate);
+
+        assertThat(thrown)
+                .isInstanceOf(AccountingException.class)
+                .hasMessage("Account id \"2\" does not exist");
+    }
+
+    @Test
+    public void shouldApplyBatchWithOneBatchedUpdateSkippingFailedTransfers() {
+        // given
+        List<TransferRequest> transfers = asList(
+                new TransferRequest(1L, 2L, 30L),
+                new TransferRequest(2L, 3L, 500L),
+                new TransferRequest(1L, 1L, 1L),
+                new TransferRequest(2L, 1L, 10L));
+        when(accountDao.lockAll(anyCollection())).thenReturn(asList(
+                Account.builder().id(1L).balance(100L).held(5L).version(3L).build(),
+                Account.builder().id(2L).balance(200L).version(7L).build()));
+        Map<Long, Integer> versionIncrements = new HashMap<>();
+        // the money of account 1 was moved out of its stripes
+        versionIncrements.put(1L, 3);
+        versionIncrements.put(2L, 1);
+        when(accountDao.applyDeltas(anyMap())).thenReturn(versionIncrements);
+
+        // when
+        BatchTransferResult result = accountService.transferBatch(transfers, false);
+
+        // then
+        Map<Long, Long> expectedDeltas = new HashMap<>();
+        expectedDeltas.put(1L, -20L);
+        expectedDeltas.put(2L, 20L);
+        verify(accountDao).applyDeltas(expectedDeltas);
+        verify(changes).publish(publishedCaptor.capture());
+        assertThat(publishedCaptor.getValue())
+                .extracting(Account::getId, Account::getBalance, Account::getHeld, Account::getVersion)
+                .containsExactlyInAnyOrder(tuple(1L, 80L, 5L, 6L), tuple(2L, 220L, 0L, 8L));
+
+        assertThat(result.isCommitted()).isTrue();
+        assertThat(result.getItems()).extracting(BatchTransferResult.Item::getStatus).containsExactly(
+                BatchTransferResult.Status.APPLIED,
+                BatchTransferResult.Status.FAILED,
+                BatchTransferResult.Status.FAILED,
+                BatchTransferResult.Status.APPLIED);
+        assertThat(result.getItems()).extracting(BatchTransferResult.Item::getMessage).containsExactly(
+                null,
+                "Account id \"3\" does not exist",
+                "Source and destination accounts must be different",
+                null);
+        assertThat(result.getItems().get(0).getResult().getSource())
+                .extracting(Account::getId, Account::getBalance, Account::getHeld, Account::getVersion)
+                .containsExactly(1L, 70L, 5L, 6L);
+        assertThat(result.getItems().get(3).getResult()).isEqualTo(TransferResult.builder()
+                .source(Account.builder().id(2L).balance(220L).build())
+                .target(Account.builder().id(1L).balance(80L).held(5L).build())
+                .build());
+        assertThat(result.getItems().get(3).getResult().getSource().getVersion()).isEqualTo(8L);
+    }
+
+    @Test
+    public void shouldNotApplyAtomicBatchIfAnyTransferFails() {
+        // given
+        List<TransferRequest> transfers = asList(
+                new TransferRequest(1L, 2L, 30L),
+                new TransferRequest(1L, 2L, 80L));
+        when(accountDao.lockAll(anyCollection())).thenReturn(asList(
+                Account.builder().id(1L).balance(100L).build(),
+                Account.builder().id(2L).balance(200L).build()));
+
+        // when
+        BatchTransferResult result = accountService.transferBatch(transfers, true);
+
+        // then
+        verify(accountDao).lockAll(anyCollection());
+        verifyNoMoreInteractions(accountDao);
+
+        assertThat(result.isCommitted()).isFalse();
+        assertThat(result.getItems()).extracting(BatchTransferResult.Item::getStatus).containsExactly(
+                BatchTransferResult.Status.NOT_APPLIED,
+                BatchTransferResult.Status.FAILED);
+    }
+
+    @Test
+    public void shouldNotStartTransactionForAtomicBatchWithInvalidTransfer() {
+        // when
+        BatchTransferResult result = accountService.transferBatch(singletonList(
+                new TransferRequest(1L, 2L, -1L)), true);
+
+        // then
+        verifyNoMoreInteractions(accountDao, transactionTemplate);
+        assertThat(result.isCommitted()).isFalse();
+        assertThat(result.getItems().get(0).getMessage()).isEqualTo("Amount must be positive, but given -0.01");
+    }
+}
@@ -0,0 +1,222 @@
+package com.github.fertkir.moneytransfer.service.impl;
+
+import com.github.fertkir.moneytransfer.ApplicationMain;
+import com.github.fertkir.moneytransfer.dao.AccountDao;
+import com.github.fertkir.moneytransfer.dao.LedgerDao;
+import com.github.fertkir.moneytransfer.entity.Account;
+import com.github.fertkir.moneytransfer.entity.LedgerEntry;
+import com.github.fertkir.moneytransfer.persistence.TransactionTemplate;
+import com.github.fertkir.moneytransfer.readmodel.AccountChangeStream;
+import com.github.fertkir.moneytransfer.service.AccountService;
+import com.github.fertkir.moneytransfer.service.exception.AccountingException;
+import com.google.inject.Injector;
+import org.h2.tools.RunScript;
+import org.junit.AfterClass;
+import org.junit.Test;
+
+import javax.sql.DataSource;
+import java.io.InputStreamReader;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.catchThrowable;
+
+public class CoalescingAccountServiceIntegrationTest {
+
+    private static final int THREADS = 16;
+    private static final int ITERATIONS = 50;
+
+    private static final Injector injector = ApplicationMain.getInjector();
+
+    private final AccountService delegate = injector.getInstance(AccountServiceImpl.class);
+    private final LedgerDao ledgerDao = injector.getInstance(LedgerDao.class);
+    private final TransactionTemplate transactionTemplate = injector.getInstance(TransactionTemplate.class);
+
+    @AfterClass
+    public static void tearDown() throws SQLException {
+        DataSource dataSource = injector.getInstance(DataSource.class);
+        try (Connection connection = dataSource.getConnection()) {
+            RunScript.execute(connection, new InputStreamReader(CoalescingAccountServiceIntegrationTest.class
+                    .getClassLoader().getResourceAsStream("clean.sql")));
+        }
+    }
+
+    @Test
+    public void concurrentTopUpsAndWithdrawalsShouldBeWrittenTogetherWithoutLosingAny() throws Exception {
+        // given
+        AccountService accountService = coalescing(5_000, 64);
+        long accountId = accountService.createNew().getId();
+        accountService.topUp(accountId, 1000L);
+        long version = accountService.getById(accountId).getVersion();
+
+        // when
+        List<Future<Object>> futures = runConcurrently(THREADS, () -> {
+            for (int j = 0; j < ITERATIONS; j++) {
+                accountService.topUp(accountId, 3L);
+                accountService.withdraw(accountId, 1L);
+            }
+            return null;
+        });
+        for (Future<Object> future : futures) {
+            future.get();
+        }
+
+        // then
+        Account account = accountService.getById(accountId);
+        assertThat(account.getBalance()).isEqualTo(1000L + THREADS * ITERATIONS * 2);
+        assertThat(account.getVersion() - version).isLessThan(THREADS * ITERATIONS * 2);
+        assertThat(history(accountId)).hasSize(1 + THREADS * ITERATIONS * 2);
+    }
+
+    @Test
+    public void withdrawalShouldFailOnItsOwnWhenEarlierOperationsOfBatchLeaveNotEnoughMoney() throws Exception {
+        // given
+        AccountService accountService = coalescing(10_000_000, 2);
+        long accountId = accountService.createNew().getId();
+        accountService.topUp(accountId, 100L);
+
+        // when
+        List<Future<Account>> results = runConcurrently(2, () -> accountService.withdraw(accountId, 80L));
+
+        // then
+        List<Account> succeeded = new ArrayList<>();
+        List<Throwable> failed = new ArrayList<>();
+        for (Future<Account> result : results) {
+            try {
+                succeeded.add(result.get());
+            } catch (ExecutionException e) {
+                failed.add(e.getCause());
+            }
+        }
+        assertThat(succeeded).extracting(Account::getBalance).containsExactly(20L);
+        assertThat(failed).hasSize(1);
+        assertThat(failed.get(0))
+                .isInstanceOf(AccountingException.class)
+                .hasMessage("Cannot withdraw 0.8. Not enough money");
+        assertThat(accountService.getById(accountId).getBalance()).isEqualTo(20L);
+        assertThat(history(accountId)).extracting(LedgerEntry::getAmount).containsExactly(100L, -80L);
+    }
+
+    @Test
+    public void everyCallerShouldGetBalanceRightAfterItsOperation() throws Exception {
+        // given
+        AccountService accountService = coalescing(10_000_000, 3);
+        long accountId = accountService.createNew().getId();
+        ExecutorService executor = Executors.newFixedThreadPool(5);
+        CountDownLatch locked = new CountDownLatch(1);
+        CountDownLatch unlock = new CountDownLatch(1);
+        executor.submit(() -> transactionTemplate.execute(() -> {
+            injector.getInstance(AccountDao.class).getByIdForUpdate(accountId);
+            locked.countDown();
+            await(unlock);
+            return null;
+        }));
+        locked.await();
+        // waits for the lock, so that the next operations make up one batch
+        Future<Account> first = executor.submit(() -> accountService.topUp(accountId, 8L));
+        Thread.sleep(50);
+        long[] amounts = {1L, 2L, 4L};
+        List<Future<Account>> futures = new ArrayList<>();
+
+        // when
+        for (long amount : amounts) {
+            futures.add(executor.submit(() -> accountService.topUp(accountId, amount)));
+        }
+        Thread.sleep(50);
+        unlock.countDown();
+        first.get();
+        List<Account> results = new ArrayList<>();
+        for (Future<Account> future : futures) {
+            results.add(future.get());
+        }
+        executor.shutdown();
+
+        // then
+        List<LedgerEntry> entries = history(accountId);
+        assertThat(entries).extracting(LedgerEntry::getBalance).endsWith(15L);
+        for (int i = 0; i < amounts.length; i++) {
+            long amount = amounts[i];
+            long balance = results.get(i).getBalance();
+            assertThat(entries).anySatisfy(entry -> {
+                assertThat(entry.getAmount()).isEqualTo(amount);
+                assertThat(entry.getBalance()).isEqualTo(balance);
+            });
+        }
+        assertThat(results).extracting(Account::getVersion)
+                .containsOnly(accountService.getById(accountId).getVersion());
+    }
+
+    @Test
+    public void shouldFailForMissingAccount() {
+        // given
+        AccountService accountService = coalescing(0, 64);
+
+        // when
+        Throwable thrown = catchThrowable(() -> accountService.topUp(Long.MAX_VALUE, 10L));
+
+        // then
+        assertThat(thrown)
+                .isInstanceOf(AccountingException.class)
+                .hasMessage("Account id \"%d\" does not exist", Long.MAX_VALUE);
+    }
+
+    @Test
+    public void shouldRunOperationsCalledWithinTransactionAsPartOfIt() {
+        // given
+        AccountService accountService = coalescing(10_000_000, 64);
+        long accountId = accountService.createNew().getId();
+
+        // when
+        Throwable thrown = catchThrowable(() -> transactionTemplate.execute(() -> {
+            accountService.topUp(accountId, 10L);
+            throw new IllegalStateException("rolled back");
+        }));
+
+        // then
+        assertThat(thrown).hasRootCauseInstanceOf(IllegalStateException.class);
+        assertThat(accountService.getById(accountId).getBalance()).isEqualTo(0L);
+    }
+
+    private AccountService coalescing(long windowMicros, int maxOps) {
+        return new CoalescingAccountService(delegate, injector.getInstance(AccountDao.class), ledgerDao,
+                transactionTemplate, injector.getInstance(AccountChangeStream.class), windowMicros, maxOps);
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private List<LedgerEntry> history(long accountId) {
+        return delegate.history(accountId, 0, Long.MAX_VALUE, 0, 10_000);
+    }
+
+    private static <T> List<Future<T>> runConcurrently(int threads, Callable<T> task) throws InterruptedException {
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        CountDownLatch start = new CountDownLatch(1);
+        List<Future<T>> futures = new ArrayList<>();
+        for (int i = 0; i < threads; i++) {
+            futures.add(executor.submit(() -> {
+                start.await();
+                return task.call();
+            }));
+        }
+        start.countDown();
+        executor.shutdown();
+        executor.awaitTermination(1, TimeUnit.MINUTES);
+        return futures;
+    }
+}
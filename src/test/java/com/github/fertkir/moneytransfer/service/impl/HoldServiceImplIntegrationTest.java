@@ -0,0 +1,206 @@
+package com.github.fertkir.moneytransfer.service.impl;
+
+import com.github.fertkir.moneytransfer.ApplicationMain;
+import com.github.fertkir.moneytransfer.dao.AccountDao;
+import com.github.fertkir.moneytransfer.dao.HoldDao;
+import com.github.fertkir.moneytransfer.dao.LedgerDao;
+import com.github.fertkir.moneytransfer.entity.Account;
+import com.github.fertkir.moneytransfer.entity.Hold;
+import com.github.fertkir.moneytransfer.entity.LedgerEntry;
+import com.github.fertkir.moneytransfer.holds.HoldExpiry;
+import com.github.fertkir.moneytransfer.persistence.TransactionTemplate;
+import com.github.fertkir.moneytransfer.readmodel.AccountChangeStream;
+import com.github.fertkir.moneytransfer.service.AccountService;
+import com.github.fertkir.moneytransfer.service.HoldService;
+import com.github.fertkir.moneytransfer.service.exception.AccountingException;
+import com.google.inject.Injector;
+import org.h2.tools.RunScript;
+import org.junit.AfterClass;
+import org.junit.Test;
+
+import javax.sql.DataSource;
+import java.io.InputStreamReader;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.catchThrowable;
+import static org.assertj.core.api.Assertions.tuple;
+
+public class HoldServiceImplIntegrationTest {
+
+    private static final long HOUR_MILLIS = TimeUnit.HOURS.toMillis(1);
+
+    private static final Injector injector = ApplicationMain.getInjector();
+
+    private final TransactionTemplate transactionTemplate = injector.getInstance(TransactionTemplate.class);
+    private final AccountDao accountDao = injector.getInstance(AccountDao.class);
+    private final HoldDao holdDao = injector.getInstance(HoldDao.class);
+    private final AccountService accountService = injector.getInstance(AccountServiceImpl.class);
+    private final HoldService holdService = holdService(10);
+
+    @AfterClass
+    public static void tearDown() throws SQLException {
+        DataSource dataSource = injector.getInstance(DataSource.class);
+        try (Connection connection = dataSource.getConnection()) {
+            RunScript.execute(connection, new InputStreamReader(HoldServiceImplIntegrationTest.class
+                    .getClassLoader().getResourceAsStream("clean.sql")));
+        }
+    }
+
+    @Test
+    public void withdrawalsAndTransfersShouldTakeOnlyAvailableMoney() {
+        // given
+        long accountId = accountService.createNew().getId();
+        long otherId = accountService.createNew().getId();
+        accountService.topUp(accountId, 100L);
+
+        // when
+        holdService.place(accountId, 70L, HOUR_MILLIS);
+        Throwable withdrawal = catchThrowable(() -> accountService.withdraw(accountId, 31L));
+        Throwable transfer = catchThrowable(() -> accountService.transfer(accountId, otherId, 31L));
+        Throwable hold = catchThrowable(() -> holdService.place(accountId, 31L, HOUR_MILLIS));
+        Account afterTransfer = accountService.transfer(accountId, otherId, 30L).getSource();
+
+        // then
+        assertThat(rootCause(withdrawal)).isInstanceOf(AccountingException.class)
+                .hasMessage("Cannot withdraw 0.31. Not enough money");
+        assertThat(rootCause(transfer)).isInstanceOf(AccountingException.class)
+                .hasMessage("Cannot transfer 0.31. Not enough money");
+        assertThat(rootCause(hold)).isInstanceOf(AccountingException.class)
+                .hasMessage("Cannot hold 0.31. Not enough money");
+        assertThat(afterTransfer.getBalance()).isEqualTo(70L);
+        assertThat(afterTransfer.getAvailable()).isEqualTo(0L);
+    }
+
+    @Test
+    public void captureShouldWithdrawCapturedAmountAndReleaseRest() {
+        // given
+        long accountId = accountService.createNew().getId();
+        accountService.topUp(accountId, 100L);
+        Hold hold = holdService.place(accountId, 60L, HOUR_MILLIS);
+
+        // when
+        Account account = holdService.capture(hold.getId(), 25L);
+
+        // then
+        assertThat(account.getBalance()).isEqualTo(75L);
+        assertThat(account.getAvailable()).isEqualTo(75L);
+        assertThat(accountService.getById(accountId)).isEqualTo(account);
+        assertThat(accountService.history(accountId, 0, Long.MAX_VALUE, 0, 10))
+                .extracting(LedgerEntry::getType, LedgerEntry::getAmount, LedgerEntry::getBalance)
+                .containsExactly(
+                        tuple(LedgerEntry.Type.TOP_UP, 100L, 100L),
+                        tuple(LedgerEntry.Type.WITHDRAWAL, -25L, 75L));
+        assertThat(rootCause(catchThrowable(() -> holdService.capture(hold.getId(), null))))
+                .isInstanceOf(AccountingException.class)
+                .hasMessage("Hold id \"%d\" does not exist", hold.getId());
+    }
+
+    @Test
+    public void shouldNotCaptureMoreThanHeld() {
+        // given
+        long accountId = accountService.createNew().getId();
+        accountService.topUp(accountId, 100L);
+        Hold hold = holdService.place(accountId, 60L, HOUR_MILLIS);
+
+        // when
+        Throwable thrown = catchThrowable(() -> holdService.capture(hold.getId(), 61L));
+
+        // then
+        assertThat(rootCause(thrown)).isInstanceOf(AccountingException.class)
+                .hasMessage("Cannot capture 0.61. Hold is only 0.6");
+        assertThat(holdService.capture(hold.getId(), null).getBalance()).isEqualTo(40L);
+    }
+
+    @Test
+    public void releaseShouldMakeHeldMoneyAvailableAgain() {
+        // given
+        long accountId = accountService.createNew().getId();
+        accountService.topUp(accountId, 100L);
+        Hold hold = holdService.place(accountId, 60L, HOUR_MILLIS);
+
+        // when
+        Account account = holdService.release(hold.getId());
+
+        // then
+        assertThat(account.getBalance()).isEqualTo(100L);
+        assertThat(account.getAvailable()).isEqualTo(100L);
+        assertThat(accountService.history(accountId, 0, Long.MAX_VALUE, 0, 10)).hasSize(1);
+    }
+
+    @Test
+    public void expiredHoldsShouldBeReleased() throws InterruptedException {
+        // given
+        long accountId = accountService.createNew().getId();
+        accountService.topUp(accountId, 100L);
+        Hold hold = holdService.place(accountId, 60L, 50);
+
+        // when
+        Account account = awaitAvailable(accountId, 100L);
+
+        // then
+        assertThat(account.getAvailable()).isEqualTo(100L);
+        assertThat(transactionTemplate.execute(() -> holdDao.getByIdForUpdate(hold.getId()))).isEmpty();
+        assertThat(rootCause(catchThrowable(() -> holdService.release(hold.getId()))))
+                .isInstanceOf(AccountingException.class);
+    }
+
+    @Test
+    public void holdsOutstandingOnStartUpShouldExpire() throws InterruptedException {
+        // given
+        long accountId = accountService.createNew().getId();
+        accountService.topUp(accountId, 100L);
+        // isn't ticking during the test
+        holdService(HOUR_MILLIS).place(accountId, 60L, 200);
+
+        // when
+        holdExpiry(10);
+        Account account = awaitAvailable(accountId, 100L);
+
+        // then
+        assertThat(account.getBalance()).isEqualTo(100L);
+    }
+
+    @Test
+    public void shouldRejectTimeToLiveLongerThanAllowed() {
+        // given
+        long accountId = accountService.createNew().getId();
+        accountService.topUp(accountId, 100L);
+
+        // when
+        Throwable thrown = catchThrowable(() -> holdService.place(accountId, 10L, 8 * 24 * HOUR_MILLIS));
+
+        // then
+        assertThat(rootCause(thrown)).isInstanceOf(AccountingException.class)
+                .hasMessage("Time to live must be between 1 and 604800000 ms, but given 691200000");
+    }
+
+    private HoldService holdService(long tickMillis) {
+        return new HoldServiceImpl(accountDao, holdDao, injector.getInstance(LedgerDao.class), transactionTemplate,
+                injector.getInstance(AccountChangeStream.class), holdExpiry(tickMillis), 7 * 24 * HOUR_MILLIS);
+    }
+
+    private HoldExpiry holdExpiry(long tickMillis) {
+        return new HoldExpiry(transactionTemplate, holdDao, accountDao, injector.getInstance(AccountChangeStream.class),
+                tickMillis, 512, 1000);
+    }
+
+    private Account awaitAvailable(long accountId, long available) throws InterruptedException {
+        Account account = accountService.getById(accountId);
+        for (int i = 0; i < 200 && account.getAvailable() != available; i++) {
+            Thread.sleep(10);
+            account = accountService.getById(accountId);
+        }
+        return account;
+    }
+
+    private static Throwable rootCause(Throwable thrown) {
+        Throwable cause = thrown;
+        while (cause != null && cause.getCause() != null) {
+            cause = cause.getCause();
+        }
+        return cause;
+    }
+}
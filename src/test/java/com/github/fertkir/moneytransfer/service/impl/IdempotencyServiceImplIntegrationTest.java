@@ -0,0 +1,191 @@
+package com.github.fertkir.moneytransfer.service.impl;
+
+import com.github.fertkir.moneytransfer.ApplicationMain;
+import com.github.fertkir.moneytransfer.dao.IdempotencyKeyDao;
+import com.github.fertkir.moneytransfer.entity.IdempotentResponse;
+import com.github.fertkir.moneytransfer.persistence.OptimisticLockException;
+import com.github.fertkir.moneytransfer.persistence.TransactionTemplate;
+import com.github.fertkir.moneytransfer.service.IdempotencyService;
+import com.github.fertkir.moneytransfer.service.ServiceModule;
+import com.github.fertkir.moneytransfer.service.exception.AccountingException;
+import com.google.inject.Injector;
+import org.h2.tools.RunScript;
+import org.junit.AfterClass;
+import org.junit.Test;
+
+import javax.sql.DataSource;
+import java.io.InputStreamReader;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.catchThrowable;
+
+public class IdempotencyServiceImplIntegrationTest {
+
+    private static final Injector injector = ApplicationMain.getInjector();
+
+    private final TransactionTemplate transactionTemplate = injector.getInstance(TransactionTemplate.class);
+    private final IdempotencyKeyDao idempotencyKeyDao = injector.getInstance(IdempotencyKeyDao.class);
+    private final IdempotencyService idempotencyService = newService();
+
+    @AfterClass
+    public static void tearDown() throws SQLException {
+        DataSource dataSource = injector.getInstance(DataSource.class);
+        try (Connection connection = dataSource.getConnection()) {
+            RunScript.execute(connection, new InputStreamReader(IdempotencyServiceImplIntegrationTest.class
+                    .getClassLoader().getResourceAsStream("clean.sql")));
+        }
+    }
+
+    @Test
+    public void shouldExecuteOperationOncePerKey() {
+        // given
+        String key = UUID.randomUUID().toString();
+        AtomicInteger executions = new AtomicInteger();
+
+        // when
+        String first = idempotencyService.execute(key, "request", () -> "response " + executions.incrementAndGet());
+        String repeated = idempotencyService.execute(key, "request", () -> "response " + executions.incrementAndGet());
+        String afterRestart = newService().execute(key, "request", () -> "response " + executions.incrementAndGet());
+
+        // then
+        assertThat(first).isEqualTo("response 1");
+        assertThat(repeated).isEqualTo("response 1");
+        assertThat(afterRestart).isEqualTo("response 1");
+    }
+
+    @Test
+    public void shouldNotRememberFailedOperation() {
+        // given
+        String key = UUID.randomUUID().toString();
+
+        // when
+        Throwable thrown = catchThrowable(() -> idempotencyService.execute(key, "request", () -> {
+            throw new AccountingException("failed");
+        }));
+        String repeated = idempotencyService.execute(key, "request", () -> "response");
+
+        // then
+        assertThat(thrown).hasRootCauseInstanceOf(AccountingException.class);
+        assertThat(repeated).isEqualTo("response");
+    }
+
+    @Test
+    public void shouldRejectKeyUsedForAnotherRequest() {
+        // given
+        String key = UUID.randomUUID().toString();
+        idempotencyService.execute(key, "request", () -> "response");
+
+        // when
+        Throwable thrown = catchThrowable(() -> idempotencyService.execute(key, "another request", () -> "response"));
+
+        // then
+        assertThat(thrown)
+                .isInstanceOf(AccountingException.class)
+                .hasMessage("Idempotency key \"" + key + "\" has already been used for another request");
+    }
+
+    @Test
+    public void concurrentRepeatsShouldWaitForFirstExecution() throws Exception {
+        // given
+        String key = UUID.randomUUID().toString();
+        AtomicInteger executions = new AtomicInteger();
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+
+        // when
+        Future<String> first = executor.submit(() -> idempotencyService.execute(key, "request", () -> {
+            started.countDown();
+            await(release);
+            return "response " + executions.incrementAndGet();
+        }));
+        started.await();
+        List<Future<String>> repeats = new ArrayList<>();
+        for (int i = 0; i < 7; i++) {
+            repeats.add(executor.submit(() -> idempotencyService.execute(key, "request",
+                    () -> "response " + executions.incrementAndGet())));
+        }
+        release.countDown();
+
+        // then
+        assertThat(first.get()).isEqualTo("response 1");
+        for (Future<String> repeat : repeats) {
+            assertThat(repeat.get()).isEqualTo("response 1");
+        }
+        assertThat(executions).hasValue(1);
+        executor.shutdown();
+    }
+
+    @Test
+    public void shardedOperationShouldNotBeRepeatedByRetriedTransaction() {
+        // given
+        String key = UUID.randomUUID().toString();
+        AtomicInteger executions = new AtomicInteger();
+        IdempotencyService sharded = new IdempotencyServiceImpl(new ConflictingOnceIdempotencyKeyDao(),
+                transactionTemplate, TimeUnit.HOURS.toMillis(1), 100, ServiceModule.ENGINE_SHARDED);
+
+        // when
+        String first = sharded.execute(key, "request", () -> "response " + executions.incrementAndGet());
+        String afterRestart = newService().execute(key, "request", () -> "response " + executions.incrementAndGet());
+
+        // then
+        assertThat(first).isEqualTo("response 1");
+        assertThat(afterRestart).isEqualTo("response 1");
+        assertThat(executions).hasValue(1);
+    }
+
+    private IdempotencyService newService() {
+        return new IdempotencyServiceImpl(idempotencyKeyDao, transactionTemplate, TimeUnit.HOURS.toMillis(1), 100,
+                ServiceModule.ENGINE_JDBC);
+    }
+
+    /**
+     * Fails the first save with a conflict, which the transaction is retried for.
+     */
+    private class ConflictingOnceIdempotencyKeyDao implements IdempotencyKeyDao {
+        private final AtomicInteger saves = new AtomicInteger();
+
+        @Override
+        public Optional<IdempotentResponse> getByKey(String key, long createdAfter) {
+            return idempotencyKeyDao.getByKey(key, createdAfter);
+        }
+
+        @Override
+        public Optional<IdempotentResponse> getById(long id, long createdAfter) {
+            return idempotencyKeyDao.getById(id, createdAfter);
+        }
+
+        @Override
+        public long save(IdempotentResponse response) {
+            if (saves.incrementAndGet() == 1) {
+                throw new OptimisticLockException("conflict");
+            }
+            return idempotencyKeyDao.save(response);
+        }
+
+        @Override
+        public int deleteCreatedBefore(long createdBefore) {
+            return idempotencyKeyDao.deleteCreatedBefore(createdBefore);
+        }
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await();
+        } catch (InterruptedException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,179 @@
+package com.github.fertkir.moneytransfer.service.impl.sharded;
+
+import com.github.fertkir.moneytransfer.dao.AccountDao;
+import com.github.fertkir.moneytransfer.dao.LedgerDao;
+import com.github.fertkir.moneytransfer.entity.Account;
+import com.github.fertkir.moneytransfer.entity.TransferResult;
+import com.github.fertkir.moneytransfer.persistence.PersistenceException;
+import com.github.fertkir.moneytransfer.persistence.TransactionTemplate;
+import com.github.fertkir.moneytransfer.service.exception.AccountingException;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.Mockito;
+import org.mockito.junit.MockitoJUnitRunner;
+import org.mockito.stubbing.Answer;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.Supplier;
+
+import static java.util.Arrays.asList;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.catchThrowable;
+import static org.mockito.Mockito.*;
+
+@RunWith(MockitoJUnitRunner.class)
+public class ShardedAccountServiceTest {
+
+    private static final int SHARDS = 4;
+
+    @Mock
+    private AccountDao accountDao;
+    @Mock
+    private LedgerDao ledgerDao;
+    @Mock
+    private TransactionTemplate transactionTemplate;
+
+    private ShardedAccountService accountService;
+
+    @Before
+    public void setUp() {
+        when(transactionTemplate.execute(Mockito.<Supplier>any())).thenAnswer((Answer) invocation -> {
+            Supplier arg = (Supplier) invocation.getArguments()[0];
+            return arg.get();
+        });
+        when(accountDao.findAll()).thenReturn(asList(account(1, 100), account(2, 200)));
+        accountService = new ShardedAccountService(accountDao, ledgerDao, transactionTemplate, SHARDS, 10);
+    }
+
+    @Test
+    public void shouldLoadAccountsOnStartup() {
+        assertThat(accountService.list()).containsExactly(account(1, 100), account(2, 200));
+        assertThat(accountService.getById(2)).isEqualTo(account(2, 200));
+    }
+
+    @Test
+    public void shouldCreateNewAccountInDatabase() {
+        // given
+        when(accountDao.save(Account.builder().balance(0L).build())).thenReturn(account(3, 0));
+
+        // when
+        Account account = accountService.createNew();
+
+        // then
+        assertThat(account).isEqualTo(account(3, 0));
+        assertThat(accountService.getById(3)).isEqualTo(account(3, 0));
+    }
+
+    @Test
+    public void shouldTopUpWithdrawAndTransfer() {
+        assertThat(accountService.topUp(1, 50L)).isEqualTo(account(1, 150));
+        assertThat(accountService.withdraw(1, 30L)).isEqualTo(account(1, 120));
+        assertThat(accountService.transfer(1, 2, 20L)).isEqualTo(TransferResult.builder()
+                .source(account(1, 100))
+                .target(account(2, 220))
+                .build());
+    }
+
+    @Test
+    public void shouldPersistChangedBalancesAsynchronously() {
+        // when
+        accountService.transfer(2, 1, 200L);
+
+        // then
+        verify(accountDao, timeout(1000)).save(account(1, 300));
+        verify(accountDao, timeout(1000)).save(account(2, 0));
+    }
+
+    @Test
+    public void shouldWriteChangesAgainIfWritingThemFailed() {
+        // given
+        doThrow(new PersistenceException("Database is down")).doNothing().when(ledgerDao).insertAll(any());
+
+        // when
+        accountService.topUp(1, 50L);
+
+        // then
+        verify(ledgerDao, timeout(1000).times(2)).insertAll(argThat(entries -> entries.size() == 1));
+        verify(accountDao, timeout(1000).times(2)).save(account(1, 150));
+    }
+
+    @Test
+    public void shouldKeepAccountingExceptionSemantics() {
+        assertThat(catchThrowable(() -> accountService.getById(5)))
+                .isInstanceOf(AccountingException.class)
+                .hasMessage("Account id \"5\" does not exist");
+        assertThat(catchThrowable(() -> accountService.topUp(1, -1L)))
+                .isInstanceOf(AccountingException.class)
+                .hasMessage("Amount must be positive, but given -0.01");
+        assertThat(catchThrowable(() -> accountService.withdraw(1, 101L)))
+                .isInstanceOf(AccountingException.class)
+                .hasMessage("Cannot withdraw 1.01. Not enough money");
+        assertThat(catchThrowable(() -> accountService.transfer(1, 1, 1L)))
+                .isInstanceOf(AccountingException.class)
+                .hasMessage("Source and destination accounts must be different");
+        assertThat(catchThrowable(() -> accountService.transfer(1, 5, 1L)))
+                .isInstanceOf(AccountingException.class)
+                .hasMessage("Account id \"5\" does not exist");
+        assertThat(catchThrowable(() -> accountService.transfer(1, 2, 101L)))
+                .isInstanceOf(AccountingException.class)
+                .hasMessage("Cannot transfer 1.01. Not enough money");
+        assertThat(accountService.list()).containsExactly(account(1, 100), account(2, 200));
+    }
+
+    @Test
+    public void shouldRejectCrossShardTransferOverflowingTargetBeforeDebitingSource() {
+        // given
+        accountService.topUp(2, Long.MAX_VALUE - 250);
+
+        // when
+        Throwable thrown = catchThrowable(() -> accountService.transfer(1, 2, 51L));
+
+        // then
+        assertThat(thrown)
+                .isInstanceOf(AccountingException.class)
+                .hasMessage("Cannot transfer 0.51. Balance would be too large");
+        assertThat(accountService.getById(1)).isEqualTo(account(1, 100));
+        assertThat(accountService.transfer(1, 2, 50L).getTarget()).isEqualTo(account(2, Long.MAX_VALUE));
+        verify(ledgerDao, timeout(1000)).insertAll(argThat(entries -> entries.size() == 1
+                && entries.get(0).getAccountId() == 1 && entries.get(0).getAmount() == -50L));
+        verify(ledgerDao, never()).insertAll(argThat(entries -> entries.stream()
+                .anyMatch(entry -> entry.getAccountId() == 1 && entry.getAmount() == -51L)));
+    }
+
+    @Test
+    public void shouldConserveMoneyUnderConcurrentCrossShardTransfers() throws Exception {
+        // given
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        List<Future<?>> futures = new ArrayList<>();
+
+        // when
+        for (int i = 0; i < 2000; i++) {
+            long from = i % 2 == 0 ? 1 : 2;
+            long to = 3 - from;
+            futures.add(executor.submit(() -> catchThrowable(() -> accountService.transfer(from, to, 1L))));
+        }
+        for (Future<?> future : futures) {
+            future.get();
+        }
+        executor.shutdown();
+
+        // then
+        long total = accountService.list().stream()
+                .mapToLong(Account::getBalance)
+                .sum();
+        assertThat(total).isEqualTo(300L);
+    }
+
+    private static Account account(long id, long balance) {
+        return Account.builder()
+                .id(id)
+                .balance(balance)
+                .build();
+    }
+}
@@ -3,6 +3,8 @@ package com.github.fertkir.moneytransfer.servlet;
 import com.github.fertkir.moneytransfer.ApplicationMain;
 import com.google.inject.Injector;
 import io.restassured.RestAssured;
+import io.restassured.http.ContentType;
+import io.restassured.response.Response;
 import org.h2.tools.RunScript;
 import org.junit.AfterClass;
 import org.junit.BeforeClass;
@@ -14,11 +16,20 @@ import javax.sql.DataSource;
 import java.io.InputStreamReader;
 import java.sql.Connection;
 import java.sql.SQLException;
+import java.util.List;
+import java.util.UUID;
 
 import static io.restassured.RestAssured.*;
+import static io.restassured.config.EncoderConfig.encoderConfig;
 import static java.lang.String.format;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.hamcrest.CoreMatchers.containsString;
 import static org.hamcrest.CoreMatchers.equalTo;
 import static org.hamcrest.Matchers.empty;
+import static org.hamcrest.Matchers.hasSize;
+import static org.hamcrest.Matchers.not;
+import static org.hamcrest.Matchers.notNullValue;
+import static org.junit.Assume.assumeNotNull;
 
 @FixMethodOrder(MethodSorters.NAME_ASCENDING)
 public class AccountsIntegrationTest {
@@ -82,9 +93,11 @@ public class AccountsIntegrationTest {
 
     @Test
     public void _05_shouldTopUpFirstAccount() {
-        put(format("/accounts/topup?accountId=%d&amount=1000", ID_1))
-                .then()
+        Response response = put(format("/accounts/topup?accountId=%d&amount=1000", ID_1));
+        response.then()
                 .statusCode(200)
+                .contentType(ContentType.JSON)
+                .header("Content-Length", Integer.toString(response.asByteArray().length))
                 .assertThat()
                 .body("id", equalTo(ID_1))
                 .body("balance", equalTo(1000));
@@ -142,6 +155,274 @@ public class AccountsIntegrationTest {
                 .body("message", equalTo("Cannot withdraw 201. Not enough money"));
     }
 
+    @Test
+    public void _11_shouldApplyBestEffortBatchSkippingFailedTransfers() {
+        given()
+                .body(format("[{\"from\": %d, \"to\": %d, \"amount\": 100}, " +
+                        "{\"from\": %d, \"to\": %d, \"amount\": 10000}]", ID_1, ID_2, ID_2, ID_1))
+                .post("/accounts/transfer/batch?mode=best-effort")
+                .then()
+                .statusCode(200)
+                .assertThat()
+                .body("committed", equalTo(true))
+                .body("items[0].status", equalTo("APPLIED"))
+                .body("items[0].result.source.balance", equalTo(600))
+                .body("items[0].result.target.balance", equalTo(300))
+                .body("items[1].status", equalTo("FAILED"))
+                .body("items[1].message", equalTo("Cannot transfer 10000. Not enough money"));
+    }
+
+    @Test
+    public void _12_shouldRejectWholeAtomicBatchIfAnyTransferFails() {
+        given()
+                .config(config().encoderConfig(encoderConfig().encodeContentTypeAs("application/x-ndjson", ContentType.TEXT)))
+                .contentType("application/x-ndjson")
+                .body(format("{\"from\": %d, \"to\": %d, \"amount\": 100}\n" +
+                        "{\"from\": %d, \"to\": %d, \"amount\": 1000}\n", ID_1, ID_2, ID_2, ID_1))
+                .post("/accounts/transfer/batch")
+                .then()
+                .statusCode(409)
+                .assertThat()
+                .body("committed", equalTo(false))
+                .body("items[0].status", equalTo("NOT_APPLIED"))
+                .body("items[1].status", equalTo("FAILED"));
+
+        get(format("/accounts?accountId=%d", ID_1))
+                .then()
+                .assertThat()
+                .body("balance", equalTo(600));
+    }
+
+    @Test
+    public void _13_shouldReturnAccountsPageByPage() {
+        get("/accounts?limit=1")
+                .then()
+                .statusCode(200)
+                .assertThat()
+                .body("", hasSize(1))
+                .body("[0].id", equalTo(ID_1));
+
+        get(format("/accounts?afterId=%d&limit=1", ID_1))
+                .then()
+                .statusCode(200)
+                .assertThat()
+                .body("", hasSize(1))
+                .body("[0].id", equalTo(ID_2));
+
+        get(format("/accounts?afterId=%d", ID_2))
+                .then()
+                .statusCode(200)
+                .assertThat()
+                .body("", empty());
+    }
+
+    @Test
+    public void _14_shouldNotReturnUnchangedAccount() {
+        String eTag = get(format("/accounts?accountId=%d", ID_1))
+                .then()
+                .statusCode(200)
+                .extract().header("ETag");
+        assumeNotNull(eTag); // the sharded engine doesn't track versions
+
+        given()
+                .header("If-None-Match", eTag)
+                .get(format("/accounts?accountId=%d", ID_1))
+                .then()
+                .statusCode(304);
+
+        put(format("/accounts/topup?accountId=%d&amount=1", ID_1));
+        given()
+                .header("If-None-Match", eTag)
+                .get(format("/accounts?accountId=%d", ID_1))
+                .then()
+                .statusCode(200)
+                .header("ETag", not(equalTo(eTag)));
+    }
+
+    @Test
+    public void _15_shouldReturnAccountHistoryPageByPage() {
+        Integer secondSeq = get(format("/accounts/history?accountId=%d&limit=2", ID_1))
+                .then()
+                .statusCode(200)
+                .assertThat()
+                .body("", hasSize(2))
+                .body("[0].type", equalTo("TOP_UP"))
+                .body("[0].amount", equalTo(1000))
+                .body("[0].balance", equalTo(1000))
+                .body("[1].type", equalTo("WITHDRAWAL"))
+                .body("[1].amount", equalTo(-100))
+                .body("[1].balance", equalTo(900))
+                .extract().path("[1].seq");
+
+        get(format("/accounts/history?accountId=%d&afterSeq=%d&limit=2", ID_1, secondSeq))
+                .then()
+                .statusCode(200)
+                .assertThat()
+                .body("", hasSize(2))
+                .body("[0].type", equalTo("TRANSFER"))
+                .body("[0].amount", equalTo(-200))
+                .body("[0].counterpartyId", equalTo(ID_2))
+                .body("[1].type", equalTo("TRANSFER"))
+                .body("[1].amount", equalTo(-100))
+                .body("[1].balance", equalTo(600));
+
+        get(format("/accounts/history?accountId=%d&from=%d", ID_1, System.currentTimeMillis() + 60_000))
+                .then()
+                .statusCode(200)
+                .assertThat()
+                .body("", empty());
+    }
+
+    @Test
+    public void _16_shouldTopUpOnlyOncePerIdempotencyKey() {
+        String key = UUID.randomUUID().toString();
+        for (int i = 0; i < 2; i++) {
+            given()
+                    .header("Idempotency-Key", key)
+                    .put(format("/accounts/topup?accountId=%d&amount=50", ID_2))
+                    .then()
+                    .statusCode(200)
+                    .assertThat()
+                    .body("balance", equalTo(350));
+        }
+
+        given()
+                .header("Idempotency-Key", key)
+                .put(format("/accounts/topup?accountId=%d&amount=60", ID_2))
+                .then()
+                .statusCode(409);
+    }
+
+    @Test
+    public void _17_shouldExposeMetricsOfPreviousRequests() {
+        get("/metrics")
+                .then()
+                .statusCode(200)
+                .assertThat()
+                .contentType(containsString("text/plain"))
+                .body(containsString("moneytransfer_request_duration_seconds_count{endpoint=\"/accounts/topup\",method=\"PUT\"}"),
+                        containsString("moneytransfer_responses_total{endpoint=\"/accounts/withdraw\",method=\"PUT\",status=\"4xx\"}"),
+                        containsString("moneytransfer_accounting_exceptions_total{endpoint=\"/accounts/withdraw\"}"),
+                        containsString("moneytransfer_stage_duration_seconds_bucket{stage=\"connection\",le=\"+Inf\"}"),
+                        containsString("moneytransfer_pool_connections{state=\"active\"}"),
+                        containsString("moneytransfer_request_executor_rejected_total"),
+                        containsString("moneytransfer_jetty_queued_jobs"));
+    }
+
+    @Test
+    public void _18_shouldCreateAccountsInBulk() {
+        List<Integer> ids = post("/accounts/bulk?count=3")
+                .then()
+                .statusCode(201)
+                .assertThat()
+                .contentType(ContentType.JSON)
+                .body("", hasSize(3))
+                .extract().path("");
+
+        assertThat(ids).isSorted().doesNotHaveDuplicates().doesNotContain(ID_1, ID_2);
+        for (Integer id : ids) {
+            get(format("/accounts?accountId=%d", id))
+                    .then()
+                    .statusCode(200)
+                    .assertThat()
+                    .body("balance", equalTo(0));
+        }
+
+        post("/accounts/bulk?count=0")
+                .then()
+                .statusCode(409)
+                .assertThat()
+                .body("message", equalTo("Count must be between 1 and 1000000, but given 0"));
+    }
+
+    @Test
+    public void _19_shouldTellStalenessOfReadAccounts() {
+        get(format("/accounts?accountId=%d&consistency=strong", ID_1))
+                .then()
+                .statusCode(200)
+                .header("X-Staleness-Millis", "0");
+
+        get("/accounts?afterId=0&consistency=bounded")
+                .then()
+                .statusCode(200)
+                .header("X-Staleness-Millis", notNullValue());
+
+        get(format("/accounts?accountId=%d&consistency=eventual", ID_1))
+                .then()
+                .statusCode(409)
+                .assertThat()
+                .body("message", equalTo("Unknown consistency \"eventual\", expected bounded or strong"));
+    }
+
+    @Test
+    public void _20_shouldReconcileAccountsOnRequest() throws InterruptedException {
+        post("/admin/reconciliation")
+                .then()
+                .statusCode(202);
+
+        Boolean running = true;
+        for (int i = 0; i < 100 && running; i++) {
+            Thread.sleep(10);
+            running = get("/admin/reconciliation").then().extract().path("running");
+        }
+        get("/admin/reconciliation")
+                .then()
+                .statusCode(200)
+                .assertThat()
+                .contentType(ContentType.JSON)
+                .body("running", equalTo(false))
+                .body("lastReport.consistent", equalTo(true))
+                .body("lastReport.discrepancies", empty());
+    }
+
+    @Test
+    public void _21_shouldHoldMoneyUntilCapturedOrReleased() {
+        Integer accountId = post("/accounts").then().extract().path("id");
+        put(format("/accounts/topup?accountId=%d&amount=100", accountId));
+
+        Integer captured = post(format("/accounts/holds?accountId=%d&amount=60&ttlMillis=60000", accountId))
+                .then()
+                .statusCode(201)
+                .assertThat()
+                .contentType(ContentType.JSON)
+                .body("accountId", equalTo(accountId))
+                .body("amount", equalTo(60))
+                .extract().path("id");
+        get(format("/accounts?accountId=%d", accountId))
+                .then()
+                .assertThat()
+                .body("balance", equalTo(100))
+                .body("available", equalTo(40));
+        put(format("/accounts/withdraw?accountId=%d&amount=50", accountId))
+                .then()
+                .statusCode(409)
+                .assertThat()
+                .body("message", equalTo("Cannot withdraw 50. Not enough money"));
+
+        put(format("/accounts/holds/capture?holdId=%d&amount=25", captured))
+                .then()
+                .statusCode(200)
+                .assertThat()
+                .body("balance", equalTo(75))
+                .body("available", equalTo(75));
+        put(format("/accounts/holds/release?holdId=%d", captured))
+                .then()
+                .statusCode(409)
+                .assertThat()
+                .body("message", equalTo(format("Hold id \"%d\" does not exist", captured)));
+
+        Integer released = post(format("/accounts/holds?accountId=%d&amount=75&ttlMillis=60000", accountId))
+                .then()
+                .statusCode(201)
+                .extract().path("id");
+        put(format("/accounts/holds/release?holdId=%d", released))
+                .then()
+                .statusCode(200)
+                .assertThat()
+                .body("balance", equalTo(75))
+                .body("available", equalTo(75));
+    }
+
     private static void cleanDatabase() throws SQLException {
         DataSource dataSource = injector.getInstance(DataSource.class);
         try (Connection connection = dataSource.getConnection()) {
@@ -0,0 +1,73 @@
+package com.github.fertkir.moneytransfer.servlet;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.github.fertkir.moneytransfer.entity.Account;
+import com.github.fertkir.moneytransfer.readmodel.BalanceView;
+import com.github.fertkir.moneytransfer.service.AccountService;
+import org.junit.Test;
+
+import javax.servlet.ServletOutputStream;
+import javax.servlet.WriteListener;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.function.Consumer;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.catchThrowable;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class AccountsServletTest {
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private final AccountService accountService = mock(AccountService.class);
+    private final AccountsServlet servlet = new AccountsServlet(accountService, objectMapper, 100, 1000,
+            new JsonResponseWriter(objectMapper, new RequestStatistics()), mock(AsyncRequests.class),
+            mock(BalanceView.class));
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void shouldLeaveExportUnterminatedWhenReadingAccountsFails() throws IOException {
+        // given
+        doAnswer(invocation -> {
+            Consumer<Account> consumer = invocation.getArgument(0);
+            consumer.accept(Account.builder().id(1L).balance(100).build());
+            throw new IllegalStateException("connection lost");
+        }).when(accountService).exportAll(any(Consumer.class));
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+
+        // when
+        Throwable thrown = catchThrowable(() -> servlet.doGet(mock(HttpServletRequest.class), response(body)));
+
+        // then
+        assertThat(thrown).isInstanceOf(IllegalStateException.class);
+        assertThat(body.toString("UTF-8")).startsWith("[{\"id\":1");
+        assertThat(catchThrowable(() -> objectMapper.readTree(body.toByteArray())))
+                .isInstanceOf(JsonProcessingException.class);
+    }
+
+    private static HttpServletResponse response(ByteArrayOutputStream body) throws IOException {
+        HttpServletResponse response = mock(HttpServletResponse.class);
+        when(response.getOutputStream()).thenReturn(new ServletOutputStream() {
+            @Override
+            public boolean isReady() {
+                return true;
+            }
+
+            @Override
+            public void setWriteListener(WriteListener writeListener) {
+            }
+
+            @Override
+            public void write(int b) {
+                body.write(b);
+            }
+        });
+        return response;
+    }
+}
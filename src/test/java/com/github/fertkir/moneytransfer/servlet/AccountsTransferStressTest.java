@@ -0,0 +1,100 @@
+package com.github.fertkir.moneytransfer.servlet;
+
+import com.github.fertkir.moneytransfer.ApplicationMain;
+import com.google.inject.Injector;
+import io.restassured.RestAssured;
+import org.h2.tools.RunScript;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import javax.sql.DataSource;
+import java.io.InputStreamReader;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static io.restassured.RestAssured.get;
+import static io.restassured.RestAssured.post;
+import static io.restassured.RestAssured.put;
+import static java.lang.String.format;
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Opposite transfers between the same two accounts are the classic deadlock: every request must still succeed.
+ */
+public class AccountsTransferStressTest {
+
+    private static final int THREADS = 32;
+    private static final int ITERATIONS = 50;
+    private static final int INITIAL_BALANCE = 10000;
+
+    private static final Injector injector = ApplicationMain.getInjector();
+
+    @BeforeClass
+    public static void setUp() throws Exception {
+        RestAssured.baseURI = "http://localhost";
+        RestAssured.port = 8080;
+        ApplicationMain.run();
+    }
+
+    @AfterClass
+    public static void tearDown() throws Exception {
+        DataSource dataSource = injector.getInstance(DataSource.class);
+        try (Connection connection = dataSource.getConnection()) {
+            RunScript.execute(connection, new InputStreamReader(AccountsTransferStressTest.class.getClassLoader()
+                    .getResourceAsStream("clean.sql")));
+        }
+        ApplicationMain.stopJetty();
+    }
+
+    @Test
+    public void oppositeTransfersShouldNotFail() throws Exception {
+        // given
+        int accountA = createAccount();
+        int accountB = createAccount();
+        ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+        CountDownLatch start = new CountDownLatch(1);
+        List<Future<List<Integer>>> futures = new ArrayList<>();
+
+        // when
+        for (int i = 0; i < THREADS; i++) {
+            int from = i % 2 == 0 ? accountA : accountB;
+            int to = i % 2 == 0 ? accountB : accountA;
+            futures.add(executor.submit(() -> {
+                start.await();
+                List<Integer> statusCodes = new ArrayList<>();
+                for (int j = 0; j < ITERATIONS; j++) {
+                    statusCodes.add(put(format("/accounts/transfer?from=%d&to=%d&amount=1", from, to))
+                            .statusCode());
+                }
+                return statusCodes;
+            }));
+        }
+        start.countDown();
+        List<Integer> statusCodes = new ArrayList<>();
+        for (Future<List<Integer>> future : futures) {
+            statusCodes.addAll(future.get());
+        }
+        executor.shutdown();
+
+        // then
+        assertThat(statusCodes).hasSize(THREADS * ITERATIONS).containsOnly(200);
+        assertThat(balance(accountA) + balance(accountB)).isEqualTo(2 * INITIAL_BALANCE);
+    }
+
+    private static int createAccount() {
+        int id = post("/accounts").then().statusCode(201).extract().path("id");
+        put(format("/accounts/topup?accountId=%d&amount=%d", id, INITIAL_BALANCE)).then().statusCode(200);
+        return id;
+    }
+
+    private static int balance(int accountId) {
+        return get(format("/accounts?accountId=%d", accountId)).then().statusCode(200).extract().path("balance");
+    }
+}
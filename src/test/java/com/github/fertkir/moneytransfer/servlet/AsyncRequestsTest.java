@@ -0,0 +1,80 @@
+package com.github.fertkir.moneytransfer.servlet;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.After;
+import org.junit.Test;
+
+import javax.servlet.AsyncContext;
+import javax.servlet.ServletOutputStream;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.util.concurrent.CountDownLatch;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.*;
+
+public class AsyncRequestsTest {
+
+    private final CountDownLatch unblock = new CountDownLatch(1);
+    // one call running and one waiting fill it up
+    private final RequestExecutor executor = new RequestExecutor(1, 1, RequestExecutor.PLATFORM_THREADS);
+    private final AsyncRequests asyncRequests = new AsyncRequests(executor, mock(AccountsExceptionHandler.class),
+            new JsonResponseWriter(new ObjectMapper(), new RequestStatistics()));
+
+    @After
+    public void tearDown() {
+        unblock.countDown();
+    }
+
+    @Test
+    public void shouldAnswerServiceUnavailableWithRetryAfterRightAwayWhenExecutorIsFull() throws IOException {
+        // given
+        asyncRequests.execute(request(), response(), () -> {
+            unblock.await();
+            return null;
+        });
+        asyncRequests.execute(request(), response(), () -> null);
+        HttpServletRequest rejectedRequest = request();
+        HttpServletResponse rejectedResponse = response();
+
+        // when
+        asyncRequests.execute(rejectedRequest, rejectedResponse, () -> {
+            throw new AssertionError("must not be called");
+        });
+
+        // then
+        verify(rejectedResponse).setStatus(HttpServletResponse.SC_SERVICE_UNAVAILABLE);
+        verify(rejectedResponse).setHeader("Retry-After", "1");
+        verify(rejectedResponse).setContentType(AppServletModule.CONTENT_TYPE);
+        assertThat(executor.getRejectedCalls()).isEqualTo(1);
+    }
+
+    @Test
+    public void shouldAnswerInternalServerErrorWhenCallThrowsError() throws IOException {
+        // given
+        HttpServletRequest request = request();
+        HttpServletResponse response = response();
+
+        // when
+        asyncRequests.execute(request, response, () -> {
+            throw new StackOverflowError();
+        });
+
+        // then
+        verify(request.startAsync(), timeout(1000)).complete();
+        verify(response).setStatus(HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
+    }
+
+    private static HttpServletRequest request() {
+        HttpServletRequest request = mock(HttpServletRequest.class);
+        when(request.startAsync()).thenReturn(mock(AsyncContext.class));
+        return request;
+    }
+
+    private static HttpServletResponse response() throws IOException {
+        HttpServletResponse response = mock(HttpServletResponse.class);
+        when(response.getOutputStream()).thenReturn(mock(ServletOutputStream.class));
+        return response;
+    }
+}
@@ -1 +1,5 @@
 TRUNCATE TABLE account;
+TRUNCATE TABLE account_stripe;
+TRUNCATE TABLE ledger_page;
+TRUNCATE TABLE idempotency_key;
+TRUNCATE TABLE account_hold;